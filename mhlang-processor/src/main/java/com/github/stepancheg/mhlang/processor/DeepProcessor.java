@@ -0,0 +1,312 @@
+package com.github.stepancheg.mhlang.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Processor of {@link GenerateDeep}.
+ *
+ * <p>Generated code mirrors the runtime generators of mhlang:
+ *
+ * <ul>
+ *   <li>{@code equals}: same class check, identity shortcut, then {@code ==} for primitive fields
+ *       and null-safe {@code equals} for objects
+ *   <li>{@code hashCode}: {@code r = r * 31 + h} starting with {@code 0}, where {@code h} is
+ *       {@code Integer.hashCode} and alike for primitives and {@code Objects.hashCode} for objects
+ *   <li>{@code toString}: {@code Name{a=1, b=x}} formatted with {@link StringBuilder}, objects
+ *       other than strings are appended as {@link Object}
+ *   <li>{@code compare}: identity shortcut, then lexicographic comparison of fields with {@code
+ *       Integer.compare} and alike for primitives and {@code compareTo} for objects, where {@code
+ *       null} is less than any value
+ * </ul>
+ */
+@SupportedAnnotationTypes("com.github.stepancheg.mhlang.processor.GenerateDeep")
+public class DeepProcessor extends AbstractProcessor {
+
+  private static final String PREFIX = "Deep_";
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (Element element : roundEnv.getElementsAnnotatedWith(GenerateDeep.class)) {
+      if (element.getKind() != ElementKind.CLASS) {
+        error(element, "@GenerateDeep is only applicable to classes");
+        continue;
+      }
+      TypeElement type = (TypeElement) element;
+      if (!accessible(type)) {
+        continue;
+      }
+      try {
+        generate(type, type.getAnnotation(GenerateDeep.class));
+      } catch (IOException e) {
+        error(type, "failed to write generated class: " + e);
+      }
+    }
+    return true;
+  }
+
+  private void error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+
+  /** Check that the class and all enclosing classes are accessible from generated class. */
+  private boolean accessible(TypeElement type) {
+    for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+      if (e.getModifiers().contains(Modifier.PRIVATE)) {
+        String message =
+            e == type
+                ? "class must not be private to be accessible from generated class"
+                : "enclosing class " + e.getSimpleName() + " must not be private";
+        error(type, message);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Non-static declared fields in declaration order, or null if some fields are not supported. */
+  private List<VariableElement> fields(TypeElement type, boolean compare) {
+    TypeMirror comparable =
+        processingEnv
+            .getTypeUtils()
+            .erasure(
+                processingEnv.getElementUtils().getTypeElement("java.lang.Comparable").asType());
+    List<VariableElement> r = new ArrayList<>();
+    boolean ok = true;
+    for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+      if (field.getModifiers().contains(Modifier.STATIC)) {
+        continue;
+      }
+      if (field.getModifiers().contains(Modifier.PRIVATE)) {
+        error(field, "field must not be private to be accessible from generated class");
+        ok = false;
+      }
+      TypeMirror fieldType = field.asType();
+      if (compare
+          && !fieldType.getKind().isPrimitive()
+          && !processingEnv
+              .getTypeUtils()
+              .isAssignable(processingEnv.getTypeUtils().erasure(fieldType), comparable)) {
+        error(field, "field must be primitive or Comparable to generate compare");
+        ok = false;
+      }
+      r.add(field);
+    }
+    return ok ? r : null;
+  }
+
+  /** {@code Deep_Outer_Inner}. */
+  private static String generatedSimpleName(TypeElement type) {
+    List<String> names = new ArrayList<>();
+    for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+      names.add(e.getSimpleName().toString());
+    }
+    Collections.reverse(names);
+    return PREFIX + String.join("_", names);
+  }
+
+  /** Type name to use in generated code, with wildcards for type parameters. */
+  private static String typeName(TypeElement type) {
+    String name = type.getQualifiedName().toString();
+    int n = type.getTypeParameters().size();
+    if (n == 0) {
+      return name;
+    }
+    return name + "<" + String.join(", ", Collections.nCopies(n, "?")) + ">";
+  }
+
+  private static String wrapper(TypeKind kind) {
+    switch (kind) {
+      case BOOLEAN:
+        return "Boolean";
+      case BYTE:
+        return "Byte";
+      case SHORT:
+        return "Short";
+      case CHAR:
+        return "Character";
+      case INT:
+        return "Integer";
+      case LONG:
+        return "Long";
+      case FLOAT:
+        return "Float";
+      case DOUBLE:
+        return "Double";
+      default:
+        throw new IllegalArgumentException("not a primitive: " + kind);
+    }
+  }
+
+  private boolean isStringLike(TypeMirror type) {
+    String name = processingEnv.getTypeUtils().erasure(type).toString();
+    return name.equals("java.lang.String") || name.equals("java.lang.CharSequence");
+  }
+
+  private void generate(TypeElement type, GenerateDeep spec) throws IOException {
+    List<VariableElement> fields = fields(type, spec.withCompare());
+    if (fields == null) {
+      return;
+    }
+
+    PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+    String simpleName = generatedSimpleName(type);
+    String qualifiedName =
+        pkg.isUnnamed() ? simpleName : pkg.getQualifiedName() + "." + simpleName;
+    String t = typeName(type);
+
+    try (PrintWriter w =
+        new PrintWriter(
+            processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter())) {
+      if (!pkg.isUnnamed()) {
+        w.println("package " + pkg.getQualifiedName() + ";");
+        w.println();
+      }
+      w.println("/** Generated by {@code " + DeepProcessor.class.getName() + "}. */");
+      w.println(
+          "@javax.annotation.processing.Generated(\"" + DeepProcessor.class.getName() + "\")");
+      w.println("final class " + simpleName + " {");
+      w.println();
+      w.println("  private " + simpleName + "() {}");
+
+      if (spec.withEqualsHashCode()) {
+        generateEquals(w, type, t, fields);
+        generateHashCode(w, t, fields);
+      }
+      if (spec.withToString()) {
+        generateToString(w, type, t, fields);
+      }
+      if (spec.withCompare()) {
+        generateCompare(w, t, fields);
+      }
+
+      w.println("}");
+    }
+  }
+
+  private void generateEquals(
+      PrintWriter w, TypeElement type, String t, List<VariableElement> fields) {
+    w.println();
+    w.println("  static boolean equals(" + t + " thiz, Object that) {");
+    w.println(
+        "    if (that == null || that.getClass() != " + type.getQualifiedName() + ".class) {");
+    w.println("      return false;");
+    w.println("    }");
+    w.println("    if (thiz == that) {");
+    w.println("      return true;");
+    w.println("    }");
+    w.println("    " + t + " other = (" + t + ") that;");
+    for (VariableElement field : fields) {
+      String name = field.getSimpleName().toString();
+      if (field.asType().getKind().isPrimitive()) {
+        w.println("    if (thiz." + name + " != other." + name + ") {");
+      } else {
+        w.println("    if (!java.util.Objects.equals(thiz." + name + ", other." + name + ")) {");
+      }
+      w.println("      return false;");
+      w.println("    }");
+    }
+    w.println("    return true;");
+    w.println("  }");
+  }
+
+  private void generateHashCode(PrintWriter w, String t, List<VariableElement> fields) {
+    w.println();
+    w.println("  static int hashCode(" + t + " thiz) {");
+    w.println("    int r = 0;");
+    for (VariableElement field : fields) {
+      String value = "thiz." + field.getSimpleName();
+      TypeKind kind = field.asType().getKind();
+      String hash =
+          kind.isPrimitive()
+              ? wrapper(kind) + ".hashCode(" + value + ")"
+              : "java.util.Objects.hashCode(" + value + ")";
+      w.println("    r = r * 31 + " + hash + ";");
+    }
+    w.println("    return r;");
+    w.println("  }");
+  }
+
+  private void generateToString(
+      PrintWriter w, TypeElement type, String t, List<VariableElement> fields) {
+    w.println();
+    w.println("  static String toString(" + t + " thiz) {");
+    w.println(
+        "    StringBuilder sb = new StringBuilder(\"" + type.getSimpleName() + "{\");");
+    for (int i = 0; i != fields.size(); ++i) {
+      VariableElement field = fields.get(i);
+      String comma = i != 0 ? ", " : "";
+      w.println("    sb.append(\"" + comma + field.getSimpleName() + "=\");");
+      String value = "thiz." + field.getSimpleName();
+      TypeMirror fieldType = field.asType();
+      if (fieldType.getKind().isPrimitive() || isStringLike(fieldType)) {
+        w.println("    sb.append(" + value + ");");
+      } else {
+        // e. g. char[] must not be appended as characters
+        w.println("    sb.append((Object) " + value + ");");
+      }
+    }
+    w.println("    sb.append(\"}\");");
+    w.println("    return sb.toString();");
+    w.println("  }");
+  }
+
+  private void generateCompare(PrintWriter w, String t, List<VariableElement> fields) {
+    w.println();
+    w.println("  static int compare(" + t + " thiz, " + t + " that) {");
+    w.println("    if (thiz == that) {");
+    w.println("      return 0;");
+    w.println("    }");
+    w.println("    int c;");
+    for (VariableElement field : fields) {
+      String name = field.getSimpleName().toString();
+      TypeKind kind = field.asType().getKind();
+      String compare =
+          kind.isPrimitive()
+              ? wrapper(kind) + ".compare(thiz." + name + ", that." + name + ")"
+              : "compareObjects(thiz." + name + ", that." + name + ")";
+      w.println("    c = " + compare + ";");
+      w.println("    if (c != 0) {");
+      w.println("      return c;");
+      w.println("    }");
+    }
+    w.println("    return 0;");
+    w.println("  }");
+    w.println();
+    w.println("  @SuppressWarnings({\"rawtypes\", \"unchecked\"})");
+    w.println("  private static int compareObjects(Comparable a, Comparable b) {");
+    w.println("    if (a == b) {");
+    w.println("      return 0;");
+    w.println("    } else if (a == null) {");
+    w.println("      return -1;");
+    w.println("    } else if (b == null) {");
+    w.println("      return 1;");
+    w.println("    } else {");
+    w.println("      return a.compareTo(b);");
+    w.println("    }");
+    w.println("  }");
+  }
+}
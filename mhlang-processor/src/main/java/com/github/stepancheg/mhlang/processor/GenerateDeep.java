@@ -0,0 +1,43 @@
+package com.github.stepancheg.mhlang.processor;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generate a class {@code Deep_<Name>} with static {@code equals}, {@code hashCode}, {@code
+ * toString} and {@code compare} methods for the annotated class.
+ *
+ * <p>Generated methods have the same semantics as {@code DeepEqualsHashCode}, {@code
+ * DeepToString} and {@code DeepCompare} of mhlang: all non-static declared fields are visited in
+ * declaration order. Generated class is placed into the same package, so fields must not be
+ * private.
+ *
+ * <pre>
+ * &#64;GenerateDeep(withCompare = true)
+ * class Point implements Comparable&lt;Point&gt; {
+ *   int x;
+ *   int y;
+ *
+ *   &#64;Override
+ *   public boolean equals(Object that) {
+ *     return Deep_Point.equals(this, that);
+ *   }
+ *   ...
+ * }
+ * </pre>
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface GenerateDeep {
+
+  /** Generate {@code equals} and {@code hashCode}. */
+  boolean withEqualsHashCode() default true;
+
+  /** Generate {@code toString}. */
+  boolean withToString() default true;
+
+  /** Generate {@code compare}. All fields must be primitive or {@link Comparable}. */
+  boolean withCompare() default false;
+}
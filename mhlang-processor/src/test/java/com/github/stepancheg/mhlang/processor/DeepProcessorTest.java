@@ -0,0 +1,191 @@
+package com.github.stepancheg.mhlang.processor;
+
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class DeepProcessorTest {
+
+  private static Sample sample() {
+    Sample s = new Sample();
+    s.i = 1;
+    s.l = 2;
+    s.d = 3.5;
+    s.b = true;
+    s.by = 4;
+    s.c = 'x';
+    s.s = "str";
+    s.cs = "cs";
+    s.boxed = 5;
+    s.chars = null;
+    s.o = null;
+    return s;
+  }
+
+  @Test
+  public void equalsHashCode() {
+    Sample a = sample();
+    Sample b = sample();
+    assertEquals(a, b);
+    assertEquals(a, a);
+    assertNotEquals(a, null);
+    assertNotEquals(a, "str");
+
+    b.s = "other";
+    assertNotEquals(a, b);
+
+    // primitive fields are compared with ==
+    a = sample();
+    b = sample();
+    a.d = Double.NaN;
+    b.d = Double.NaN;
+    assertNotEquals(a, b);
+    assertEquals(a, a);
+  }
+
+  @Test
+  public void hashCodeRecurrence() {
+    Sample s = sample();
+    int r = 0;
+    r = r * 31 + Integer.hashCode(s.i);
+    r = r * 31 + Long.hashCode(s.l);
+    r = r * 31 + Double.hashCode(s.d);
+    r = r * 31 + Boolean.hashCode(s.b);
+    r = r * 31 + Byte.hashCode(s.by);
+    r = r * 31 + Character.hashCode(s.c);
+    r = r * 31 + s.s.hashCode();
+    r = r * 31 + s.cs.hashCode();
+    r = r * 31 + s.boxed.hashCode();
+    r = r * 31;
+    r = r * 31;
+    assertEquals(r, s.hashCode());
+  }
+
+  @Test
+  public void toStringFormat() {
+    Sample s = sample();
+    assertEquals(
+        "Sample{i=1, l=2, d=3.5, b=true, by=4, c=x, s=str, cs=cs, boxed=5, chars=null, o=null}",
+        s.toString());
+    s.chars = new char[] {'a'};
+    assertTrue(s.toString(), s.toString().contains("chars=[C@"));
+  }
+
+  @Test
+  public void compare() {
+    List<Ordered> list =
+        Arrays.asList(
+            new Ordered(2, "a", 0),
+            new Ordered(1, "b", 0),
+            new Ordered(1, null, 1),
+            new Ordered(1, "b", -1),
+            new Ordered(1, "a", 0));
+    Collections.sort(list);
+    assertEquals(
+        "1 null 1.0, 1 a 0.0, 1 b -1.0, 1 b 0.0, 2 a 0.0",
+        list.stream().map(o -> o.a + " " + o.b + " " + o.c).collect(Collectors.joining(", ")));
+  }
+
+  @Test
+  public void nestedGeneric() {
+    assertEquals("Box{value=1}", Deep_Ordered_Box.toString(new Ordered.Box<>(1)));
+    assertTrue(Deep_Ordered_Box.equals(new Ordered.Box<>("a"), new Ordered.Box<>("a")));
+  }
+
+  private static List<Diagnostic<? extends JavaFileObject>> compile(String source)
+      throws Exception {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    JavaFileObject file =
+        new SimpleJavaFileObject(URI.create("string:///p/Bad.java"), JavaFileObject.Kind.SOURCE) {
+          @Override
+          public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+          }
+        };
+    Path out = Files.createTempDirectory("deep");
+    JavaCompiler.CompilationTask task =
+        compiler.getTask(
+            null,
+            null,
+            diagnostics,
+            Arrays.asList(
+                "-d", out.toString(), "-classpath", System.getProperty("java.class.path")),
+            null,
+            Collections.singletonList(file));
+    task.setProcessors(Collections.singletonList(new DeepProcessor()));
+    task.call();
+    return diagnostics.getDiagnostics();
+  }
+
+  private static String errors(List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+    return diagnostics.stream()
+        .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+        .map(d -> d.getMessage(null))
+        .collect(Collectors.joining("\n"));
+  }
+
+  @Test
+  public void privateField() throws Exception {
+    String errors =
+        errors(
+            compile(
+                "package p;\n"
+                    + "@com.github.stepancheg.mhlang.processor.GenerateDeep\n"
+                    + "class Bad { private int x; }\n"));
+    assertTrue(errors, errors.contains("must not be private"));
+  }
+
+  @Test
+  public void privateClass() throws Exception {
+    String errors =
+        errors(
+            compile(
+                "package p;\n"
+                    + "class Bad {\n"
+                    + "  @com.github.stepancheg.mhlang.processor.GenerateDeep\n"
+                    + "  private static class Inner { int x; }\n"
+                    + "}\n"));
+    assertTrue(errors, errors.contains("class must not be private"));
+  }
+
+  @Test
+  public void privateEnclosingClass() throws Exception {
+    String errors =
+        errors(
+            compile(
+                "package p;\n"
+                    + "class Bad {\n"
+                    + "  private static class Outer {\n"
+                    + "    @com.github.stepancheg.mhlang.processor.GenerateDeep\n"
+                    + "    static class Inner { int x; }\n"
+                    + "  }\n"
+                    + "}\n"));
+    assertTrue(errors, errors.contains("enclosing class Outer must not be private"));
+  }
+
+  @Test
+  public void notComparable() throws Exception {
+    String errors =
+        errors(
+            compile(
+                "package p;\n"
+                    + "@com.github.stepancheg.mhlang.processor.GenerateDeep(withCompare = true)\n"
+                    + "class Bad { Object x; }\n"));
+    assertTrue(errors, errors.contains("must be primitive or Comparable"));
+  }
+}
@@ -0,0 +1,29 @@
+package com.github.stepancheg.mhlang.processor;
+
+@GenerateDeep(withEqualsHashCode = false, withToString = false, withCompare = true)
+class Ordered implements Comparable<Ordered> {
+  int a;
+  String b;
+  double c;
+
+  Ordered(int a, String b, double c) {
+    this.a = a;
+    this.b = b;
+    this.c = c;
+  }
+
+  @Override
+  public int compareTo(Ordered that) {
+    return Deep_Ordered.compare(this, that);
+  }
+
+  /** Nested generic class. */
+  @GenerateDeep
+  static class Box<T> {
+    T value;
+
+    Box(T value) {
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package com.github.stepancheg.mhlang.processor;
+
+@GenerateDeep
+class Sample {
+  static int ignored;
+
+  int i;
+  long l;
+  double d;
+  boolean b;
+  byte by;
+  char c;
+  String s;
+  CharSequence cs;
+  Integer boxed;
+  char[] chars;
+  Object o;
+
+  @Override
+  public boolean equals(Object that) {
+    return Deep_Sample.equals(this, that);
+  }
+
+  @Override
+  public int hashCode() {
+    return Deep_Sample.hashCode(this);
+  }
+
+  @Override
+  public String toString() {
+    return Deep_Sample.toString(this);
+  }
+}
@@ -0,0 +1,133 @@
+package com.github.stepancheg.mhlang;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/** Runtime of asynchronous combinators like {@link Closure#thenApply}. */
+class Async {
+
+  /** {@code (Object, Object[]) -> Object}. */
+  static final MethodType CONTINUATION_TYPE =
+      MethodType.methodType(Object.class, Object.class, Object[].class);
+
+  private static Object invoke(MethodHandle continuation, Object value, Object[] args) {
+    try {
+      return continuation.invokeExact(value, args);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  /** Evaluate interpreted continuation. */
+  static Object eval(Eval eval, Object[] args) {
+    try {
+      return eval.eval(args);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  private static CompletableFuture<?> thenApply(
+      MethodHandle continuation, CompletableFuture<?> future, Object[] args) {
+    return future.thenApply(v -> invoke(continuation, v, args));
+  }
+
+  private static CompletableFuture<?> thenCompose(
+      MethodHandle continuation, CompletableFuture<?> future, Object[] args) {
+    return future.thenCompose(v -> (CompletableFuture<?>) invoke(continuation, v, args));
+  }
+
+  private static CompletableFuture<?> supplyAsync(
+      MethodHandle body, Executor executor, Object[] args) {
+    return CompletableFuture.supplyAsync(() -> invoke(body, null, args), executor);
+  }
+
+  private static CompletableFuture<List<Object>> allOf(CompletableFuture<?>[] futures) {
+    return CompletableFuture.allOf(futures)
+        .thenApply(
+            v -> {
+              ArrayList<Object> r = new ArrayList<>(futures.length);
+              for (CompletableFuture<?> future : futures) {
+                r.add(future.join());
+              }
+              return r;
+            });
+  }
+
+  static final MethodHandle THEN_APPLY;
+  static final MethodHandle THEN_COMPOSE;
+  static final MethodHandle SUPPLY_ASYNC;
+  static final MethodHandle ALL_OF;
+  static final MethodHandle COMPLETED_FUTURE;
+
+  static {
+    MethodType continuationType =
+        MethodType.methodType(
+            CompletableFuture.class, MethodHandle.class, CompletableFuture.class, Object[].class);
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      THEN_APPLY = lookup.findStatic(Async.class, "thenApply", continuationType);
+      THEN_COMPOSE = lookup.findStatic(Async.class, "thenCompose", continuationType);
+      SUPPLY_ASYNC =
+          lookup.findStatic(
+              Async.class,
+              "supplyAsync",
+              MethodType.methodType(
+                  CompletableFuture.class, MethodHandle.class, Executor.class, Object[].class));
+      ALL_OF =
+          lookup.findStatic(
+              Async.class,
+              "allOf",
+              MethodType.methodType(CompletableFuture.class, CompletableFuture[].class));
+      COMPLETED_FUTURE =
+          lookup.findStatic(
+              CompletableFuture.class,
+              "completedFuture",
+              MethodType.methodType(CompletableFuture.class, Object.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Make a handle {@code (A...) -> CompletableFuture} which applies {@code continuation} to the
+   * result of {@code future}.
+   *
+   * @param combinator {@link #THEN_APPLY} or {@link #THEN_COMPOSE}
+   * @param future {@code (A...) -> CompletableFuture}
+   * @param continuation {@code (T, A...) -> R}
+   */
+  static MethodHandle then(
+      MethodHandle combinator, MethodHandle future, MethodHandle continuation) {
+    int n = future.type().parameterCount();
+    MethodHandle spread =
+        continuation.asSpreader(Object[].class, n).asType(CONTINUATION_TYPE);
+    // (CompletableFuture, A...) -> CompletableFuture
+    MethodHandle mh =
+        MethodHandles.insertArguments(combinator, 0, spread)
+            .asCollector(Object[].class, n)
+            .asType(future.type().insertParameterTypes(0, CompletableFuture.class));
+    return MethodHandles.foldArguments(mh, future);
+  }
+
+  /** Make a handle {@code (A...) -> CompletableFuture} which runs {@code body} in executor. */
+  static MethodHandle supplyAsync(MethodHandle body, Executor executor) {
+    int n = body.type().parameterCount();
+    MethodHandle spread =
+        MethodHandles.dropArguments(body.asSpreader(Object[].class, n), 0, Object.class)
+            .asType(CONTINUATION_TYPE);
+    return MethodHandles.insertArguments(SUPPLY_ASYNC, 0, spread, executor)
+        .asCollector(Object[].class, n)
+        .asType(body.type().changeReturnType(CompletableFuture.class));
+  }
+}
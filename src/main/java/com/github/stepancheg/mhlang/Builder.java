@@ -3,36 +3,58 @@ package com.github.stepancheg.mhlang;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
+import javax.annotation.Nullable;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Supplier;
 
 /** Common builder for {@link MhBuilder} and {@link ClosureBuilder}. */
 public abstract class Builder {
 
   final long functionId = FunctionId.nextId();
 
-  abstract ImmutableList<Var<?>> paramsOrOuterVars();
+  /** Function params for {@link MhBuilder} or referenced outer vars for {@link ClosureBuilder}. */
+  private final ArrayList<Var<?>> paramsOrOuterVars = new ArrayList<>();
+
+  private final HashMap<Var<?>, Integer> paramOrOuterVarIndex = new HashMap<>();
 
   private ArrayList<Var.Invoke<?>> assignments = new ArrayList<>();
 
+  @Nullable private Profiler profiler;
+  private String profilerName;
+
   Builder() {}
 
-  private ArrayList<Var.Invoke<?>> nonVoidAssignments = new ArrayList<>();
+  /**
+   * Record invocation count and time of each statement of this function in given profiler.
+   *
+   * <p>Statements are labeled as {@code name/v<index>}.
+   */
+  public void setProfiler(Profiler profiler, String name) {
+    this.profiler = Preconditions.checkNotNull(profiler);
+    this.profilerName = Preconditions.checkNotNull(name);
+  }
+
+  /** Types of non-void assignments, i. e. local variables. */
+  private final ArrayList<Class<?>> localVarTypes = new ArrayList<>();
+
+  private final HashMap<Var<?>, Integer> localVarIndex = new HashMap<>();
 
   private static class Step {
-    private final Class<?>[] localVarsWithout;
     private final Var.Invoke<?> assignment;
-    private final Class<?>[] localVarsWith;
+    /** Number of local variables defined before this step. */
+    private final int localVarCount;
 
-    Step(Step prev, Var.Invoke<?> assignment) {
-      this.localVarsWithout = prev != null ? prev.localVarsWith : new Class<?>[0];
+    /** Step interpreter over all vars, created on first interpretation. */
+    @Nullable private Eval eval;
+
+    Step(Var.Invoke<?> assignment, int localVarCount) {
       this.assignment = assignment;
-      this.localVarsWith =
-          assignment.type() != void.class
-              ? ArrayUtil.concat(localVarsWithout, new Class<?>[] {assignment.type()})
-              : localVarsWithout;
+      this.localVarCount = localVarCount;
     }
   }
 
@@ -42,13 +64,27 @@ public abstract class Builder {
     return !assignments.isEmpty();
   }
 
-  private Class<?>[] currentParams() {
-    Class<?>[] params = this.paramsOrOuterVars().stream().map(Var::type).toArray(Class<?>[]::new);
-    if (steps.isEmpty()) {
-      return params;
-    } else {
-      return ArrayUtil.concat(params, steps.get(steps.size() - 1).localVarsWith);
+  int paramOrOuterVarCount() {
+    return paramsOrOuterVars.size();
+  }
+
+  /** Register a param or an outer var unless it is already registered. */
+  void addParamOrOuterVar(Var<?> var) {
+    if (paramOrOuterVarIndex.putIfAbsent(var, paramsOrOuterVars.size()) == null) {
+      paramsOrOuterVars.add(var);
+    }
+  }
+
+  /** Types of params or outer vars followed by types of all local variables. */
+  private Class<?>[] allVarTypes() {
+    Class<?>[] types = new Class<?>[paramsOrOuterVars.size() + localVarTypes.size()];
+    for (int i = 0; i != paramsOrOuterVars.size(); ++i) {
+      types[i] = paramsOrOuterVars.get(i).type();
+    }
+    for (int i = 0; i != localVarTypes.size(); ++i) {
+      types[paramsOrOuterVars.size() + i] = localVarTypes.get(i);
     }
+    return types;
   }
 
   abstract void addOuterVar(Var<?> outerVar);
@@ -82,37 +118,37 @@ public abstract class Builder {
 
     Var.Invoke<R> var = new Var.Invoke<>(functionId, assignments.size(), closure);
     assignments.add(var);
+    steps.add(new Step(var, localVarTypes.size()));
     if (var.type() != void.class) {
-      nonVoidAssignments.add(var);
+      localVarIndex.put(var, localVarTypes.size());
+      localVarTypes.add(var.type());
     }
-    steps.add(new Step(steps.isEmpty() ? null : steps.get(steps.size() - 1), var));
     return var;
   }
 
   private int varIndex(Var<?> var) {
-    int i = 0;
-    for (Var<?> param : paramsOrOuterVars()) {
-      if (var == param) {
-        return i;
-      }
-      ++i;
+    Integer index = paramOrOuterVarIndex.get(var);
+    if (index != null) {
+      return index;
     }
-    for (Var.Invoke<?> assignment : nonVoidAssignments) {
-      if (assignment == var) {
-        return i;
-      }
-      ++i;
+    index = localVarIndex.get(var);
+    if (index != null) {
+      return paramsOrOuterVars.size() + index;
     }
     throw new IllegalStateException();
   }
 
-  private MethodHandle step(int stepIndex, MethodHandle next) {
+  private MethodHandle step(
+      int stepIndex, MethodHandle next, Class<?>[] allVarTypes, int paramOrOuterVarCount) {
     Preconditions.checkArgument(stepIndex >= 0 && stepIndex < steps.size());
 
     Step step = steps.get(stepIndex);
 
     Var.Invoke<?> assignment = step.assignment;
-    MethodHandle mh = assignment.closure.mh;
+    MethodHandle mh = assignment.closure.mh();
+    if (profiler != null) {
+      mh = profiler.instrument(profilerName + "/" + assignment.label(), mh);
+    }
     mh =
         MethodHandles.collectArguments(
             next,
@@ -121,9 +157,7 @@ public abstract class Builder {
     MethodType resultType =
         MethodType.methodType(
             mh.type().returnType(),
-            ArrayUtil.concat(
-                paramsOrOuterVars().stream().map(Var::type).toArray(Class<?>[]::new),
-                step.localVarsWithout));
+            Arrays.copyOf(allVarTypes, paramOrOuterVarCount + step.localVarCount));
     int[] reorder = new int[mh.type().parameterCount()];
     for (int i = 0; i != reorder.length; ++i) {
       if (i < resultType.parameterCount()) {
@@ -136,18 +170,70 @@ public abstract class Builder {
     return MethodHandles.permuteArguments(mh, resultType, reorder);
   }
 
-  <R> Closure<R> buildReturnImpl(Var<R> returnValue) {
-    MethodHandle mh;
-    if (returnValue.type() != void.class) {
-      mh = MhUtil.returnParam(currentParams(), varIndex(returnValue));
-    } else {
-      mh = MhUtil.returnVoid(currentParams());
-    }
-
-    for (int i = assignments.size() - 1; i >= 0; --i) {
-      mh = step(i, mh);
+  /**
+   * Interpret statements.
+   *
+   * @param vars params or outer vars followed by space for local variables
+   */
+  private Object interpret(
+      Object[] vars, int paramOrOuterVarCount, int stepCount, int returnIndex) throws Throwable {
+    for (int i = 0; i != stepCount; ++i) {
+      Step step = steps.get(i);
+      Eval eval = step.eval;
+      if (eval == null) {
+        Var.Invoke<?> assignment = step.assignment;
+        int[] argIndices = assignment.closure.args.stream().mapToInt(this::varIndex).toArray();
+        Eval closureEval = assignment.closure.eval;
+        if (profiler != null) {
+          closureEval = profiler.instrument(profilerName + "/" + assignment.label(), closureEval);
+        }
+        Eval stepEval = closureEval;
+        eval = a -> stepEval.eval(Eval.select(a, argIndices));
+        step.eval = eval;
+      }
+      Object value = eval.eval(vars);
+      if (step.assignment.type() != void.class) {
+        vars[paramOrOuterVarCount + step.localVarCount] = value;
+      }
     }
+    return returnIndex >= 0 ? vars[returnIndex] : null;
+  }
 
-    return new Closure<>(mh, paramsOrOuterVars());
+  /**
+   * Closure returning given variable. Statements are compiled to a method handle when closure
+   * method handle is requested.
+   */
+  <R> Closure<R> buildReturnImpl(Var<R> returnValue) {
+    Class<?>[] allVarTypes = allVarTypes();
+    int paramOrOuterVarCount = paramsOrOuterVars.size();
+    int stepCount = steps.size();
+    int returnIndex = returnValue.type() != void.class ? varIndex(returnValue) : -1;
+
+    Supplier<MethodHandle> compiler =
+        () -> {
+          MethodHandle mh;
+          if (returnIndex >= 0) {
+            mh = MhUtil.returnParam(allVarTypes, returnIndex);
+          } else {
+            mh = MhUtil.returnVoid(allVarTypes);
+          }
+
+          for (int i = stepCount - 1; i >= 0; --i) {
+            mh = step(i, mh, allVarTypes, paramOrOuterVarCount);
+          }
+          return mh;
+        };
+
+    Eval eval =
+        a ->
+            interpret(
+                Arrays.copyOf(a, allVarTypes.length), paramOrOuterVarCount, stepCount, returnIndex);
+
+    return Closure.lazy(
+            returnValue.type(), ImmutableList.copyOf(paramsOrOuterVars), compiler, eval)
+        .describe(
+            "block",
+            assignments.size() + " statements",
+            assignments.stream().map(a -> a.closure).toArray(Expr<?>[]::new));
   }
 }
@@ -1,5 +1,6 @@
 package com.github.stepancheg.mhlang;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
@@ -14,4 +15,9 @@ class ClassUtil {
     return (f.getModifiers() & Modifier.STATIC) == 0;
   }
 
+  /** Array class of given component type. */
+  static Class<?> arrayType(Class<?> componentType) {
+    return Array.newInstance(componentType, 0).getClass();
+  }
+
 }
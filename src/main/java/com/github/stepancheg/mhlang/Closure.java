@@ -5,6 +5,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.reflect.TypeToken;
 
+import javax.annotation.Nullable;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
@@ -12,17 +13,33 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.*;
 import java.util.stream.Stream;
 
 /**
  * Closure is a pair of {@link MethodHandle} and a list of {@link Var} for each method handle
  * parameter.
+ *
+ * <p>Closure operations only record the operation: type, arguments and a function which creates
+ * the method handle. Method handle combinators are invoked when method handle is requested for the
+ * first time, e. g. by {@link MhBuilder#buildReturn(Expr)}, so closures which are never compiled
+ * cost almost nothing.
  */
 public class Closure<R> extends Expr<R> {
 
-  final MethodHandle mh;
+  private final Class<R> type;
   final ImmutableList<Var<?>> args;
+  /** How this closure was constructed, see {@link ClosureGraph}. */
+  final ClosureGraph.Node node;
+
+  /** Compiled method handle, or {@code null} if not compiled yet. */
+  @Nullable private volatile MethodHandle mh;
+  /** Function to create {@link #mh}, cleared after compilation. */
+  @Nullable private Supplier<MethodHandle> compiler;
+  /** Evaluate this closure without compilation, see {@link #interpreted(int)}. */
+  final Eval eval;
 
   /**
    * Construct a closure. This is a low-level operation.
@@ -30,6 +47,12 @@ public class Closure<R> extends Expr<R> {
    * @see #fold(MethodHandle, Expr[]) for more convenient constructor accepting any expressions.
    */
   public Closure(MethodHandle mh, ImmutableList<Var<?>> args) {
+    this(mh, args, ClosureGraph.Node.leaf("mh", null, mh.type()), Eval.of(mh));
+  }
+
+  @SuppressWarnings("unchecked")
+  private Closure(
+      MethodHandle mh, ImmutableList<Var<?>> args, ClosureGraph.Node node, Eval eval) {
     Preconditions.checkArgument(
         mh.type().parameterCount() == args.size(), "mh %s does not match args %s", mh, args);
     for (int i = 0; i != args.size(); ++i) {
@@ -40,8 +63,24 @@ public class Closure<R> extends Expr<R> {
           args);
     }
 
+    this.type = (Class<R>) mh.type().returnType();
     this.mh = mh;
     this.args = args;
+    this.node = node;
+    this.eval = eval;
+  }
+
+  private Closure(
+      Class<R> type,
+      ImmutableList<Var<?>> args,
+      ClosureGraph.Node node,
+      Supplier<MethodHandle> compiler,
+      Eval eval) {
+    this.type = type;
+    this.args = args;
+    this.node = node;
+    this.compiler = compiler;
+    this.eval = eval;
   }
 
   /**
@@ -53,70 +92,229 @@ public class Closure<R> extends Expr<R> {
     this(mh, ImmutableList.copyOf(args));
   }
 
+  /**
+   * Closure which method handle is created by given function on first request. Function must
+   * return a method handle of type {@code (args...) -> type}, and interpreter must compute the
+   * same result as that method handle.
+   */
+  static <R> Closure<R> lazy(
+      Class<R> type, ImmutableList<Var<?>> args, Supplier<MethodHandle> compiler, Eval eval) {
+    MethodType methodType = methodType(type, args);
+    return new Closure<>(
+        type, args, ClosureGraph.Node.leaf("mh", null, methodType), compiler, eval);
+  }
+
+  /** Closure of an already created method handle with given interpreter. */
+  private static <R> Closure<R> eager(MethodHandle mh, ImmutableList<Var<?>> args, Eval eval) {
+    return new Closure<>(mh, args, ClosureGraph.Node.leaf("mh", null, mh.type()), eval);
+  }
+
+  private static MethodType methodType(Class<?> type, List<Var<?>> args) {
+    Class<?>[] types = new Class<?>[args.size()];
+    for (int i = 0; i != types.length; ++i) {
+      types[i] = args.get(i).type();
+    }
+    return MethodType.methodType(type, types);
+  }
+
+  /** Type of the closure method handle, available without compilation. */
+  MethodType methodType() {
+    return node.type();
+  }
+
+  /**
+   * Method handle which evaluates this closure with an interpreter until it is invoked {@code
+   * threshold} times, and then compiles the closure and switches to the compiled method handle.
+   *
+   * <p>Interpreter is slow, but spins far fewer classes and lambda forms, so it is cheaper for code
+   * which is invoked rarely.
+   */
+  MethodHandle interpreted(int threshold) {
+    return Tiered.tiered(this, threshold);
+  }
+
+  /** Whether method handle of this closure has been created. */
+  boolean isCompiled() {
+    return mh != null;
+  }
+
+  /** Method handle of this closure, created on the first invocation of this method. */
+  MethodHandle mh() {
+    MethodHandle mh = this.mh;
+    if (mh != null) {
+      return mh;
+    }
+    synchronized (this) {
+      mh = this.mh;
+      if (mh == null) {
+        mh = compiler.get();
+        Preconditions.checkState(
+            mh.type().equals(methodType()), "compiled %s, expecting %s", mh, methodType());
+        this.mh = mh;
+        compiler = null;
+      }
+      return mh;
+    }
+  }
+
+  /** Same closure, but recorded as a different node. */
+  private Closure<R> withNode(ClosureGraph.Node node) {
+    MethodHandle mh = this.mh;
+    if (mh != null) {
+      return new Closure<>(mh, args, node, eval);
+    } else {
+      return new Closure<>(type, args, node, this::mh, eval);
+    }
+  }
+
+  /** Same closure described as given operation of given closures for {@link ClosureGraph}. */
+  Closure<R> describe(String kind, @Nullable Object detail, Expr<?>... children) {
+    ImmutableList<ClosureGraph.Node> childNodes =
+        Arrays.stream(children)
+            .filter(c -> c instanceof Closure<?>)
+            .map(c -> ((Closure<?>) c).node)
+            .collect(ImmutableList.toImmutableList());
+    return withNode(new ClosureGraph.Node(kind, detail, methodType(), childNodes));
+  }
+
+  /** Same closure with same children but described as given operation. */
+  Closure<R> relabel(String kind, @Nullable Object detail) {
+    return withNode(new ClosureGraph.Node(kind, detail, methodType(), node.children()));
+  }
+
+  /**
+   * Same closure, but with a different parameter order, created by given function of this closure
+   * method handle.
+   */
+  Closure<R> withArgs(ImmutableList<Var<?>> args, Function<MethodHandle, MethodHandle> compiler) {
+    Eval eval = this.eval;
+    int[] indices = argIndices(this.args, args);
+    return new Closure<>(
+        type,
+        args,
+        node.withType(methodType(type, args)),
+        () -> compiler.apply(this.mh()),
+        a -> eval.eval(Eval.select(a, indices)));
+  }
+
+  /** Indices of {@code vars} in {@code args}. */
+  private static int[] argIndices(List<Var<?>> vars, List<Var<?>> args) {
+    ImmutableMap<Var<?>, Integer> argToIndex = CollectionUtil.index(args);
+    int[] indices = new int[vars.size()];
+    for (int i = 0; i != indices.length; ++i) {
+      indices[i] = argToIndex.get(vars.get(i));
+    }
+    return indices;
+  }
+
   public static <R> Closure<R> fold(MethodHandle mh, Expr<?>... args) {
+    return Closure.<R>foldLazy(mh.type(), () -> mh, Eval.of(mh), args)
+        .describe("fold", mh.type(), args);
+  }
+
+  /** Closure evaluating this closure with given expressions in place of {@link #args}. */
+  Closure<R> invokeWith(Expr<?>... args) {
+    Expr<?>[] children = new Expr<?>[args.length + 1];
+    children[0] = this;
+    System.arraycopy(args, 0, children, 1, args.length);
+    return Closure.<R>foldLazy(methodType(), this::mh, eval, args)
+        .describe("invoke", null, children);
+  }
+
+  /**
+   * {@link #fold(MethodHandle, Expr[])} where target method handle of given type is created on
+   * compilation.
+   */
+  @SuppressWarnings("unchecked")
+  private static <R> Closure<R> foldLazy(
+      MethodType targetType, Supplier<MethodHandle> target, Eval targetEval, Expr<?>... args) {
     Preconditions.checkArgument(
-        mh.type().parameterCount() == args.length, "mh %s does not match args %s", mh, args);
+        targetType.parameterCount() == args.length,
+        "mh %s does not match args %s",
+        targetType,
+        args);
     for (int i = 0; i != args.length; ++i) {
       Preconditions.checkArgument(
-          mh.type().parameterType(i).equals(args[i].type()),
+          targetType.parameterType(i).equals(args[i].type()),
           "mh %s does not match args %s",
-          mh,
+          targetType,
           args);
     }
 
-    MethodHandle collectedMh = mh;
-
-    ImmutableList.Builder<Var<?>> vars = ImmutableList.builder();
-
-    for (int i = args.length - 1; i >= 0; --i) {
-      Expr<?> arg = args[i];
+    ArrayList<Var<?>> vars = new ArrayList<>();
+    for (Expr<?> arg : args) {
       if (arg instanceof Var<?>) {
         vars.add((Var<?>) arg);
       } else if (arg instanceof Closure<?>) {
-        collectedMh = MethodHandles.collectArguments(collectedMh, i, ((Closure<?>) arg).mh);
-        vars.addAll(((Closure<?>) arg).args.reverse());
+        vars.addAll(((Closure<?>) arg).args);
       } else {
         throw new IllegalArgumentException("unknown arg: " + arg.getClass().getName());
       }
     }
 
-    return new Closure<R>(collectedMh, vars.build().reverse()).deduplicate();
-  }
-
-  /**
-   * Merge duplicate closure arguments.
-   *
-   * <p>Closure stays logically the same, but may work faster and hit the number of parameters
-   * limits later.
-   */
-  private Closure<R> deduplicate() {
-    LinkedHashMap<Var<?>, Integer> varToNewIndex = new LinkedHashMap<>();
-
-    int[] reorder = new int[args.size()];
+    // Merge duplicate arguments: closure stays logically the same, but may work faster
+    // and hit the number of parameters limits later.
+    HashMap<Var<?>, Integer> varToNewIndex = new HashMap<>();
+    ImmutableList.Builder<Var<?>> uniqueVars = ImmutableList.builder();
+    int[] reorder = new int[vars.size()];
     for (int i = 0; i != reorder.length; ++i) {
-      reorder[i] = varToNewIndex.computeIfAbsent(args.get(i), v -> varToNewIndex.size());
+      Var<?> var = vars.get(i);
+      Integer index = varToNewIndex.get(var);
+      if (index == null) {
+        index = varToNewIndex.size();
+        varToNewIndex.put(var, index);
+        uniqueVars.add(var);
+      }
+      reorder[i] = index;
     }
+    ImmutableList<Var<?>> newArgs = uniqueVars.build();
+    boolean permute = newArgs.size() != vars.size();
 
-    if (varToNewIndex.size() == args.size()) {
-      // All arguments are already unique
-      return this;
-    } else {
-      ImmutableList<Var<?>> args =
-          varToNewIndex.keySet().stream().collect(ImmutableList.toImmutableList());
-
-      MethodHandle mh =
-          MethodHandles.permuteArguments(
-              this.mh,
-              MethodType.methodType(
-                  this.mh.type().returnType(), args.stream().map(Var::type).toArray(Class[]::new)),
-              reorder);
-      return new Closure<>(mh, args);
+    // indices of each argument vars in new args
+    int[][] argIndices = new int[args.length][];
+    int offset = 0;
+    for (int i = 0; i != args.length; ++i) {
+      int count = args[i] instanceof Closure<?> ? ((Closure<?>) args[i]).args.size() : 1;
+      argIndices[i] = Arrays.copyOfRange(reorder, offset, offset + count);
+      offset += count;
     }
+    Eval eval =
+        a -> {
+          Object[] targetArgs = new Object[args.length];
+          for (int i = 0; i != args.length; ++i) {
+            if (args[i] instanceof Closure<?>) {
+              targetArgs[i] = ((Closure<?>) args[i]).eval.eval(Eval.select(a, argIndices[i]));
+            } else {
+              targetArgs[i] = a[argIndices[i][0]];
+            }
+          }
+          return targetEval.eval(targetArgs);
+        };
+
+    Class<R> rt = (Class<R>) targetType.returnType();
+    return lazy(
+        rt,
+        newArgs,
+        () -> {
+          MethodHandle collectedMh = target.get();
+          for (int i = args.length - 1; i >= 0; --i) {
+            if (args[i] instanceof Closure<?>) {
+              MethodHandle argMh = ((Closure<?>) args[i]).mh();
+              collectedMh = MethodHandles.collectArguments(collectedMh, i, argMh);
+            }
+          }
+          if (permute) {
+            collectedMh =
+                MethodHandles.permuteArguments(collectedMh, methodType(rt, newArgs), reorder);
+          }
+          return collectedMh;
+        },
+        eval);
   }
 
   /** For a closure {@code c(...)} return a closure {@code !c(...)}. */
   public static Closure<Boolean> not(Closure<Boolean> expr) {
-    return expr.asClosure().filterReturnValueMh(MhUtil.NOT);
+    return expr.asClosure().filterReturnValueMh(MhUtil.NOT.get());
   }
 
   /**
@@ -131,7 +329,7 @@ public class Closure<R> extends Expr<R> {
       b.assign(asClosure());
       return b.buildReturn(constant(true));
     } else {
-      return asClosure().cast(Object.class).filterReturnValueMh(MhUtil.IS_NOT_NULL);
+      return asClosure().cast(Object.class).filterReturnValueMh(MhUtil.IS_NOT_NULL.get());
     }
   }
 
@@ -144,10 +342,9 @@ public class Closure<R> extends Expr<R> {
     return Closure.not(isNotNull());
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public Class<R> type() {
-    return (Class<R>) mh.type().returnType();
+    return type;
   }
 
   @Override
@@ -166,8 +363,14 @@ public class Closure<R> extends Expr<R> {
     if (type() == clazz) {
       return (Closure<S>) this;
     } else {
-      return new Closure<>(
-          MethodHandles.explicitCastArguments(mh, mh.type().changeReturnType(clazz)), args);
+      return lazy(
+              clazz,
+              args,
+              () ->
+                  MethodHandles.explicitCastArguments(
+                      mh(), methodType().changeReturnType(clazz)),
+              a -> Eval.cast(eval.eval(a), type, clazz))
+          .describe("cast", null, this);
     }
   }
 
@@ -184,19 +387,32 @@ public class Closure<R> extends Expr<R> {
 
   /** Shortcut for {@link MethodHandles#filterReturnValue(MethodHandle, MethodHandle)}. */
   public <S> Closure<S> filterReturnValueMh(MethodHandle filter) {
+    return this.<S>filterReturnValueLazy(filter.type(), () -> filter, Eval.of(filter))
+        .describe("filterReturnValue", null, this);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <S> Closure<S> filterReturnValueLazy(
+      MethodType filterType, Supplier<MethodHandle> filter, Eval filterEval) {
     Preconditions.checkArgument(
-        filter.type().parameterCount() == 1, "filter mh must have single arg: %s", filter);
+        filterType.parameterCount() == 1, "filter mh must have single arg: %s", filterType);
     Preconditions.checkArgument(
-        filter.type().parameterType(0) == mh.type().returnType(),
+        filterType.parameterType(0) == type,
         "filter %s parameter 0 must match this return %s",
-        filter,
+        filterType,
         this);
-    return new Closure<>(MethodHandles.filterReturnValue(this.mh, filter), args);
+    return lazy(
+        (Class<S>) filterType.returnType(),
+        args,
+        () -> MethodHandles.filterReturnValue(mh(), filter.get()),
+        a -> filterEval.eval(new Object[] {eval.eval(a)}));
   }
 
   public <S> Closure<S> filterReturnValue(Function<Var<R>, Closure<S>> filter) {
     VarUpdate<S> filterU = varUpdate(type(), filter);
-    return filterReturnValueMh(filterU.closure.mh);
+    return this.<S>filterReturnValueLazy(
+            filterU.closure.methodType(), filterU.closure::mh, filterU.closure.eval)
+        .describe("filterReturnValue", null, this, filterU.closure);
   }
 
   public <S> Closure<S> filterReturnValueFunction(Class<S> st, Function<R, S> f) {
@@ -207,18 +423,40 @@ public class Closure<R> extends Expr<R> {
     return filterReturnValue(p -> toIntFunction(p, f));
   }
 
+  public Closure<Long> filterReturnValueToLong(ToLongFunction<R> f) {
+    return filterReturnValue(p -> toLongFunction(p, f));
+  }
+
+  public Closure<Double> filterReturnValueToDouble(ToDoubleFunction<R> f) {
+    return filterReturnValue(p -> toDoubleFunction(p, f));
+  }
+
   public Closure<Boolean> filterReturnValueToBool(Predicate<R> f) {
     return filterReturnValue(p -> predicate(p, f));
   }
 
   /** Variable as a {@link com.github.stepancheg.mhlang.Closure}. */
   public static <R> Closure<R> var(Var<R> v) {
-    return new Closure<>(MethodHandles.identity(v.type()), ImmutableList.of(v));
+    return Closure.<R>eager(MethodHandles.identity(v.type()), ImmutableList.of(v), a -> a[0])
+        .relabel("var", v.toString());
   }
 
   /** Closure which returns a constant of specified type. */
   public static <R> Closure<R> constant(Class<R> clazz, R r) {
-    return new Closure<>(MethodHandles.constant(clazz, r));
+    return Closure.<R>eager(MethodHandles.constant(clazz, r), ImmutableList.of(), a -> r)
+        .relabel("constant", constantDetail(r));
+  }
+
+  @Nullable
+  private static String constantDetail(Object r) {
+    if (r == null || r instanceof Number || r instanceof Boolean || r instanceof Character) {
+      return String.valueOf(r);
+    } else if (r instanceof String) {
+      String s = (String) r;
+      return '"' + (s.length() <= 20 ? s : s.substring(0, 20) + "...") + '"';
+    } else {
+      return null;
+    }
   }
 
   /**
@@ -268,7 +506,7 @@ public class Closure<R> extends Expr<R> {
 
   /** No-op closure. */
   public static Closure<Void> constantVoid() {
-    return new Closure<>(MethodHandles.zero(void.class));
+    return new Closure<Void>(MethodHandles.zero(void.class)).relabel("constant", "void");
   }
 
   /**
@@ -283,7 +521,7 @@ public class Closure<R> extends Expr<R> {
   public static <R> Closure<R> method(Method method, MethodHandles.Lookup lookup, Expr<?>[] args) {
     try {
       MethodHandle mh = lookup.unreflect(method);
-      return Closure.fold(mh, args);
+      return Closure.<R>fold(mh, args).relabel("method", method.getName());
     } catch (IllegalAccessException e) {
       throw new RuntimeException(e);
     }
@@ -302,7 +540,8 @@ public class Closure<R> extends Expr<R> {
       Constructor<R> constructor, MethodHandles.Lookup lookup, Expr<?>... args) {
     try {
       MethodHandle mh = lookup.unreflectConstructor(constructor);
-      return Closure.fold(mh, args);
+      return Closure.<R>fold(mh, args)
+          .relabel("constructor", constructor.getDeclaringClass().getSimpleName());
     } catch (IllegalAccessException e) {
       throw new RuntimeException(e);
     }
@@ -343,7 +582,7 @@ public class Closure<R> extends Expr<R> {
         ClassUtil.isNotStatic(field), "field should not be static: %s", field);
     try {
       MethodHandle mh = lookup.unreflectGetter(field);
-      return Closure.fold(mh, object);
+      return Closure.<R>fold(mh, object).relabel("getField", field.getName());
     } catch (IllegalAccessException e) {
       throw new RuntimeException(e);
     }
@@ -365,7 +604,7 @@ public class Closure<R> extends Expr<R> {
         ClassUtil.isNotStatic(field), "field should not be static: %s", field);
     try {
       MethodHandle mh = lookup.unreflectSetter(field);
-      return Closure.fold(mh, object, value);
+      return Closure.<Void>fold(mh, object, value).relabel("setField", field.getName());
     } catch (IllegalAccessException e) {
       throw new RuntimeException(e);
     }
@@ -458,14 +697,14 @@ public class Closure<R> extends Expr<R> {
   /** Make a closure from given function. */
   public static Closure<Void> runnable(Runnable runnable) {
     MethodHandle mh = FunctionsMh.runnableRun(runnable);
-    return new Closure<>(mh);
+    return new Closure<Void>(mh).relabel("runnable", null);
   }
 
   /** Make a closure from given function. */
   public static <R> Closure<R> supplier(Class<R> rType, Supplier<R> supplier) {
     MethodHandle mh = FunctionsMh.supplierGet(supplier);
     mh = MethodHandles.explicitCastArguments(mh, MethodType.methodType(rType));
-    return new Closure<>(mh);
+    return new Closure<R>(mh).relabel("supplier", null);
   }
 
   /** Make a closure from given function. */
@@ -480,6 +719,230 @@ public class Closure<R> extends Expr<R> {
     return Closure.fold(mh, a);
   }
 
+  /** Make a closure from given function. */
+  public static Closure<Long> longUnaryOperator(Expr<Long> a, LongUnaryOperator f) {
+    MethodHandle mh = FunctionsMh.longUnaryOperator(f);
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Double> doubleUnaryOperator(Expr<Double> a, DoubleUnaryOperator f) {
+    MethodHandle mh = FunctionsMh.doubleUnaryOperator(f);
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Integer> intBinaryOperator(
+      Expr<Integer> a, Expr<Integer> b, IntBinaryOperator f) {
+    MethodHandle mh = FunctionsMh.intBinaryOperator(f);
+    return Closure.fold(mh, a, b);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Long> longBinaryOperator(Expr<Long> a, Expr<Long> b, LongBinaryOperator f) {
+    MethodHandle mh = FunctionsMh.longBinaryOperator(f);
+    return Closure.fold(mh, a, b);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Double> doubleBinaryOperator(
+      Expr<Double> a, Expr<Double> b, DoubleBinaryOperator f) {
+    MethodHandle mh = FunctionsMh.doubleBinaryOperator(f);
+    return Closure.fold(mh, a, b);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Boolean> longPredicate(Expr<Long> a, LongPredicate f) {
+    MethodHandle mh = FunctionsMh.longPredicate(f);
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Boolean> doublePredicate(Expr<Double> a, DoublePredicate f) {
+    MethodHandle mh = FunctionsMh.doublePredicate(f);
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Long> intToLongFunction(Expr<Integer> a, IntToLongFunction f) {
+    MethodHandle mh = FunctionsMh.intToLongFunction(f);
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Double> intToDoubleFunction(Expr<Integer> a, IntToDoubleFunction f) {
+    MethodHandle mh = FunctionsMh.intToDoubleFunction(f);
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Integer> longToIntFunction(Expr<Long> a, LongToIntFunction f) {
+    MethodHandle mh = FunctionsMh.longToIntFunction(f);
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Double> longToDoubleFunction(Expr<Long> a, LongToDoubleFunction f) {
+    MethodHandle mh = FunctionsMh.longToDoubleFunction(f);
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Integer> doubleToIntFunction(Expr<Double> a, DoubleToIntFunction f) {
+    MethodHandle mh = FunctionsMh.doubleToIntFunction(f);
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Long> doubleToLongFunction(Expr<Double> a, DoubleToLongFunction f) {
+    MethodHandle mh = FunctionsMh.doubleToLongFunction(f);
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Void> intConsumer(Expr<Integer> a, IntConsumer f) {
+    MethodHandle mh = FunctionsMh.intConsumer(f);
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Void> longConsumer(Expr<Long> a, LongConsumer f) {
+    MethodHandle mh = FunctionsMh.longConsumer(f);
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Void> doubleConsumer(Expr<Double> a, DoubleConsumer f) {
+    MethodHandle mh = FunctionsMh.doubleConsumer(f);
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static <R> Closure<R> intFunction(Class<R> r, Expr<Integer> a, IntFunction<R> f) {
+    MethodHandle mh = FunctionsMh.intFunction(f);
+    mh = MethodHandles.explicitCastArguments(mh, MethodType.methodType(r, int.class));
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static <R> Closure<R> longFunction(Class<R> r, Expr<Long> a, LongFunction<R> f) {
+    MethodHandle mh = FunctionsMh.longFunction(f);
+    mh = MethodHandles.explicitCastArguments(mh, MethodType.methodType(r, long.class));
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static <R> Closure<R> doubleFunction(Class<R> r, Expr<Double> a, DoubleFunction<R> f) {
+    MethodHandle mh = FunctionsMh.doubleFunction(f);
+    mh = MethodHandles.explicitCastArguments(mh, MethodType.methodType(r, double.class));
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static <A> Closure<Void> consumer(Expr<A> a, Consumer<A> f) {
+    MethodHandle mh = FunctionsMh.consumer(f);
+    mh = MethodHandles.explicitCastArguments(mh, MethodType.methodType(void.class, a.type()));
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static <A> Closure<Long> toLongFunction(Expr<A> a, ToLongFunction<A> f) {
+    MethodHandle mh = FunctionsMh.toLongFunction(f);
+    mh = MethodHandles.explicitCastArguments(mh, MethodType.methodType(long.class, a.type()));
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static <A> Closure<Double> toDoubleFunction(Expr<A> a, ToDoubleFunction<A> f) {
+    MethodHandle mh = FunctionsMh.toDoubleFunction(f);
+    mh = MethodHandles.explicitCastArguments(mh, MethodType.methodType(double.class, a.type()));
+    return Closure.fold(mh, a);
+  }
+
+  /** Make a closure from given function. */
+  public static <A, B> Closure<Integer> toIntBiFunction(
+      Expr<A> a, Expr<B> b, ToIntBiFunction<A, B> f) {
+    MethodHandle mh = FunctionsMh.toIntBiFunction(f);
+    mh =
+        MethodHandles.explicitCastArguments(
+            mh, MethodType.methodType(int.class, a.type(), b.type()));
+    return Closure.fold(mh, a, b);
+  }
+
+  /** Make a closure from given function. */
+  public static <A, B> Closure<Long> toLongBiFunction(
+      Expr<A> a, Expr<B> b, ToLongBiFunction<A, B> f) {
+    MethodHandle mh = FunctionsMh.toLongBiFunction(f);
+    mh =
+        MethodHandles.explicitCastArguments(
+            mh, MethodType.methodType(long.class, a.type(), b.type()));
+    return Closure.fold(mh, a, b);
+  }
+
+  /** Make a closure from given function. */
+  public static <A, B> Closure<Double> toDoubleBiFunction(
+      Expr<A> a, Expr<B> b, ToDoubleBiFunction<A, B> f) {
+    MethodHandle mh = FunctionsMh.toDoubleBiFunction(f);
+    mh =
+        MethodHandles.explicitCastArguments(
+            mh, MethodType.methodType(double.class, a.type(), b.type()));
+    return Closure.fold(mh, a, b);
+  }
+
+  /** Make a closure from given function. */
+  public static <A> Closure<Void> objIntConsumer(
+      Expr<A> a, Expr<Integer> b, ObjIntConsumer<A> f) {
+    MethodHandle mh = FunctionsMh.objIntConsumer(f);
+    mh =
+        MethodHandles.explicitCastArguments(
+            mh, MethodType.methodType(void.class, a.type(), int.class));
+    return Closure.fold(mh, a, b);
+  }
+
+  /** Make a closure from given function. */
+  public static <A> Closure<Void> objLongConsumer(
+      Expr<A> a, Expr<Long> b, ObjLongConsumer<A> f) {
+    MethodHandle mh = FunctionsMh.objLongConsumer(f);
+    mh =
+        MethodHandles.explicitCastArguments(
+            mh, MethodType.methodType(void.class, a.type(), long.class));
+    return Closure.fold(mh, a, b);
+  }
+
+  /** Make a closure from given function. */
+  public static <A> Closure<Void> objDoubleConsumer(
+      Expr<A> a, Expr<Double> b, ObjDoubleConsumer<A> f) {
+    MethodHandle mh = FunctionsMh.objDoubleConsumer(f);
+    mh =
+        MethodHandles.explicitCastArguments(
+            mh, MethodType.methodType(void.class, a.type(), double.class));
+    return Closure.fold(mh, a, b);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Boolean> booleanSupplier(BooleanSupplier f) {
+    MethodHandle mh = FunctionsMh.booleanSupplier(f);
+    return new Closure<Boolean>(mh).relabel("supplier", null);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Integer> intSupplier(IntSupplier f) {
+    MethodHandle mh = FunctionsMh.intSupplier(f);
+    return new Closure<Integer>(mh).relabel("supplier", null);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Long> longSupplier(LongSupplier f) {
+    MethodHandle mh = FunctionsMh.longSupplier(f);
+    return new Closure<Long>(mh).relabel("supplier", null);
+  }
+
+  /** Make a closure from given function. */
+  public static Closure<Double> doubleSupplier(DoubleSupplier f) {
+    MethodHandle mh = FunctionsMh.doubleSupplier(f);
+    return new Closure<Double>(mh).relabel("supplier", null);
+  }
+
   /** Return a closure {@code a == b}. */
   @SuppressWarnings("unchecked")
   public static <A> Closure<Boolean> same(Expr<A> a, Expr<A> b) {
@@ -496,7 +959,7 @@ public class Closure<R> extends Expr<R> {
       a = (Expr<A>) a.asClosure().cast(Object.class);
       b = (Expr<A>) b.asClosure().cast(Object.class);
     }
-    return Closure.fold(MhUtil.same(type), a, b);
+    return Closure.<Boolean>fold(MhUtil.same(type), a, b).relabel("same", null);
   }
 
   /**
@@ -505,13 +968,13 @@ public class Closure<R> extends Expr<R> {
    */
   public static <A> Closure<Boolean> equals(Expr<A> a, Expr<A> b) {
     Preconditions.checkArgument(a.type() == b.type());
-    return Closure.fold(MhUtil.eq(a.type()), a, b);
+    return Closure.<Boolean>fold(MhUtil.eq(a.type()), a, b).relabel("equals", null);
   }
 
   /** Hash code for a value. Return 0 for {@code null}. */
   public static <A> Closure<Integer> hashCode(Expr<A> a) {
     Preconditions.checkArgument(a.type() != void.class);
-    return Closure.fold(MhUtil.hashCode(a.type()), a);
+    return Closure.<Integer>fold(MhUtil.hashCode(a.type()), a).relabel("hashCode", null);
   }
 
   private static <A extends Comparable<A>> Closure<Integer> compareObjects(Expr<A> x, Expr<A> y) {
@@ -521,7 +984,7 @@ public class Closure<R> extends Expr<R> {
 
     MethodHandle mh =
         MethodHandles.explicitCastArguments(
-            MhUtil.COMPARABLE, MethodType.methodType(int.class, x.type(), y.type()));
+            MhUtil.COMPARABLE.get(), MethodType.methodType(int.class, x.type(), y.type()));
 
     ClosureBuilder b = new ClosureBuilder();
     Var<A> xv = b.assign(x.asClosure());
@@ -545,7 +1008,7 @@ public class Closure<R> extends Expr<R> {
     Class<A> at = x.type();
     MethodHandle mh;
     if (at.isPrimitive()) {
-      mh = PrimitiveType.forPrimitiveClass(at).compareMh;
+      mh = PrimitiveType.forPrimitiveClass(at).compareMh();
       return fold(mh, x, y);
     } else {
       Preconditions.checkArgument(Comparable.class.isAssignableFrom(at));
@@ -562,25 +1025,150 @@ public class Closure<R> extends Expr<R> {
     }
   }
 
+  private static <R> Closure<R> unary(Operator op, Expr<R> a) {
+    return Closure.<R>fold(op.handle(a.type()), a).relabel(op.methodName, null);
+  }
+
+  private static <R> Closure<R> binary(Operator op, Expr<R> a, Expr<R> b) {
+    Preconditions.checkArgument(
+        a.type() == b.type(), "%s operands must have the same type: %s, %s", op.symbol, a, b);
+    return Closure.<R>fold(op.handle(a.type()), a, b).relabel(op.methodName, null);
+  }
+
+  private static <R> Closure<R> shift(Operator op, Expr<R> a, Expr<Integer> b) {
+    Preconditions.checkArgument(b.type() == int.class, "shift distance must be int: %s", b);
+    return Closure.<R>fold(op.handle(a.type()), a, b).relabel(op.methodName, null);
+  }
+
+  private static <A> Closure<Boolean> comparison(Operator op, Expr<A> a, Expr<A> b) {
+    Preconditions.checkArgument(
+        a.type() == b.type(), "%s operands must have the same type: %s, %s", op.symbol, a, b);
+    return Closure.<Boolean>fold(op.handle(a.type()), a, b).relabel(op.methodName, null);
+  }
+
   /**
-   * {@code a + b} where {@code a} and {@code b} have the same type {@code int}, {@link long} or
-   * {@link String}.
+   * {@code a + b} where {@code a} and {@code b} have the same numeric primitive type or {@link
+   * String}.
+   *
+   * <p>Arithmetic, bitwise and comparison operators accept operands of the same primitive type.
+   * {@code byte}, {@code short} and {@code char} are computed as {@code int} and narrowed back,
+   * like compound assignment {@code a += b}. Use {@link #cast(Class)} for widening and narrowing
+   * conversions.
    */
   public static <R> Closure<R> plus(Expr<R> a, Expr<R> b) {
-    Preconditions.checkArgument(a.type() == b.type());
-    return Closure.fold(MhUtil.plus(a.type()), a, b);
+    return binary(Operator.PLUS, a, b);
   }
 
-  /** {@code a * b} where {@code a} and {@code b} have the same type {@code int} or {@link long}. */
+  /** {@code a - b}. */
+  public static <R> Closure<R> minus(Expr<R> a, Expr<R> b) {
+    return binary(Operator.MINUS, a, b);
+  }
+
+  /** {@code a * b}. */
   public static <R> Closure<R> mul(Expr<R> a, Expr<R> b) {
-    Preconditions.checkArgument(a.type() == b.type());
-    return Closure.fold(MhUtil.mul(a.type()), a, b);
+    return binary(Operator.MUL, a, b);
+  }
+
+  /** {@code a / b}. */
+  public static <R> Closure<R> div(Expr<R> a, Expr<R> b) {
+    return binary(Operator.DIV, a, b);
+  }
+
+  /** {@code a % b}. */
+  public static <R> Closure<R> rem(Expr<R> a, Expr<R> b) {
+    return binary(Operator.REM, a, b);
+  }
+
+  /** {@code -a}. */
+  public static <R> Closure<R> neg(Expr<R> a) {
+    return unary(Operator.NEG, a);
+  }
+
+  /** {@code a & b} for integer or boolean operands. Both operands are evaluated. */
+  public static <R> Closure<R> bitAnd(Expr<R> a, Expr<R> b) {
+    return binary(Operator.AND, a, b);
+  }
+
+  /** {@code a | b} for integer or boolean operands. Both operands are evaluated. */
+  public static <R> Closure<R> bitOr(Expr<R> a, Expr<R> b) {
+    return binary(Operator.OR, a, b);
+  }
+
+  /** {@code a ^ b} for integer or boolean operands. */
+  public static <R> Closure<R> xor(Expr<R> a, Expr<R> b) {
+    return binary(Operator.XOR, a, b);
+  }
+
+  /** {@code ~a} for integer operand or {@code !a} for boolean. */
+  public static <R> Closure<R> bitNot(Expr<R> a) {
+    return unary(Operator.NOT, a);
+  }
+
+  /** {@code a << b}. */
+  public static <R> Closure<R> shl(Expr<R> a, Expr<Integer> b) {
+    return shift(Operator.SHL, a, b);
+  }
+
+  /** {@code a >> b}. */
+  public static <R> Closure<R> shr(Expr<R> a, Expr<Integer> b) {
+    return shift(Operator.SHR, a, b);
+  }
+
+  /** {@code a >>> b}. */
+  public static <R> Closure<R> ushr(Expr<R> a, Expr<Integer> b) {
+    return shift(Operator.USHR, a, b);
+  }
+
+  /** {@code a < b}. */
+  public static <A> Closure<Boolean> lt(Expr<A> a, Expr<A> b) {
+    return comparison(Operator.LT, a, b);
+  }
+
+  /** {@code a <= b}. */
+  public static <A> Closure<Boolean> le(Expr<A> a, Expr<A> b) {
+    return comparison(Operator.LE, a, b);
+  }
+
+  /** {@code a > b}. */
+  public static <A> Closure<Boolean> gt(Expr<A> a, Expr<A> b) {
+    return comparison(Operator.GT, a, b);
+  }
+
+  /** {@code a >= b}. */
+  public static <A> Closure<Boolean> ge(Expr<A> a, Expr<A> b) {
+    return comparison(Operator.GE, a, b);
+  }
+
+  /** {@link Math#addExact(int, int)} for {@code int} or {@code long} operands. */
+  public static <R> Closure<R> addExact(Expr<R> a, Expr<R> b) {
+    return binary(Operator.ADD_EXACT, a, b);
+  }
+
+  /** {@link Math#subtractExact(int, int)} for {@code int} or {@code long} operands. */
+  public static <R> Closure<R> subtractExact(Expr<R> a, Expr<R> b) {
+    return binary(Operator.SUBTRACT_EXACT, a, b);
+  }
+
+  /** {@link Math#multiplyExact(int, int)} for {@code int} or {@code long} operands. */
+  public static <R> Closure<R> multiplyExact(Expr<R> a, Expr<R> b) {
+    return binary(Operator.MULTIPLY_EXACT, a, b);
+  }
+
+  /** {@link Math#negateExact(int)} for {@code int} or {@code long} operand. */
+  public static <R> Closure<R> negateExact(Expr<R> a) {
+    return unary(Operator.NEGATE_EXACT, a);
+  }
+
+  /** {@link Math#toIntExact(long)}: narrowing conversion which fails on overflow. */
+  public static Closure<Integer> toIntExact(Expr<Long> a) {
+    return Closure.<Integer>fold(MhUtil.TO_INT_EXACT.get(), a).relabel("toIntExact", null);
   }
 
   /** Wrap {@link MethodHandles#throwException(Class, Class)}. */
   public static <R> Closure<R> throwException(
       Class<R> returnType, Expr<? extends Throwable> exception) {
-    return Closure.fold(MethodHandles.throwException(returnType, exception.type()), exception);
+    return Closure.<R>fold(MethodHandles.throwException(returnType, exception.type()), exception)
+        .relabel("throwException", exception.type().getSimpleName());
   }
 
   /** Wrap {@link MethodHandles#catchException(MethodHandle, Class, MethodHandle)}. */
@@ -593,9 +1181,21 @@ public class Closure<R> extends Expr<R> {
     Closure<R> bodyFull = sigUnifier.unify(body);
     Closure<R> catchFull = sigUnifier.unifyWithoutFirst(catchBlockU.closure, 1);
 
-    MethodHandle mh = MethodHandles.catchException(bodyFull.mh, exType, catchFull.mh);
-
-    return new Closure<>(mh, sigUnifier.allVars);
+    return lazy(
+            body.type(),
+            sigUnifier.allVars,
+            () -> MethodHandles.catchException(bodyFull.mh(), exType, catchFull.mh()),
+            a -> {
+              try {
+                return bodyFull.eval.eval(a);
+              } catch (Throwable e) {
+                if (!exType.isInstance(e)) {
+                  throw e;
+                }
+                return catchFull.eval.eval(Eval.prepend(a, e));
+              }
+            })
+        .describe("catchException", exType.getSimpleName(), body, catchBlockU.closure);
   }
 
   /** Wrap {@link MethodHandles#tryFinally(MethodHandle, MethodHandle)}. */
@@ -610,8 +1210,26 @@ public class Closure<R> extends Expr<R> {
     Closure<R> targetFull = sigUnifier.unify(target);
     Closure<R> cleanupFull = sigUnifier.unifyWithoutFirst(cleanupU.closure, 2);
 
-    MethodHandle mh = MethodHandles.tryFinally(targetFull.mh, cleanupFull.mh);
-    return new Closure<>(mh, sigUnifier.allVars);
+    return lazy(
+            rt,
+            sigUnifier.allVars,
+            () -> MethodHandles.tryFinally(targetFull.mh(), cleanupFull.mh()),
+            a -> {
+              Throwable t = null;
+              Object r = Eval.zero(rt);
+              try {
+                r = targetFull.eval.eval(a);
+              } catch (Throwable e) {
+                t = e;
+              }
+              Object[] cleanupArgs = rt != void.class ? Eval.prepend(a, t, r) : Eval.prepend(a, t);
+              r = cleanupFull.eval.eval(cleanupArgs);
+              if (t != null) {
+                throw t;
+              }
+              return r;
+            })
+        .describe("tryFinally", null, target, cleanupU.closure);
   }
 
   /** {@code cond ? thenExpr() : elseExpr()}. */
@@ -621,24 +1239,45 @@ public class Closure<R> extends Expr<R> {
 
     Preconditions.checkArgument(thenCl.type() == elseCl.type());
 
-    MethodHandle thenUnifMh =
-        MethodHandles.dropArguments(
-            thenCl.mh, thenCl.mh.type().parameterCount(), elseCl.mh.type().parameterArray());
-    MethodHandle elseUnifMh =
-        MethodHandles.dropArguments(elseCl.mh, 0, thenCl.mh.type().parameterArray());
-
-    MethodHandle thenWithBMh = MethodHandles.dropArguments(thenUnifMh, 0, boolean.class);
-    MethodHandle elseWithBMh = MethodHandles.dropArguments(elseUnifMh, 0, boolean.class);
-
-    MethodHandle mh =
-        MethodHandles.guardWithTest(
-            MethodHandles.identity(boolean.class), thenWithBMh, elseWithBMh);
-    return Closure.fold(
-        mh,
-        ArrayUtil.concat(
-            new Expr<?>[] {cond},
-            thenCl.args.toArray(Var<?>[]::new),
-            elseCl.args.toArray(Var<?>[]::new)));
+    MethodType type =
+        thenCl
+            .methodType()
+            .appendParameterTypes(elseCl.methodType().parameterList())
+            .insertParameterTypes(0, boolean.class);
+    Supplier<MethodHandle> mh =
+        () -> {
+          MethodType thenType = thenCl.methodType();
+          MethodType elseType = elseCl.methodType();
+          MethodHandle thenUnifMh =
+              MethodHandles.dropArguments(
+                  thenCl.mh(), thenType.parameterCount(), elseType.parameterArray());
+          MethodHandle elseUnifMh =
+              MethodHandles.dropArguments(elseCl.mh(), 0, thenType.parameterArray());
+
+          MethodHandle thenWithBMh = MethodHandles.dropArguments(thenUnifMh, 0, boolean.class);
+          MethodHandle elseWithBMh = MethodHandles.dropArguments(elseUnifMh, 0, boolean.class);
+
+          return MethodHandles.guardWithTest(
+              MethodHandles.identity(boolean.class), thenWithBMh, elseWithBMh);
+        };
+    int thenArgCount = thenCl.args.size();
+    Eval eval =
+        a -> {
+          if ((Boolean) a[0]) {
+            return thenCl.eval.eval(Arrays.copyOfRange(a, 1, 1 + thenArgCount));
+          } else {
+            return elseCl.eval.eval(Arrays.copyOfRange(a, 1 + thenArgCount, a.length));
+          }
+        };
+    return Closure.<R>foldLazy(
+            type,
+            mh,
+            eval,
+            ArrayUtil.concat(
+                new Expr<?>[] {cond},
+                thenCl.args.toArray(Var<?>[]::new),
+                elseCl.args.toArray(Var<?>[]::new)))
+        .describe("ifThenElse", null, cond, thenCl, elseCl);
   }
 
   /** {@code cond ? (void) thenExpr(...) : void}. */
@@ -694,6 +1333,197 @@ public class Closure<R> extends Expr<R> {
     }
   }
 
+  /**
+   * Jump to {@code cases[index(...)]} or to {@code defaultCase} if index is {@code cases.size()}.
+   * Only selected case is evaluated.
+   */
+  @SuppressWarnings("unchecked")
+  private static <R> Closure<R> switchIndex(
+      Closure<Integer> index, List<Closure<R>> cases, Closure<R> defaultCase) {
+    for (Closure<R> c : cases) {
+      Preconditions.checkArgument(
+          c.type() == defaultCase.type(), "case %s type does not match default %s", c, defaultCase);
+    }
+
+    SigUnifier sigUnifier =
+        new SigUnifier(
+            Stream.concat(cases.stream(), Stream.of(defaultCase))
+                .map(c -> c.args)
+                .toArray(ImmutableList[]::new));
+
+    List<Closure<R>> casesFull =
+        cases.stream().map(sigUnifier::unify).collect(ImmutableList.toImmutableList());
+    Closure<R> defaultFull = sigUnifier.unify(defaultCase);
+
+    Supplier<MethodHandle> mh =
+        () -> {
+          MethodHandle[] caseMhs =
+              casesFull.stream()
+                  .map(c -> MethodHandles.dropArguments(c.mh(), 0, int.class))
+                  .toArray(MethodHandle[]::new);
+          MethodHandle defaultMh = MethodHandles.dropArguments(defaultFull.mh(), 0, int.class);
+          return MhUtil.tableSwitch(defaultMh, caseMhs);
+        };
+    Eval eval =
+        a -> {
+          int i = (Integer) a[0];
+          Closure<R> c = i >= 0 && i < casesFull.size() ? casesFull.get(i) : defaultFull;
+          return c.eval.eval(Arrays.copyOfRange(a, 1, a.length));
+        };
+    return Closure.<R>foldLazy(
+            defaultFull.methodType().insertParameterTypes(0, int.class),
+            mh,
+            eval,
+            ArrayUtil.concat(new Expr<?>[] {index}, sigUnifier.allVars.toArray(Var<?>[]::new)))
+        .describe(
+            "switch",
+            cases.size() + " cases",
+            Stream.concat(Stream.of(index, defaultCase), cases.stream()).toArray(Expr<?>[]::new));
+  }
+
+  /**
+   * {@code switch} over {@code int}.
+   *
+   * <pre>
+   *     switch (selector(...)) {
+   *         case k: return cases[k](...);
+   *         ...
+   *         default: return defaultCase(...);
+   *     }
+   * </pre>
+   *
+   * Dense keys are compiled to a jump table, sparse keys are resolved with a hash table, so the
+   * cost of dispatch does not depend on the number of cases.
+   */
+  public static <R> Closure<R> switchInt(
+      Expr<Integer> selector, Map<Integer, ? extends Expr<R>> cases, Expr<R> defaultCase) {
+    Closure<R> defaultCl = defaultCase.asClosure();
+
+    int[] keys = cases.keySet().stream().mapToInt(Integer::intValue).toArray();
+
+    MethodHandle indexMh;
+    List<Closure<R>> caseCls;
+    if (keys.length == 0) {
+      indexMh = SwitchIndex.dense(0, 0);
+      caseCls = ImmutableList.of();
+    } else {
+      int min = Arrays.stream(keys).min().getAsInt();
+      int max = Arrays.stream(keys).max().getAsInt();
+      if (SwitchIndex.preferDense(min, max, keys.length)) {
+        int count = max - min + 1;
+        indexMh = SwitchIndex.dense(min, count);
+        caseCls = new ArrayList<>(Collections.nCopies(count, defaultCl));
+        cases.forEach((k, c) -> caseCls.set(k - min, c.asClosure()));
+      } else {
+        indexMh = SwitchIndex.intKeys(keys);
+        caseCls =
+            Arrays.stream(keys)
+                .mapToObj(k -> cases.get(k).asClosure())
+                .collect(ImmutableList.toImmutableList());
+      }
+    }
+    return switchIndex(selector.asClosure().filterReturnValueMh(indexMh), caseCls, defaultCl);
+  }
+
+  /**
+   * {@code switch} over {@code enum}.
+   *
+   * <p>Enum ordinal is used as an index in a jump table. Constants without a case go to {@code
+   * defaultCase}. {@code null} selector results in {@link NullPointerException}.
+   *
+   * @see #switchInt(Expr, Map, Expr)
+   */
+  public static <E extends Enum<E>, R> Closure<R> switchEnum(
+      Expr<E> selector, Map<E, ? extends Expr<R>> cases, Expr<R> defaultCase) {
+    Class<E> enumType = selector.type();
+    Preconditions.checkArgument(enumType.isEnum(), "not an enum: %s", enumType);
+
+    Closure<R> defaultCl = defaultCase.asClosure();
+    E[] constants = enumType.getEnumConstants();
+    List<Closure<R>> caseCls = new ArrayList<>(Collections.nCopies(constants.length, defaultCl));
+    cases.forEach((k, c) -> caseCls.set(k.ordinal(), c.asClosure()));
+
+    Closure<Integer> ordinal =
+        selector
+            .asClosure()
+            .filterReturnValueMh(
+                MethodHandles.explicitCastArguments(
+                    MhUtil.ENUM_ORDINAL.get(), MethodType.methodType(int.class, enumType)));
+    return switchIndex(ordinal, caseCls, defaultCl);
+  }
+
+  /**
+   * {@code switch} over {@link String}.
+   *
+   * <p>Case labels are placed into a hash table with precomputed hashes, so dispatch costs one
+   * {@link String#hashCode()} (which is cached in a string) and typically one {@link
+   * String#equals(Object)}. {@code null} selector results in {@link NullPointerException}.
+   *
+   * @see #switchInt(Expr, Map, Expr)
+   */
+  public static <R> Closure<R> switchString(
+      Expr<String> selector, Map<String, ? extends Expr<R>> cases, Expr<R> defaultCase) {
+    String[] keys = cases.keySet().toArray(new String[0]);
+    List<Closure<R>> caseCls =
+        Arrays.stream(keys)
+            .map(k -> cases.get(k).asClosure())
+            .collect(ImmutableList.toImmutableList());
+    Closure<Integer> index =
+        selector.asClosure().filterReturnValueMh(SwitchIndex.stringKeys(keys));
+    return switchIndex(index, caseCls, defaultCase.asClosure());
+  }
+
+  /**
+   * {@code switch} over the runtime class of a value: a polymorphic inline cache.
+   *
+   * <p>For each runtime class {@code C} of {@code value} a function is built with {@code
+   * classToClosure(C, v)}, where {@code v} is a parameter of type {@code C}, so the function can
+   * call methods of {@code C} directly. The first {@code maxEntries} classes seen get exact class
+   * guards in a call site, the other classes are dispatched through a {@link ClassValue}. {@code
+   * null} is dispatched to the function built for the declared type of {@code value}.
+   *
+   * <p>Functions are built at runtime, so they can reference only their parameter.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T, R> Closure<R> typeSwitch(
+      Expr<T> value,
+      Class<R> returnType,
+      int maxEntries,
+      BiFunction<Class<?>, Var<T>, Closure<R>> classToClosure) {
+    Class<T> declaredType = value.type();
+    Preconditions.checkArgument(
+        !declaredType.isPrimitive(), "not an object type: %s", declaredType);
+    Preconditions.checkArgument(maxEntries >= 0, "negative maxEntries: %s", maxEntries);
+
+    TypeSwitch typeSwitch =
+        new TypeSwitch(
+            MethodType.methodType(returnType, declaredType),
+            maxEntries,
+            clazz -> {
+              MhBuilder b = new MhBuilder();
+              Var<T> v = (Var<T>) b.addParam(clazz);
+              return b.buildReturn(classToClosure.apply(clazz, v));
+            });
+    return Closure.<R>fold(typeSwitch.invoker(), value).relabel("typeSwitch", maxEntries);
+  }
+
+  /**
+   * Closure which caches results of given closure in given cache, keyed by closure arguments.
+   *
+   * <p>Arguments must have proper {@code equals} and {@code hashCode}. Cache must not be used by
+   * other closures. Exceptions are not cached.
+   */
+  public static <R> Closure<R> memoize(Closure<R> closure, MemoCache cache) {
+    Preconditions.checkArgument(closure.type() != void.class, "cannot memoize void closure");
+    cache.bind();
+    return lazy(
+            closure.type(),
+            closure.args,
+            () -> cache.wrap(closure.mh()),
+            a -> cache.eval(closure.eval, a))
+        .describe("memoize", cache, closure);
+  }
+
   private Closure<R> moveParamTo0(Var<?>... vs) {
     ImmutableMap<Var<?>, Integer> vsIndex = CollectionUtil.index(vs);
 
@@ -701,7 +1531,7 @@ public class Closure<R> extends Expr<R> {
         Stream.concat(Arrays.stream(vs), args.stream().filter(a -> !vsIndex.containsKey(a)))
             .toArray(Var[]::new);
 
-    int[] reorder = new int[mh.type().parameterCount()];
+    int[] reorder = new int[args.size()];
     int j = vs.length;
     for (int i = 0; i != reorder.length; ++i) {
       Integer special = vsIndex.get(this.args.get(i));
@@ -713,13 +1543,9 @@ public class Closure<R> extends Expr<R> {
     }
     Preconditions.checkState(j == newArgs.length);
 
-    MethodType t =
-        MethodType.methodType(
-            mh.type().returnType(), Arrays.stream(newArgs).map(Var::type).toArray(Class<?>[]::new));
-
-    MethodHandle mh = MethodHandles.permuteArguments(this.mh, t, reorder);
-
-    return new Closure<>(mh, newArgs);
+    ImmutableList<Var<?>> newArgsList = ImmutableList.copyOf(newArgs);
+    MethodType t = methodType(type, newArgsList);
+    return withArgs(newArgsList, mh -> MethodHandles.permuteArguments(mh, t, reorder));
   }
 
   private static class VarUpdate<R> {
@@ -769,7 +1595,8 @@ public class Closure<R> extends Expr<R> {
    *     return v;
    * </pre>
    *
-   * Note {@link ClosureBuilder} can be used to build a closure.
+   * Note {@link ClosureBuilder} can be used to build a closure, and {@link LoopBuilder} can be
+   * used to build a loop with several variables.
    */
   public static <R> Closure<R> whileLoop(
       Closure<R> init, Function<Var<R>, Closure<Boolean>> pred, Function<Var<R>, Closure<R>> body) {
@@ -785,9 +1612,18 @@ public class Closure<R> extends Expr<R> {
     Closure<Boolean> predFull = sigUnifier.unifyWithoutFirst(predU.closure, 1);
     Closure<R> bodyFull = sigUnifier.unifyWithoutFirst(bodyU.closure, 1);
 
-    MethodHandle mh = MethodHandles.whileLoop(initFull.mh, predFull.mh, bodyFull.mh);
-
-    return new Closure<>(mh, sigUnifier.allVars);
+    return lazy(
+            vt,
+            sigUnifier.allVars,
+            () -> MethodHandles.whileLoop(initFull.mh(), predFull.mh(), bodyFull.mh()),
+            a -> {
+              Object v = initFull.eval.eval(a);
+              while ((Boolean) predFull.eval.eval(Eval.prepend(a, v))) {
+                v = bodyFull.eval.eval(Eval.prepend(a, v));
+              }
+              return v;
+            })
+        .describe("whileLoop", null, init, predU.closure, bodyU.closure);
   }
 
   /**
@@ -817,9 +1653,18 @@ public class Closure<R> extends Expr<R> {
     Closure<R> bodyFull = sigUnifier.unifyWithoutFirst(bodyU.closure, 1);
     Closure<Boolean> predFull = sigUnifier.unifyWithoutFirst(predU.closure, 1);
 
-    MethodHandle mh = MethodHandles.doWhileLoop(initFull.mh, bodyFull.mh, predFull.mh);
-
-    return new Closure<R>(mh, sigUnifier.allVars);
+    return lazy(
+            vt,
+            sigUnifier.allVars,
+            () -> MethodHandles.doWhileLoop(initFull.mh(), bodyFull.mh(), predFull.mh()),
+            a -> {
+              Object v = initFull.eval.eval(a);
+              do {
+                v = bodyFull.eval.eval(Eval.prepend(a, v));
+              } while ((Boolean) predFull.eval.eval(Eval.prepend(a, v)));
+              return v;
+            })
+        .describe("doWhileLoop", null, init, bodyU.closure, predU.closure);
   }
 
   /**
@@ -835,7 +1680,8 @@ public class Closure<R> extends Expr<R> {
    *     return v;
    * </pre>
    *
-   * Note {@link ClosureBuilder} can be used to build a closure.
+   * Note {@link ClosureBuilder} can be used to build a closure, and {@link LoopBuilder} can be
+   * used to build a loop with several variables.
    */
   public static <R> Closure<R> countedLoop(
       Closure<Integer> start,
@@ -854,9 +1700,80 @@ public class Closure<R> extends Expr<R> {
     Closure<R> initFull = sigUnifier.unify(init);
     Closure<R> bodyFull = sigUnifier.unifyWithoutFirst(bodyU.closure, 2);
 
-    MethodHandle mh = MethodHandles.countedLoop(startFull.mh, endFull.mh, initFull.mh, bodyFull.mh);
+    return lazy(
+            vt,
+            sigUnifier.allVars,
+            () ->
+                MethodHandles.countedLoop(
+                    startFull.mh(), endFull.mh(), initFull.mh(), bodyFull.mh()),
+            a -> {
+              int s = (Integer) startFull.eval.eval(a);
+              int e = (Integer) endFull.eval.eval(a);
+              Object v = initFull.eval.eval(a);
+              for (int i = s; i < e; ++i) {
+                v = bodyFull.eval.eval(Eval.prepend(a, v, i));
+              }
+              return v;
+            })
+        .describe("countedLoop", null, start, end, init, bodyU.closure);
+  }
+
+  /**
+   * Counted loop which runs sub-ranges in parallel.
+   *
+   * <pre>
+   *     s = start(...)
+   *     e = end(...)
+   *     // for each sub-range [from, to) of [s, e) in a fork-join pool
+   *     v = identity(...)
+   *     for (int i = from; i < to; ++i) {
+   *         v = body(v, i, ...)
+   *     }
+   *     // partial results of adjacent sub-ranges are merged
+   *     v = combiner(left, right, ...)
+   *     return v;
+   * </pre>
+   *
+   * {@code identity} is evaluated once per sub-range, {@code combiner} must be associative and
+   * {@code body} must be safe to run concurrently. Small ranges run in the calling thread.
+   */
+  public static <R> Closure<R> parallelCountedLoop(
+      Closure<Integer> start,
+      Closure<Integer> end,
+      Closure<R> identity,
+      BiFunction<Var<R>, Var<Integer>, Closure<R>> body,
+      BiFunction<Var<R>, Var<R>, Closure<R>> combiner) {
+    Class<R> vt = identity.type();
+    Preconditions.checkArgument(vt != void.class, "void loop result cannot be combined");
+
+    VarUpdate<R> rangeU =
+        varUpdate(
+            int.class,
+            int.class,
+            (from, to) -> countedLoop(from.asClosure(), to.asClosure(), identity, body));
+    VarUpdate<R> combinerU = varUpdate(vt, vt, combiner);
+
+    SigUnifier sigUnifier =
+        new SigUnifier(
+            start.args, end.args, rangeU.argsWithoutParam(), combinerU.argsWithoutParam());
 
-    return new Closure<>(mh, sigUnifier.allVars);
+    Closure<Integer> startFull = sigUnifier.unify(start);
+    Closure<Integer> endFull = sigUnifier.unify(end);
+    Closure<R> rangeFull = sigUnifier.unifyWithoutFirst(rangeU.closure, 2);
+    Closure<R> combinerFull = sigUnifier.unifyWithoutFirst(combinerU.closure, 2);
+
+    return lazy(
+            vt,
+            sigUnifier.allVars,
+            () ->
+                ParallelLoop.loop(
+                    startFull.mh(), endFull.mh(), rangeFull.mh(), combinerFull.mh()),
+            a -> {
+              Object s = startFull.eval.eval(a);
+              Object e = endFull.eval.eval(a);
+              return rangeFull.eval.eval(Eval.prepend(a, s, e));
+            })
+        .describe("parallelCountedLoop", null, start, end, rangeU.closure, combinerU.closure);
   }
 
   /**
@@ -889,9 +1806,19 @@ public class Closure<R> extends Expr<R> {
     Closure<V> initFull = sigUnifier.unify(init);
     Closure<V> bodyFull = sigUnifier.unifyWithoutFirst(bodyU.closure, 2);
 
-    MethodHandle mh = MethodHandles.iteratedLoop(iteratorFull.mh, initFull.mh, bodyFull.mh);
-
-    return new Closure<>(mh, sigUnifier.allVars);
+    return lazy(
+            vt,
+            sigUnifier.allVars,
+            () -> MethodHandles.iteratedLoop(iteratorFull.mh(), initFull.mh(), bodyFull.mh()),
+            a -> {
+              Iterator<?> i = (Iterator<?>) iteratorFull.eval.eval(a);
+              Object v = initFull.eval.eval(a);
+              while (i.hasNext()) {
+                v = bodyFull.eval.eval(Eval.prepend(a, v, i.next()));
+              }
+              return v;
+            })
+        .describe("iteratorLoop", null, iterator, init, bodyU.closure);
   }
 
   /**
@@ -915,13 +1842,233 @@ public class Closure<R> extends Expr<R> {
 
     return iteratorLoop(
         tt,
-        iterable.asClosure().cast(Iterable.class).filterReturnValueMh(MhUtil.ITERABLE_ITERATOR),
+        iterable
+            .asClosure()
+            .cast(Iterable.class)
+            .filterReturnValueMh(MhUtil.ITERABLE_ITERATOR.get()),
         init,
         body);
   }
 
+  /**
+   * Evaluate a value once and use it in a body.
+   *
+   * <pre>
+   *     a = value(...);
+   *     return body(a, ...);
+   * </pre>
+   */
+  public static <A, R> Closure<R> let(Expr<A> value, Function<Var<A>, Closure<R>> body) {
+    VarUpdate<R> bodyU = varUpdate(value.type(), body);
+
+    SigUnifier sigUnifier = new SigUnifier(value.asClosure().args, bodyU.argsWithoutParam());
+
+    Closure<A> valueFull = sigUnifier.unify(value.asClosure());
+    Closure<R> bodyFull = sigUnifier.unifyWithoutFirst(bodyU.closure, 1);
+
+    return lazy(
+            bodyFull.type(),
+            sigUnifier.allVars,
+            () -> MethodHandles.foldArguments(bodyFull.mh(), valueFull.mh()),
+            a -> bodyFull.eval.eval(Eval.prepend(a, valueFull.eval.eval(a))))
+        .describe("let", null, value, bodyU.closure);
+  }
+
+  /**
+   * Array loop.
+   *
+   * <pre>
+   *     a = array(...)
+   *     v = init(...)
+   *     for (int i = 0; i < a.length; ++i) {
+   *         v = body(v, a[i], ...);
+   *     }
+   *     return v;
+   * </pre>
+   *
+   * Unlike {@link #iterableLoop(Class, Expr, Closure, BiFunction)} this is a counted loop over
+   * array elements, no iterator is allocated. Element is cast to {@code tt}.
+   */
+  public static <T, V, AA> Closure<V> arrayLoop(
+      Class<T> tt, Expr<AA> array, Closure<V> init, BiFunction<Var<V>, Var<T>, Closure<V>> body) {
+    Preconditions.checkArgument(array.type().isArray(), "not an array: %s", array);
+
+    return let(
+            array,
+            a ->
+                countedLoop(
+                    constant(0),
+                    arrayLength(a),
+                    init,
+                    (v, i) ->
+                        let(
+                            Closure.<AA, Object>getArrayElement(a, i).cast(tt),
+                            e -> body.apply(v, e))))
+        .relabel("arrayLoop", null);
+  }
+
+  /**
+   * Indexed list loop.
+   *
+   * <pre>
+   *     l = list(...)
+   *     v = init(...)
+   *     for (int i = 0; i < l.size(); ++i) {
+   *         v = body(v, l.get(i), ...);
+   *     }
+   *     return v;
+   * </pre>
+   *
+   * List size is evaluated once. This loop should be used with {@link RandomAccess} lists, where
+   * it avoids iterator allocation of {@link #iterableLoop(Class, Expr, Closure, BiFunction)}.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T, V, L extends List<T>> Closure<V> listLoop(
+      Class<T> tt, Expr<L> list, Closure<V> init, BiFunction<Var<V>, Var<T>, Closure<V>> body) {
+    Preconditions.checkArgument(List.class.isAssignableFrom(list.type()));
+
+    return let(
+            (Closure<List<?>>) (Closure<?>) list.asClosure().cast(List.class),
+            l ->
+                countedLoop(
+                    constant(0),
+                    Closure.fold(MhUtil.LIST_SIZE.get(), l),
+                    init,
+                    (v, i) ->
+                        let(
+                            Closure.<Object>fold(MhUtil.LIST_GET.get(), l, i).cast(tt),
+                            e -> body.apply(v, e))))
+        .relabel("listLoop", null);
+  }
+
+  /** Future and continuation unified to the same args. */
+  private static class Continuation<T, C> {
+    private final SigUnifier sigUnifier;
+    private final Closure<CompletableFuture<T>> futureFull;
+    private final Closure<C> fnFull;
+    private final Closure<C> fn;
+
+    @SuppressWarnings("unchecked")
+    Continuation(
+        Expr<? extends CompletableFuture<T>> future, Class<T> tt, Function<Var<T>, Closure<C>> fn) {
+      Preconditions.checkArgument(
+          CompletableFuture.class.isAssignableFrom(future.type()), "not a future: %s", future);
+      Closure<CompletableFuture<T>> futureCl =
+          (Closure<CompletableFuture<T>>)
+              (Closure<?>) future.asClosure().cast(CompletableFuture.class);
+      VarUpdate<C> fnU = varUpdate(tt, fn);
+      this.sigUnifier = new SigUnifier(futureCl.args, fnU.argsWithoutParam());
+      this.futureFull = sigUnifier.unify(futureCl);
+      this.fnFull = sigUnifier.unifyWithoutFirst(fnU.closure, 1);
+      this.fn = fnU.closure;
+    }
+
+    <R> Closure<CompletableFuture<R>> build(
+        String kind, MethodHandle combinator, Expr<?> future, Eval eval) {
+      return Closure.<CompletableFuture<R>>lazy(
+              futureType(),
+              sigUnifier.allVars,
+              () -> Async.then(combinator, futureFull.mh(), fnFull.mh()),
+              eval)
+          .describe(kind, null, future, fn);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <R> Class<CompletableFuture<R>> futureType() {
+    return (Class<CompletableFuture<R>>) (Class<?>) CompletableFuture.class;
+  }
+
+  /**
+   * Apply a function to the result of a future without blocking.
+   *
+   * <pre>
+   *     return future(...).thenApply(t -&gt; fn(t, ...));
+   * </pre>
+   */
+  public static <T, R> Closure<CompletableFuture<R>> thenApply(
+      Expr<? extends CompletableFuture<T>> future,
+      Class<T> tt,
+      Function<Var<T>, Closure<R>> fn) {
+    Continuation<T, ?> c = new Continuation<>(future, tt, fn);
+    return c.build(
+        "thenApply",
+        Async.THEN_APPLY,
+        future,
+        a ->
+            ((CompletableFuture<?>) c.futureFull.eval.eval(a))
+                .thenApply(v -> Async.eval(c.fnFull.eval, Eval.prepend(a, v))));
+  }
+
+  /**
+   * Chain an asynchronous function to the result of a future.
+   *
+   * <pre>
+   *     return future(...).thenCompose(t -&gt; fn(t, ...));
+   * </pre>
+   */
+  public static <T, R> Closure<CompletableFuture<R>> thenCompose(
+      Expr<? extends CompletableFuture<T>> future,
+      Class<T> tt,
+      Function<Var<T>, Closure<CompletableFuture<R>>> fn) {
+    Continuation<T, ?> c = new Continuation<>(future, tt, fn);
+    return c.build(
+        "thenCompose",
+        Async.THEN_COMPOSE,
+        future,
+        a ->
+            ((CompletableFuture<?>) c.futureFull.eval.eval(a))
+                .thenCompose(
+                    v -> (CompletableFuture<?>) Async.eval(c.fnFull.eval, Eval.prepend(a, v))));
+  }
+
+  /** Future completed when all given futures complete, with a list of their results. */
+  @SafeVarargs
+  public static <T> Closure<CompletableFuture<List<T>>> allOf(
+      Expr<? extends CompletableFuture<T>>... futures) {
+    ImmutableList.Builder<Expr<? extends CompletableFuture<T>>> list = ImmutableList.builder();
+    for (Expr<? extends CompletableFuture<T>> future : futures) {
+      list.add(future);
+    }
+    return allOf(list.build());
+  }
+
+  /** Future completed when all given futures complete, with a list of their results. */
+  public static <T> Closure<CompletableFuture<List<T>>> allOf(
+      List<? extends Expr<? extends CompletableFuture<T>>> futures) {
+    Expr<?>[] args =
+        futures.stream()
+            .map(f -> f.asClosure().cast(CompletableFuture.class))
+            .toArray(Expr<?>[]::new);
+    MethodHandle mh = Async.ALL_OF.asCollector(CompletableFuture[].class, args.length);
+    return Closure.<CompletableFuture<List<T>>>fold(mh, args).relabel("allOf", null);
+  }
+
+  /** {@link CompletableFuture#completedFuture(Object)}. */
+  public static <T> Closure<CompletableFuture<T>> completedFuture(Expr<T> value) {
+    return Closure.<CompletableFuture<T>>fold(
+            Async.COMPLETED_FUTURE, value.asClosure().cast(Object.class))
+        .relabel("completedFuture", null);
+  }
+
+  /**
+   * Evaluate closure in given executor.
+   *
+   * @see MhBuilder#buildReturnAsync(Expr, Executor)
+   */
+  public static <R> Closure<CompletableFuture<R>> supplyAsync(Expr<R> body, Executor executor) {
+    Preconditions.checkNotNull(executor);
+    Closure<R> bodyCl = body.asClosure();
+    return Closure.<CompletableFuture<R>>lazy(
+            futureType(),
+            bodyCl.args,
+            () -> Async.supplyAsync(bodyCl.mh(), executor),
+            a -> CompletableFuture.supplyAsync(() -> Async.eval(bodyCl.eval, a), executor))
+        .describe("supplyAsync", null, body);
+  }
+
   @Override
   public String toString() {
-    return args + " -> " + mh.type().returnType().getSimpleName();
+    return args + " -> " + type.getSimpleName();
   }
 }
@@ -1,17 +1,13 @@
 package com.github.stepancheg.mhlang;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
 
-import java.util.ArrayList;
 
 /**
  * An utility to build a {@link com.github.stepancheg.mhlang.Closure}. Statements in this builder
  * <b>can</b> refer outside variables, resulting closure will contain all the references.
  */
 public class ClosureBuilder extends Builder {
-  private ArrayList<Var<?>> outerVars = new ArrayList<>();
-
   /** Create a new builder for {@link Closure}. */
   public ClosureBuilder() {}
 
@@ -31,16 +27,9 @@ public class ClosureBuilder extends Builder {
     return buildReturn(Closure.constantVoid());
   }
 
-  @Override
-  ImmutableList<Var<?>> paramsOrOuterVars() {
-    return ImmutableList.copyOf(outerVars);
-  }
-
   @Override
   void addOuterVar(Var<?> outerVar) {
     Preconditions.checkState(outerVar.functionId != functionId);
-    if (!outerVars.contains(outerVar)) {
-      outerVars.add(outerVar);
-    }
+    addParamOrOuterVar(outerVar);
   }
 }
@@ -0,0 +1,247 @@
+package com.github.stepancheg.mhlang;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Structure of a {@link Closure}: which operations it was built from.
+ *
+ * <p>A method handle is opaque, so each closure records a node describing the operation which
+ * created it, and the closures it was built from. This class exposes the recorded graph for
+ * diagnostics: text and Graphviz dump, handle depth, parameter counts and subtrees which are used
+ * more than once (and thus evaluated and compiled more than once).
+ *
+ * <p>Note closures which are referenced twice are evaluated twice, while variables assigned with
+ * {@link Builder#assign(Closure)} are evaluated once.
+ */
+public class ClosureGraph {
+
+  /** Graph node, a single operation. */
+  public static final class Node {
+    private final String kind;
+    /** Detail, converted to string on demand. */
+    @Nullable private final Object detail;
+    private final MethodType type;
+    private final ImmutableList<Node> children;
+    private final int depth;
+    private final long treeSize;
+
+    Node(String kind, @Nullable Object detail, MethodType type, ImmutableList<Node> children) {
+      this.kind = kind;
+      this.detail = detail;
+      this.type = type;
+      this.children = children;
+      int maxChildDepth = 0;
+      long childrenTreeSize = 0;
+      for (Node child : children) {
+        maxChildDepth = Math.max(maxChildDepth, child.depth);
+        childrenTreeSize += child.treeSize;
+      }
+      this.depth = 1 + maxChildDepth;
+      this.treeSize = 1 + childrenTreeSize;
+    }
+
+    static Node leaf(String kind, @Nullable Object detail, MethodType type) {
+      return new Node(kind, detail, type, ImmutableList.of());
+    }
+
+    Node withType(MethodType type) {
+      return new Node(kind, detail, type, children);
+    }
+
+    /** Operation, e. g. {@code ifThenElse} or {@code fold}. */
+    public String kind() {
+      return kind;
+    }
+
+    /** Operation details, e. g. field name, or {@code null}. */
+    @Nullable
+    public String detail() {
+      return detail != null ? detail.toString() : null;
+    }
+
+    /** Type of the closure method handle at the moment this node was created. */
+    public MethodType type() {
+      return type;
+    }
+
+    public int parameterCount() {
+      return type.parameterCount();
+    }
+
+    public ImmutableList<Node> children() {
+      return children;
+    }
+
+    /** Maximum number of nested operations including this node. */
+    public int depth() {
+      return depth;
+    }
+
+    /** Number of nodes in this subtree, shared subtrees are counted each time they are used. */
+    public long treeSize() {
+      return treeSize;
+    }
+
+    private String label() {
+      return kind + (detail != null ? " " + detail : "") + " " + type;
+    }
+
+    @Override
+    public String toString() {
+      return label();
+    }
+  }
+
+  private final Node root;
+  /** Number of times each node is referenced as a child. */
+  private final IdentityHashMap<Node, Integer> refCounts = new IdentityHashMap<>();
+
+  private ClosureGraph(Node root) {
+    this.root = root;
+    refCounts.put(root, 0);
+    ArrayList<Node> stack = new ArrayList<>();
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      Node node = stack.remove(stack.size() - 1);
+      for (Node child : node.children) {
+        Integer prev = refCounts.put(child, refCounts.getOrDefault(child, 0) + 1);
+        if (prev == null) {
+          stack.add(child);
+        }
+      }
+    }
+  }
+
+  /** Graph of given closure. */
+  public static ClosureGraph of(Closure<?> closure) {
+    return new ClosureGraph(closure.node);
+  }
+
+  public Node root() {
+    return root;
+  }
+
+  /** Number of distinct nodes. */
+  public int nodeCount() {
+    return refCounts.size();
+  }
+
+  /**
+   * Number of nodes when shared subtrees are expanded. When this number is much larger than
+   * {@link #nodeCount()}, method handle tree is likely blown up.
+   */
+  public long treeSize() {
+    return root.treeSize;
+  }
+
+  public int depth() {
+    return root.depth;
+  }
+
+  /** Maximum parameter count among all nodes. */
+  public int maxParameterCount() {
+    return refCounts.keySet().stream().mapToInt(Node::parameterCount).max().orElse(0);
+  }
+
+  /** Nodes referenced more than once, largest subtrees first. */
+  public ImmutableList<Node> duplicatedSubtrees() {
+    return refCounts.entrySet().stream()
+        .filter(e -> e.getValue() > 1)
+        .map(Map.Entry::getKey)
+        .sorted(Comparator.comparingLong(Node::treeSize).reversed())
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /** Short summary of graph metrics. */
+  public String summary() {
+    return String.format(
+        "nodes=%d treeSize=%d depth=%d maxParams=%d duplicated=%d",
+        nodeCount(), treeSize(), depth(), maxParameterCount(), duplicatedSubtrees().size());
+  }
+
+  /**
+   * Indented text dump. Shared subtrees are printed once and referenced by {@code #id} in
+   * subsequent occurrences.
+   */
+  public String toText() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(summary()).append("\n");
+    IdentityHashMap<Node, Integer> ids = new IdentityHashMap<>();
+    appendText(sb, root, 0, ids);
+    return sb.toString();
+  }
+
+  private void appendText(StringBuilder sb, Node node, int indent, Map<Node, Integer> ids) {
+    for (int i = 0; i != indent; ++i) {
+      sb.append("  ");
+    }
+    Integer id = ids.get(node);
+    if (id != null) {
+      sb.append("-> #").append(id).append("\n");
+      return;
+    }
+    if (refCounts.get(node) > 1) {
+      id = ids.size() + 1;
+      ids.put(node, id);
+      sb.append("#").append(id).append(" ");
+    }
+    sb.append(node.label());
+    sb.append(" [depth=").append(node.depth).append("]");
+    sb.append("\n");
+    for (Node child : node.children) {
+      appendText(sb, child, indent + 1, ids);
+    }
+  }
+
+  /** Graphviz DOT dump. Shared subtrees are highlighted. */
+  public String toDot() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("digraph closure {\n");
+    sb.append("  node [shape=box, fontname=monospace];\n");
+    IdentityHashMap<Node, Integer> ids = new IdentityHashMap<>();
+    List<Node> order = new ArrayList<>();
+    ids.put(root, 0);
+    order.add(root);
+    for (int i = 0; i != order.size(); ++i) {
+      Node node = order.get(i);
+      for (Node child : node.children) {
+        if (!ids.containsKey(child)) {
+          ids.put(child, order.size());
+          order.add(child);
+        }
+      }
+    }
+    for (Node node : order) {
+      sb.append("  n").append(ids.get(node));
+      sb.append(" [label=\"").append(dotEscape(node.label())).append("\"");
+      if (refCounts.get(node) > 1) {
+        sb.append(", style=filled, fillcolor=lightpink");
+      }
+      sb.append("];\n");
+    }
+    for (Node node : order) {
+      for (Node child : node.children) {
+        sb.append("  n").append(ids.get(node)).append(" -> n").append(ids.get(child)).append(";\n");
+      }
+    }
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  private static String dotEscape(String s) {
+    return s.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+
+  @Override
+  public String toString() {
+    return toText();
+  }
+}
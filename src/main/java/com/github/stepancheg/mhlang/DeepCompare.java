@@ -1,20 +1,108 @@
 package com.github.stepancheg.mhlang;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Primitives;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /** Utility to build a comparator by lexicographically comparing fields of a class. */
 public class DeepCompare {
 
   private interface FakeComparable extends Comparable<FakeComparable> {}
 
+  /**
+   * Ordered list of fields to compare, each ascending or descending.
+   *
+   * <pre>
+   * DeepCompare.Key.of("lastName", "firstName").thenDescending("age")
+   * </pre>
+   */
+  public static final class Key {
+    private final ImmutableList<String> fields;
+    private final ImmutableList<Boolean> descending;
+
+    private Key(ImmutableList<String> fields, ImmutableList<Boolean> descending) {
+      this.fields = fields;
+      this.descending = descending;
+    }
+
+    /** Key of given fields in ascending order. */
+    public static Key of(String... fields) {
+      Key key = new Key(ImmutableList.of(), ImmutableList.of());
+      for (String field : fields) {
+        key = key.then(field);
+      }
+      return key;
+    }
+
+    /** This key followed by a field in ascending order. */
+    public Key then(String field) {
+      return with(field, false);
+    }
+
+    /** This key followed by a field in descending order. */
+    public Key thenDescending(String field) {
+      return with(field, true);
+    }
+
+    private Key with(String field, boolean desc) {
+      Preconditions.checkArgument(!fields.contains(field), "duplicate key field: %s", field);
+      return new Key(
+          ImmutableList.<String>builder().addAll(fields).add(field).build(),
+          ImmutableList.<Boolean>builder().addAll(descending).add(desc).build());
+    }
+
+    public ImmutableList<String> fields() {
+      return fields;
+    }
+
+    public boolean isDescending(int i) {
+      return descending.get(i);
+    }
+
+    /** Resolve field names against given class. */
+    private Field[] resolve(Class<?> clazz) {
+      Preconditions.checkArgument(!clazz.isPrimitive(), "key of a primitive type: %s", clazz);
+      Field[] r = new Field[fields.size()];
+      for (int i = 0; i != r.length; ++i) {
+        try {
+          r[i] = clazz.getDeclaredField(fields.get(i));
+        } catch (NoSuchFieldException e) {
+          throw new IllegalArgumentException(
+              "no field " + fields.get(i) + " in " + clazz.getName(), e);
+        }
+        Preconditions.checkArgument(
+            ClassUtil.isNotStatic(r[i]), "field should not be static: %s", r[i]);
+      }
+      return r;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i != fields.size(); ++i) {
+        sb.append(i != 0 ? ", " : "").append(fields.get(i));
+        sb.append(descending.get(i) ? " desc" : "");
+      }
+      return sb.toString();
+    }
+  }
+
   public static <A> MethodHandle deepCompare(Class<A> at, MethodHandles.Lookup lookup) {
     return MhBuilder.p2(at, at, (thiz, that) -> deepCompare(thiz, that, lookup));
   }
 
+  /** Comparator of fields of given key. */
+  public static <A> MethodHandle deepCompare(Class<A> at, Key key, MethodHandles.Lookup lookup) {
+    return MhBuilder.p2(at, at, (thiz, that) -> deepCompare(thiz, that, key, lookup));
+  }
+
   @SuppressWarnings("unchecked")
   public static <A> Closure<Integer> deepCompare(
       Var<A> thiz, Var<A> that, MethodHandles.Lookup lookup) {
@@ -25,19 +113,40 @@ public class DeepCompare {
       return Closure.compare((Expr<FakeComparable>) thiz, (Expr<FakeComparable>) that);
     }
 
+    // NOTE: this implementation assumes fields are returned in declaration order,
+    //  but JVM does not guarantee that. Use Key for stable order.
+    Field[] fields = ClassUtil.nonStaticDeclaredFields(t);
+    return deepCompare(thiz, that, fields, new boolean[fields.length], lookup);
+  }
+
+  /** Closure version of {@link #deepCompare(Class, Key, MethodHandles.Lookup)}. */
+  public static <A> Closure<Integer> deepCompare(
+      Var<A> thiz, Var<A> that, Key key, MethodHandles.Lookup lookup) {
+    Preconditions.checkArgument(thiz.type() == that.type());
+
+    boolean[] descending = new boolean[key.fields().size()];
+    for (int i = 0; i != descending.length; ++i) {
+      descending[i] = key.isDescending(i);
+    }
+    return deepCompare(thiz, that, key.resolve(thiz.type()), descending, lookup);
+  }
+
+  private static <A> Closure<Integer> deepCompare(
+      Var<A> thiz, Var<A> that, Field[] fields, boolean[] descending, MethodHandles.Lookup lookup) {
     Closure<Integer> r = Closure.constant(0);
 
-    // NOTE: this implementation assumes fields are returned in declaration order,
-    //  but JVM does not guarantee that.
-    Field[] nonStaticDeclaredFields = ClassUtil.nonStaticDeclaredFields(t);
-    for (int i = nonStaticDeclaredFields.length - 1; i >= 0; i--) {
-      Field field = nonStaticDeclaredFields[i];
+    for (int i = fields.length - 1; i >= 0; i--) {
+      Field field = fields[i];
 
       Closure<FakeComparable> thizField = Closure.getField(field, thiz, lookup);
       Closure<FakeComparable> thatField = Closure.getField(field, that, lookup);
 
       ClosureBuilder b = new ClosureBuilder();
-      Var<Integer> cmp = b.assign(Closure.compare(thizField, thatField));
+      Var<Integer> cmp =
+          b.assign(
+              descending[i]
+                  ? Closure.compare(thatField, thizField)
+                  : Closure.compare(thizField, thatField));
       r = b.buildReturn(Closure.ifThenElse(Closure.equals(cmp, Closure.constant(0)), r, cmp));
     }
 
@@ -48,4 +157,194 @@ public class DeepCompare {
     // }
     return Closure.ifThenElse(Closure.same(thiz, that), Closure.constant(0), r);
   }
+
+  /**
+   * Generate {@code void writeSortKey(A a, ByteBuffer buffer)} which writes key fields into the
+   * buffer so that unsigned lexicographic order of written bytes is the order of {@link
+   * #deepCompare(Class, Key, MethodHandles.Lookup)}. Such keys can be sorted with radix sort or
+   * compared with {@link Arrays#compareUnsigned(byte[], byte[])}.
+   *
+   * <p>Encoding of a field:
+   *
+   * <ul>
+   *   <li>integers are written big-endian with the sign bit flipped
+   *   <li>floating point numbers are written as bits, with all bits flipped for negative numbers
+   *       and the sign bit flipped for positive, which matches {@link Double#compare(double,
+   *       double)}
+   *   <li>objects are prefixed with a {@code 0} byte for {@code null} and {@code 1} otherwise;
+   *       strings are written as UTF-16 bytes where {@code 0} is escaped as {@code 0 0xff}, and
+   *       terminated with {@code 0 0}; enums are written as ordinals; boxed primitives are written
+   *       as primitives
+   *   <li>all bytes of a descending field are inverted
+   * </ul>
+   *
+   * <p>Buffer must be in big-endian order, which is the default. {@link
+   * java.nio.BufferOverflowException} is thrown if buffer has not enough space.
+   */
+  public static <A> MethodHandle writeSortKey(Class<A> at, Key key, MethodHandles.Lookup lookup) {
+    Field[] fields = key.resolve(at);
+    for (Field field : fields) {
+      Preconditions.checkArgument(
+          isSortKeyType(field.getType()),
+          "field type is not supported by sort key: %s",
+          field);
+    }
+
+    MhBuilder b = new MhBuilder();
+    Var<A> a = b.addParam(at);
+    Var<ByteBuffer> buffer = b.addParam(ByteBuffer.class);
+    for (int i = 0; i != fields.length; ++i) {
+      Closure<?> value = Closure.getField(fields[i], a, lookup);
+      if (key.isDescending(i)) {
+        Var<Integer> start = b.assign(Closure.fold(SortKey.POSITION.get(), buffer));
+        b.assign(writeSortKey(buffer, value));
+        b.assign(Closure.fold(SortKey.INVERT.get(), buffer, start));
+      } else {
+        b.assign(writeSortKey(buffer, value));
+      }
+    }
+    return b.buildReturnVoid();
+  }
+
+  private static boolean isSortKeyType(Class<?> type) {
+    return type.isPrimitive()
+        || Primitives.isWrapperType(type) && type != Void.class
+        || type == String.class
+        || type.isEnum();
+  }
+
+  private static Closure<Void> writeSortKey(Var<ByteBuffer> buffer, Closure<?> value) {
+    Class<?> type = value.type();
+    if (type.isPrimitive()) {
+      return Closure.fold(SortKey.write(type), buffer, value);
+    }
+
+    ClosureBuilder b = new ClosureBuilder();
+    Var<?> v = b.assign(value);
+    Closure<Void> write;
+    if (Primitives.isWrapperType(type)) {
+      Class<?> primitive = Primitives.unwrap(type);
+      write = Closure.fold(SortKey.write(primitive), buffer, v.asClosure().cast(primitive));
+    } else if (type.isEnum()) {
+      write =
+          Closure.fold(
+              SortKey.write(int.class),
+              buffer,
+              Closure.fold(MhUtil.ENUM_ORDINAL.get(), v.asClosure().cast(Enum.class)));
+    } else {
+      write = Closure.fold(SortKey.WRITE_STRING.get(), buffer, v);
+    }
+    b.assign(
+        Closure.ifThen(
+            Closure.fold(SortKey.WRITE_PRESENCE.get(), buffer, v.asClosure().cast(Object.class)),
+            write));
+    return b.buildReturnVoid();
+  }
+
+  /** Runtime of {@link #writeSortKey(Class, Key, MethodHandles.Lookup)}. */
+  private static class SortKey {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    static final LazyMh POSITION = helper("position", int.class);
+    static final LazyMh INVERT = helper("invert", void.class, int.class);
+    static final LazyMh WRITE_PRESENCE = helper("writePresence", boolean.class, Object.class);
+    static final LazyMh WRITE_STRING = helper("writeString", void.class, String.class);
+
+    private static final LazyMh[] WRITE_PRIMITIVE = {
+      helper("writeBoolean", void.class, boolean.class),
+      helper("writeByte", void.class, byte.class),
+      helper("writeShort", void.class, short.class),
+      helper("writeChar", void.class, char.class),
+      helper("writeInt", void.class, int.class),
+      helper("writeLong", void.class, long.class),
+      helper("writeFloat", void.class, float.class),
+      helper("writeDouble", void.class, double.class),
+    };
+    private static final Class<?>[] PRIMITIVES = {
+      boolean.class,
+      byte.class,
+      short.class,
+      char.class,
+      int.class,
+      long.class,
+      float.class,
+      double.class,
+    };
+
+    private static LazyMh helper(String name, Class<?> rt, Class<?>... params) {
+      MethodType type = MethodType.methodType(rt, ByteBuffer.class).appendParameterTypes(params);
+      return LazyMh.findStatic(LOOKUP, SortKey.class, name, type);
+    }
+
+    static MethodHandle write(Class<?> primitive) {
+      return WRITE_PRIMITIVE[Arrays.asList(PRIMITIVES).indexOf(primitive)].get();
+    }
+
+    private static int position(ByteBuffer buffer) {
+      return buffer.position();
+    }
+
+    private static void invert(ByteBuffer buffer, int start) {
+      for (int i = start; i != buffer.position(); ++i) {
+        buffer.put(i, (byte) ~buffer.get(i));
+      }
+    }
+
+    private static boolean writePresence(ByteBuffer buffer, Object value) {
+      buffer.put(value != null ? (byte) 1 : 0);
+      return value != null;
+    }
+
+    private static void writeString(ByteBuffer buffer, String value) {
+      for (int i = 0; i != value.length(); ++i) {
+        char c = value.charAt(i);
+        writeStringByte(buffer, (byte) (c >>> 8));
+        writeStringByte(buffer, (byte) c);
+      }
+      buffer.put((byte) 0);
+      buffer.put((byte) 0);
+    }
+
+    private static void writeStringByte(ByteBuffer buffer, byte b) {
+      buffer.put(b);
+      if (b == 0) {
+        buffer.put((byte) 0xff);
+      }
+    }
+
+    private static void writeBoolean(ByteBuffer buffer, boolean value) {
+      buffer.put(value ? (byte) 1 : 0);
+    }
+
+    private static void writeByte(ByteBuffer buffer, byte value) {
+      buffer.put((byte) (value ^ Byte.MIN_VALUE));
+    }
+
+    private static void writeShort(ByteBuffer buffer, short value) {
+      buffer.putShort((short) (value ^ Short.MIN_VALUE));
+    }
+
+    private static void writeChar(ByteBuffer buffer, char value) {
+      buffer.putChar(value);
+    }
+
+    private static void writeInt(ByteBuffer buffer, int value) {
+      buffer.putInt(value ^ Integer.MIN_VALUE);
+    }
+
+    private static void writeLong(ByteBuffer buffer, long value) {
+      buffer.putLong(value ^ Long.MIN_VALUE);
+    }
+
+    private static void writeFloat(ByteBuffer buffer, float value) {
+      int bits = Float.floatToIntBits(value);
+      buffer.putInt(bits ^ ((bits >> 31) | Integer.MIN_VALUE));
+    }
+
+    private static void writeDouble(ByteBuffer buffer, double value) {
+      long bits = Double.doubleToLongBits(value);
+      buffer.putLong(bits ^ ((bits >> 63) | Long.MIN_VALUE));
+    }
+  }
 }
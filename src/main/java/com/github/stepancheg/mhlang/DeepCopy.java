@@ -0,0 +1,215 @@
+package com.github.stepancheg.mhlang;
+
+import com.google.common.base.Defaults;
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Primitives;
+import org.objenesis.instantiator.ObjectInstantiator;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Generate copy, reset and clone functions for a given class, e. g. to reuse pooled objects.
+ *
+ * <p>Like other generators, only non-static declared fields are visited, fields of superclasses
+ * are ignored. Clones are allocated with Objenesis, so constructors are not invoked.
+ */
+public class DeepCopy {
+
+  private static final LazyMh NEW_INSTANCE =
+      LazyMh.findVirtual(
+          MethodHandles.publicLookup(),
+          ObjectInstantiator.class,
+          "newInstance",
+          MethodType.methodType(Object.class));
+  private static final LazyMh DEEP_CLONE =
+      LazyMh.findVirtual(
+          MethodHandles.lookup(),
+          Cloner.class,
+          "deepClone",
+          MethodType.methodType(Object.class, Object.class));
+
+  /**
+   * Generate {@code void copyInto(T src, T dst)} which assigns all fields of {@code dst} to values
+   * of fields of {@code src}. Final fields are not allowed.
+   */
+  public static <T> MethodHandle copyInto(Class<T> clazz, MethodHandles.Lookup lookup) {
+    MhBuilder b = new MhBuilder();
+    Var<T> src = b.addParam(clazz);
+    Var<T> dst = b.addParam(clazz);
+    b.assign(copyInto(lookup, src, dst));
+    return b.buildReturnVoid();
+  }
+
+  /** Closure version of {@link #copyInto(Class, MethodHandles.Lookup)}. */
+  public static <T> Closure<Void> copyInto(MethodHandles.Lookup lookup, Var<T> src, Var<T> dst) {
+    Preconditions.checkArgument(src.type() == dst.type());
+    return copyFields(lookup, nonFinalFields(src.type()), src, dst, v -> v);
+  }
+
+  /**
+   * Generate {@code void reset(T dst)} which assigns all fields to default values: zeros, {@code
+   * false} and {@code null}. Final fields are not allowed.
+   */
+  public static <T> MethodHandle reset(Class<T> clazz, MethodHandles.Lookup lookup) {
+    MhBuilder b = new MhBuilder();
+    Var<T> dst = b.addParam(clazz);
+    b.assign(reset(lookup, dst));
+    return b.buildReturnVoid();
+  }
+
+  /** Closure version of {@link #reset(Class, MethodHandles.Lookup)}. */
+  @SuppressWarnings("unchecked")
+  public static <T> Closure<Void> reset(MethodHandles.Lookup lookup, Var<T> dst) {
+    ClosureBuilder b = new ClosureBuilder();
+    for (Field field : nonFinalFields(dst.type())) {
+      Class<Object> type = (Class<Object>) field.getType();
+      Closure<Object> value = Closure.constant(type, Defaults.defaultValue(type));
+      b.assign(Closure.setField(field, dst, value, lookup));
+    }
+    return b.buildReturnVoid();
+  }
+
+  /**
+   * Generate {@code T shallowClone(T src)} which allocates a new object and copies all fields
+   * including final ones. Result is always of class {@code clazz}, so the class should be final.
+   */
+  public static <T> MethodHandle shallowClone(Class<T> clazz, MethodHandles.Lookup lookup) {
+    return buildClone(clazz, lookup, v -> v);
+  }
+
+  /**
+   * Generate {@code T deepClone(T src)}.
+   *
+   * <p>Primitives, strings, boxed primitives, enums and classes are copied as is. Arrays are
+   * copied, and elements of object arrays are cloned. Other objects are cloned the same way
+   * according to their runtime class, with handles generated on first encounter of a class and
+   * cached in the returned handle. Classes of all reachable objects must be accessible with the
+   * lookup.
+   *
+   * <p>Shared references are not preserved: an object reachable twice is cloned twice. Object
+   * graph must not contain cycles.
+   */
+  public static <T> MethodHandle deepClone(Class<T> clazz, MethodHandles.Lookup lookup) {
+    return new Cloner(lookup).handle(clazz);
+  }
+
+  private static Field[] nonFinalFields(Class<?> clazz) {
+    Field[] fields = ClassUtil.nonStaticDeclaredFields(clazz);
+    for (Field field : fields) {
+      Preconditions.checkArgument(
+          !Modifier.isFinal(field.getModifiers()), "field must not be final: %s", field);
+    }
+    return fields;
+  }
+
+  private static <T> Closure<Void> copyFields(
+      MethodHandles.Lookup lookup,
+      Field[] fields,
+      Var<T> src,
+      Var<T> dst,
+      Function<Closure<Object>, Closure<?>> mapValue) {
+    ClosureBuilder b = new ClosureBuilder();
+    for (Field field : fields) {
+      Closure<Object> value = Closure.getField(field, src, lookup);
+      b.assign(Closure.setField(field, dst, mapValue.apply(value), lookup));
+    }
+    return b.buildReturnVoid();
+  }
+
+  private static <T> MethodHandle buildClone(
+      Class<T> clazz,
+      MethodHandles.Lookup lookup,
+      Function<Closure<Object>, Closure<?>> mapValue) {
+    Preconditions.checkArgument(
+        !clazz.isPrimitive() && !clazz.isArray() && !Modifier.isAbstract(clazz.getModifiers()),
+        "cannot clone %s",
+        clazz);
+
+    Field[] fields = ClassUtil.nonStaticDeclaredFields(clazz);
+    for (Field field : fields) {
+      if (Modifier.isFinal(field.getModifiers())) {
+        // setters of final fields are only available for accessible fields
+        field.setAccessible(true);
+      }
+    }
+
+    ObjectInstantiator<T> instantiator = new StdInstantiatorStrategy().newInstantiatorOf(clazz);
+
+    MhBuilder b = new MhBuilder();
+    Var<T> src = b.addParam(clazz);
+    Var<T> dst =
+        b.assign(Closure.<Object>fold(NEW_INSTANCE.get().bindTo(instantiator)).cast(clazz));
+    b.assign(copyFields(lookup, fields, src, dst, mapValue));
+    return b.buildReturn(dst);
+  }
+
+  private static boolean isImmutable(Class<?> type) {
+    return type.isPrimitive()
+        || Primitives.isWrapperType(type)
+        || type == String.class
+        || type == Class.class
+        || type.isEnum();
+  }
+
+  /** Runtime of {@link #deepClone(Class, MethodHandles.Lookup)}. */
+  private static class Cloner {
+    private final MethodHandles.Lookup lookup;
+    /** {@code (Object) -> Object} clone functions by exact class. */
+    private final ConcurrentHashMap<Class<?>, MethodHandle> handles = new ConcurrentHashMap<>();
+
+    Cloner(MethodHandles.Lookup lookup) {
+      this.lookup = lookup;
+    }
+
+    <T> MethodHandle handle(Class<T> clazz) {
+      return buildClone(clazz, lookup, this::cloneValue);
+    }
+
+    private Closure<?> cloneValue(Closure<Object> value) {
+      Class<?> type = value.type();
+      if (isImmutable(type)) {
+        return value;
+      }
+      return Closure.fold(DEEP_CLONE.get().bindTo(this), value.cast(Object.class)).cast(type);
+    }
+
+    private Object deepClone(Object o) throws Throwable {
+      if (o == null || isImmutable(o.getClass())) {
+        return o;
+      }
+      if (o.getClass().isArray()) {
+        return cloneArray(o);
+      }
+      MethodHandle mh = handles.get(o.getClass());
+      if (mh == null) {
+        mh =
+            handles.computeIfAbsent(
+                o.getClass(),
+                c -> handle(c).asType(MethodType.methodType(Object.class, Object.class)));
+      }
+      return mh.invokeExact(o);
+    }
+
+    private Object cloneArray(Object array) throws Throwable {
+      if (array.getClass().getComponentType().isPrimitive()) {
+        int length = Array.getLength(array);
+        Object r = Array.newInstance(array.getClass().getComponentType(), length);
+        System.arraycopy(array, 0, r, 0, length);
+        return r;
+      }
+      Object[] r = ((Object[]) array).clone();
+      for (int i = 0; i != r.length; ++i) {
+        r[i] = deepClone(r[i]);
+      }
+      return r;
+    }
+  }
+}
@@ -8,6 +8,7 @@ import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.util.Arrays;
+import java.util.List;
 import java.util.stream.Stream;
 
 /** Generate deep {@code equals} and {@code hashCode} for a given class. */
@@ -121,4 +122,120 @@ public class DeepEqualsHashCode {
     }
     return hash;
   }
+
+  /**
+   * Generate 64-bit hash for given type.
+   *
+   * <p>Unlike {@link #deepHashCode(Class, MethodHandles.Lookup)}, fields are mixed with xxHash64
+   * rounds and the result goes through xxHash64 avalanche, so keys of several small numbers do not
+   * collide. Primitive fields are mixed as their bits, objects are mixed as their {@code
+   * hashCode}.
+   *
+   * <p>Roughly equivalent to generating this function:
+   *
+   * <pre>
+   *     long hash64(T thiz) {
+   *         long h = PRIME64_5 + 8 * fieldCount;
+   *         for (field in T.fields) {
+   *             h = round(h, bits(field.get(thiz)));
+   *         }
+   *         return avalanche(h);
+   *     }
+   * </pre>
+   */
+  public static <T> MethodHandle deepHash64(Class<T> clazz, MethodHandles.Lookup lookup) {
+    return MhBuilder.p1(clazz, thiz -> deepHash64(lookup, thiz));
+  }
+
+  /** Closure version of {@link #deepHash64(Class, MethodHandles.Lookup)}. */
+  public static <T> Closure<Long> deepHash64(MethodHandles.Lookup lookup, Var<T> thiz) {
+    return hash64(
+        Arrays.stream(ClassUtil.nonStaticDeclaredFields(thiz.type()))
+            .map(f -> Closure.getField(f, thiz, lookup))
+            .collect(ImmutableList.toImmutableList()));
+  }
+
+  /**
+   * Mix values the same way {@link #deepHash64(Class, MethodHandles.Lookup)} mixes fields, so a
+   * hash of an object can be computed from its field values without the object.
+   */
+  public static Closure<Long> hash64(List<? extends Expr<?>> values) {
+    Closure<Long> hash = Closure.constant(Hash64.PRIME64_5 + 8L * values.size());
+    for (Expr<?> value : values) {
+      hash = Closure.fold(Hash64.ROUND.get(), hash, Hash64.bits(value.asClosure()));
+    }
+    return Closure.fold(Hash64.AVALANCHE.get(), hash);
+  }
+
+  /**
+   * Generate {@code hashCode} for given type with the quality of {@link #deepHash64(Class,
+   * MethodHandles.Lookup)}: lower 32 bits of it.
+   */
+  public static <T> MethodHandle deepHashCodeMixed(Class<T> clazz, MethodHandles.Lookup lookup) {
+    return MhBuilder.p1(clazz, thiz -> deepHashCodeMixed(lookup, thiz));
+  }
+
+  /** Closure version of {@link #deepHashCodeMixed(Class, MethodHandles.Lookup)}. */
+  public static <T> Closure<Integer> deepHashCodeMixed(MethodHandles.Lookup lookup, Var<T> thiz) {
+    return deepHash64(lookup, thiz).cast(int.class);
+  }
+
+  /** Runtime of {@link #deepHash64(Class, MethodHandles.Lookup)}. */
+  private static class Hash64 {
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    static final LazyMh ROUND =
+        LazyMh.findStatic(
+            LOOKUP,
+            Hash64.class,
+            "round",
+            MethodType.methodType(long.class, long.class, long.class));
+    static final LazyMh AVALANCHE =
+        LazyMh.findStatic(
+            LOOKUP, Hash64.class, "avalanche", MethodType.methodType(long.class, long.class));
+    private static final LazyMh FLOAT_BITS =
+        LazyMh.findStatic(
+            LOOKUP, Float.class, "floatToIntBits", MethodType.methodType(int.class, float.class));
+    private static final LazyMh DOUBLE_BITS =
+        LazyMh.findStatic(
+            LOOKUP,
+            Double.class,
+            "doubleToLongBits",
+            MethodType.methodType(long.class, double.class));
+
+    /** Value as {@code long}: bits of primitives, {@code hashCode} of objects. */
+    static Closure<Long> bits(Closure<?> value) {
+      Class<?> type = value.type();
+      if (type == float.class) {
+        return Closure.<Integer>fold(FLOAT_BITS.get(), value).cast(long.class);
+      } else if (type == double.class) {
+        return Closure.fold(DOUBLE_BITS.get(), value);
+      } else if (type.isPrimitive()) {
+        // booleans are converted to 0 and 1
+        return value.cast(long.class);
+      } else {
+        return Closure.hashCode(value).cast(long.class);
+      }
+    }
+
+    private static long round(long h, long v) {
+      long k = Long.rotateLeft(v * PRIME64_2, 31) * PRIME64_1;
+      return Long.rotateLeft(h ^ k, 27) * PRIME64_1 + PRIME64_4;
+    }
+
+    private static long avalanche(long h) {
+      h ^= h >>> 33;
+      h *= PRIME64_2;
+      h ^= h >>> 29;
+      h *= PRIME64_3;
+      h ^= h >>> 32;
+      return h;
+    }
+  }
 }
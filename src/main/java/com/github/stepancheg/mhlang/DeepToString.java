@@ -4,9 +4,13 @@ import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 
 public class DeepToString {
 
+  /** Number of runtime classes of a polymorphic field with inlined {@code toString}. */
+  private static final int TYPE_SWITCH_ENTRIES = 4;
+
   private static Closure<?> append(Expr<StringBuilder> sb, Expr<?> value) {
     if (value.type().isPrimitive()) {
       if (value.type() == byte.class || value.type() == short.class) {
@@ -49,7 +53,16 @@ public class DeepToString {
         String comma = i != 0 ? ", " : "";
         b.assign(append(sb, Closure.constant(comma + field.getName() + "=")));
 
-        Closure<Object> fieldValue = Closure.getField(field, t, lookup);
+        Closure<?> fieldValue = Closure.getField(field, t, lookup);
+        Class<?> fieldType = field.getType();
+        if (!fieldType.isPrimitive()
+            && !Modifier.isFinal(fieldType.getModifiers())
+            && fieldType != CharSequence.class) {
+          // call toString of the runtime class directly instead of a megamorphic virtual call
+          fieldValue =
+              Closure.typeSwitch(
+                  fieldValue, String.class, TYPE_SWITCH_ENTRIES, (c, v) -> Closure.toString(v));
+        }
         b.assign(append(sb, fieldValue));
       }
       b.assign(append(sb, Closure.constant("}")));
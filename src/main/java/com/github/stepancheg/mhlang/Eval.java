@@ -0,0 +1,63 @@
+package com.github.stepancheg.mhlang;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+
+/**
+ * Interpreter of a {@link Closure}: evaluates a closure without creating its method handle.
+ *
+ * <p>Arguments correspond to {@link Closure#args}, primitive values are boxed, {@code void} result
+ * is {@code null}.
+ */
+@FunctionalInterface
+interface Eval {
+
+  Object eval(Object[] args) throws Throwable;
+
+  /** Evaluate by invoking given method handle. */
+  static Eval of(MethodHandle mh) {
+    MethodHandle fixedArity = mh.asFixedArity();
+    return fixedArity::invokeWithArguments;
+  }
+
+  /** {@code [args[indices[0]], args[indices[1]], ...]}. */
+  static Object[] select(Object[] args, int[] indices) {
+    Object[] r = new Object[indices.length];
+    for (int i = 0; i != indices.length; ++i) {
+      r[i] = args[indices[i]];
+    }
+    return r;
+  }
+
+  /** {@code [first..., args...]}. */
+  static Object[] prepend(Object[] args, Object... first) {
+    Object[] r = new Object[first.length + args.length];
+    System.arraycopy(first, 0, r, 0, first.length);
+    System.arraycopy(args, 0, r, first.length, args.length);
+    return r;
+  }
+
+  /** Default value of a type, boxed. */
+  static Object zero(Class<?> type) {
+    if (type.isPrimitive() && type != void.class) {
+      return Array.get(Array.newInstance(type, 1), 0);
+    } else {
+      return null;
+    }
+  }
+
+  /** Convert a value like {@link MethodHandles#explicitCastArguments(MethodHandle, MethodType)}. */
+  static Object cast(Object value, Class<?> from, Class<?> to) throws Throwable {
+    if (from == to) {
+      return value;
+    } else if (to == void.class) {
+      return null;
+    } else if (from == void.class) {
+      return zero(to);
+    } else {
+      return MhUtil.explicitCast(from, to).invokeWithArguments(value);
+    }
+  }
+}
@@ -7,102 +7,383 @@ import java.util.Comparator;
 import java.util.function.*;
 
 class FunctionsMh {
-  private static final MethodHandle FUNCTION;
-  private static final MethodHandle BI_FUNCTION;
-  private static final MethodHandle BI_CONSUMER;
-  private static final MethodHandle PREDICATE;
-  private static final MethodHandle BI_PREDICATE;
-  private static final MethodHandle COMPARATOR;
-  private static final MethodHandle SUPPLIER;
-  private static final MethodHandle RUNNABLE;
-  private static final MethodHandle INT_UNARY_OPERATOR;
-  private static final MethodHandle INT_PREDICATE;
-  private static final MethodHandle TO_INT_FUNCTION;
-
-  static {
-    MethodHandles.Lookup lookup = MethodHandles.lookup();
-    try {
-      FUNCTION =
-          lookup.findVirtual(
-              Function.class, "apply", MethodType.methodType(Object.class, Object.class));
-      BI_FUNCTION =
-          lookup.findVirtual(
-              BiFunction.class,
-              "apply",
-              MethodType.methodType(Object.class, Object.class, Object.class));
-      BI_CONSUMER =
-        lookup.findVirtual(
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+  private static final LazyMh FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP, Function.class, "apply", MethodType.methodType(Object.class, Object.class));
+  private static final LazyMh BI_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP,
+          BiFunction.class,
+          "apply",
+          MethodType.methodType(Object.class, Object.class, Object.class));
+  private static final LazyMh BI_CONSUMER =
+      LazyMh.findVirtual(
+          LOOKUP,
           BiConsumer.class,
-          "accept", MethodType.methodType(void.class, Object.class, Object.class));
-      PREDICATE =
-          lookup.findVirtual(
-              Predicate.class, "test", MethodType.methodType(boolean.class, Object.class));
-      BI_PREDICATE =
-          lookup.findVirtual(
-              BiPredicate.class,
-              "test",
-              MethodType.methodType(boolean.class, Object.class, Object.class));
-      COMPARATOR =
-        lookup.findVirtual(
+          "accept",
+          MethodType.methodType(void.class, Object.class, Object.class));
+  private static final LazyMh PREDICATE =
+      LazyMh.findVirtual(
+          LOOKUP, Predicate.class, "test", MethodType.methodType(boolean.class, Object.class));
+  private static final LazyMh BI_PREDICATE =
+      LazyMh.findVirtual(
+          LOOKUP,
+          BiPredicate.class,
+          "test",
+          MethodType.methodType(boolean.class, Object.class, Object.class));
+  private static final LazyMh COMPARATOR =
+      LazyMh.findVirtual(
+          LOOKUP,
           Comparator.class,
-          "compare", MethodType.methodType(int.class, Object.class, Object.class));
-      SUPPLIER = lookup.findVirtual(Supplier.class, "get", MethodType.methodType(Object.class));
-      RUNNABLE = lookup.findVirtual(Runnable.class, "run", MethodType.methodType(void.class));
-      INT_UNARY_OPERATOR =
-          lookup.findVirtual(
-              IntUnaryOperator.class, "applyAsInt", MethodType.methodType(int.class, int.class));
-      INT_PREDICATE =
-          lookup.findVirtual(
-              IntPredicate.class, "test", MethodType.methodType(boolean.class, int.class));
-      TO_INT_FUNCTION =
-          lookup.findVirtual(
-              ToIntFunction.class, "applyAsInt", MethodType.methodType(int.class, Object.class));
-    } catch (NoSuchMethodException | IllegalAccessException e) {
-      throw new RuntimeException(e);
-    }
-  }
+          "compare",
+          MethodType.methodType(int.class, Object.class, Object.class));
+  private static final LazyMh SUPPLIER =
+      LazyMh.findVirtual(LOOKUP, Supplier.class, "get", MethodType.methodType(Object.class));
+  private static final LazyMh RUNNABLE =
+      LazyMh.findVirtual(LOOKUP, Runnable.class, "run", MethodType.methodType(void.class));
+  private static final LazyMh INT_UNARY_OPERATOR =
+      LazyMh.findVirtual(
+          LOOKUP,
+          IntUnaryOperator.class,
+          "applyAsInt",
+          MethodType.methodType(int.class, int.class));
+  private static final LazyMh INT_PREDICATE =
+      LazyMh.findVirtual(
+          LOOKUP, IntPredicate.class, "test", MethodType.methodType(boolean.class, int.class));
+  private static final LazyMh TO_INT_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP,
+          ToIntFunction.class,
+          "applyAsInt",
+          MethodType.methodType(int.class, Object.class));
 
   static MethodHandle function(Function<?, ?> f) {
-    return MethodHandles.insertArguments(FUNCTION, 0, f);
+    return MethodHandles.insertArguments(FUNCTION.get(), 0, f);
   }
 
   static MethodHandle biFunction(BiFunction<?, ?, ?> f) {
-    return MethodHandles.insertArguments(BI_FUNCTION, 0, f);
+    return MethodHandles.insertArguments(BI_FUNCTION.get(), 0, f);
   }
 
   static MethodHandle biConsumer(BiConsumer<?, ?> f) {
-    return MethodHandles.insertArguments(BI_CONSUMER, 0, f);
+    return MethodHandles.insertArguments(BI_CONSUMER.get(), 0, f);
   }
 
   static MethodHandle predicate(Predicate<?> f) {
-    return MethodHandles.insertArguments(PREDICATE, 0, f);
+    return MethodHandles.insertArguments(PREDICATE.get(), 0, f);
   }
 
   static MethodHandle biPredicate(BiPredicate<?, ?> f) {
-    return MethodHandles.insertArguments(BI_PREDICATE, 0, f);
+    return MethodHandles.insertArguments(BI_PREDICATE.get(), 0, f);
   }
 
   static MethodHandle comparator(Comparator<?> f) {
-    return MethodHandles.insertArguments(COMPARATOR, 0, f);
+    return MethodHandles.insertArguments(COMPARATOR.get(), 0, f);
   }
 
   static MethodHandle supplierGet(Supplier<?> supplier) {
-    return MethodHandles.insertArguments(SUPPLIER, 0, supplier);
+    return MethodHandles.insertArguments(SUPPLIER.get(), 0, supplier);
   }
 
   static MethodHandle runnableRun(Runnable runnable) {
-    return MethodHandles.insertArguments(RUNNABLE, 0, runnable);
+    return MethodHandles.insertArguments(RUNNABLE.get(), 0, runnable);
   }
 
   static MethodHandle intUnaryOperator(IntUnaryOperator op) {
-    return MethodHandles.insertArguments(INT_UNARY_OPERATOR, 0, op);
+    return MethodHandles.insertArguments(INT_UNARY_OPERATOR.get(), 0, op);
   }
 
   static MethodHandle intPredicate(IntPredicate p) {
-    return MethodHandles.insertArguments(INT_PREDICATE, 0, p);
+    return MethodHandles.insertArguments(INT_PREDICATE.get(), 0, p);
   }
 
   static MethodHandle toIntFunction(ToIntFunction<?> f) {
-    return MethodHandles.insertArguments(TO_INT_FUNCTION, 0, f);
+    return MethodHandles.insertArguments(TO_INT_FUNCTION.get(), 0, f);
+  }
+
+  private static final LazyMh LONG_UNARY_OPERATOR =
+      LazyMh.findVirtual(
+          LOOKUP,
+          LongUnaryOperator.class,
+          "applyAsLong",
+          MethodType.methodType(long.class, long.class));
+  private static final LazyMh DOUBLE_UNARY_OPERATOR =
+      LazyMh.findVirtual(
+          LOOKUP,
+          DoubleUnaryOperator.class,
+          "applyAsDouble",
+          MethodType.methodType(double.class, double.class));
+  private static final LazyMh INT_BINARY_OPERATOR =
+      LazyMh.findVirtual(
+          LOOKUP,
+          IntBinaryOperator.class,
+          "applyAsInt",
+          MethodType.methodType(int.class, int.class, int.class));
+  private static final LazyMh LONG_BINARY_OPERATOR =
+      LazyMh.findVirtual(
+          LOOKUP,
+          LongBinaryOperator.class,
+          "applyAsLong",
+          MethodType.methodType(long.class, long.class, long.class));
+  private static final LazyMh DOUBLE_BINARY_OPERATOR =
+      LazyMh.findVirtual(
+          LOOKUP,
+          DoubleBinaryOperator.class,
+          "applyAsDouble",
+          MethodType.methodType(double.class, double.class, double.class));
+  private static final LazyMh LONG_PREDICATE =
+      LazyMh.findVirtual(
+          LOOKUP, LongPredicate.class, "test", MethodType.methodType(boolean.class, long.class));
+  private static final LazyMh DOUBLE_PREDICATE =
+      LazyMh.findVirtual(
+          LOOKUP,
+          DoublePredicate.class,
+          "test",
+          MethodType.methodType(boolean.class, double.class));
+  private static final LazyMh INT_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP, IntFunction.class, "apply", MethodType.methodType(Object.class, int.class));
+  private static final LazyMh LONG_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP, LongFunction.class, "apply", MethodType.methodType(Object.class, long.class));
+  private static final LazyMh DOUBLE_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP, DoubleFunction.class, "apply", MethodType.methodType(Object.class, double.class));
+  private static final LazyMh CONSUMER =
+      LazyMh.findVirtual(
+          LOOKUP, Consumer.class, "accept", MethodType.methodType(void.class, Object.class));
+  private static final LazyMh INT_CONSUMER =
+      LazyMh.findVirtual(
+          LOOKUP, IntConsumer.class, "accept", MethodType.methodType(void.class, int.class));
+  private static final LazyMh LONG_CONSUMER =
+      LazyMh.findVirtual(
+          LOOKUP, LongConsumer.class, "accept", MethodType.methodType(void.class, long.class));
+  private static final LazyMh DOUBLE_CONSUMER =
+      LazyMh.findVirtual(
+          LOOKUP, DoubleConsumer.class, "accept", MethodType.methodType(void.class, double.class));
+  private static final LazyMh BOOLEAN_SUPPLIER =
+      LazyMh.findVirtual(
+          LOOKUP, BooleanSupplier.class, "getAsBoolean", MethodType.methodType(boolean.class));
+  private static final LazyMh INT_SUPPLIER =
+      LazyMh.findVirtual(LOOKUP, IntSupplier.class, "getAsInt", MethodType.methodType(int.class));
+  private static final LazyMh LONG_SUPPLIER =
+      LazyMh.findVirtual(
+          LOOKUP, LongSupplier.class, "getAsLong", MethodType.methodType(long.class));
+  private static final LazyMh DOUBLE_SUPPLIER =
+      LazyMh.findVirtual(
+          LOOKUP, DoubleSupplier.class, "getAsDouble", MethodType.methodType(double.class));
+  private static final LazyMh TO_LONG_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP,
+          ToLongFunction.class,
+          "applyAsLong",
+          MethodType.methodType(long.class, Object.class));
+  private static final LazyMh TO_DOUBLE_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP,
+          ToDoubleFunction.class,
+          "applyAsDouble",
+          MethodType.methodType(double.class, Object.class));
+  private static final LazyMh TO_INT_BI_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP,
+          ToIntBiFunction.class,
+          "applyAsInt",
+          MethodType.methodType(int.class, Object.class, Object.class));
+  private static final LazyMh TO_LONG_BI_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP,
+          ToLongBiFunction.class,
+          "applyAsLong",
+          MethodType.methodType(long.class, Object.class, Object.class));
+  private static final LazyMh TO_DOUBLE_BI_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP,
+          ToDoubleBiFunction.class,
+          "applyAsDouble",
+          MethodType.methodType(double.class, Object.class, Object.class));
+  private static final LazyMh INT_TO_LONG_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP,
+          IntToLongFunction.class,
+          "applyAsLong",
+          MethodType.methodType(long.class, int.class));
+  private static final LazyMh INT_TO_DOUBLE_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP,
+          IntToDoubleFunction.class,
+          "applyAsDouble",
+          MethodType.methodType(double.class, int.class));
+  private static final LazyMh LONG_TO_INT_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP,
+          LongToIntFunction.class,
+          "applyAsInt",
+          MethodType.methodType(int.class, long.class));
+  private static final LazyMh LONG_TO_DOUBLE_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP,
+          LongToDoubleFunction.class,
+          "applyAsDouble",
+          MethodType.methodType(double.class, long.class));
+  private static final LazyMh DOUBLE_TO_INT_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP,
+          DoubleToIntFunction.class,
+          "applyAsInt",
+          MethodType.methodType(int.class, double.class));
+  private static final LazyMh DOUBLE_TO_LONG_FUNCTION =
+      LazyMh.findVirtual(
+          LOOKUP,
+          DoubleToLongFunction.class,
+          "applyAsLong",
+          MethodType.methodType(long.class, double.class));
+  private static final LazyMh OBJ_INT_CONSUMER =
+      LazyMh.findVirtual(
+          LOOKUP,
+          ObjIntConsumer.class,
+          "accept",
+          MethodType.methodType(void.class, Object.class, int.class));
+  private static final LazyMh OBJ_LONG_CONSUMER =
+      LazyMh.findVirtual(
+          LOOKUP,
+          ObjLongConsumer.class,
+          "accept",
+          MethodType.methodType(void.class, Object.class, long.class));
+  private static final LazyMh OBJ_DOUBLE_CONSUMER =
+      LazyMh.findVirtual(
+          LOOKUP,
+          ObjDoubleConsumer.class,
+          "accept",
+          MethodType.methodType(void.class, Object.class, double.class));
+
+  static MethodHandle longUnaryOperator(LongUnaryOperator f) {
+    return MethodHandles.insertArguments(LONG_UNARY_OPERATOR.get(), 0, f);
+  }
+
+  static MethodHandle doubleUnaryOperator(DoubleUnaryOperator f) {
+    return MethodHandles.insertArguments(DOUBLE_UNARY_OPERATOR.get(), 0, f);
+  }
+
+  static MethodHandle intBinaryOperator(IntBinaryOperator f) {
+    return MethodHandles.insertArguments(INT_BINARY_OPERATOR.get(), 0, f);
+  }
+
+  static MethodHandle longBinaryOperator(LongBinaryOperator f) {
+    return MethodHandles.insertArguments(LONG_BINARY_OPERATOR.get(), 0, f);
+  }
+
+  static MethodHandle doubleBinaryOperator(DoubleBinaryOperator f) {
+    return MethodHandles.insertArguments(DOUBLE_BINARY_OPERATOR.get(), 0, f);
+  }
+
+  static MethodHandle longPredicate(LongPredicate f) {
+    return MethodHandles.insertArguments(LONG_PREDICATE.get(), 0, f);
+  }
+
+  static MethodHandle doublePredicate(DoublePredicate f) {
+    return MethodHandles.insertArguments(DOUBLE_PREDICATE.get(), 0, f);
+  }
+
+  static MethodHandle intFunction(IntFunction<?> f) {
+    return MethodHandles.insertArguments(INT_FUNCTION.get(), 0, f);
+  }
+
+  static MethodHandle longFunction(LongFunction<?> f) {
+    return MethodHandles.insertArguments(LONG_FUNCTION.get(), 0, f);
+  }
+
+  static MethodHandle doubleFunction(DoubleFunction<?> f) {
+    return MethodHandles.insertArguments(DOUBLE_FUNCTION.get(), 0, f);
+  }
+
+  static MethodHandle consumer(Consumer<?> f) {
+    return MethodHandles.insertArguments(CONSUMER.get(), 0, f);
+  }
+
+  static MethodHandle intConsumer(IntConsumer f) {
+    return MethodHandles.insertArguments(INT_CONSUMER.get(), 0, f);
+  }
+
+  static MethodHandle longConsumer(LongConsumer f) {
+    return MethodHandles.insertArguments(LONG_CONSUMER.get(), 0, f);
+  }
+
+  static MethodHandle doubleConsumer(DoubleConsumer f) {
+    return MethodHandles.insertArguments(DOUBLE_CONSUMER.get(), 0, f);
+  }
+
+  static MethodHandle booleanSupplier(BooleanSupplier f) {
+    return MethodHandles.insertArguments(BOOLEAN_SUPPLIER.get(), 0, f);
+  }
+
+  static MethodHandle intSupplier(IntSupplier f) {
+    return MethodHandles.insertArguments(INT_SUPPLIER.get(), 0, f);
+  }
+
+  static MethodHandle longSupplier(LongSupplier f) {
+    return MethodHandles.insertArguments(LONG_SUPPLIER.get(), 0, f);
+  }
+
+  static MethodHandle doubleSupplier(DoubleSupplier f) {
+    return MethodHandles.insertArguments(DOUBLE_SUPPLIER.get(), 0, f);
+  }
+
+  static MethodHandle toLongFunction(ToLongFunction<?> f) {
+    return MethodHandles.insertArguments(TO_LONG_FUNCTION.get(), 0, f);
+  }
+
+  static MethodHandle toDoubleFunction(ToDoubleFunction<?> f) {
+    return MethodHandles.insertArguments(TO_DOUBLE_FUNCTION.get(), 0, f);
+  }
+
+  static MethodHandle toIntBiFunction(ToIntBiFunction<?, ?> f) {
+    return MethodHandles.insertArguments(TO_INT_BI_FUNCTION.get(), 0, f);
+  }
+
+  static MethodHandle toLongBiFunction(ToLongBiFunction<?, ?> f) {
+    return MethodHandles.insertArguments(TO_LONG_BI_FUNCTION.get(), 0, f);
+  }
+
+  static MethodHandle toDoubleBiFunction(ToDoubleBiFunction<?, ?> f) {
+    return MethodHandles.insertArguments(TO_DOUBLE_BI_FUNCTION.get(), 0, f);
+  }
+
+  static MethodHandle intToLongFunction(IntToLongFunction f) {
+    return MethodHandles.insertArguments(INT_TO_LONG_FUNCTION.get(), 0, f);
+  }
+
+  static MethodHandle intToDoubleFunction(IntToDoubleFunction f) {
+    return MethodHandles.insertArguments(INT_TO_DOUBLE_FUNCTION.get(), 0, f);
+  }
+
+  static MethodHandle longToIntFunction(LongToIntFunction f) {
+    return MethodHandles.insertArguments(LONG_TO_INT_FUNCTION.get(), 0, f);
+  }
+
+  static MethodHandle longToDoubleFunction(LongToDoubleFunction f) {
+    return MethodHandles.insertArguments(LONG_TO_DOUBLE_FUNCTION.get(), 0, f);
+  }
+
+  static MethodHandle doubleToIntFunction(DoubleToIntFunction f) {
+    return MethodHandles.insertArguments(DOUBLE_TO_INT_FUNCTION.get(), 0, f);
+  }
+
+  static MethodHandle doubleToLongFunction(DoubleToLongFunction f) {
+    return MethodHandles.insertArguments(DOUBLE_TO_LONG_FUNCTION.get(), 0, f);
+  }
+
+  static MethodHandle objIntConsumer(ObjIntConsumer<?> f) {
+    return MethodHandles.insertArguments(OBJ_INT_CONSUMER.get(), 0, f);
+  }
+
+  static MethodHandle objLongConsumer(ObjLongConsumer<?> f) {
+    return MethodHandles.insertArguments(OBJ_LONG_CONSUMER.get(), 0, f);
+  }
+
+  static MethodHandle objDoubleConsumer(ObjDoubleConsumer<?> f) {
+    return MethodHandles.insertArguments(OBJ_DOUBLE_CONSUMER.get(), 0, f);
   }
 }
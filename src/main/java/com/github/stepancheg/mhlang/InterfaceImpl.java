@@ -0,0 +1,433 @@
+package com.github.stepancheg.mhlang;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implement a functional interface with a generated class which stores a {@link MethodHandle} in
+ * a static final field, so JIT treats the handle as a constant and inlines it into callers.
+ *
+ * <p>Generated class is roughly:
+ *
+ * <pre>
+ * final class InterfaceImpl$Iface$1 implements Iface {
+ *   private static final MethodHandle MH = InterfaceImpl.take(1);
+ *
+ *   public R method(A a, B b) {
+ *     return (R) MH.invokeExact(a, b);
+ *   }
+ * }
+ * </pre>
+ *
+ * <p>The class is defined as a hidden class when the runtime supports it (Java 15+), so it is
+ * unloaded together with the instance, and as an ordinary class in this package otherwise.
+ */
+class InterfaceImpl {
+
+  private static final AtomicInteger COUNTER = new AtomicInteger();
+
+  /** Handles of classes which are defined but not yet initialized. */
+  private static final ConcurrentHashMap<Integer, MethodHandle> PENDING =
+      new ConcurrentHashMap<>();
+
+  /** {@code Lookup.defineHiddenClass(byte[], boolean, ClassOption...)} or null before Java 15. */
+  private static final MethodHandle DEFINE_HIDDEN_CLASS;
+  private static final Object NO_CLASS_OPTIONS;
+
+  private static final String MH_DESCRIPTOR = "Ljava/lang/invoke/MethodHandle;";
+  private static final String TAKE_DESCRIPTOR = "(I)" + MH_DESCRIPTOR;
+
+  static {
+    MethodHandle defineHiddenClass;
+    Object noClassOptions;
+    try {
+      Class<?> classOption = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+      noClassOptions = Array.newInstance(classOption, 0);
+      defineHiddenClass =
+          MethodHandles.publicLookup()
+              .findVirtual(
+                  MethodHandles.Lookup.class,
+                  "defineHiddenClass",
+                  MethodType.methodType(
+                      MethodHandles.Lookup.class,
+                      byte[].class,
+                      boolean.class,
+                      noClassOptions.getClass()))
+              .asFixedArity();
+    } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+      defineHiddenClass = null;
+      noClassOptions = null;
+    }
+    DEFINE_HIDDEN_CLASS = defineHiddenClass;
+    NO_CLASS_OPTIONS = noClassOptions;
+  }
+
+  /** Invoked from static initializer of generated class. */
+  static MethodHandle take(int id) {
+    MethodHandle mh = PENDING.remove(id);
+    if (mh == null) {
+      throw new IllegalStateException("no method handle for class " + id);
+    }
+    return mh;
+  }
+
+  private static boolean isObjectMethod(Method method) {
+    try {
+      Object.class.getMethod(method.getName(), method.getParameterTypes());
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /** The single abstract method of functional interface. */
+  static Method abstractMethod(Class<?> iface) {
+    if (!iface.isInterface()) {
+      throw new IllegalArgumentException("not an interface: " + iface.getName());
+    }
+    Method r = null;
+    for (Method method : iface.getMethods()) {
+      if (!Modifier.isAbstract(method.getModifiers()) || isObjectMethod(method)) {
+        continue;
+      }
+      if (r != null) {
+        throw new IllegalArgumentException("not a functional interface: " + iface.getName());
+      }
+      r = method;
+    }
+    if (r == null) {
+      throw new IllegalArgumentException("no abstract methods in " + iface.getName());
+    }
+    return r;
+  }
+
+  /**
+   * Create an instance of {@code iface} which invokes given method handle.
+   *
+   * <p>Handle is adapted to the type of interface method with {@link MethodHandle#asType}.
+   * Checked exceptions thrown by the handle are propagated as is.
+   */
+  static <I> I implement(Class<I> iface, MethodHandle mh) {
+    if (!Modifier.isPublic(iface.getModifiers())) {
+      throw new IllegalArgumentException("interface must be public: " + iface.getName());
+    }
+    Method method = abstractMethod(iface);
+    MethodType type = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+    mh = mh.asType(type);
+
+    int id = COUNTER.incrementAndGet();
+    String name =
+        InterfaceImpl.class.getName().replace('.', '/') + "$" + iface.getSimpleName() + "$" + id;
+    byte[] bytes = generate(name, iface, method.getName(), type, id);
+
+    PENDING.put(id, mh);
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      Class<?> clazz;
+      if (DEFINE_HIDDEN_CLASS != null) {
+        lookup =
+            (MethodHandles.Lookup)
+                DEFINE_HIDDEN_CLASS.invoke(lookup, bytes, true, NO_CLASS_OPTIONS);
+        clazz = lookup.lookupClass();
+      } else {
+        clazz = lookup.defineClass(bytes);
+      }
+      return iface.cast(
+          lookup.findConstructor(clazz, MethodType.methodType(void.class)).invoke());
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new RuntimeException(e);
+    } finally {
+      PENDING.remove(id);
+    }
+  }
+
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_PRIVATE = 0x0002;
+  private static final int ACC_STATIC = 0x0008;
+  private static final int ACC_FINAL = 0x0010;
+  private static final int ACC_SUPER = 0x0020;
+
+  private static final int ALOAD_0 = 0x2a;
+  private static final int ILOAD = 0x15;
+  private static final int LLOAD = 0x16;
+  private static final int FLOAD = 0x17;
+  private static final int DLOAD = 0x18;
+  private static final int ALOAD = 0x19;
+  private static final int LDC_W = 0x13;
+  private static final int IRETURN = 0xac;
+  private static final int LRETURN = 0xad;
+  private static final int FRETURN = 0xae;
+  private static final int DRETURN = 0xaf;
+  private static final int ARETURN = 0xb0;
+  private static final int RETURN = 0xb1;
+  private static final int GETSTATIC = 0xb2;
+  private static final int PUTSTATIC = 0xb3;
+  private static final int INVOKEVIRTUAL = 0xb6;
+  private static final int INVOKESPECIAL = 0xb7;
+  private static final int INVOKESTATIC = 0xb8;
+
+  private static int slots(Class<?> type) {
+    return type == long.class || type == double.class ? 2 : type == void.class ? 0 : 1;
+  }
+
+  private static int loadOpcode(Class<?> type) {
+    if (type == long.class) {
+      return LLOAD;
+    } else if (type == float.class) {
+      return FLOAD;
+    } else if (type == double.class) {
+      return DLOAD;
+    } else if (type.isPrimitive()) {
+      return ILOAD;
+    } else {
+      return ALOAD;
+    }
+  }
+
+  private static int returnOpcode(Class<?> type) {
+    if (type == void.class) {
+      return RETURN;
+    } else if (type == long.class) {
+      return LRETURN;
+    } else if (type == float.class) {
+      return FRETURN;
+    } else if (type == double.class) {
+      return DRETURN;
+    } else if (type.isPrimitive()) {
+      return IRETURN;
+    } else {
+      return ARETURN;
+    }
+  }
+
+  private static byte[] generate(
+      String name, Class<?> iface, String methodName, MethodType type, int id) {
+    ConstantPool cp = new ConstantPool();
+    int thisClass = cp.classRef(name);
+    int superClass = cp.classRef("java/lang/Object");
+    int ifaceClass = cp.classRef(iface.getName().replace('.', '/'));
+    int mhField = cp.fieldRef(name, "MH", MH_DESCRIPTOR);
+
+    ArrayList<byte[]> methods = new ArrayList<>();
+
+    Code init = new Code();
+    init.op(ALOAD_0);
+    init.op(INVOKESPECIAL).u2(cp.methodRef("java/lang/Object", "<init>", "()V"));
+    init.op(RETURN);
+    methods.add(init.method(cp, ACC_PUBLIC, "<init>", "()V", 1, 1));
+
+    Code clinit = new Code();
+    clinit.op(LDC_W).u2(cp.integer(id));
+    clinit
+        .op(INVOKESTATIC)
+        .u2(cp.methodRef(InterfaceImpl.class.getName().replace('.', '/'), "take", TAKE_DESCRIPTOR));
+    clinit.op(PUTSTATIC).u2(mhField);
+    clinit.op(RETURN);
+    methods.add(clinit.method(cp, ACC_STATIC, "<clinit>", "()V", 1, 0));
+
+    String descriptor = type.toMethodDescriptorString();
+    Code impl = new Code();
+    impl.op(GETSTATIC).u2(mhField);
+    int slot = 1;
+    for (Class<?> param : type.parameterList()) {
+      impl.op(loadOpcode(param)).u1(slot);
+      slot += slots(param);
+    }
+    impl.op(INVOKEVIRTUAL)
+        .u2(cp.methodRef("java/lang/invoke/MethodHandle", "invokeExact", descriptor));
+    impl.op(returnOpcode(type.returnType()));
+    int maxStack = Math.max(slot, slots(type.returnType()));
+    methods.add(impl.method(cp, ACC_PUBLIC, methodName, descriptor, maxStack, slot));
+
+    int fieldName = cp.utf8("MH");
+    int fieldDescriptor = cp.utf8(MH_DESCRIPTOR);
+
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      // Java 11
+      out.writeShort(55);
+      cp.write(out);
+      out.writeShort(ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(1);
+      out.writeShort(ifaceClass);
+
+      out.writeShort(1);
+      out.writeShort(ACC_PRIVATE | ACC_STATIC | ACC_FINAL);
+      out.writeShort(fieldName);
+      out.writeShort(fieldDescriptor);
+      out.writeShort(0);
+
+      out.writeShort(methods.size());
+      for (byte[] method : methods) {
+        out.write(method);
+      }
+
+      out.writeShort(0);
+      out.flush();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Constant pool of generated class. */
+  private static class ConstantPool {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final HashMap<String, Integer> indices = new HashMap<>();
+
+    private interface Writer {
+      void write(DataOutputStream out) throws IOException;
+    }
+
+    private int add(String key, Writer writer) {
+      Integer index = indices.get(key);
+      if (index != null) {
+        return index;
+      }
+      try {
+        writer.write(out);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      // indices start with 1
+      index = indices.size() + 1;
+      indices.put(key, index);
+      return index;
+    }
+
+    int utf8(String s) {
+      return add(
+          "utf8:" + s,
+          out -> {
+            out.writeByte(1);
+            out.writeUTF(s);
+          });
+    }
+
+    int integer(int value) {
+      return add(
+          "int:" + value,
+          out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+          });
+    }
+
+    int classRef(String internalName) {
+      int nameIndex = utf8(internalName);
+      return add(
+          "class:" + internalName,
+          out -> {
+            out.writeByte(7);
+            out.writeShort(nameIndex);
+          });
+    }
+
+    private int nameAndType(String name, String descriptor) {
+      int nameIndex = utf8(name);
+      int descriptorIndex = utf8(descriptor);
+      return add(
+          "nat:" + name + ":" + descriptor,
+          out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+          });
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+      int classIndex = classRef(owner);
+      int natIndex = nameAndType(name, descriptor);
+      return add(
+          tag + ":" + owner + ":" + name + ":" + descriptor,
+          out -> {
+            out.writeByte(tag);
+            out.writeShort(classIndex);
+            out.writeShort(natIndex);
+          });
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+      return memberRef(9, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+      return memberRef(10, owner, name, descriptor);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      this.out.flush();
+      out.writeShort(indices.size() + 1);
+      out.write(bytes.toByteArray());
+    }
+  }
+
+  /** Bytecode of a single method. */
+  private static class Code {
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+    Code op(int opcode) {
+      return u1(opcode);
+    }
+
+    Code u1(int value) {
+      code.write(value);
+      return this;
+    }
+
+    Code u2(int value) {
+      code.write(value >> 8);
+      code.write(value);
+      return this;
+    }
+
+    /** Serialize {@code method_info} structure with {@code Code} attribute. */
+    byte[] method(
+        ConstantPool cp, int access, String name, String descriptor, int maxStack, int maxLocals) {
+      int nameIndex = cp.utf8(name);
+      int descriptorIndex = cp.utf8(descriptor);
+      int codeAttribute = cp.utf8("Code");
+      try {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(access);
+        out.writeShort(nameIndex);
+        out.writeShort(descriptorIndex);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + code.size());
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.size());
+        code.writeTo(out);
+        // exception table
+        out.writeShort(0);
+        // attributes
+        out.writeShort(0);
+        out.flush();
+        return bytes.toByteArray();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package com.github.stepancheg.mhlang;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Method handle which is looked up on the first use.
+ *
+ * <p>Member lookup is relatively expensive, and most of handles in utility classes are not needed
+ * by a program, so they are not resolved in static initializers.
+ */
+final class LazyMh {
+
+  private final MethodHandles.Lookup lookup;
+  private final Class<?> refc;
+  private final String name;
+  private final MethodType type;
+  private final boolean isStatic;
+
+  /** Resolved handle; racy initialization is fine because method handles are immutable. */
+  private MethodHandle mh;
+
+  private LazyMh(
+      MethodHandles.Lookup lookup, Class<?> refc, String name, MethodType type, boolean isStatic) {
+    this.lookup = lookup;
+    this.refc = refc;
+    this.name = name;
+    this.type = type;
+    this.isStatic = isStatic;
+  }
+
+  static LazyMh findStatic(
+      MethodHandles.Lookup lookup, Class<?> refc, String name, MethodType type) {
+    return new LazyMh(lookup, refc, name, type, true);
+  }
+
+  static LazyMh findVirtual(
+      MethodHandles.Lookup lookup, Class<?> refc, String name, MethodType type) {
+    return new LazyMh(lookup, refc, name, type, false);
+  }
+
+  MethodHandle get() {
+    MethodHandle mh = this.mh;
+    if (mh == null) {
+      try {
+        mh =
+            isStatic
+                ? lookup.findStatic(refc, name, type)
+                : lookup.findVirtual(refc, name, type);
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+      this.mh = mh;
+    }
+    return mh;
+  }
+
+  @Override
+  public String toString() {
+    return refc.getSimpleName() + "." + name + type;
+  }
+}
@@ -0,0 +1,284 @@
+package com.github.stepancheg.mhlang;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An utility to build a loop with several state variables.
+ *
+ * <pre>
+ *     LoopBuilder b = new LoopBuilder();
+ *     Var&lt;Integer&gt; i = b.addCounter(Closure.constant(0), n);
+ *     Var&lt;Integer&gt; sum = b.addVar(Closure.constant(0));
+ *     Var&lt;Integer&gt; count = b.addVar(Closure.constant(0));
+ *     b.update(sum, Closure.plus(sum, i));
+ *     b.update(count, Closure.plus(count, Closure.constant(1)));
+ *     Closure&lt;Double&gt; average =
+ *         b.whileLoop(
+ *             Closure.constant(true),
+ *             Closure.biFunction(Double.class, sum, count, (s, c) -&gt; (double) s / c));
+ * </pre>
+ *
+ * <p>Each variable is a separate {@link MethodHandles#loop(MethodHandle[]...)} clause, so
+ * variables of primitive types are not boxed and no state holder is allocated.
+ *
+ * <p>Within an iteration variables are updated in order they were added, and an update expression
+ * observes variables already updated in this iteration, like a sequence of assignments in a Java
+ * loop body. Counters are incremented after all other variables are updated.
+ */
+public class LoopBuilder {
+
+  private final long functionId = FunctionId.nextId();
+
+  /** Clause group: variables of lower groups are updated first. */
+  private static final int GROUP_ELEMENT = 0;
+
+  private static final int GROUP_VAR = 1;
+  private static final int GROUP_COUNTER = 2;
+
+  private static class LoopVar {
+    private final Var.Param<?> var;
+    private final Closure<?> init;
+    private final int group;
+    @Nullable private Closure<?> update;
+
+    LoopVar(Var.Param<?> var, Closure<?> init, int group, @Nullable Closure<?> update) {
+      this.var = var;
+      this.init = init;
+      this.group = group;
+      this.update = update;
+    }
+  }
+
+  private final ArrayList<LoopVar> vars = new ArrayList<>();
+  /** Conditions checked before user predicate, e. g. counter bounds. */
+  private final ArrayList<Expr<Boolean>> conditions = new ArrayList<>();
+
+  private boolean built = false;
+
+  /** Create a new loop builder. */
+  public LoopBuilder() {}
+
+  private <V> Var<V> addVar(Class<V> type, Expr<?> init, int group, @Nullable Closure<?> update) {
+    Preconditions.checkState(!built, "loop is already built");
+    Preconditions.checkArgument(type != void.class, "loop variable must not be void");
+    Preconditions.checkArgument(init.type() == type, "init type must be %s: %s", type, init);
+    Var.Param<V> var = new Var.Param<>(functionId, vars.size(), type);
+    vars.add(new LoopVar(var, init.asClosure(), group, update));
+    return var;
+  }
+
+  /**
+   * Add a loop variable initialized with given expression. Variable keeps its value unless updated
+   * with {@link #update(Var, Expr)}.
+   */
+  public <V> Var<V> addVar(Expr<V> init) {
+    return addVar(init.type(), init, GROUP_VAR, null);
+  }
+
+  /** Set an expression computing next value of a variable. */
+  public <V> void update(Var<V> var, Expr<V> next) {
+    Preconditions.checkState(!built, "loop is already built");
+    LoopVar loopVar =
+        vars.stream()
+            .filter(v -> v.var == var)
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("not a variable of this loop: " + var));
+    Preconditions.checkArgument(
+        loopVar.group == GROUP_VAR, "counter or iterator element cannot be updated: %s", var);
+    Preconditions.checkArgument(next.type() == var.type(), "wrong type of update: %s", next);
+    loopVar.update = next.asClosure();
+  }
+
+  /**
+   * Add a counter {@code for (i = start(...); i < end(...); ++i)}. Both bounds are evaluated once.
+   * Loop terminates when counter reaches {@code end}.
+   */
+  public Var<Integer> addCounter(Expr<Integer> start, Expr<Integer> end) {
+    Var<Integer> e = addVar(int.class, end, GROUP_COUNTER, null);
+    Var<Integer> i = addVar(int.class, start, GROUP_COUNTER, null);
+    vars.get(vars.size() - 1).update = Closure.plus(i, Closure.constant(1));
+    conditions.add(Closure.lt(i, e));
+    return i;
+  }
+
+  /**
+   * Iterate over elements of an iterator. Returned variable is the element of current iteration.
+   * Loop terminates when iterator has no more elements.
+   *
+   * <p>Next element is fetched after the iterator is checked for more elements and before the loop
+   * predicate, so the predicate observes the element of current iteration too.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public <T> Var<T> addIterator(Class<T> elementType, Expr<? extends Iterator<?>> iterator) {
+    Var<Iterator> it =
+        addVar(Iterator.class, iterator.asClosure().cast(Iterator.class), GROUP_ELEMENT, null);
+    Closure<T> next =
+        Closure.fold(
+            MethodHandles.explicitCastArguments(
+                MhUtil.ITERATOR_NEXT.get(), MethodType.methodType(elementType, Iterator.class)),
+            it);
+    Closure<T> zero = Closure.constant(elementType, (T) Eval.zero(elementType));
+    Var<T> element = addVar(elementType, zero, GROUP_ELEMENT, next);
+    conditions.add(Closure.fold(MhUtil.ITERATOR_HAS_NEXT.get(), it));
+    return element;
+  }
+
+  /**
+   * Build a loop.
+   *
+   * <pre>
+   *     vars = init...
+   *     while (counters and iterators have more elements) {
+   *         elements = iterators.next()...
+   *         if (!pred(vars, ...)) {
+   *             break;
+   *         }
+   *         vars = update...
+   *     }
+   *     return result(vars, ...);
+   * </pre>
+   */
+  public <R> Closure<R> whileLoop(Expr<Boolean> pred, Expr<R> result) {
+    return build(pred, result, false);
+  }
+
+  /**
+   * Build a loop which checks a predicate after an iteration. Counters and iterators are not
+   * supported in this kind of loop.
+   *
+   * <pre>
+   *     vars = init...
+   *     do {
+   *         vars = update...
+   *     } while (pred(vars, ...));
+   *     return result(vars, ...);
+   * </pre>
+   */
+  public <R> Closure<R> doWhileLoop(Expr<Boolean> pred, Expr<R> result) {
+    Preconditions.checkState(
+        conditions.isEmpty(), "counters and iterators are not supported in do-while loop");
+    return build(pred, result, true);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <R> Closure<R> build(Expr<Boolean> pred, Expr<R> result, boolean doWhile) {
+    Preconditions.checkState(!built, "loop is already built");
+    built = true;
+
+    List<LoopVar> ordered =
+        vars.stream()
+            .sorted(Comparator.comparingInt(v -> v.group))
+            .collect(Collectors.toList());
+    ImmutableList<Var<?>> loopVars =
+        ordered.stream().map(v -> v.var).collect(ImmutableList.toImmutableList());
+    for (LoopVar v : ordered) {
+      Preconditions.checkArgument(
+          v.init.args.stream().noneMatch(a -> a.functionId == functionId),
+          "loop variable init must not reference loop variables: %s",
+          v.init);
+    }
+
+    // iterator elements are fetched before the predicate
+    int elementCount = (int) ordered.stream().filter(v -> v.group == GROUP_ELEMENT).count();
+    @Nullable Closure<Boolean> conditionsCl = conditions.isEmpty() ? null : Closure.and(conditions);
+    Closure<Boolean> predCl = pred.asClosure();
+    Closure<R> resultCl = result.asClosure();
+    List<Closure<?>> updates =
+        ordered.stream()
+            .map(v -> v.update != null ? v.update : v.var.asClosure())
+            .collect(Collectors.toList());
+
+    SigUnifier full =
+        new SigUnifier(
+            Stream.of(
+                    Stream.of(loopVars, predCl.args, resultCl.args),
+                    Stream.ofNullable(conditionsCl).map(c -> c.args),
+                    updates.stream().map(c -> c.args),
+                    ordered.stream().map(v -> v.init.args))
+                .flatMap(x -> x)
+                .toArray(ImmutableList[]::new));
+    ImmutableList<Var<?>> outerVars = full.allVars.subList(loopVars.size(), full.allVars.size());
+    SigUnifier outer = new SigUnifier(outerVars);
+
+    Closure<?>[] initsFull = ordered.stream().map(v -> outer.unify(v.init)).toArray(Closure[]::new);
+    Closure<?>[] updatesFull = updates.stream().map(full::unify).toArray(Closure[]::new);
+    @Nullable
+    Closure<Boolean> conditionsFull = conditionsCl != null ? full.unify(conditionsCl) : null;
+    Closure<Boolean> predFull = full.unify(predCl);
+    Closure<R> resultFull = full.unify(resultCl);
+
+    Eval eval =
+        a -> {
+          Object[] v = new Object[initsFull.length];
+          for (int i = 0; i != v.length; ++i) {
+            v[i] = initsFull[i].eval.eval(a);
+          }
+          while (true) {
+            if (conditionsFull != null && !(Boolean) conditionsFull.eval.eval(Eval.prepend(a, v))) {
+              break;
+            }
+            for (int i = 0; i != elementCount; ++i) {
+              v[i] = updatesFull[i].eval.eval(Eval.prepend(a, v));
+            }
+            if (!doWhile && !(Boolean) predFull.eval.eval(Eval.prepend(a, v))) {
+              break;
+            }
+            for (int i = elementCount; i != v.length; ++i) {
+              v[i] = updatesFull[i].eval.eval(Eval.prepend(a, v));
+            }
+            if (doWhile && !(Boolean) predFull.eval.eval(Eval.prepend(a, v))) {
+              break;
+            }
+          }
+          return resultFull.eval.eval(Eval.prepend(a, v));
+        };
+
+    return Closure.lazy(
+            resultCl.type(),
+            outerVars,
+            () -> {
+              ArrayList<MethodHandle[]> clauses = new ArrayList<>();
+              MethodHandle[] predClause = {null, null, predFull.mh(), resultFull.mh()};
+              if (conditionsFull != null) {
+                clauses.add(new MethodHandle[] {null, null, conditionsFull.mh(), resultFull.mh()});
+              }
+              for (int i = 0; i != initsFull.length; ++i) {
+                if (i == elementCount && !doWhile) {
+                  clauses.add(predClause);
+                }
+                clauses.add(new MethodHandle[] {initsFull[i].mh(), updatesFull[i].mh()});
+              }
+              if (initsFull.length == elementCount && !doWhile) {
+                clauses.add(predClause);
+              }
+              if (doWhile) {
+                clauses.add(predClause);
+              }
+              return MethodHandles.loop(clauses.toArray(new MethodHandle[0][]));
+            },
+            eval)
+        .describe(
+            doWhile ? "doWhileLoop" : "whileLoop",
+            ordered.size() + " vars",
+            Stream.of(
+                    ordered.stream().map(v -> v.init),
+                    Stream.ofNullable(conditionsCl),
+                    Stream.of(predCl),
+                    updates.stream(),
+                    Stream.of(resultCl))
+                .flatMap(x -> x)
+                .toArray(Expr<?>[]::new));
+  }
+}
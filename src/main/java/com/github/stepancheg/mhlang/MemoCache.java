@@ -0,0 +1,154 @@
+package com.github.stepancheg.mhlang;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounded cache of results of a closure, see {@link Closure#memoize(Closure, MemoCache)}.
+ *
+ * <p>Cache is keyed by closure arguments: a single argument is the key itself, several arguments
+ * are wrapped in a list. Least recently used entries are evicted when the cache is full. Values
+ * are computed outside of the lock, so concurrent misses of the same key may compute the value
+ * more than once.
+ */
+public final class MemoCache {
+
+  /** Replacement of {@code null} keys and values, which are not allowed in the cache. */
+  private static final Object NULL = new Object();
+
+  private static final Object[] NO_ARGS = new Object[0];
+
+  private static final MethodHandle GET_1;
+  private static final MethodHandle GET_N;
+
+  static {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      GET_1 =
+          lookup.findVirtual(
+              MemoCache.class,
+              "get1",
+              MethodType.methodType(Object.class, MethodHandle.class, Object.class));
+      GET_N =
+          lookup.findVirtual(
+              MemoCache.class,
+              "getN",
+              MethodType.methodType(Object.class, MethodHandle.class, Object[].class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private final long maximumSize;
+  private final Cache<Object, Object> cache;
+  private final AtomicBoolean used = new AtomicBoolean();
+
+  private MemoCache(long maximumSize) {
+    this.maximumSize = maximumSize;
+    this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  /** Create a cache holding at most given number of entries. */
+  public static MemoCache maximumSize(long maximumSize) {
+    Preconditions.checkArgument(maximumSize >= 0, "negative size: %s", maximumSize);
+    return new MemoCache(maximumSize);
+  }
+
+  /** Hit, miss and eviction counts. */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /** Number of cached entries. */
+  public long size() {
+    return cache.size();
+  }
+
+  /** Discard all cached values. */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /** Cache must not be shared by closures, because their keys would clash. */
+  void bind() {
+    Preconditions.checkState(
+        used.compareAndSet(false, true), "cache is already used by another closure");
+  }
+
+  private static Object maskNull(Object value) {
+    return value != null ? value : NULL;
+  }
+
+  private static Object unmaskNull(Object value) {
+    return value != NULL ? value : null;
+  }
+
+  private static Object key(Object[] args) {
+    return args.length == 1 ? maskNull(args[0]) : Arrays.asList(args.clone());
+  }
+
+  private Object get1(MethodHandle target, Object a) throws Throwable {
+    Object key = maskNull(a);
+    Object value = cache.getIfPresent(key);
+    if (value == null) {
+      value = maskNull(target.invokeExact(a));
+      cache.put(key, value);
+    }
+    return unmaskNull(value);
+  }
+
+  private Object getN(MethodHandle target, Object[] args) throws Throwable {
+    Object key = Arrays.asList(args);
+    Object value = cache.getIfPresent(key);
+    if (value == null) {
+      value = maskNull(target.invokeExact(args));
+      cache.put(key, value);
+    }
+    return unmaskNull(value);
+  }
+
+  /** Wrap handle {@code (A...) -> R} with this cache. */
+  MethodHandle wrap(MethodHandle target) {
+    MethodType type = target.type();
+    int n = type.parameterCount();
+    MethodHandle mh;
+    if (n == 1) {
+      mh = MethodHandles.insertArguments(GET_1, 0, this, target.asType(type.generic()));
+    } else {
+      MethodHandle spread =
+          target
+              .asSpreader(Object[].class, n)
+              .asType(MethodType.methodType(Object.class, Object[].class));
+      mh = MethodHandles.insertArguments(GET_N, 0, this, spread);
+      mh =
+          n == 0
+              ? MethodHandles.insertArguments(mh, 0, (Object) NO_ARGS)
+              : mh.asCollector(Object[].class, n);
+    }
+    return mh.asType(type);
+  }
+
+  /** Evaluate interpreted closure with this cache. */
+  Object eval(Eval eval, Object[] args) throws Throwable {
+    Object key = key(args);
+    Object value = cache.getIfPresent(key);
+    if (value == null) {
+      value = maskNull(eval.eval(args));
+      cache.put(key, value);
+    }
+    return unmaskNull(value);
+  }
+
+  @Override
+  public String toString() {
+    return "MemoCache{maximumSize=" + maximumSize + ", size=" + size() + "}";
+  }
+}
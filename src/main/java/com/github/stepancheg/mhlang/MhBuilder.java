@@ -1,11 +1,13 @@
 package com.github.stepancheg.mhlang;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
 import com.google.common.reflect.TypeToken;
 
+import javax.annotation.Nullable;
 import java.lang.invoke.MethodHandle;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -16,7 +18,7 @@ import java.util.function.Function;
  */
 public class MhBuilder extends Builder {
 
-  private ArrayList<Var.Param<?>> params = new ArrayList<>();
+  @Nullable private Closure<?> built;
 
   /**
    * Create a fresh new builder for {@link MethodHandle}.
@@ -27,11 +29,6 @@ public class MhBuilder extends Builder {
    */
   public MhBuilder() {}
 
-  @Override
-  ImmutableList<Var<?>> paramsOrOuterVars() {
-    return ImmutableList.copyOf(params);
-  }
-
   @Override
   void addOuterVar(Var<?> outerVar) {
     throw new IllegalArgumentException("cannot reference outer var when building a function");
@@ -46,8 +43,8 @@ public class MhBuilder extends Builder {
     Preconditions.checkState(type != void.class, "Parameter type must not be void");
     Preconditions.checkState(
         !bodyStarted(), "Cannot add function parameter after function body started");
-    Var.Param<T> param = new Var.Param<>(functionId, params.size(), type);
-    params.add(param);
+    Var.Param<T> param = new Var.Param<>(functionId, paramOrOuterVarCount(), type);
+    addParamOrOuterVar(param);
     return param;
   }
 
@@ -65,7 +62,136 @@ public class MhBuilder extends Builder {
   /** Finalize construction by creating a {@link MethodHandle} returning given expression. */
   public MethodHandle buildReturn(Expr<?> returnValue) {
     Var<?> val = assign(returnValue.asClosure());
-    return buildReturnImpl(val).mh;
+    built = buildReturnImpl(val);
+    return built.mh();
+  }
+
+  /**
+   * Like {@link #buildReturn(Expr)}, but statements are compiled to method handles on the first
+   * invocation of the returned method handle.
+   *
+   * <p>This is useful when many functions are generated, but only few of them are invoked.
+   */
+  public MethodHandle buildReturnLazy(Expr<?> returnValue) {
+    Var<?> val = assign(returnValue.asClosure());
+    Closure<?> built = buildReturnImpl(val);
+    this.built = built;
+    return MhUtil.lazy(built.methodType(), built::mh);
+  }
+
+  /**
+   * Like {@link #buildReturn(Expr)}, but the function is interpreted for the first {@code
+   * compileThreshold} invocations, and then compiled to method handles.
+   *
+   * <p>Interpreter is much slower than compiled method handles, but it spins far fewer classes and
+   * lambda forms, so functions which are invoked rarely are cheap at startup.
+   */
+  public MethodHandle buildReturnTiered(Expr<?> returnValue, int compileThreshold) {
+    Var<?> val = assign(returnValue.asClosure());
+    Closure<?> built = buildReturnImpl(val);
+    this.built = built;
+    return built.interpreted(compileThreshold);
+  }
+
+  /**
+   * Like {@link #buildReturn(Expr)}, but returned method handle runs the function in given
+   * executor and returns a {@link CompletableFuture} of the result. If the function itself returns
+   * a future (e. g. built with {@link Closure#thenCompose}), that future is flattened.
+   *
+   * <p>With {@code Executors.newVirtualThreadPerTaskExecutor()} (Java 21) each invocation runs in
+   * its own virtual thread.
+   */
+  @SuppressWarnings("unchecked")
+  public MethodHandle buildReturnAsync(Expr<?> returnValue, Executor executor) {
+    Var<?> val = assign(returnValue.asClosure());
+    Closure<Object> built = (Closure<Object>) buildReturnImpl(val);
+    this.built = built;
+    Closure<CompletableFuture<Object>> async = Closure.supplyAsync(built, executor);
+    if (CompletableFuture.class.isAssignableFrom(built.type())) {
+      async =
+          Closure.thenCompose(
+              (Closure<CompletableFuture<CompletableFuture<Object>>>) (Closure<?>) async,
+              (Class<CompletableFuture<Object>>) (Class<?>) CompletableFuture.class,
+              Var::asClosure);
+    }
+    return async.mh();
+  }
+
+  /**
+   * Finalize construction by creating a {@link MethodHandle} which evaluates the function for a
+   * range of rows of columnar inputs.
+   *
+   * <p>For a function {@code (P1, P2...) -> R} returned handle type is {@code (P1[], P2[]..., R[]
+   * out, int from, int to) -> void}, and it performs
+   *
+   * <pre>
+   *     for (int i = from; i &lt; to; ++i) {
+   *         out[i] = f(p1[i], p2[i]...);
+   *     }
+   * </pre>
+   *
+   * in a generated counted loop. For a {@code void} function there is no {@code out} parameter.
+   */
+  @SuppressWarnings("unchecked")
+  public MethodHandle buildBatch(Expr<?> returnValue) {
+    Var<?> val = assign(returnValue.asClosure());
+    Closure<Object> built = (Closure<Object>) buildReturnImpl(val);
+    this.built = built;
+
+    MhBuilder b = new MhBuilder();
+    ArrayList<Var<Object>> columns = new ArrayList<>();
+    for (Var<?> param : built.args) {
+      columns.add((Var<Object>) b.addParam(ClassUtil.arrayType(param.type())));
+    }
+    Class<?> returnType = built.type();
+    Var<Object> out =
+        returnType != void.class ? (Var<Object>) b.addParam(ClassUtil.arrayType(returnType)) : null;
+    Var<Integer> from = b.addParam(int.class);
+    Var<Integer> to = b.addParam(int.class);
+
+    b.assign(
+        Closure.countedLoop(
+            from.asClosure(),
+            to.asClosure(),
+            Closure.constant(0),
+            (v, i) -> {
+              Closure<Object> row =
+                  built.invokeWith(
+                      columns.stream()
+                          .map(c -> Closure.getArrayElement(c, i))
+                          .toArray(Expr<?>[]::new));
+              ClosureBuilder cb = new ClosureBuilder();
+              if (out != null) {
+                cb.assign(Closure.setArrayElement(out, i, row));
+              } else {
+                cb.assign(row);
+              }
+              return cb.buildReturn(v);
+            }));
+    return b.buildReturnVoid();
+  }
+
+  /**
+   * Finalize construction by creating an instance of given functional interface which invokes the
+   * function.
+   *
+   * <p>Method handle is stored in a static final field of a generated (hidden, when runtime
+   * supports it) class, so JIT inlines the function into callers even when the instance is not a
+   * constant itself. Function is adapted to the interface method type like with {@link
+   * MethodHandle#asType}, checked exceptions are propagated as is.
+   *
+   * <p>Interface must be public and visible from the class loader of this library.
+   */
+  public <I> I buildAs(Class<I> functionalInterface, Expr<?> returnValue) {
+    return InterfaceImpl.implement(functionalInterface, buildReturn(returnValue));
+  }
+
+  /**
+   * Like {@link #buildReturn(Expr)}, but the function is installed into a call site, and can be
+   * later replaced with {@link Swappable#swap} or {@link Swappable#swapAll}.
+   */
+  public Swappable buildSwappable(Expr<?> returnValue) {
+    return new Swappable(buildReturn(returnValue));
   }
 
   /** Finalize construction by creating a {@link MethodHandle} returning {@code void}. */
@@ -73,6 +199,12 @@ public class MhBuilder extends Builder {
     return buildReturn(Closure.constantVoid());
   }
 
+  /** Structure of the function built by this builder, for diagnostics. */
+  public ClosureGraph graph() {
+    Preconditions.checkState(built != null, "function is not built yet");
+    return ClosureGraph.of(built);
+  }
+
   /**
    * Create a method handle from a parameterless closure.
    *
@@ -5,9 +5,13 @@ import com.google.common.base.Preconditions;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 class MhUtil {
 
@@ -22,45 +26,8 @@ class MhUtil {
     return MethodHandles.empty(MethodType.methodType(void.class, params));
   }
 
-  private static int plus(int a, int b) {
-    return a + b;
-  }
-
-  private static long plus(long a, long b) {
-    return a + b;
-  }
-
-  private static String plus(String a, String b) {
-    return a + b;
-  }
-
-  private static int mul(int a, int b) {
-    return a * b;
-  }
-
-  private static long mul(long a, long b) {
-    return a * b;
-  }
-
-  static MethodHandle plus(Class<?> argType) {
-    try {
-      return MethodHandles.lookup().findStatic(MhUtil.class, "plus", MethodType.methodType(argType, argType, argType));
-    } catch (NoSuchMethodException e) {
-      throw new IllegalArgumentException("+ is not implemented for " + argType);
-    } catch (IllegalAccessException e) {
-      throw new RuntimeException(e);
-    }
-  }
-
-  static MethodHandle mul(Class<?> argType) {
-    try {
-      return MethodHandles.lookup().findStatic(MhUtil.class, "mul", MethodType.methodType(argType, argType, argType));
-    } catch (NoSuchMethodException e) {
-      throw new IllegalArgumentException("* is not implemented for " + argType);
-    } catch (IllegalAccessException e) {
-      throw new RuntimeException(e);
-    }
-  }
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+  private static final MethodHandles.Lookup PUBLIC_LOOKUP = MethodHandles.publicLookup();
 
   private static boolean isNotNull(Object o) {
     return o != null;
@@ -70,33 +37,38 @@ class MhUtil {
     return !b;
   }
 
-  static final MethodHandle IS_NOT_NULL;
-  static final MethodHandle NOT;
-
-  static {
-    try {
-      IS_NOT_NULL = MethodHandles.lookup().findStatic(MhUtil.class, "isNotNull", MethodType.methodType(boolean.class, Object.class));
-      NOT = MethodHandles.lookup().findStatic(MhUtil.class, "not", MethodType.methodType(boolean.class, boolean.class));
-    } catch (NoSuchMethodException | IllegalAccessException e) {
-      throw new RuntimeException(e);
-    }
-  }
-
-  static final MethodHandle ITERABLE_ITERATOR;
-  static final MethodHandle COMPARABLE;
-
-  static {
-    try {
-      ITERABLE_ITERATOR =
-        MethodHandles.publicLookup()
-          .findVirtual(Iterable.class, "iterator", MethodType.methodType(Iterator.class));
-      COMPARABLE =
-        MethodHandles.publicLookup()
-        .findVirtual(Comparable.class, "compareTo", MethodType.methodType(int.class, Object.class));
-    } catch (NoSuchMethodException | IllegalAccessException e) {
-      throw new RuntimeException(e);
-    }
-  }
+  static final LazyMh IS_NOT_NULL =
+      LazyMh.findStatic(
+          LOOKUP, MhUtil.class, "isNotNull", MethodType.methodType(boolean.class, Object.class));
+  static final LazyMh NOT =
+      LazyMh.findStatic(
+          LOOKUP, MhUtil.class, "not", MethodType.methodType(boolean.class, boolean.class));
+
+  static final LazyMh ITERABLE_ITERATOR =
+      LazyMh.findVirtual(
+          PUBLIC_LOOKUP, Iterable.class, "iterator", MethodType.methodType(Iterator.class));
+  static final LazyMh ITERATOR_HAS_NEXT =
+      LazyMh.findVirtual(
+          PUBLIC_LOOKUP, Iterator.class, "hasNext", MethodType.methodType(boolean.class));
+  static final LazyMh ITERATOR_NEXT =
+      LazyMh.findVirtual(
+          PUBLIC_LOOKUP, Iterator.class, "next", MethodType.methodType(Object.class));
+  static final LazyMh LIST_SIZE =
+      LazyMh.findVirtual(PUBLIC_LOOKUP, List.class, "size", MethodType.methodType(int.class));
+  static final LazyMh LIST_GET =
+      LazyMh.findVirtual(
+          PUBLIC_LOOKUP, List.class, "get", MethodType.methodType(Object.class, int.class));
+  static final LazyMh COMPARABLE =
+      LazyMh.findVirtual(
+          PUBLIC_LOOKUP,
+          Comparable.class,
+          "compareTo",
+          MethodType.methodType(int.class, Object.class));
+  static final LazyMh ENUM_ORDINAL =
+      LazyMh.findVirtual(PUBLIC_LOOKUP, Enum.class, "ordinal", MethodType.methodType(int.class));
+  static final LazyMh TO_INT_EXACT =
+      LazyMh.findStatic(
+          PUBLIC_LOOKUP, Math.class, "toIntExact", MethodType.methodType(int.class, long.class));
 
   private static boolean eq(boolean a, boolean b) {
     return a == b;
@@ -142,70 +114,233 @@ class MhUtil {
     }
   }
 
-  static MethodHandle eq(Class<?> type) {
-    Class<?> pType;
-    if (!type.isPrimitive()) {
-      pType = Object.class;
-    } else {
-      pType = type;
-    }
-    MethodHandle mh;
-    try {
-      mh = MethodHandles.lookup().findStatic(MhUtil.class, "eq", MethodType.methodType(boolean.class, pType, pType));
-    } catch (NoSuchMethodException | IllegalAccessException e) {
-      throw new RuntimeException(e);
-    }
-    if (!type.isPrimitive()) {
-      mh = MethodHandles.explicitCastArguments(mh, MethodType.methodType(boolean.class, type, type));
+  /** Per-type cache of handles. */
+  private abstract static class TypeCache extends ClassValue<MethodHandle> {
+    @Override
+    protected MethodHandle computeValue(Class<?> type) {
+      try {
+        return compute(type);
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
     }
-    return mh;
+
+    abstract MethodHandle compute(Class<?> type)
+        throws NoSuchMethodException, IllegalAccessException;
   }
 
-  private static final MethodHandle SAME;
+  private static final TypeCache EQ =
+      new TypeCache() {
+        @Override
+        MethodHandle compute(Class<?> type) throws NoSuchMethodException, IllegalAccessException {
+          Class<?> pType = type.isPrimitive() ? type : Object.class;
+          MethodHandle mh =
+              LOOKUP.findStatic(
+                  MhUtil.class, "eq", MethodType.methodType(boolean.class, pType, pType));
+          return MethodHandles.explicitCastArguments(
+              mh, MethodType.methodType(boolean.class, type, type));
+        }
+      };
 
-  static {
-    try {
-      SAME = MethodHandles.lookup().findStatic(MhUtil.class, "same", MethodType.methodType(boolean.class, Object.class, Object.class));
-    } catch (NoSuchMethodException | IllegalAccessException e) {
-      throw new RuntimeException(e);
-    }
+  static MethodHandle eq(Class<?> type) {
+    return EQ.get(type);
   }
 
+  private static final LazyMh SAME =
+      LazyMh.findStatic(
+          LOOKUP,
+          MhUtil.class,
+          "same",
+          MethodType.methodType(boolean.class, Object.class, Object.class));
+
+  private static final TypeCache SAME_BY_TYPE =
+      new TypeCache() {
+        @Override
+        MethodHandle compute(Class<?> type) {
+          if (type.isPrimitive()) {
+            return eq(type);
+          } else {
+            return MethodHandles.explicitCastArguments(
+                SAME.get(), MethodType.methodType(boolean.class, type, type));
+          }
+        }
+      };
+
   static MethodHandle same(Class<?> type) {
-    if (type.isPrimitive()) {
-      return eq(type);
-    } else {
-      return MethodHandles.explicitCastArguments(SAME, MethodType.methodType(boolean.class, type, type));
-    }
+    return SAME_BY_TYPE.get(type);
   }
 
-  private static final MethodHandle OBJECTS_HASH_CODE;
-  private static final MethodHandle OBJECTS_TO_STRING;
-
-  static {
-    try {
-      OBJECTS_HASH_CODE = MethodHandles.publicLookup().findStatic(Objects.class, "hashCode", MethodType.methodType(int.class, Object.class));
-      OBJECTS_TO_STRING = MethodHandles.publicLookup().findStatic(Objects.class, "toString", MethodType.methodType(String.class, Object.class));
-    } catch (NoSuchMethodException | IllegalAccessException e) {
-      throw new RuntimeException(e);
-    }
-  }
+  private static final LazyMh OBJECTS_HASH_CODE =
+      LazyMh.findStatic(
+          PUBLIC_LOOKUP, Objects.class, "hashCode", MethodType.methodType(int.class, Object.class));
+  private static final LazyMh OBJECTS_TO_STRING =
+      LazyMh.findStatic(
+          PUBLIC_LOOKUP,
+          Objects.class,
+          "toString",
+          MethodType.methodType(String.class, Object.class));
+
+  private static final TypeCache HASH_CODE =
+      new TypeCache() {
+        @Override
+        MethodHandle compute(Class<?> type) {
+          if (type.isPrimitive()) {
+            return PrimitiveType.forPrimitiveClass(type).hashCodeMh();
+          } else {
+            return MethodHandles.explicitCastArguments(
+                OBJECTS_HASH_CODE.get(), MethodType.methodType(int.class, type));
+          }
+        }
+      };
+
+  private static final TypeCache TO_STRING =
+      new TypeCache() {
+        @Override
+        MethodHandle compute(Class<?> type) {
+          if (type.isPrimitive()) {
+            return PrimitiveType.forPrimitiveClass(type).toStringMh();
+          } else {
+            return MethodHandles.explicitCastArguments(
+                OBJECTS_TO_STRING.get(), MethodType.methodType(String.class, type));
+          }
+        }
+      };
 
   static MethodHandle hashCode(Class<?> type) {
     Preconditions.checkArgument(type != void.class);
-    if (type.isPrimitive()) {
-      return PrimitiveType.forPrimitiveClass(type).hashCodeMh;
-    } else {
-      return MethodHandles.explicitCastArguments(OBJECTS_HASH_CODE, MethodType.methodType(int.class, type));
-    }
+    return HASH_CODE.get(type);
   }
 
   static MethodHandle toString(Class<?> type) {
     Preconditions.checkArgument(type != void.class);
-    if (type.isPrimitive()) {
-      return PrimitiveType.forPrimitiveClass(type).toStringMh;
-    } else {
-      return MethodHandles.explicitCastArguments(OBJECTS_TO_STRING, MethodType.methodType(String.class, type));
+    return TO_STRING.get(type);
+  }
+
+  /** Holder of {@code MethodHandles.tableSwitch}, initialized on first switch. */
+  private static class TableSwitch {
+    /** {@code MethodHandles.tableSwitch} if running on Java 17+ or {@code null} otherwise. */
+    static final MethodHandle TABLE_SWITCH;
+
+    static {
+      MethodHandle tableSwitch;
+      try {
+        tableSwitch =
+            PUBLIC_LOOKUP.findStatic(
+                MethodHandles.class,
+                "tableSwitch",
+                MethodType.methodType(
+                    MethodHandle.class, MethodHandle.class, MethodHandle[].class));
+      } catch (NoSuchMethodException e) {
+        tableSwitch = null;
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+      TABLE_SWITCH = tableSwitch;
+    }
+  }
+
+  /**
+   * Jump table. All handles must have the same type with leading {@code int} parameter. Resulting
+   * handle invokes {@code cases[i]} if {@code i} is in range or {@code defaultCase} otherwise.
+   *
+   * <p>Uses {@code MethodHandles.tableSwitch} when available.
+   */
+  static MethodHandle tableSwitch(MethodHandle defaultCase, MethodHandle... cases) {
+    if (cases.length == 0) {
+      return defaultCase;
+    }
+    if (TableSwitch.TABLE_SWITCH == null) {
+      return tableSwitchInvoker(defaultCase, cases);
     }
+    try {
+      return (MethodHandle) TableSwitch.TABLE_SWITCH.invokeExact(defaultCase, cases);
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+  }
+
+  private static int clampIndex(int i, int count) {
+    return i >= 0 && i < count ? i : count;
+  }
+
+  private static final LazyMh CLAMP_INDEX =
+      LazyMh.findStatic(
+          LOOKUP,
+          MhUtil.class,
+          "clampIndex",
+          MethodType.methodType(int.class, int.class, int.class));
+
+  /** {@link #tableSwitch(MethodHandle, MethodHandle...)} implemented with an array of handles. */
+  static MethodHandle tableSwitchInvoker(MethodHandle defaultCase, MethodHandle... cases) {
+    MethodType type = defaultCase.type();
+    Preconditions.checkArgument(
+        type.parameterCount() >= 1 && type.parameterType(0) == int.class,
+        "case must have leading int parameter: %s",
+        defaultCase);
+    for (MethodHandle c : cases) {
+      Preconditions.checkArgument(
+          c.type().equals(type), "case %s type does not match default %s", c, defaultCase);
+    }
+
+    // Last element is the default case
+    MethodHandle[] table = Arrays.copyOf(cases, cases.length + 1);
+    table[cases.length] = defaultCase;
+
+    // (int) -> MethodHandle
+    MethodHandle select =
+        MethodHandles.filterArguments(
+            MethodHandles.arrayElementGetter(MethodHandle[].class).bindTo(table),
+            0,
+            MethodHandles.insertArguments(CLAMP_INDEX.get(), 1, cases.length));
+
+    // (MethodHandle, int, ...) -> R
+    MethodHandle invoker = MethodHandles.exactInvoker(type);
+    // (int, int, ...) -> R
+    MethodHandle mh = MethodHandles.filterArguments(invoker, 0, select);
+    // (int, ...) -> R
+    int[] reorder = new int[mh.type().parameterCount()];
+    for (int i = 1; i != reorder.length; ++i) {
+      reorder[i] = i - 1;
+    }
+    return MethodHandles.permuteArguments(mh, type, reorder);
+  }
+
+  private static MethodHandle compileAndRelink(
+      MutableCallSite callSite, Supplier<MethodHandle> compiler) {
+    MethodHandle mh = compiler.get();
+    callSite.setTarget(mh);
+    return mh;
+  }
+
+  private static final LazyMh COMPILE_AND_RELINK =
+      LazyMh.findStatic(
+          LOOKUP,
+          MhUtil.class,
+          "compileAndRelink",
+          MethodType.methodType(MethodHandle.class, MutableCallSite.class, Supplier.class));
+
+  /**
+   * Method handle of given type which creates the actual method handle with given function on the
+   * first invocation and then delegates to it. Compiler may be invoked more than once if the first
+   * invocations happen concurrently.
+   */
+  static MethodHandle lazy(MethodType type, Supplier<MethodHandle> compiler) {
+    MutableCallSite callSite = new MutableCallSite(type);
+    // () -> MethodHandle
+    MethodHandle compile =
+        MethodHandles.insertArguments(COMPILE_AND_RELINK.get(), 0, callSite, compiler);
+    // (A...) -> R
+    callSite.setTarget(MethodHandles.foldArguments(MethodHandles.exactInvoker(type), compile));
+    return callSite.dynamicInvoker();
+  }
+
+  private static final ConcurrentHashMap<MethodType, MethodHandle> EXPLICIT_CASTS =
+      new ConcurrentHashMap<>();
+
+  /** Shared {@code (from) -> to} handle performing an explicit cast. */
+  static MethodHandle explicitCast(Class<?> from, Class<?> to) {
+    return EXPLICIT_CASTS.computeIfAbsent(
+        MethodType.methodType(to, from),
+        t -> MethodHandles.explicitCastArguments(MethodHandles.identity(from), t));
   }
 }
@@ -0,0 +1,353 @@
+package com.github.stepancheg.mhlang;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Java operators over primitive values.
+ *
+ * <p>Operator handle is resolved once per operand type and cached. {@code byte}, {@code short} and
+ * {@code char} operands are promoted to {@code int}, and the result is narrowed back like in
+ * compound assignment {@code a += b}. Overflow-checked operators are implemented with {@link Math}
+ * and only support {@code int} and {@code long}.
+ */
+enum Operator {
+  PLUS("+", Kind.BINARY),
+  MINUS("-", Kind.BINARY),
+  MUL("*", Kind.BINARY),
+  DIV("/", Kind.BINARY),
+  REM("%", Kind.BINARY),
+  NEG("-", Kind.UNARY),
+  AND("&", Kind.BINARY),
+  OR("|", Kind.BINARY),
+  XOR("^", Kind.BINARY),
+  /** {@code ~} for integers or {@code !} for booleans. */
+  NOT("~", Kind.UNARY),
+  SHL("<<", Kind.SHIFT),
+  SHR(">>", Kind.SHIFT),
+  USHR(">>>", Kind.SHIFT),
+  LT("<", Kind.COMPARISON),
+  LE("<=", Kind.COMPARISON),
+  GT(">", Kind.COMPARISON),
+  GE(">=", Kind.COMPARISON),
+  ADD_EXACT("addExact", Kind.BINARY, Math.class, "addExact"),
+  SUBTRACT_EXACT("subtractExact", Kind.BINARY, Math.class, "subtractExact"),
+  MULTIPLY_EXACT("multiplyExact", Kind.BINARY, Math.class, "multiplyExact"),
+  NEGATE_EXACT("negateExact", Kind.UNARY, Math.class, "negateExact"),
+  ;
+
+  enum Kind {
+    /** {@code (T, T) -> T}. */
+    BINARY,
+    /** {@code (T) -> T}. */
+    UNARY,
+    /** {@code (T, int) -> T}. */
+    SHIFT,
+    /** {@code (T, T) -> boolean}. */
+    COMPARISON,
+    ;
+
+    MethodType methodType(Class<?> type) {
+      switch (this) {
+        case BINARY:
+          return MethodType.methodType(type, type, type);
+        case UNARY:
+          return MethodType.methodType(type, type);
+        case SHIFT:
+          return MethodType.methodType(type, type, int.class);
+        case COMPARISON:
+          return MethodType.methodType(boolean.class, type, type);
+        default:
+          throw new IllegalStateException();
+      }
+    }
+  }
+
+  final String symbol;
+  final Kind kind;
+  private final Class<?> owner;
+  /** Name of implementation method, also used as closure label. */
+  final String methodName;
+
+  private final ConcurrentHashMap<Class<?>, MethodHandle> handles = new ConcurrentHashMap<>();
+
+  Operator(String symbol, Kind kind) {
+    this.symbol = symbol;
+    this.kind = kind;
+    this.owner = Operator.class;
+    this.methodName = name().toLowerCase();
+  }
+
+  Operator(String symbol, Kind kind, Class<?> owner, String methodName) {
+    this.symbol = symbol;
+    this.kind = kind;
+    this.owner = owner;
+    this.methodName = methodName;
+  }
+
+  /** Operator handle of {@link #kind} type for given operand type. */
+  MethodHandle handle(Class<?> type) {
+    MethodHandle mh = handles.get(type);
+    if (mh == null) {
+      mh = handles.computeIfAbsent(type, this::resolve);
+    }
+    return mh;
+  }
+
+  private MethodHandle resolve(Class<?> type) {
+    Class<?> implType = type;
+    if (type == byte.class || type == short.class || type == char.class) {
+      if (owner != Operator.class) {
+        throw new IllegalArgumentException(symbol + " is not implemented for " + type);
+      }
+      implType = int.class;
+    }
+    MethodHandle mh;
+    try {
+      mh = MethodHandles.lookup().findStatic(owner, methodName, kind.methodType(implType));
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException(symbol + " is not implemented for " + type);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+    return MethodHandles.explicitCastArguments(mh, kind.methodType(type));
+  }
+
+  private static int plus(int a, int b) {
+    return a + b;
+  }
+
+  private static long plus(long a, long b) {
+    return a + b;
+  }
+
+  private static float plus(float a, float b) {
+    return a + b;
+  }
+
+  private static double plus(double a, double b) {
+    return a + b;
+  }
+
+  private static String plus(String a, String b) {
+    return a + b;
+  }
+
+  private static int minus(int a, int b) {
+    return a - b;
+  }
+
+  private static long minus(long a, long b) {
+    return a - b;
+  }
+
+  private static float minus(float a, float b) {
+    return a - b;
+  }
+
+  private static double minus(double a, double b) {
+    return a - b;
+  }
+
+  private static int mul(int a, int b) {
+    return a * b;
+  }
+
+  private static long mul(long a, long b) {
+    return a * b;
+  }
+
+  private static float mul(float a, float b) {
+    return a * b;
+  }
+
+  private static double mul(double a, double b) {
+    return a * b;
+  }
+
+  private static int div(int a, int b) {
+    return a / b;
+  }
+
+  private static long div(long a, long b) {
+    return a / b;
+  }
+
+  private static float div(float a, float b) {
+    return a / b;
+  }
+
+  private static double div(double a, double b) {
+    return a / b;
+  }
+
+  private static int rem(int a, int b) {
+    return a % b;
+  }
+
+  private static long rem(long a, long b) {
+    return a % b;
+  }
+
+  private static float rem(float a, float b) {
+    return a % b;
+  }
+
+  private static double rem(double a, double b) {
+    return a % b;
+  }
+
+  private static int neg(int a) {
+    return -a;
+  }
+
+  private static long neg(long a) {
+    return -a;
+  }
+
+  private static float neg(float a) {
+    return -a;
+  }
+
+  private static double neg(double a) {
+    return -a;
+  }
+
+  private static int and(int a, int b) {
+    return a & b;
+  }
+
+  private static long and(long a, long b) {
+    return a & b;
+  }
+
+  private static boolean and(boolean a, boolean b) {
+    return a & b;
+  }
+
+  private static int or(int a, int b) {
+    return a | b;
+  }
+
+  private static long or(long a, long b) {
+    return a | b;
+  }
+
+  private static boolean or(boolean a, boolean b) {
+    return a | b;
+  }
+
+  private static int xor(int a, int b) {
+    return a ^ b;
+  }
+
+  private static long xor(long a, long b) {
+    return a ^ b;
+  }
+
+  private static boolean xor(boolean a, boolean b) {
+    return a ^ b;
+  }
+
+  private static int not(int a) {
+    return ~a;
+  }
+
+  private static long not(long a) {
+    return ~a;
+  }
+
+  private static boolean not(boolean a) {
+    return !a;
+  }
+
+  private static int shl(int a, int b) {
+    return a << b;
+  }
+
+  private static long shl(long a, int b) {
+    return a << b;
+  }
+
+  private static int shr(int a, int b) {
+    return a >> b;
+  }
+
+  private static long shr(long a, int b) {
+    return a >> b;
+  }
+
+  private static int ushr(int a, int b) {
+    return a >>> b;
+  }
+
+  private static long ushr(long a, int b) {
+    return a >>> b;
+  }
+
+  private static boolean lt(int a, int b) {
+    return a < b;
+  }
+
+  private static boolean lt(long a, long b) {
+    return a < b;
+  }
+
+  private static boolean lt(float a, float b) {
+    return a < b;
+  }
+
+  private static boolean lt(double a, double b) {
+    return a < b;
+  }
+
+  private static boolean le(int a, int b) {
+    return a <= b;
+  }
+
+  private static boolean le(long a, long b) {
+    return a <= b;
+  }
+
+  private static boolean le(float a, float b) {
+    return a <= b;
+  }
+
+  private static boolean le(double a, double b) {
+    return a <= b;
+  }
+
+  private static boolean gt(int a, int b) {
+    return a > b;
+  }
+
+  private static boolean gt(long a, long b) {
+    return a > b;
+  }
+
+  private static boolean gt(float a, float b) {
+    return a > b;
+  }
+
+  private static boolean gt(double a, double b) {
+    return a > b;
+  }
+
+  private static boolean ge(int a, int b) {
+    return a >= b;
+  }
+
+  private static boolean ge(long a, long b) {
+    return a >= b;
+  }
+
+  private static boolean ge(float a, float b) {
+    return a >= b;
+  }
+
+  private static boolean ge(double a, double b) {
+    return a >= b;
+  }
+}
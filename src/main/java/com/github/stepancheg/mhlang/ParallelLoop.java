@@ -0,0 +1,143 @@
+package com.github.stepancheg.mhlang;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/** Runtime of {@link Closure#parallelCountedLoop}: split a range into fork-join tasks. */
+class ParallelLoop {
+
+  /** Ranges smaller than this are not split. */
+  static final int MIN_CHUNK = 1 << 10;
+
+  private static final MethodType RANGE_TYPE =
+      MethodType.methodType(Object.class, int.class, int.class, Object[].class);
+  private static final MethodType COMBINE_TYPE =
+      MethodType.methodType(Object.class, Object.class, Object.class, Object[].class);
+
+  /**
+   * Thrown from tasks to carry exceptions of loop body: fork-join pool may replace exceptions
+   * thrown in other threads with copies.
+   */
+  @SuppressWarnings("serial")
+  private static class BodyException extends RuntimeException {
+    BodyException(Throwable cause) {
+      super(cause);
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class Task extends RecursiveTask<Object> {
+    private final MethodHandle range;
+    private final MethodHandle combine;
+    private final int start;
+    private final int end;
+    private final Object[] args;
+    private final int chunk;
+
+    Task(MethodHandle range, MethodHandle combine, int start, int end, Object[] args, int chunk) {
+      this.range = range;
+      this.combine = combine;
+      this.start = start;
+      this.end = end;
+      this.args = args;
+      this.chunk = chunk;
+    }
+
+    @Override
+    protected Object compute() {
+      try {
+        if (end - start <= chunk) {
+          return range.invokeExact(start, end, args);
+        }
+        int mid = start + (end - start) / 2;
+        Task right = new Task(range, combine, mid, end, args, chunk);
+        right.fork();
+        Object l = new Task(range, combine, start, mid, args, chunk).compute();
+        Object r = right.join();
+        return combine.invokeExact(l, r, args);
+      } catch (BodyException e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new BodyException(e);
+      }
+    }
+  }
+
+  private static Object run(
+      MethodHandle range, MethodHandle combine, int start, int end, Object[] args)
+      throws Throwable {
+    if (end - start <= MIN_CHUNK) {
+      return range.invokeExact(start, end, args);
+    }
+    int parallelism = ForkJoinPool.getCommonPoolParallelism();
+    int chunk = Math.max(MIN_CHUNK, (int) (((long) end - start) / (parallelism * 4L)));
+    Task task = new Task(range, combine, start, end, args, chunk);
+    try {
+      if (ForkJoinTask.inForkJoinPool()) {
+        return task.invoke();
+      } else {
+        return ForkJoinPool.commonPool().invoke(task);
+      }
+    } catch (RuntimeException e) {
+      for (Throwable t = e; t != null; t = t.getCause()) {
+        if (t instanceof BodyException) {
+          throw t.getCause();
+        }
+      }
+      throw e;
+    }
+  }
+
+  private static final MethodHandle RUN;
+
+  static {
+    try {
+      RUN =
+          MethodHandles.lookup()
+              .findStatic(
+                  ParallelLoop.class,
+                  "run",
+                  MethodType.methodType(
+                      Object.class,
+                      MethodHandle.class,
+                      MethodHandle.class,
+                      int.class,
+                      int.class,
+                      Object[].class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Make a loop handle {@code (A...) -> R}.
+   *
+   * @param start {@code (A...) -> int}
+   * @param end {@code (A...) -> int}
+   * @param range {@code (int from, int to, A...) -> R} sequential loop over a sub-range
+   * @param combine {@code (R, R, A...) -> R}
+   */
+  static MethodHandle loop(
+      MethodHandle start, MethodHandle end, MethodHandle range, MethodHandle combine) {
+    MethodType type = start.type().changeReturnType(range.type().returnType());
+    int n = type.parameterCount();
+    MethodHandle rangeSpread = range.asSpreader(Object[].class, n).asType(RANGE_TYPE);
+    MethodHandle combineSpread = combine.asSpreader(Object[].class, n).asType(COMBINE_TYPE);
+    // (int start, int end, Object[] args) -> Object
+    MethodHandle mh = MethodHandles.insertArguments(RUN, 0, rangeSpread, combineSpread);
+    // (int start, int end, A...) -> Object
+    mh =
+        mh.asCollector(Object[].class, n)
+            .asType(
+                type.insertParameterTypes(0, int.class, int.class).changeReturnType(Object.class));
+    // (int start, A...) -> Object
+    mh = MethodHandles.foldArguments(mh, 1, end);
+    // (A...) -> Object
+    mh = MethodHandles.foldArguments(mh, 0, start);
+    return mh.asType(type);
+  }
+}
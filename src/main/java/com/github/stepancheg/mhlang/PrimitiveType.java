@@ -21,33 +21,54 @@ enum PrimitiveType {
   final Class<?> primitiveType;
   final Class<?> wrapperType;
 
-  final MethodHandle hashCodeMh;
-  final MethodHandle toStringMh;
-  final MethodHandle compareMh;
+  // looked up on first use, racy initialization is fine because method handles are immutable
+  private MethodHandle hashCodeMh;
+  private MethodHandle toStringMh;
+  private MethodHandle compareMh;
 
   PrimitiveType(Class<?> primitiveType, Class<?> wrapperType) {
     this.primitiveType = primitiveType;
     this.wrapperType = wrapperType;
+  }
 
+  private MethodHandle findStatic(String name, MethodType type) {
     try {
-      this.hashCodeMh =
-          MethodHandles.publicLookup()
-              .findStatic(wrapperType, "hashCode", MethodType.methodType(int.class, primitiveType));
-      this.toStringMh =
-          MethodHandles.publicLookup()
-              .findStatic(
-                  wrapperType, "toString", MethodType.methodType(String.class, primitiveType));
-      this.compareMh =
-          MethodHandles.publicLookup()
-              .findStatic(
-                  wrapperType,
-                  "compare",
-                  MethodType.methodType(int.class, primitiveType, primitiveType));
+      return MethodHandles.publicLookup().findStatic(wrapperType, name, type);
     } catch (NoSuchMethodException | IllegalAccessException e) {
       throw new RuntimeException(e);
     }
   }
 
+  /** {@code Integer.hashCode(int)} and alike. */
+  MethodHandle hashCodeMh() {
+    MethodHandle mh = hashCodeMh;
+    if (mh == null) {
+      mh = findStatic("hashCode", MethodType.methodType(int.class, primitiveType));
+      hashCodeMh = mh;
+    }
+    return mh;
+  }
+
+  /** {@code Integer.toString(int)} and alike. */
+  MethodHandle toStringMh() {
+    MethodHandle mh = toStringMh;
+    if (mh == null) {
+      mh = findStatic("toString", MethodType.methodType(String.class, primitiveType));
+      toStringMh = mh;
+    }
+    return mh;
+  }
+
+  /** {@code Integer.compare(int, int)} and alike. */
+  MethodHandle compareMh() {
+    MethodHandle mh = compareMh;
+    if (mh == null) {
+      mh = findStatic("compare", MethodType.methodType(int.class, primitiveType, primitiveType));
+      compareMh = mh;
+    }
+    return mh;
+  }
+
   @Nullable
   static PrimitiveType forClass(Class<?> clazz) {
     for (PrimitiveType value : values()) {
@@ -0,0 +1,246 @@
+package com.github.stepancheg.mhlang;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime profiler for generated method handles.
+ *
+ * <p>Profiler is attached to a builder with {@link Builder#setProfiler(Profiler, String)}, and
+ * then each statement of built function counts invocations and samples execution time. Arbitrary
+ * closures can be profiled with {@link #label(String, Closure)}.
+ *
+ * <p>When profiler is not attached, generated method handles are exactly the same as without
+ * profiler, so profiling has no cost when disabled.
+ *
+ * <p>Measured time is inclusive: time of a statement includes time of labeled closures inside it.
+ * Invocations which completed with an exception are measured too.
+ */
+public class Profiler {
+
+  private final int sampleInterval;
+
+  private final LinkedHashMap<String, Counter> counters = new LinkedHashMap<>();
+
+  /** Profiler which measures time of every invocation. */
+  public Profiler() {
+    this(1);
+  }
+
+  /** Profiler which measures time of roughly each {@code sampleInterval}-th invocation. */
+  public Profiler(int sampleInterval) {
+    Preconditions.checkArgument(sampleInterval > 0, "sampleInterval must be positive");
+    this.sampleInterval = sampleInterval;
+  }
+
+  /** Statistics for one label. */
+  public static class Entry {
+    private final String label;
+    private final long invocations;
+    private final long sampledInvocations;
+    private final long sampledNanos;
+
+    Entry(String label, long invocations, long sampledInvocations, long sampledNanos) {
+      this.label = label;
+      this.invocations = invocations;
+      this.sampledInvocations = sampledInvocations;
+      this.sampledNanos = sampledNanos;
+    }
+
+    public String label() {
+      return label;
+    }
+
+    /** Number of times closure was invoked. */
+    public long invocations() {
+      return invocations;
+    }
+
+    /** Number of invocations time was measured for. */
+    public long sampledInvocations() {
+      return sampledInvocations;
+    }
+
+    /** Total time of sampled invocations. */
+    public long sampledNanos() {
+      return sampledNanos;
+    }
+
+    /** Average time of an invocation, or {@code 0} if no invocation was sampled. */
+    public double meanNanos() {
+      return sampledInvocations != 0 ? (double) sampledNanos / sampledInvocations : 0;
+    }
+
+    /** Estimation of time spent in all invocations. */
+    public double estimatedTotalNanos() {
+      return meanNanos() * invocations;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s: %d calls, %.0f ns/call, %.0f ns total",
+          label, invocations, meanNanos(), estimatedTotalNanos());
+    }
+  }
+
+  /** Snapshot of all counters in registration order. */
+  public synchronized ImmutableList<Entry> entries() {
+    return counters.values().stream()
+        .map(Counter::snapshot)
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /** Snapshot of a counter of given label or {@code null} if there is no such label. */
+  @Nullable
+  public synchronized Entry entry(String label) {
+    Counter counter = counters.get(label);
+    return counter != null ? counter.snapshot() : null;
+  }
+
+  /** Reset all counters. */
+  public synchronized void reset() {
+    counters.values().forEach(Counter::reset);
+  }
+
+  /** Human readable report, most expensive labels first. */
+  public String report() {
+    StringBuilder sb = new StringBuilder();
+    entries().stream()
+        .sorted(Comparator.comparingDouble(Entry::estimatedTotalNanos).reversed())
+        .forEach(e -> sb.append(e).append("\n"));
+    return sb.toString();
+  }
+
+  @Override
+  public String toString() {
+    return report();
+  }
+
+  /**
+   * Wrap a closure to record invocations under given label. Labels can be shared between closures
+   * and functions, in this case statistics are aggregated.
+   */
+  public <R> Closure<R> label(String label, Closure<R> closure) {
+    Counter counter = counter(label);
+    return Closure.lazy(
+            closure.type(),
+            closure.args,
+            () -> instrument(counter, closure.mh()),
+            instrument(counter, closure.eval))
+        .describe("profile", label, closure);
+  }
+
+  private synchronized Counter counter(String label) {
+    return counters.computeIfAbsent(label, l -> new Counter(l, sampleInterval));
+  }
+
+  /** Wrap a method handle to record invocations under given label. */
+  MethodHandle instrument(String label, MethodHandle mh) {
+    return instrument(counter(label), mh);
+  }
+
+  /** Wrap an interpreter to record invocations under given label. */
+  Eval instrument(String label, Eval eval) {
+    return instrument(counter(label), eval);
+  }
+
+  private static Eval instrument(Counter counter, Eval eval) {
+    return a -> {
+      long start = counter.enter();
+      try {
+        return eval.eval(a);
+      } finally {
+        counter.exit(start);
+      }
+    };
+  }
+
+  private static MethodHandle instrument(Counter counter, MethodHandle mh) {
+    MethodHandle exit = Counter.EXIT.bindTo(counter);
+    Class<?> rt = mh.type().returnType();
+    // (Throwable, R, long) -> R or (Throwable, long) -> void
+    MethodHandle cleanup;
+    if (rt != void.class) {
+      cleanup = MethodHandles.dropArguments(MethodHandles.identity(rt), 0, Throwable.class);
+      cleanup = MethodHandles.dropArguments(cleanup, 2, long.class);
+      cleanup = MethodHandles.foldArguments(cleanup, 2, exit);
+    } else {
+      cleanup = MethodHandles.empty(MethodType.methodType(void.class, Throwable.class, long.class));
+      cleanup = MethodHandles.foldArguments(cleanup, 1, exit);
+    }
+
+    // (long, A...) -> R
+    MethodHandle target = MethodHandles.dropArguments(mh, 0, long.class);
+    target = MethodHandles.tryFinally(target, cleanup);
+    // (A...) -> R
+    return MethodHandles.foldArguments(target, Counter.ENTER.bindTo(counter));
+  }
+
+  private static class Counter {
+    private final String label;
+    private final int sampleInterval;
+
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder sampledInvocations = new LongAdder();
+    private final LongAdder sampledNanos = new LongAdder();
+
+    Counter(String label, int sampleInterval) {
+      this.label = label;
+      this.sampleInterval = sampleInterval;
+    }
+
+    /** Count an invocation and return start time if sampled or {@code 0} otherwise. */
+    private long enter() {
+      invocations.increment();
+      if (sampleInterval == 1 || ThreadLocalRandom.current().nextInt(sampleInterval) == 0) {
+        // nanoTime can be zero, but that is fine to lose one sample
+        return System.nanoTime();
+      } else {
+        return 0;
+      }
+    }
+
+    private void exit(long start) {
+      if (start != 0) {
+        sampledNanos.add(System.nanoTime() - start);
+        sampledInvocations.increment();
+      }
+    }
+
+    Entry snapshot() {
+      return new Entry(label, invocations.sum(), sampledInvocations.sum(), sampledNanos.sum());
+    }
+
+    void reset() {
+      invocations.reset();
+      sampledInvocations.reset();
+      sampledNanos.reset();
+    }
+
+    private static final MethodHandle ENTER;
+    private static final MethodHandle EXIT;
+
+    static {
+      try {
+        ENTER =
+            MethodHandles.lookup()
+                .findVirtual(Counter.class, "enter", MethodType.methodType(long.class));
+        EXIT =
+            MethodHandles.lookup()
+                .findVirtual(Counter.class, "exit", MethodType.methodType(void.class, long.class));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
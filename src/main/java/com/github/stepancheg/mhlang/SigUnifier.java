@@ -3,7 +3,6 @@ package com.github.stepancheg.mhlang;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
-import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.util.Arrays;
@@ -44,17 +43,15 @@ class SigUnifier {
                 })
             .toArray();
 
-    MethodHandle permuted =
-        MethodHandles.permuteArguments(
-            closure.mh,
-            MethodType.methodType(
-                    closure.type(), allVars.stream().map(Var::type).toArray(Class<?>[]::new))
-                .insertParameterTypes(0, Arrays.copyOf(closure.mh.type().parameterArray(), count)),
-            reorder);
+    MethodType type =
+        MethodType.methodType(
+                closure.type(), allVars.stream().map(Var::type).toArray(Class<?>[]::new))
+            .insertParameterTypes(
+                0, Arrays.copyOf(closure.methodType().parameterArray(), count));
 
-    return new Closure<>(
-        permuted,
+    return closure.withArgs(
         Stream.concat(closure.args.subList(0, count).stream(), allVars.stream())
-            .toArray(Var[]::new));
+            .collect(ImmutableList.toImmutableList()),
+        mh -> MethodHandles.permuteArguments(mh, type, reorder));
   }
 }
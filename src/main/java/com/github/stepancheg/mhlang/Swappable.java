@@ -0,0 +1,117 @@
+package com.github.stepancheg.mhlang;
+
+import com.google.common.base.Preconditions;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * A function which implementation can be replaced at runtime, created with {@link
+ * MhBuilder#buildSwappable(Expr)}.
+ *
+ * <p>Callers use {@link #invoker()}, which is bound to {@link MutableCallSite}, so JIT inlines
+ * the current target like a constant. There's no volatile read on invocation. Replacing a target
+ * deoptimizes compiled code which inlined the function, see {@link #swap} and {@link #swapAll} for
+ * the cost of each.
+ */
+public final class Swappable {
+
+  /** Serializes updates, so batches do not interleave. */
+  private static final Object LOCK = new Object();
+
+  private final MutableCallSite site;
+  private final MethodHandle invoker;
+  /**
+   * Current target without guards. Call site target may be a guard of an invalidated switch point
+   * over this handle, which JIT folds to this handle.
+   */
+  private MethodHandle target;
+
+  Swappable(MethodHandle target) {
+    this.site = new MutableCallSite(target);
+    this.invoker = site.dynamicInvoker();
+    this.target = target;
+  }
+
+  /** Type of the function. */
+  public MethodType type() {
+    return site.type();
+  }
+
+  /**
+   * Method handle which invokes current target. This handle never changes, so it can be
+   * published once and embedded into other functions (e. g. with {@link Closure#fold}).
+   */
+  public MethodHandle invoker() {
+    return invoker;
+  }
+
+  /** Current target. */
+  public MethodHandle target() {
+    synchronized (LOCK) {
+      return target;
+    }
+  }
+
+  /**
+   * Replace the target. New target is adapted to {@link #type()} with {@link
+   * MethodHandle#asType}.
+   *
+   * <p>Call site target is set once, so compiled callers which inlined this function are
+   * deoptimized once.
+   */
+  public void swap(MethodHandle target) {
+    target = target.asType(type());
+    synchronized (LOCK) {
+      this.target = target;
+      site.setTarget(target);
+      MutableCallSite.syncAll(new MutableCallSite[] {site});
+    }
+  }
+
+  /**
+   * Replace targets of several functions at once.
+   *
+   * <p>Each call site is set once, to a guard of a {@link SwitchPoint} created for this batch,
+   * which selects the current target while the switch point is valid and the new target after.
+   * Then the switch point is invalidated, so all new targets are published at the same moment: no
+   * invocation starting after this method returns observes an old target, and no invocation
+   * observes a new target before all of them are installed. Invalidated guards are left in place,
+   * JIT folds them to the new target; next batch replaces the guard instead of nesting it.
+   *
+   * <p>Compiled callers which inlined an affected function are deoptimized when its call site is
+   * set, and code which depends on the guard is deoptimized by invalidation. Since invalidation
+   * follows immediately, callers are usually recompiled only once per batch, but code recompiled
+   * between the two steps is deoptimized twice, so {@link #swap} is cheaper for a single function.
+   */
+  public static void swapAll(Map<Swappable, MethodHandle> targets) {
+    Swappable[] swappables = new Swappable[targets.size()];
+    MutableCallSite[] sites = new MutableCallSite[targets.size()];
+    ArrayList<MethodHandle> newTargets = new ArrayList<>(targets.size());
+    for (Map.Entry<Swappable, MethodHandle> entry : targets.entrySet()) {
+      Swappable swappable = Preconditions.checkNotNull(entry.getKey());
+      swappables[newTargets.size()] = swappable;
+      sites[newTargets.size()] = swappable.site;
+      newTargets.add(entry.getValue().asType(swappable.type()));
+    }
+
+    synchronized (LOCK) {
+      SwitchPoint switchPoint = new SwitchPoint();
+      for (int i = 0; i != sites.length; ++i) {
+        sites[i].setTarget(switchPoint.guardWithTest(swappables[i].target, newTargets.get(i)));
+        swappables[i].target = newTargets.get(i);
+      }
+      MutableCallSite.syncAll(sites);
+      SwitchPoint.invalidateAll(new SwitchPoint[] {switchPoint});
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Swappable" + type();
+  }
+}
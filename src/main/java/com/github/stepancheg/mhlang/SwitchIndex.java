@@ -0,0 +1,172 @@
+package com.github.stepancheg.mhlang;
+
+import com.google.common.base.Preconditions;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+/**
+ * Switch key to case index mapping.
+ *
+ * <p>Each function here returns a handle which maps a switch key to a case index in {@code [0,
+ * count)}, or {@code count} when there is no matching case (i. e. the default case).
+ */
+class SwitchIndex {
+
+  private static final MethodHandle DENSE;
+  private static final MethodHandle INT_KEYS_INDEX_OF;
+  private static final MethodHandle STRING_KEYS_INDEX_OF;
+
+  static {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      DENSE =
+          lookup.findStatic(
+              SwitchIndex.class,
+              "dense",
+              MethodType.methodType(int.class, int.class, int.class, int.class));
+      INT_KEYS_INDEX_OF =
+          lookup.findVirtual(IntKeys.class, "indexOf", MethodType.methodType(int.class, int.class));
+      STRING_KEYS_INDEX_OF =
+          lookup.findVirtual(
+              StringKeys.class, "indexOf", MethodType.methodType(int.class, String.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static int dense(int key, int min, int count) {
+    long i = (long) key - min;
+    return i >= 0 && i < count ? (int) i : count;
+  }
+
+  /** Handle {@code (int) -> int} mapping {@code [min, min + count)} to {@code [0, count)}. */
+  static MethodHandle dense(int min, int count) {
+    return MethodHandles.insertArguments(DENSE, 1, min, count);
+  }
+
+  /** Handle {@code (int) -> int} mapping {@code keys[i]} to {@code i}. */
+  static MethodHandle intKeys(int[] keys) {
+    return INT_KEYS_INDEX_OF.bindTo(new IntKeys(keys));
+  }
+
+  /** Handle {@code (String) -> int} mapping {@code keys[i]} to {@code i}. */
+  static MethodHandle stringKeys(String[] keys) {
+    return STRING_KEYS_INDEX_OF.bindTo(new StringKeys(keys));
+  }
+
+  /**
+   * Whether a jump table is cheaper than a key lookup for given keys.
+   *
+   * <p>This is the heuristic {@code javac} uses to choose between {@code tableswitch} and {@code
+   * lookupswitch}.
+   */
+  static boolean preferDense(long min, long max, int count) {
+    long tableSpaceCost = 4 + (max - min + 1);
+    long tableTimeCost = 3;
+    long lookupSpaceCost = 3 + 2 * (long) count;
+    long lookupTimeCost = count;
+    return tableSpaceCost + 3 * tableTimeCost <= lookupSpaceCost + 3 * lookupTimeCost;
+  }
+
+  private static int tableSize(int count) {
+    // load factor is at most 0.5
+    return Integer.highestOneBit(Math.max(count, 1)) * 4;
+  }
+
+  private static int mix(int h) {
+    h *= 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+  /** Open addressing table of int keys. */
+  private static class IntKeys {
+    private final int[] keys;
+    private final int[] indices;
+    private final int mask;
+    private final int count;
+
+    IntKeys(int[] keys) {
+      this.count = keys.length;
+      int size = tableSize(keys.length);
+      this.keys = new int[size];
+      this.indices = new int[size];
+      this.mask = size - 1;
+      Arrays.fill(indices, -1);
+
+      for (int i = 0; i != keys.length; ++i) {
+        int slot = mix(keys[i]) & mask;
+        while (indices[slot] >= 0) {
+          Preconditions.checkArgument(
+              this.keys[slot] != keys[i], "duplicate switch key: %s", keys[i]);
+          slot = (slot + 1) & mask;
+        }
+        this.keys[slot] = keys[i];
+        this.indices[slot] = i;
+      }
+    }
+
+    int indexOf(int key) {
+      int slot = mix(key) & mask;
+      for (; ; ) {
+        int index = indices[slot];
+        if (index < 0) {
+          return count;
+        }
+        if (keys[slot] == key) {
+          return index;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+  }
+
+  /** Open addressing table of string keys with precomputed hashes. */
+  private static class StringKeys {
+    private final String[] keys;
+    private final int[] hashes;
+    private final int[] indices;
+    private final int mask;
+    private final int count;
+
+    StringKeys(String[] keys) {
+      this.count = keys.length;
+      int size = tableSize(keys.length);
+      this.keys = new String[size];
+      this.hashes = new int[size];
+      this.indices = new int[size];
+      this.mask = size - 1;
+
+      for (int i = 0; i != keys.length; ++i) {
+        int hash = keys[i].hashCode();
+        int slot = mix(hash) & mask;
+        while (this.keys[slot] != null) {
+          Preconditions.checkArgument(
+              !this.keys[slot].equals(keys[i]), "duplicate switch key: %s", keys[i]);
+          slot = (slot + 1) & mask;
+        }
+        this.keys[slot] = keys[i];
+        this.hashes[slot] = hash;
+        this.indices[slot] = i;
+      }
+    }
+
+    int indexOf(String key) {
+      // NPE on null key like Java switch does
+      int hash = key.hashCode();
+      int slot = mix(hash) & mask;
+      for (; ; ) {
+        String k = keys[slot];
+        if (k == null) {
+          return count;
+        }
+        if (hashes[slot] == hash && k.equals(key)) {
+          return indices[slot];
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+  }
+}
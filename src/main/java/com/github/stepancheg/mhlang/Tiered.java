@@ -0,0 +1,66 @@
+package com.github.stepancheg.mhlang;
+
+import com.google.common.base.Preconditions;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+/**
+ * Call site which interprets a closure while it is cold, and switches to the compiled closure
+ * method handle when it becomes hot.
+ */
+class Tiered {
+
+  private final Closure<?> closure;
+  private final MutableCallSite callSite;
+  private final int threshold;
+  /** Number of interpreted invocations. Not synchronized: losing some increments is fine. */
+  private int invocations;
+
+  private Tiered(Closure<?> closure, MutableCallSite callSite, int threshold) {
+    this.closure = closure;
+    this.callSite = callSite;
+    this.threshold = threshold;
+  }
+
+  private Object invoke(Object[] args) throws Throwable {
+    if (invocations++ < threshold) {
+      return closure.eval.eval(args);
+    }
+    MethodHandle mh = closure.mh();
+    callSite.setTarget(mh);
+    return mh.invokeWithArguments(args);
+  }
+
+  private static final MethodHandle INVOKE;
+
+  static {
+    try {
+      INVOKE =
+          MethodHandles.lookup()
+              .findVirtual(
+                  Tiered.class, "invoke", MethodType.methodType(Object.class, Object[].class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** @see Closure#interpreted(int) */
+  static MethodHandle tiered(Closure<?> closure, int threshold) {
+    Preconditions.checkArgument(threshold >= 0, "threshold must not be negative");
+    MethodType type = closure.methodType();
+    if (threshold == 0) {
+      return closure.mh();
+    }
+
+    MutableCallSite callSite = new MutableCallSite(type);
+    Tiered tiered = new Tiered(closure, callSite, threshold);
+    // (Object...) -> Object, adapters are shared between closures of the same erased type
+    MethodHandle interpreter =
+        INVOKE.bindTo(tiered).asCollector(Object[].class, type.parameterCount());
+    callSite.setTarget(interpreter.asType(type));
+    return callSite.dynamicInvoker();
+  }
+}
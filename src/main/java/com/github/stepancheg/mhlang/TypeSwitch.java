@@ -0,0 +1,110 @@
+package com.github.stepancheg.mhlang;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.HashSet;
+import java.util.function.Function;
+
+/**
+ * Runtime of {@link Closure#typeSwitch}: polymorphic inline cache keyed on the exact class of the
+ * first argument.
+ *
+ * <p>The call site target is a chain of {@code value.getClass() == C} guards, one for each class
+ * seen so far, ending with {@link #miss} which builds a function for the class and adds a guard.
+ * When the chain reaches {@link #maxEntries}, new classes are not added, and the miss handler
+ * becomes a megamorphic path: a {@link ClassValue} lookup and an invocation via invoker.
+ */
+class TypeSwitch {
+
+  private static final MethodHandle SAME_CLASS;
+  private static final MethodHandle MISS;
+
+  static {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      SAME_CLASS =
+          lookup.findStatic(
+              TypeSwitch.class,
+              "sameClass",
+              MethodType.methodType(boolean.class, Class.class, Object.class));
+      MISS =
+          lookup.findVirtual(
+              TypeSwitch.class, "miss", MethodType.methodType(MethodHandle.class, Object.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static boolean sameClass(Class<?> clazz, Object value) {
+    return value != null && value.getClass() == clazz;
+  }
+
+  /** {@code (T) -> R}. */
+  private final MethodType type;
+
+  private final int maxEntries;
+  private final MutableCallSite site;
+  private final ClassValue<MethodHandle> handles;
+
+  /** Classes which have a guard in the chain, guarded by {@code this}. */
+  private final HashSet<Class<?>> installed = new HashSet<>();
+
+  private volatile boolean megamorphic;
+
+  /**
+   * @param type {@code (T) -> R}
+   * @param specialize create a handle of {@code type} for given runtime class
+   */
+  TypeSwitch(MethodType type, int maxEntries, Function<Class<?>, MethodHandle> specialize) {
+    this.type = type;
+    this.maxEntries = maxEntries;
+    this.handles =
+        new ClassValue<MethodHandle>() {
+          @Override
+          protected MethodHandle computeValue(Class<?> clazz) {
+            return specialize.apply(clazz).asType(type);
+          }
+        };
+    MethodHandle miss = MISS.bindTo(this).asType(MethodType.methodType(MethodHandle.class, type));
+    this.site =
+        new MutableCallSite(MethodHandles.foldArguments(MethodHandles.exactInvoker(type), miss));
+    if (maxEntries == 0) {
+      megamorphic = true;
+    }
+  }
+
+  /** {@code (T) -> R}. */
+  MethodHandle invoker() {
+    return site.dynamicInvoker();
+  }
+
+  /** Number of guards installed. */
+  synchronized int entries() {
+    return installed.size();
+  }
+
+  private MethodHandle miss(Object value) {
+    Class<?> clazz = value != null ? value.getClass() : type.parameterType(0);
+    MethodHandle mh = handles.get(clazz);
+    if (value != null && !megamorphic) {
+      install(clazz, mh);
+    }
+    return mh;
+  }
+
+  private synchronized void install(Class<?> clazz, MethodHandle mh) {
+    if (installed.size() >= maxEntries || !installed.add(clazz)) {
+      return;
+    }
+    MethodHandle test =
+        SAME_CLASS
+            .bindTo(clazz)
+            .asType(MethodType.methodType(boolean.class, type.parameterType(0)));
+    site.setTarget(MethodHandles.guardWithTest(test, mh, site.getTarget()));
+    if (installed.size() == maxEntries) {
+      megamorphic = true;
+    }
+  }
+}
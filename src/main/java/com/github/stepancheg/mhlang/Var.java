@@ -60,9 +60,14 @@ public abstract class Var<R> extends Expr<R> {
       return closure.type();
     }
 
+    /** Short name of this variable. */
+    String label() {
+      return "v" + varId;
+    }
+
     @Override
     public String toString() {
-      return String.format("v%d: %s", varId, type().getSimpleName());
+      return String.format("%s: %s", label(), type().getSimpleName());
     }
   }
 }
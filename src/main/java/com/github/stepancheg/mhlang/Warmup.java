@@ -0,0 +1,338 @@
+package com.github.stepancheg.mhlang;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.objenesis.ObjenesisStd;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Build generated handles for many classes in parallel, typically at application startup.
+ *
+ * <pre>
+ * Warmup.Result r =
+ *     new Warmup(MethodHandles.lookup())
+ *         .samples(Warmup.newInstanceSamples())
+ *         .run(classes, Arrays.asList(Warmup.Standard.values()));
+ * MethodHandle equals = r.handle(Foo.class, Warmup.Standard.EQUALS);
+ * </pre>
+ *
+ * <p>Each class and kind pair is a separate task executed on a fixed pool of {@link
+ * #parallelism(int)} threads. When {@link #samples(Function) samples} are provided, each built
+ * artifact is also invoked on a sample instance, so lambda forms are compiled before the first
+ * real invocation.
+ */
+public final class Warmup {
+
+  /** Something to build for a class. */
+  public interface Kind {
+    /** Build an artifact, e. g. a method handle. */
+    Object build(Class<?> clazz, MethodHandles.Lookup lookup) throws Throwable;
+
+    /**
+     * Invoke built artifact on sample instances of the class. {@code other} is a second instance,
+     * distinct from {@code sample} unless samples function returns the same object twice.
+     */
+    void exercise(Object built, Object sample, Object other) throws Throwable;
+  }
+
+  /**
+   * Generators of this library. Sample is passed as the first parameter of built handle, and the
+   * other instance as the remaining parameters, so binary functions compare two distinct objects.
+   */
+  public enum Standard implements Kind {
+    /** {@link DeepEqualsHashCode#deepEquals(Class, MethodHandles.Lookup)}. */
+    EQUALS {
+      @Override
+      public MethodHandle build(Class<?> clazz, MethodHandles.Lookup lookup) {
+        return DeepEqualsHashCode.deepEquals(clazz, lookup);
+      }
+    },
+    /** {@link DeepEqualsHashCode#deepHashCode(Class, MethodHandles.Lookup)}. */
+    HASH_CODE {
+      @Override
+      public MethodHandle build(Class<?> clazz, MethodHandles.Lookup lookup) {
+        return DeepEqualsHashCode.deepHashCode(clazz, lookup);
+      }
+    },
+    /** {@link DeepToString#buildToString(Class, MethodHandles.Lookup)}. */
+    TO_STRING {
+      @Override
+      public MethodHandle build(Class<?> clazz, MethodHandles.Lookup lookup) {
+        return DeepToString.buildToString(clazz, lookup);
+      }
+    },
+    /** {@link DeepCompare#deepCompare(Class, MethodHandles.Lookup)}. */
+    COMPARE {
+      @Override
+      public MethodHandle build(Class<?> clazz, MethodHandles.Lookup lookup) {
+        return DeepCompare.deepCompare(clazz, lookup);
+      }
+    },
+    ;
+
+    @Override
+    public abstract MethodHandle build(Class<?> clazz, MethodHandles.Lookup lookup);
+
+    @Override
+    public void exercise(Object built, Object sample, Object other) throws Throwable {
+      MethodHandle mh = (MethodHandle) built;
+      Object[] args = new Object[mh.type().parameterCount()];
+      Arrays.fill(args, other);
+      args[0] = sample;
+      mh.invokeWithArguments(args);
+    }
+  }
+
+  /** Outcome of building one kind for one class. */
+  public static class Entry {
+    private final Class<?> clazz;
+    private final Kind kind;
+    @Nullable private final Object built;
+    @Nullable private final Throwable failure;
+    private final long buildNanos;
+    private final long exerciseNanos;
+
+    Entry(
+        Class<?> clazz,
+        Kind kind,
+        @Nullable Object built,
+        @Nullable Throwable failure,
+        long buildNanos,
+        long exerciseNanos) {
+      this.clazz = clazz;
+      this.kind = kind;
+      this.built = built;
+      this.failure = failure;
+      this.buildNanos = buildNanos;
+      this.exerciseNanos = exerciseNanos;
+    }
+
+    public Class<?> clazz() {
+      return clazz;
+    }
+
+    public Kind kind() {
+      return kind;
+    }
+
+    /** Built artifact; throws if either build or exercise failed. */
+    public Object get() {
+      if (failure != null) {
+        throw new RuntimeException("failed to build " + kind + " for " + clazz.getName(), failure);
+      }
+      return built;
+    }
+
+    /** Exception thrown by build or exercise, or {@code null} on success. */
+    @Nullable
+    public Throwable failure() {
+      return failure;
+    }
+
+    public long buildNanos() {
+      return buildNanos;
+    }
+
+    /** Time of sample invocation, {@code 0} if there was no sample. */
+    public long exerciseNanos() {
+      return exerciseNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s %s: build %d us, exercise %d us%s",
+          clazz.getName(),
+          kind,
+          buildNanos / 1000,
+          exerciseNanos / 1000,
+          failure != null ? ", failed: " + failure : "");
+    }
+  }
+
+  /** Entries of all tasks in the order of classes and kinds. */
+  public static class Result {
+    private final ImmutableList<Entry> entries;
+    private final long wallNanos;
+
+    Result(ImmutableList<Entry> entries, long wallNanos) {
+      this.entries = entries;
+      this.wallNanos = wallNanos;
+    }
+
+    public ImmutableList<Entry> entries() {
+      return entries;
+    }
+
+    /** Elapsed time of {@link Warmup#run(Collection, Collection)}. */
+    public long wallNanos() {
+      return wallNanos;
+    }
+
+    public Entry entry(Class<?> clazz, Kind kind) {
+      for (Entry entry : entries) {
+        if (entry.clazz == clazz && entry.kind.equals(kind)) {
+          return entry;
+        }
+      }
+      throw new IllegalArgumentException(kind + " was not built for " + clazz.getName());
+    }
+
+    /** Built handle of a {@link Standard} kind. */
+    public MethodHandle handle(Class<?> clazz, Standard kind) {
+      return (MethodHandle) entry(clazz, kind).get();
+    }
+
+    public ImmutableList<Entry> failures() {
+      return entries.stream()
+          .filter(e -> e.failure != null)
+          .collect(ImmutableList.toImmutableList());
+    }
+
+    /** Build and exercise time of all kinds of a class. */
+    public ImmutableMap<Class<?>, Long> nanosByClass() {
+      LinkedHashMap<Class<?>, Long> r = new LinkedHashMap<>();
+      for (Entry entry : entries) {
+        r.merge(entry.clazz, entry.buildNanos + entry.exerciseNanos, Long::sum);
+      }
+      return ImmutableMap.copyOf(r);
+    }
+
+    /** Human readable report, slowest classes first. */
+    public String report() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("%d tasks in %d ms%n", entries.size(), wallNanos / 1_000_000));
+      nanosByClass().entrySet().stream()
+          .sorted(Comparator.comparing(e -> -e.getValue()))
+          .forEach(
+              e ->
+                  sb.append(e.getKey().getName())
+                      .append(": ")
+                      .append(e.getValue() / 1000)
+                      .append(" us\n"));
+      for (Entry failure : failures()) {
+        sb.append(failure).append("\n");
+      }
+      return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+      return report();
+    }
+  }
+
+  private final MethodHandles.Lookup lookup;
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+  @Nullable private Function<Class<?>, ?> samples;
+
+  /** Warmup which builds handles with given lookup. */
+  public Warmup(MethodHandles.Lookup lookup) {
+    this.lookup = Preconditions.checkNotNull(lookup);
+  }
+
+  /** Number of threads, by default the number of available processors. */
+  public Warmup parallelism(int parallelism) {
+    Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Invoke built artifacts on instances returned by given function. Function is called twice per
+   * task and should return a new instance on each call. Function may return {@code null} to skip
+   * invocation for a class.
+   */
+  public Warmup samples(Function<Class<?>, ?> samples) {
+    this.samples = Preconditions.checkNotNull(samples);
+    return this;
+  }
+
+  /**
+   * Samples allocated without calling constructors, so all fields are zeros and nulls. Interfaces,
+   * abstract classes and arrays are skipped.
+   */
+  public static Function<Class<?>, Object> newInstanceSamples() {
+    ObjenesisStd objenesis = new ObjenesisStd();
+    return c ->
+        c.isPrimitive() || c.isArray() || Modifier.isAbstract(c.getModifiers())
+            ? null
+            : objenesis.newInstance(c);
+  }
+
+  /** Build every kind for every class and wait for completion. */
+  public Result run(Collection<? extends Class<?>> classes, Collection<? extends Kind> kinds) {
+    long start = System.nanoTime();
+    List<Future<Entry>> futures = new ArrayList<>();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.max(1, Math.min(parallelism, classes.size() * kinds.size())),
+            r -> {
+              Thread thread = new Thread(r, "mhlang-warmup");
+              thread.setDaemon(true);
+              return thread;
+            });
+    try {
+      for (Class<?> clazz : classes) {
+        for (Kind kind : kinds) {
+          futures.add(executor.submit(() -> runTask(clazz, kind)));
+        }
+      }
+      ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+      for (Future<Entry> future : futures) {
+        entries.add(future.get());
+      }
+      return new Result(entries.build(), System.nanoTime() - start);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      // runTask catches everything
+      throw new RuntimeException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private Entry runTask(Class<?> clazz, Kind kind) {
+    long start = System.nanoTime();
+    Object built = null;
+    long buildNanos = 0;
+    try {
+      built = kind.build(clazz, lookup);
+      buildNanos = System.nanoTime() - start;
+      Object sample = samples != null ? samples.apply(clazz) : null;
+      if (sample == null) {
+        return new Entry(clazz, kind, built, null, buildNanos, 0);
+      }
+      Object other = samples.apply(clazz);
+      if (other == null) {
+        other = sample;
+      }
+      long exerciseStart = System.nanoTime();
+      kind.exercise(built, sample, other);
+      return new Entry(clazz, kind, built, null, buildNanos, System.nanoTime() - exerciseStart);
+    } catch (Throwable e) {
+      long elapsed = System.nanoTime() - start;
+      return built == null
+          ? new Entry(clazz, kind, null, e, elapsed, 0)
+          : new Entry(clazz, kind, built, e, buildNanos, elapsed - buildNanos);
+    }
+  }
+}
@@ -4,32 +4,32 @@ import com.github.stepancheg.mhlang.Closure;
 import com.github.stepancheg.mhlang.MhBuilder;
 import com.github.stepancheg.mhlang.Var;
 
-import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 
 public class Counters {
 
+  /** Add counters from {@code delta} to {@code counters}. */
+  public interface Updater<T> {
+    void add(T counters, T delta);
+  }
+
   private static class MyCounter {
     long bytes;
     int users;
     int connections;
     int errors;
 
-    private static final MethodHandle UPDATER = buildAdd(MyCounter.class);
+    private static final Updater<MyCounter> UPDATER = buildAdd(MyCounter.class);
 
     /** Add countes from given object to this counters. */
     public void add(MyCounter delta) {
-      try {
-        UPDATER.invokeExact(this, delta);
-      } catch (Throwable throwable) {
-        throw new RuntimeException(throwable);
-      }
+      UPDATER.add(this, delta);
     }
   }
 
   @SuppressWarnings("unchecked")
-  private static <T> MethodHandle buildAdd(Class<T> clazz) {
+  private static <T> Updater<T> buildAdd(Class<T> clazz) {
     MhBuilder b = new MhBuilder();
     Var<T> t = b.addParam(clazz);
     Var<T> delta = b.addParam(clazz);
@@ -48,7 +48,7 @@ public class Counters {
       b.assign(Closure.setField(field, t, sum));
     }
 
-    return b.buildReturnVoid();
+    return b.buildAs(Updater.class, Closure.constantVoid());
   }
 
   public static void main(String[] args) {
@@ -1,26 +1,67 @@
 package com.github.stepancheg.mhlang.examples;
 
 import com.github.stepancheg.mhlang.Closure;
+import com.github.stepancheg.mhlang.Expr;
 import com.github.stepancheg.mhlang.MhBuilder;
 import com.github.stepancheg.mhlang.Var;
+import com.github.stepancheg.mhlang.Warmup;
 import org.objenesis.instantiator.ObjectInstantiator;
 import org.objenesis.strategy.StdInstantiatorStrategy;
 
+import javax.annotation.Nullable;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.util.AbstractList;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * Method handles implementation of struct of arrays pattern.
  *
  * <p>Note this implements the same logic as {@link FlatArrayReflList}, but it is 20 times faster.
+ *
+ * <p>Column operations like {@link #sumLong(String)} run generated counted loops directly over a
+ * primitive field array, without materializing elements.
  */
 public class FlatArrayMhList<T> extends AbstractList<T> {
 
+  /**
+   * {@link Warmup} kind which builds a {@link Factory}; samples are added to a new list and read
+   * back.
+   */
+  public static final Warmup.Kind WARMUP_KIND =
+      new Warmup.Kind() {
+        @Override
+        public Factory<?> build(Class<?> clazz, MethodHandles.Lookup lookup) {
+          return new Factory<>(clazz);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void exercise(Object built, Object sample, Object other) {
+          FlatArrayMhList<Object> list = ((Factory<Object>) built).newArrayList();
+          list.add(sample);
+          list.add(other);
+          list.get(0);
+          list.get(1);
+        }
+
+        @Override
+        public String toString() {
+          return "FLAT_ARRAY_LIST";
+        }
+      };
+
   private final Factory<T> factory;
 
   /** Array of arrays. */
@@ -77,13 +118,419 @@ public class FlatArrayMhList<T> extends AbstractList<T> {
     return size;
   }
 
+  /** Sum of an integral field, widened to {@code long}. */
+  public long sumLong(String field) {
+    MethodHandle kernel = factory.kernel(KernelKind.SUM_LONG, field);
+    try {
+      return (long) kernel.invokeExact(fields, size);
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+  }
+
+  /**
+   * Sum of a primitive field, widened to {@code double}. Vector kernels add elements in a
+   * different order, so the result may differ from a sequential sum in the last bits.
+   */
+  public double sumDouble(String field) {
+    MethodHandle kernel = factory.kernel(KernelKind.SUM_DOUBLE, field);
+    try {
+      return (double) kernel.invokeExact(fields, size);
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+  }
+
+  /** Minimum of an integral field, widened to {@code long}. */
+  public long minLong(String field) {
+    checkNotEmpty();
+    MethodHandle kernel = factory.kernel(KernelKind.MIN_LONG, field);
+    try {
+      return (long) kernel.invokeExact(fields, size);
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+  }
+
+  /** Maximum of an integral field, widened to {@code long}. */
+  public long maxLong(String field) {
+    checkNotEmpty();
+    MethodHandle kernel = factory.kernel(KernelKind.MAX_LONG, field);
+    try {
+      return (long) kernel.invokeExact(fields, size);
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+  }
+
+  /** Minimum of a primitive field, widened to {@code double}. */
+  public double minDouble(String field) {
+    checkNotEmpty();
+    MethodHandle kernel = factory.kernel(KernelKind.MIN_DOUBLE, field);
+    try {
+      return (double) kernel.invokeExact(fields, size);
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+  }
+
+  /** Maximum of a primitive field, widened to {@code double}. */
+  public double maxDouble(String field) {
+    checkNotEmpty();
+    MethodHandle kernel = factory.kernel(KernelKind.MAX_DOUBLE, field);
+    try {
+      return (double) kernel.invokeExact(fields, size);
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+  }
+
+  /** Operator of {@link #selectLong} and {@link #selectDouble}: {@code element op operand}. */
+  public enum Comparison {
+    EQ,
+    NE,
+    LT,
+    LE,
+    GT,
+    GE,
+  }
+
+  /**
+   * Selection bitmap of elements which integral field satisfies {@code field comparison operand}:
+   * bit {@code i % 64} of word {@code i / 64} is set if element {@code i} matches.
+   */
+  public long[] selectLong(String field, Comparison comparison, long operand) {
+    MethodHandle kernel = factory.kernel(KernelKind.SELECT_LONG, field, comparison);
+    try {
+      return (long[]) kernel.invokeExact(fields, size, operand);
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+  }
+
+  /**
+   * Same as {@link #selectLong(String, Comparison, long)} with value widened to {@code double}.
+   * Comparisons follow {@code double} operators, e. g. {@code NaN} matches only {@link
+   * Comparison#NE}.
+   */
+  public long[] selectDouble(String field, Comparison comparison, double operand) {
+    MethodHandle kernel = factory.kernel(KernelKind.SELECT_DOUBLE, field, comparison);
+    try {
+      return (long[]) kernel.invokeExact(fields, size, operand);
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+  }
+
+  /**
+   * Sum of products of two primitive fields, computed in a single loop over both columns. Like
+   * {@link #sumDouble(String)}, vector kernels may round differently.
+   */
+  public double sumProduct(String field1, String field2) {
+    MethodHandle kernel = factory.kernel(KernelKind.SUM_PRODUCT, field1, field2);
+    try {
+      return (double) kernel.invokeExact(fields, size);
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+  }
+
+  private void checkNotEmpty() {
+    if (size == 0) {
+      throw new NoSuchElementException();
+    }
+  }
+
+  /** Column kernel kinds. */
+  private enum KernelKind {
+    SUM_LONG(true),
+    SUM_DOUBLE(false),
+    MIN_LONG(true),
+    MAX_LONG(true),
+    MIN_DOUBLE(false),
+    MAX_DOUBLE(false),
+    SELECT_LONG(true),
+    SELECT_DOUBLE(false),
+    SUM_PRODUCT(false),
+    ;
+
+    /** Values are widened to {@code long}, so {@code float} and {@code double} are rejected. */
+    private final boolean integral;
+
+    KernelKind(boolean integral) {
+      this.integral = integral;
+    }
+  }
+
+  /**
+   * Kernel cache key: kind, indices of fields and comparison of select kernels. {@code field2} is
+   * {@code -1} and {@code comparison} is {@code null} if unused.
+   */
+  private static final class KernelKey {
+    private final KernelKind kind;
+    private final int field1;
+    private final int field2;
+    @Nullable private final Comparison comparison;
+
+    KernelKey(KernelKind kind, int field1, int field2, @Nullable Comparison comparison) {
+      this.kind = kind;
+      this.field1 = field1;
+      this.field2 = field2;
+      this.comparison = comparison;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      KernelKey that = (KernelKey) o;
+      return kind == that.kind
+          && field1 == that.field1
+          && field2 == that.field2
+          && comparison == that.comparison;
+    }
+
+    @Override
+    public int hashCode() {
+      return ((kind.hashCode() * 31 + field1) * 31 + field2) * 31 + Objects.hashCode(comparison);
+    }
+  }
+
+  /**
+   * Species of {@code jdk.incubator.vector}, resolved only if the module is in the boot layer, e.
+   * g. with {@code --add-modules jdk.incubator.vector}. The API is incubating and looked up
+   * reflectively; if it is not available, fields are {@code null} and kernels are scalar loops.
+   */
+  private static class Vectors {
+    /** {@code LongVector.SPECIES_PREFERRED}. */
+    @Nullable static final Species LONG;
+    /** {@code DoubleVector.SPECIES_PREFERRED}. */
+    @Nullable static final Species DOUBLE;
+
+    static final String PACKAGE = "jdk.incubator.vector.";
+
+    static {
+      Species longSpecies = null;
+      Species doubleSpecies = null;
+      if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+        try {
+          longSpecies = new Species(long.class);
+          doubleSpecies = new Species(double.class);
+        } catch (ReflectiveOperationException e) {
+          // incubating API has changed, use scalar kernels
+          longSpecies = null;
+          doubleSpecies = null;
+        }
+      }
+      LONG = longSpecies;
+      DOUBLE = doubleSpecies;
+    }
+
+    /** {@code IntVector}, {@code LongVector} or {@code DoubleVector}. */
+    static Class<?> vectorClass(Class<?> elementType) throws ClassNotFoundException {
+      String name = elementType.getName();
+      return Class.forName(
+          PACKAGE + Character.toUpperCase(name.charAt(0)) + name.substring(1) + "Vector");
+    }
+  }
+
+  /** Lanewise operation and reduction of a {@code VectorOperators.Associative} operator. */
+  private static class Op {
+    /** {@code (V, V) -> V}. */
+    private final MethodHandle lanewise;
+    /** {@code (V) -> E}. */
+    private final MethodHandle reduceLanes;
+
+    Op(MethodHandle lanewise, MethodHandle reduceLanes) {
+      this.lanewise = lanewise;
+      this.reduceLanes = reduceLanes;
+    }
+  }
+
+  /**
+   * Preferred species of {@code long} or {@code double} lanes. Below {@code V} is {@code
+   * LongVector} or {@code DoubleVector} and {@code E} is the lane type.
+   */
+  private static class Species {
+    private final int length;
+    /** {@code (int size) -> int}, largest multiple of {@link #length} not exceeding size. */
+    private final MethodHandle loopBound;
+    /** {@code (E) -> V}. */
+    private final MethodHandle broadcast;
+
+    private final Op add;
+    private final Op min;
+    private final Op max;
+    /** {@code (V a, V b, V c) -> V}, {@code a * b + c}; {@code null} for integral lanes. */
+    @Nullable private final MethodHandle fma;
+
+    /** {@code (V, E) -> long}, bits of comparison mask. */
+    private final EnumMap<Comparison, MethodHandle> compare = new EnumMap<>(Comparison.class);
+
+    /**
+     * {@code (C[] column, int offset) -> V} by column component type {@code C}: {@code int} and
+     * {@code long} columns are read with a species of the same lane count and converted.
+     */
+    private final HashMap<Class<?>, MethodHandle> loads = new HashMap<>();
+
+    Species(Class<?> elementType) throws ReflectiveOperationException {
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      Class<?> vectorSpecies = Class.forName(Vectors.PACKAGE + "VectorSpecies");
+      Class<?> operators = Class.forName(Vectors.PACKAGE + "VectorOperators");
+      Class<?> vector = Vectors.vectorClass(elementType);
+      Object species = vector.getField("SPECIES_PREFERRED").get(null);
+
+      length = (int) vectorSpecies.getMethod("length").invoke(species);
+      loopBound =
+          lookup
+              .findVirtual(vectorSpecies, "loopBound", MethodType.methodType(int.class, int.class))
+              .bindTo(species);
+      broadcast =
+          lookup
+              .findStatic(
+                  vector, "broadcast", MethodType.methodType(vector, vectorSpecies, elementType))
+              .bindTo(species);
+
+      Class<?> anyVector = Class.forName(Vectors.PACKAGE + "Vector");
+      Class<?> binary = Class.forName(Vectors.PACKAGE + "VectorOperators$Binary");
+      Class<?> associative = Class.forName(Vectors.PACKAGE + "VectorOperators$Associative");
+      MethodHandle lanewise =
+          lookup.findVirtual(
+              vector, "lanewise", MethodType.methodType(vector, binary, anyVector));
+      MethodHandle reduceLanes =
+          lookup.findVirtual(
+              vector, "reduceLanes", MethodType.methodType(elementType, associative));
+      MethodType binaryType = MethodType.methodType(vector, vector, vector);
+      Op[] ops = new Op[3];
+      String[] opNames = {"ADD", "MIN", "MAX"};
+      for (int i = 0; i != ops.length; ++i) {
+        Object op = operators.getField(opNames[i]).get(null);
+        ops[i] =
+            new Op(
+                MethodHandles.insertArguments(lanewise, 1, op).asType(binaryType),
+                MethodHandles.insertArguments(reduceLanes, 1, op));
+      }
+      add = ops[0];
+      min = ops[1];
+      max = ops[2];
+
+      fma =
+          elementType == double.class
+              ? lookup
+                  .findVirtual(
+                      vector, "fma", MethodType.methodType(vector, anyVector, anyVector))
+                  .asType(MethodType.methodType(vector, vector, vector, vector))
+              : null;
+
+      Class<?> mask = Class.forName(Vectors.PACKAGE + "VectorMask");
+      Class<?> comparison = Class.forName(Vectors.PACKAGE + "VectorOperators$Comparison");
+      MethodHandle compareMh =
+          lookup.findVirtual(
+              vector, "compare", MethodType.methodType(mask, comparison, elementType));
+      MethodHandle toLong = lookup.findVirtual(mask, "toLong", MethodType.methodType(long.class));
+      for (Comparison c : Comparison.values()) {
+        Object op = operators.getField(c.name()).get(null);
+        compare.put(
+            c,
+            MethodHandles.filterReturnValue(
+                MethodHandles.insertArguments(compareMh, 1, op), toLong));
+      }
+
+      loads.put(elementType, fromArray(lookup, vectorSpecies, elementType, species));
+      Class<?> shape = Class.forName(Vectors.PACKAGE + "VectorShape");
+      Class<?> conversion = Class.forName(Vectors.PACKAGE + "VectorOperators$Conversion");
+      MethodHandle convertShape =
+          lookup.findVirtual(
+              anyVector,
+              "convertShape",
+              MethodType.methodType(anyVector, conversion, vectorSpecies, int.class));
+      for (Class<?> source : new Class<?>[] {int.class, long.class}) {
+        if (source == elementType) {
+          continue;
+        }
+        // e. g. I2L: int lanes of half width, converted to long lanes of the preferred shape
+        String conversionName =
+            Character.toUpperCase(source.getName().charAt(0))
+                + "2"
+                + Character.toUpperCase(elementType.getName().charAt(0));
+        int bits = source == int.class ? Integer.SIZE : Long.SIZE;
+        Object sourceSpecies;
+        try {
+          Object sourceShape =
+              shape.getMethod("forBitSize", int.class).invoke(null, length * bits);
+          sourceSpecies =
+              vectorSpecies
+                  .getMethod("of", Class.class, shape)
+                  .invoke(null, source, sourceShape);
+        } catch (InvocationTargetException e) {
+          // no such shape, column is read with a scalar loop
+          continue;
+        }
+        MethodHandle convert =
+            MethodHandles.insertArguments(
+                    convertShape, 1, operators.getField(conversionName).get(null), species, 0)
+                .asType(MethodType.methodType(vector, Vectors.vectorClass(source)));
+        loads.put(
+            source,
+            MethodHandles.filterReturnValue(
+                fromArray(lookup, vectorSpecies, source, sourceSpecies), convert));
+      }
+    }
+
+    /** {@code (C[] column, int offset) -> CVector}. */
+    private static MethodHandle fromArray(
+        MethodHandles.Lookup lookup, Class<?> vectorSpecies, Class<?> elementType, Object species)
+        throws ReflectiveOperationException {
+      Class<?> vector = Vectors.vectorClass(elementType);
+      Class<?> arrayType = Array.newInstance(elementType, 0).getClass();
+      return lookup
+          .findStatic(
+              vector,
+              "fromArray",
+              MethodType.methodType(vector, vectorSpecies, arrayType, int.class))
+          .bindTo(species);
+    }
+  }
+
+  private static long[] setBit(long[] bits, int i, boolean set) {
+    bits[i >>> 6] |= (set ? 1L : 0L) << i;
+    return bits;
+  }
+
+  /**
+   * Store comparison mask of a vector starting at element {@code i}. Lane count is a power of two
+   * not exceeding 64 and {@code i} is a multiple of it, so the mask fits into one word.
+   */
+  private static long[] orBits(long[] bits, int i, long mask) {
+    bits[i >>> 6] |= mask << i;
+    return bits;
+  }
+
   public static class Factory<T> {
     private final MethodHandle getImpl;
     private final MethodHandle setImpl;
     private final MethodHandle resize;
+    private final Field[] declaredFields;
     private final Object[] fields;
+    /** Vector species, {@code null} if kernels are scalar. */
+    @Nullable private final Species longSpecies;
+
+    @Nullable private final Species doubleSpecies;
+    /** Column kernels by kind and fields. */
+    private final ConcurrentHashMap<KernelKey, MethodHandle> kernels = new ConcurrentHashMap<>();
 
     public Factory(Class<T> tClass) {
+      this(tClass, true);
+    }
+
+    /** {@code vectorize = false} forces scalar kernels, e. g. to compare results in tests. */
+    Factory(Class<T> tClass, boolean vectorize) {
+      this.longSpecies = vectorize ? Vectors.LONG : null;
+      this.doubleSpecies = vectorize ? Vectors.DOUBLE : null;
 
       Field[] fields = tClass.getDeclaredFields();
 
@@ -94,6 +541,7 @@ public class FlatArrayMhList<T> extends AbstractList<T> {
       getImpl = getImpl(tClass, fields);
       setImpl = setImpl(tClass, fields);
       resize = resize(fields);
+      declaredFields = fields;
 
       this.fields = Arrays.stream(fields).map(f -> Array.newInstance(f.getType(), 0)).toArray();
     }
@@ -103,6 +551,12 @@ public class FlatArrayMhList<T> extends AbstractList<T> {
     }
 
     private static final MethodHandle NEW_INSTANCE;
+    private static final MethodHandle MIN_LONG;
+    private static final MethodHandle MAX_LONG;
+    private static final MethodHandle MIN_DOUBLE;
+    private static final MethodHandle MAX_DOUBLE;
+    private static final MethodHandle SET_BIT;
+    private static final MethodHandle OR_BITS;
 
     static {
       try {
@@ -110,11 +564,316 @@ public class FlatArrayMhList<T> extends AbstractList<T> {
             MethodHandles.publicLookup()
                 .findVirtual(
                     ObjectInstantiator.class, "newInstance", MethodType.methodType(Object.class));
+        MethodType longOp = MethodType.methodType(long.class, long.class, long.class);
+        MethodType doubleOp = MethodType.methodType(double.class, double.class, double.class);
+        MIN_LONG = MethodHandles.publicLookup().findStatic(Math.class, "min", longOp);
+        MAX_LONG = MethodHandles.publicLookup().findStatic(Math.class, "max", longOp);
+        MIN_DOUBLE = MethodHandles.publicLookup().findStatic(Math.class, "min", doubleOp);
+        MAX_DOUBLE = MethodHandles.publicLookup().findStatic(Math.class, "max", doubleOp);
+        SET_BIT =
+            MethodHandles.lookup()
+                .findStatic(
+                    FlatArrayMhList.class,
+                    "setBit",
+                    MethodType.methodType(long[].class, long[].class, int.class, boolean.class));
+        OR_BITS =
+            MethodHandles.lookup()
+                .findStatic(
+                    FlatArrayMhList.class,
+                    "orBits",
+                    MethodType.methodType(long[].class, long[].class, int.class, long.class));
       } catch (NoSuchMethodException | IllegalAccessException e) {
         throw new RuntimeException(e);
       }
     }
 
+    private MethodHandle kernel(KernelKind kind, String field) {
+      return kernel(new KernelKey(kind, fieldIndex(field, kind.integral), -1, null));
+    }
+
+    private MethodHandle kernel(KernelKind kind, String field, Comparison comparison) {
+      return kernel(
+          new KernelKey(
+              kind, fieldIndex(field, kind.integral), -1, Objects.requireNonNull(comparison)));
+    }
+
+    private MethodHandle kernel(KernelKind kind, String field1, String field2) {
+      return kernel(
+          new KernelKey(
+              kind, fieldIndex(field1, kind.integral), fieldIndex(field2, kind.integral), null));
+    }
+
+    /**
+     * Kernel of given kind, built on first request.
+     *
+     * <p>Kernels are {@code (Object[] fields, int size, ...) -> R} method handles, which are
+     * counted loops over primitive field arrays. When {@code jdk.incubator.vector} is available,
+     * {@code int}, {@code long} and {@code double} columns are processed by vectors of the
+     * preferred species, and remaining elements by a scalar loop.
+     */
+    private MethodHandle kernel(KernelKey key) {
+      MethodHandle kernel = kernels.get(key);
+      if (kernel == null) {
+        kernel = kernels.computeIfAbsent(key, this::buildKernel);
+      }
+      return kernel;
+    }
+
+    private MethodHandle buildKernel(KernelKey key) {
+      switch (key.kind) {
+        case SUM_LONG:
+          return buildReduce(key.field1, long.class, 0L, longSpecies, s -> s.add, Closure::plus);
+        case SUM_DOUBLE:
+          return buildReduce(
+              key.field1, double.class, 0.0, doubleSpecies, s -> s.add, Closure::plus);
+        case MIN_LONG:
+          return buildReduce(
+              key.field1,
+              long.class,
+              Long.MAX_VALUE,
+              longSpecies,
+              s -> s.min,
+              (v, e) -> Closure.fold(MIN_LONG, v, e));
+        case MAX_LONG:
+          return buildReduce(
+              key.field1,
+              long.class,
+              Long.MIN_VALUE,
+              longSpecies,
+              s -> s.max,
+              (v, e) -> Closure.fold(MAX_LONG, v, e));
+        case MIN_DOUBLE:
+          return buildReduce(
+              key.field1,
+              double.class,
+              Double.POSITIVE_INFINITY,
+              doubleSpecies,
+              s -> s.min,
+              (v, e) -> Closure.fold(MIN_DOUBLE, v, e));
+        case MAX_DOUBLE:
+          return buildReduce(
+              key.field1,
+              double.class,
+              Double.NEGATIVE_INFINITY,
+              doubleSpecies,
+              s -> s.max,
+              (v, e) -> Closure.fold(MAX_DOUBLE, v, e));
+        case SELECT_LONG:
+          return buildSelect(key.field1, long.class, longSpecies, key.comparison);
+        case SELECT_DOUBLE:
+          return buildSelect(key.field1, double.class, doubleSpecies, key.comparison);
+        case SUM_PRODUCT:
+          return buildSumProduct(key.field1, key.field2);
+        default:
+          throw new AssertionError(key.kind);
+      }
+    }
+
+    /** Index of a numeric field; {@code integral} also rejects {@code float} and {@code double}. */
+    private int fieldIndex(String fieldName, boolean integral) {
+      for (int fieldIndex = 0; fieldIndex < declaredFields.length; fieldIndex++) {
+        Field field = declaredFields[fieldIndex];
+        if (field.getName().equals(fieldName)) {
+          Class<?> type = field.getType();
+          if (!type.isPrimitive() || type == boolean.class) {
+            throw new IllegalArgumentException("not a numeric field: " + field);
+          }
+          if (integral && (type == float.class || type == double.class)) {
+            throw new IllegalArgumentException("not an integral field: " + field);
+          }
+          return fieldIndex;
+        }
+      }
+      throw new IllegalArgumentException("field not found: " + fieldName);
+    }
+
+    /** Assign a primitive field array to a variable. */
+    private Var<?> column(MhBuilder b, Var<Object[]> pArrays, int fieldIndex) {
+      Closure<Integer> fieldIndexExpr = Closure.constant(int.class, fieldIndex);
+      return b.assign(
+          Closure.getArrayElement(pArrays, fieldIndexExpr)
+              .cast(fieldArrayType(declaredFields[fieldIndex])));
+    }
+
+    /**
+     * {@code (C[] column, int offset) -> V} reading a column as vectors of given species, or
+     * {@code null} if the column should be read with a scalar loop.
+     */
+    @Nullable
+    private MethodHandle load(@Nullable Species species, int field) {
+      return species != null ? species.loads.get(declaredFields[field].getType()) : null;
+    }
+
+    /**
+     * {@code (Object[] fields, int size) -> W} kernel: vectors are combined with {@code op} and
+     * reduced, then remaining elements are combined with {@code step}. {@code init} must be the
+     * identity of both.
+     */
+    private <W> MethodHandle buildReduce(
+        int field,
+        Class<W> wideType,
+        W init,
+        @Nullable Species species,
+        Function<Species, Op> op,
+        BiFunction<Var<W>, Var<W>, Closure<W>> step) {
+      MhBuilder b = new MhBuilder();
+      Var<Object[]> pArrays = b.addParam(Object[].class);
+      Var<Integer> pSize = b.addParam(int.class);
+      Var<?> column = column(b, pArrays, field);
+      Closure<Integer> start = Closure.constant(0);
+      Closure<W> head = Closure.constant(wideType, init);
+      MethodHandle load = load(species, field);
+      if (load != null) {
+        Op vectorOp = op.apply(species);
+        Var<Integer> bound = b.assign(Closure.fold(species.loopBound, pSize));
+        Closure<Object> vector =
+            vectorLoop(
+                species,
+                bound,
+                Closure.fold(species.broadcast, head),
+                (acc, i) -> Closure.fold(vectorOp.lanewise, acc, Closure.fold(load, column, i)));
+        start = bound.asClosure();
+        head = Closure.fold(vectorOp.reduceLanes, vector);
+      }
+      return b.buildReturn(columnLoop(column, wideType, start, pSize, head, step));
+    }
+
+    /** {@code (Object[] fields, int size, W operand) -> long[]}. */
+    private <W> MethodHandle buildSelect(
+        int field, Class<W> wideType, @Nullable Species species, Comparison comparison) {
+      MhBuilder b = new MhBuilder();
+      Var<Object[]> pArrays = b.addParam(Object[].class);
+      Var<Integer> pSize = b.addParam(int.class);
+      Var<W> pOperand = b.addParam(wideType);
+      Var<?> column = column(b, pArrays, field);
+      Closure<Integer> words =
+          Closure.ushr(Closure.plus(pSize, Closure.constant(63)), Closure.constant(6));
+      Closure<Integer> start = Closure.constant(0);
+      Closure<long[]> bits = Closure.newArray(long[].class, words);
+      MethodHandle load = load(species, field);
+      if (load != null) {
+        MethodHandle compare = species.compare.get(comparison);
+        Var<Integer> bound = b.assign(Closure.fold(species.loopBound, pSize));
+        bits =
+            vectorLoop(
+                species,
+                bound,
+                bits,
+                (v, i) ->
+                    Closure.fold(
+                        OR_BITS,
+                        v,
+                        i,
+                        Closure.fold(compare, Closure.fold(load, column, i), pOperand)));
+        start = bound.asClosure();
+      }
+      return b.buildReturn(
+          Closure.countedLoop(
+              start,
+              pSize.asClosure(),
+              bits,
+              (v, i) ->
+                  Closure.fold(
+                      SET_BIT,
+                      v,
+                      i,
+                      compare(
+                          comparison,
+                          Closure.getArrayElement(column, i).cast(wideType),
+                          pOperand))));
+    }
+
+    /** {@code (Object[] fields, int size) -> double}. */
+    private MethodHandle buildSumProduct(int field1, int field2) {
+      MhBuilder b = new MhBuilder();
+      Var<Object[]> pArrays = b.addParam(Object[].class);
+      Var<Integer> pSize = b.addParam(int.class);
+      Var<?> column1 = column(b, pArrays, field1);
+      Var<?> column2 = column(b, pArrays, field2);
+      Closure<Integer> start = Closure.constant(0);
+      Closure<Double> head = Closure.constant(0.0);
+      Species species = doubleSpecies;
+      MethodHandle load1 = load(species, field1);
+      MethodHandle load2 = load(species, field2);
+      if (load1 != null && load2 != null) {
+        Var<Integer> bound = b.assign(Closure.fold(species.loopBound, pSize));
+        Closure<Object> vector =
+            vectorLoop(
+                species,
+                bound,
+                Closure.fold(species.broadcast, head),
+                (acc, i) ->
+                    Closure.fold(
+                        species.fma,
+                        Closure.fold(load1, column1, i),
+                        Closure.fold(load2, column2, i),
+                        acc));
+        start = bound.asClosure();
+        head = Closure.fold(species.add.reduceLanes, vector);
+      }
+      return b.buildReturn(
+          Closure.countedLoop(
+              start,
+              pSize.asClosure(),
+              head,
+              (v, i) ->
+                  Closure.plus(
+                      v,
+                      Closure.mul(
+                          Closure.getArrayElement(column1, i).cast(double.class),
+                          Closure.getArrayElement(column2, i).cast(double.class)))));
+    }
+
+    /** {@code for (k = 0; k < bound / length; ++k) { v = body(v, k * length); } return v; }. */
+    private static <V> Closure<V> vectorLoop(
+        Species species,
+        Var<Integer> bound,
+        Closure<V> init,
+        BiFunction<Var<V>, Var<Integer>, Closure<V>> body) {
+      Closure<Integer> length = Closure.constant(species.length);
+      return Closure.countedLoop(
+          Closure.constant(0),
+          Closure.div(bound, length),
+          init,
+          (v, k) -> Closure.let(Closure.mul(k, length), i -> body.apply(v, i)));
+    }
+
+    /** {@code for (i = start; i < size; ++i) { v = step(v, (W) column[i]); } return v; }. */
+    private static <W, R> Closure<R> columnLoop(
+        Var<?> column,
+        Class<W> wideType,
+        Closure<Integer> start,
+        Var<Integer> size,
+        Closure<R> init,
+        BiFunction<Var<R>, Var<W>, Closure<R>> step) {
+      return Closure.countedLoop(
+          start,
+          size.asClosure(),
+          init,
+          (v, i) ->
+              Closure.let(
+                  Closure.getArrayElement(column, i).cast(wideType), e -> step.apply(v, e)));
+    }
+
+    private static <W> Closure<Boolean> compare(Comparison comparison, Expr<W> a, Expr<W> b) {
+      switch (comparison) {
+        case EQ:
+          return Closure.equals(a, b);
+        case NE:
+          return Closure.not(Closure.equals(a, b));
+        case LT:
+          return Closure.lt(a, b);
+        case LE:
+          return Closure.le(a, b);
+        case GT:
+          return Closure.gt(a, b);
+        case GE:
+          return Closure.ge(a, b);
+        default:
+          throw new AssertionError(comparison);
+      }
+    }
+
     private static <T> MethodHandle getImpl(Class<T> tClass, Field[] fields) {
       ObjectInstantiator<T> instantiator = new StdInstantiatorStrategy().newInstantiatorOf(tClass);
 
@@ -0,0 +1,578 @@
+package com.github.stepancheg.mhlang.examples;
+
+import com.github.stepancheg.mhlang.Closure;
+import com.github.stepancheg.mhlang.ClosureBuilder;
+import com.github.stepancheg.mhlang.DeepEqualsHashCode;
+import com.github.stepancheg.mhlang.Expr;
+import com.github.stepancheg.mhlang.MhBuilder;
+import com.github.stepancheg.mhlang.Var;
+import com.google.common.collect.ImmutableList;
+import com.google.common.reflect.TypeToken;
+import org.objenesis.instantiator.ObjectInstantiator;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Open-addressing hash map which stores key fields in per-field arrays, like {@link
+ * FlatArrayMhList} does.
+ *
+ * <p>There are no key objects and no entry objects: a key is copied into columns on {@link
+ * #put(Object, Object)} and is materialized only when iterating. Lookups compare fields of a probe
+ * key with columns directly, and {@link Factory#getByFields()} looks up by raw field values
+ * without allocating a probe key at all.
+ *
+ * <p>Keys are compared field by field like {@link DeepEqualsHashCode#deepEquals(Class,
+ * MethodHandles.Lookup)} and hashed with {@link DeepEqualsHashCode#hash64(List)}, except that
+ * {@code float} and {@code double} fields are compared by bits like {@link Float#equals(Object)}
+ * does. Keys must not be {@code null}.
+ */
+public class FlatHashMap<K, V> extends AbstractMap<K, V> {
+
+  /** Initial capacity; capacity is a power of two, and the table is at most 3/4 full. */
+  private static final int MIN_CAPACITY = 16;
+
+  private final Factory<K> factory;
+
+  /** Array of key field arrays. */
+  private Object[] columns;
+  /** {@code hash | Integer.MIN_VALUE} for used slots, {@code 0} for free slots. */
+  private int[] tags;
+
+  private Object[] values;
+  private int size = 0;
+
+  private FlatHashMap(Factory<K> factory, int capacity) {
+    this.factory = factory;
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    columns = factory.newColumns(capacity);
+    tags = new int[capacity];
+    values = new Object[capacity];
+  }
+
+  private int mask() {
+    return tags.length - 1;
+  }
+
+  private static int tag(int hash) {
+    return hash | Integer.MIN_VALUE;
+  }
+
+  /** Slot of a key, or a free slot where the key should be inserted. */
+  private int find(int hash, Object key) {
+    try {
+      return (int) factory.find.invokeExact(columns, tags, mask(), hash, key);
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+  }
+
+  private int hash(Object key) {
+    try {
+      return (int) factory.hash.invokeExact(key);
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /** Slot of a key or {@code -1}. */
+  private int slotOf(Object key) {
+    if (!factory.keyClass.isInstance(key)) {
+      // also handles null
+      return -1;
+    }
+    int slot = find(hash(key), key);
+    return tags[slot] != 0 ? slot : -1;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return slotOf(key) >= 0;
+  }
+
+  @Override
+  public V get(Object key) {
+    return getOrDefault(key, null);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V getOrDefault(Object key, V defaultValue) {
+    int slot = slotOf(key);
+    return slot >= 0 ? (V) values[slot] : defaultValue;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V put(K key, V value) {
+    Objects.requireNonNull(key, "key");
+    int hash = hash(key);
+    int slot = find(hash, key);
+    if (tags[slot] != 0) {
+      V prev = (V) values[slot];
+      values[slot] = value;
+      return prev;
+    }
+    try {
+      factory.set.invokeExact(columns, slot, (Object) key);
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+    tags[slot] = tag(hash);
+    values[slot] = value;
+    size += 1;
+    if (size * 4L > tags.length * 3L) {
+      rehash(tags.length * 2);
+    }
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V remove(Object key) {
+    int slot = slotOf(key);
+    if (slot < 0) {
+      return null;
+    }
+    V prev = (V) values[slot];
+    removeSlot(slot);
+    return prev;
+  }
+
+  /** Backward shift deletion: move following entries of the probe sequence into the hole. */
+  private void removeSlot(int hole) {
+    int mask = mask();
+    try {
+      for (int i = (hole + 1) & mask; tags[i] != 0; i = (i + 1) & mask) {
+        int home = tags[i] & mask;
+        if (((i - home) & mask) >= ((i - hole) & mask)) {
+          factory.copy.invokeExact(columns, i, columns, hole);
+          tags[hole] = tags[i];
+          values[hole] = values[i];
+          hole = i;
+        }
+      }
+      factory.clear.invokeExact(columns, hole);
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+    tags[hole] = 0;
+    values[hole] = null;
+    size -= 1;
+  }
+
+  private void rehash(int newCapacity) {
+    Object[] oldColumns = columns;
+    int[] oldTags = tags;
+    Object[] oldValues = values;
+    allocate(newCapacity);
+    int mask = mask();
+    try {
+      for (int i = 0; i != oldTags.length; ++i) {
+        if (oldTags[i] == 0) {
+          continue;
+        }
+        int slot = oldTags[i] & mask;
+        while (tags[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        factory.copy.invokeExact(oldColumns, i, columns, slot);
+        tags[slot] = oldTags[i];
+        values[slot] = oldValues[i];
+      }
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+  }
+
+  @Override
+  public void clear() {
+    allocate(MIN_CAPACITY);
+    size = 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  private K keyAt(int slot) {
+    try {
+      return (K) factory.getKey.invokeExact(columns, slot);
+    } catch (Throwable throwable) {
+      throw new RuntimeException(throwable);
+    }
+  }
+
+  /** Value at slot found by {@link Factory#getByFields()}. */
+  private static Object valueAt(FlatHashMap<?, ?> map, int slot) {
+    return map.tags[slot] != 0 ? map.values[slot] : null;
+  }
+
+  private static Object[] columns(FlatHashMap<?, ?> map) {
+    return map.columns;
+  }
+
+  private static int[] tags(FlatHashMap<?, ?> map) {
+    return map.tags;
+  }
+
+  private static int mask(FlatHashMap<?, ?> map) {
+    return map.mask();
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return new AbstractSet<Entry<K, V>>() {
+      @Override
+      public Iterator<Entry<K, V>> iterator() {
+        return new Iterator<Entry<K, V>>() {
+          private int next = advance(0);
+
+          private int advance(int i) {
+            while (i != tags.length && tags[i] == 0) {
+              ++i;
+            }
+            return i;
+          }
+
+          @Override
+          public boolean hasNext() {
+            return next != tags.length;
+          }
+
+          @SuppressWarnings("unchecked")
+          @Override
+          public Entry<K, V> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            Entry<K, V> entry = new SimpleImmutableEntry<>(keyAt(next), (V) values[next]);
+            next = advance(next + 1);
+            return entry;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  public static class Factory<K> {
+    private final Class<K> keyClass;
+    private final Field[] keyFields;
+
+    /** {@code (K) -> int}. */
+    private final MethodHandle hash;
+    /** {@code (Object[] columns, int[] tags, int mask, int hash, Object key) -> int}. */
+    private final MethodHandle find;
+    /** {@code (Object[] columns, int slot, Object key) -> void}. */
+    private final MethodHandle set;
+    /** {@code (Object[] columns, int slot) -> Object}. */
+    private final MethodHandle getKey;
+    /** {@code (Object[] from, int i, Object[] to, int j) -> void}. */
+    private final MethodHandle copy;
+    /** {@code (Object[] columns, int slot) -> void}. */
+    private final MethodHandle clear;
+
+    private volatile MethodHandle getByFields;
+
+    public Factory(Class<K> keyClass) {
+      this.keyClass = keyClass;
+      this.keyFields =
+          Arrays.stream(keyClass.getDeclaredFields())
+              .filter(f -> !Modifier.isStatic(f.getModifiers()))
+              .toArray(Field[]::new);
+      for (Field field : keyFields) {
+        field.setAccessible(true);
+      }
+
+      hash = hash(keyClass, keyFields);
+      find = find(keyClass, keyFields);
+      set = set(keyClass, keyFields);
+      getKey = getKey(keyClass, keyFields);
+      copy = copy(keyFields);
+      clear = clear(keyFields);
+    }
+
+    public <V> FlatHashMap<K, V> newHashMap() {
+      return new FlatHashMap<>(this, MIN_CAPACITY);
+    }
+
+    private Object[] newColumns(int capacity) {
+      Object[] columns = new Object[keyFields.length];
+      for (int i = 0; i != keyFields.length; ++i) {
+        columns[i] = Array.newInstance(columnComponentType(keyFields[i]), capacity);
+      }
+      return columns;
+    }
+
+    /**
+     * Handle {@code (FlatHashMap<K, V> map, F1 f1, ..., Fn fn) -> Object} which returns a value
+     * of the key with given field values or {@code null}, where {@code F1 ... Fn} are types of key
+     * fields in declaration order. Lookups do not allocate.
+     */
+    public MethodHandle getByFields() {
+      MethodHandle mh = getByFields;
+      if (mh == null) {
+        mh = buildGetByFields();
+        getByFields = mh;
+      }
+      return mh;
+    }
+
+    private MethodHandle buildGetByFields() {
+      MhBuilder b = new MhBuilder();
+      Var<FlatHashMap<?, ?>> pMap = b.addParam(new TypeToken<FlatHashMap<?, ?>>() {});
+      ImmutableList.Builder<Var<?>> values = ImmutableList.builder();
+      for (Field field : keyFields) {
+        values.add(b.addParam(field.getType()));
+      }
+      Var<Object[]> columns = b.assign(Closure.fold(COLUMNS, pMap));
+      Var<int[]> tags = b.assign(Closure.fold(TAGS, pMap));
+      Var<Integer> mask = b.assign(Closure.fold(MASK, pMap));
+      Var<Integer> hash = b.assign(hash(values.build()));
+      Var<Integer> slot = b.assign(probe(b, keyFields, columns, tags, mask, hash, values.build()));
+      return b.buildReturn(Closure.fold(VALUE_AT, pMap, slot));
+    }
+
+    private static final MethodHandle NEW_INSTANCE;
+    private static final MethodHandle VALUE_AT;
+    private static final MethodHandle COLUMNS;
+    private static final MethodHandle TAGS;
+    private static final MethodHandle MASK;
+    private static final MethodHandle FLOAT_TO_INT_BITS;
+    private static final MethodHandle DOUBLE_TO_LONG_BITS;
+
+    static {
+      try {
+        NEW_INSTANCE =
+            MethodHandles.publicLookup()
+                .findVirtual(
+                    ObjectInstantiator.class, "newInstance", MethodType.methodType(Object.class));
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        VALUE_AT =
+            lookup.findStatic(
+                FlatHashMap.class,
+                "valueAt",
+                MethodType.methodType(Object.class, FlatHashMap.class, int.class));
+        COLUMNS =
+            lookup.findStatic(
+                FlatHashMap.class,
+                "columns",
+                MethodType.methodType(Object[].class, FlatHashMap.class));
+        TAGS =
+            lookup.findStatic(
+                FlatHashMap.class, "tags", MethodType.methodType(int[].class, FlatHashMap.class));
+        MASK =
+            lookup.findStatic(
+                FlatHashMap.class, "mask", MethodType.methodType(int.class, FlatHashMap.class));
+        FLOAT_TO_INT_BITS =
+            lookup.findStatic(
+                Float.class, "floatToIntBits", MethodType.methodType(int.class, float.class));
+        DOUBLE_TO_LONG_BITS =
+            lookup.findStatic(
+                Double.class, "doubleToLongBits", MethodType.methodType(long.class, double.class));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private static Closure<Integer> hash(List<? extends Expr<?>> values) {
+      return DeepEqualsHashCode.hash64(values).cast(int.class);
+    }
+
+    private static <K> ImmutableList<Var<?>> fieldValues(MhBuilder b, Field[] fields, Var<K> key) {
+      ImmutableList.Builder<Var<?>> values = ImmutableList.builder();
+      for (Field field : fields) {
+        values.add(b.assign(Closure.getField(field, key)));
+      }
+      return values.build();
+    }
+
+    private static <K> MethodHandle hash(Class<K> keyClass, Field[] fields) {
+      MhBuilder b = new MhBuilder();
+      @SuppressWarnings("unchecked")
+      Var<K> pKey = (Var<K>) b.addParam(Object.class);
+      Var<K> key = b.assign(pKey.asClosure().cast(keyClass));
+      return b.buildReturn(hash(fieldValues(b, fields, key)));
+    }
+
+    private static <K> MethodHandle find(Class<K> keyClass, Field[] fields) {
+      MhBuilder b = new MhBuilder();
+      Var<Object[]> pColumns = b.addParam(Object[].class);
+      Var<int[]> pTags = b.addParam(int[].class);
+      Var<Integer> pMask = b.addParam(int.class);
+      Var<Integer> pHash = b.addParam(int.class);
+      @SuppressWarnings("unchecked")
+      Var<K> pKey = (Var<K>) b.addParam(Object.class);
+      Var<K> key = b.assign(pKey.asClosure().cast(keyClass));
+      ImmutableList<Var<?>> values = fieldValues(b, fields, key);
+      return b.buildReturn(probe(b, fields, pColumns, pTags, pMask, pHash, values));
+    }
+
+    /**
+     * Linear probing:
+     *
+     * <pre>
+     *     slot = hash &amp; mask;
+     *     while (tags[slot] != 0
+     *             &amp;&amp; !(tags[slot] == tag &amp;&amp; columns[*][slot] == values[*])) {
+     *         slot = (slot + 1) &amp; mask;
+     *     }
+     *     return slot;
+     * </pre>
+     */
+    private static Closure<Integer> probe(
+        MhBuilder b,
+        Field[] fields,
+        Var<Object[]> columns,
+        Var<int[]> tags,
+        Var<Integer> mask,
+        Var<Integer> hash,
+        List<Var<?>> values) {
+      Var<Integer> tag = b.assign(Closure.bitOr(hash, Closure.constant(Integer.MIN_VALUE)));
+      Var<?>[] typedColumns = new Var<?>[fields.length];
+      for (int i = 0; i != fields.length; ++i) {
+        typedColumns[i] =
+            b.assign(
+                Closure.getArrayElement(columns, Closure.constant(i)).cast(columnType(fields[i])));
+      }
+      return Closure.whileLoop(
+          Closure.bitAnd(hash, mask),
+          slot -> {
+            ClosureBuilder cb = new ClosureBuilder();
+            Var<Integer> slotTag = cb.assign(Closure.getArrayElement(tags, slot));
+            ImmutableList.Builder<Expr<Boolean>> eq = ImmutableList.builder();
+            eq.add(Closure.equals(slotTag, tag));
+            for (int i = 0; i != fields.length; ++i) {
+              Closure<Object> stored = Closure.getArrayElement(typedColumns[i], slot);
+              Closure<Object> value = cast(values.get(i), columnComponentType(fields[i]));
+              eq.add(Closure.equals(comparable(stored), comparable(value)));
+            }
+            return cb.buildReturn(
+                Closure.and(
+                    Closure.not(Closure.equals(slotTag, Closure.constant(0))),
+                    Closure.not(Closure.and(eq.build()))));
+          },
+          slot -> Closure.bitAnd(Closure.plus(slot, Closure.constant(1)), mask));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> MethodHandle set(Class<K> keyClass, Field[] fields) {
+      MhBuilder b = new MhBuilder();
+      Var<Object[]> pColumns = b.addParam(Object[].class);
+      Var<Integer> pSlot = b.addParam(int.class);
+      Var<K> pKey = (Var<K>) b.addParam(Object.class);
+      Var<K> key = b.assign(pKey.asClosure().cast(keyClass));
+      for (int i = 0; i != fields.length; ++i) {
+        Closure<?> column =
+            Closure.getArrayElement(pColumns, Closure.constant(i)).cast(columnType(fields[i]));
+        Closure<?> value = Closure.getField(fields[i], key).cast(columnComponentType(fields[i]));
+        b.assign(Closure.setArrayElement(column, pSlot, value));
+      }
+      return b.buildReturnVoid();
+    }
+
+    private static <K> MethodHandle getKey(Class<K> keyClass, Field[] fields) {
+      ObjectInstantiator<K> instantiator =
+          new StdInstantiatorStrategy().newInstantiatorOf(keyClass);
+
+      MhBuilder b = new MhBuilder();
+      Var<Object[]> pColumns = b.addParam(Object[].class);
+      Var<Integer> pSlot = b.addParam(int.class);
+      Var<Object> instanceObject =
+          b.assign(new Closure<>(MethodHandles.insertArguments(NEW_INSTANCE, 0, instantiator)));
+      Var<K> instance = b.assign(instanceObject.asClosure().cast(keyClass));
+      for (int i = 0; i != fields.length; ++i) {
+        Closure<?> column =
+            Closure.getArrayElement(pColumns, Closure.constant(i)).cast(columnType(fields[i]));
+        Closure<?> value =
+            Closure.getArrayElement(column, pSlot).cast(fields[i].getType());
+        b.assign(Closure.setField(fields[i], instance, value));
+      }
+      return b.buildReturn(instanceObject);
+    }
+
+    private static MethodHandle copy(Field[] fields) {
+      MhBuilder b = new MhBuilder();
+      Var<Object[]> pFrom = b.addParam(Object[].class);
+      Var<Integer> pI = b.addParam(int.class);
+      Var<Object[]> pTo = b.addParam(Object[].class);
+      Var<Integer> pJ = b.addParam(int.class);
+      for (int f = 0; f != fields.length; ++f) {
+        Closure<Integer> fv = Closure.constant(f);
+        Class<?> columnType = columnType(fields[f]);
+        Closure<?> from = Closure.getArrayElement(pFrom, fv).cast(columnType);
+        Closure<?> to = Closure.getArrayElement(pTo, fv).cast(columnType);
+        b.assign(Closure.setArrayElement(to, pJ, Closure.getArrayElement(from, pI)));
+      }
+      return b.buildReturnVoid();
+    }
+
+    /** Null out object fields so removed keys can be collected. */
+    private static MethodHandle clear(Field[] fields) {
+      MhBuilder b = new MhBuilder();
+      Var<Object[]> pColumns = b.addParam(Object[].class);
+      Var<Integer> pSlot = b.addParam(int.class);
+      for (int f = 0; f != fields.length; ++f) {
+        if (fields[f].getType().isPrimitive()) {
+          continue;
+        }
+        Closure<Object[]> column =
+            Closure.getArrayElement(pColumns, Closure.constant(f)).cast(Object[].class);
+        b.assign(Closure.setArrayElement(column, pSlot, Closure.constant(Object.class, null)));
+      }
+      return b.buildReturnVoid();
+    }
+
+    /**
+     * Floating point values are compared by bits like {@link Float#equals(Object)}, consistently
+     * with hashing: {@code NaN} is equal to itself, and {@code 0.0} is not equal to {@code -0.0}.
+     */
+    private static Closure<Object> comparable(Closure<Object> value) {
+      Class<?> type = value.type();
+      if (type == float.class) {
+        return Closure.fold(FLOAT_TO_INT_BITS, value);
+      } else if (type == double.class) {
+        return Closure.fold(DOUBLE_TO_LONG_BITS, value);
+      } else {
+        return value;
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Closure<Object> cast(Expr<?> value, Class<?> type) {
+      return (Closure<Object>) value.asClosure().cast(type);
+    }
+
+    private static Class<?> columnComponentType(Field field) {
+      // Object fields are stored in Object[] arrays like in FlatArrayMhList
+      return field.getType().isPrimitive() ? field.getType() : Object.class;
+    }
+
+    private static Class<?> columnType(Field field) {
+      return Array.newInstance(columnComponentType(field), 0).getClass();
+    }
+  }
+}
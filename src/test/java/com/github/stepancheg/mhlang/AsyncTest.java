@@ -0,0 +1,137 @@
+package com.github.stepancheg.mhlang;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.reflect.TypeToken;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class AsyncTest {
+
+  private static final TypeToken<CompletableFuture<String>> FUTURE =
+      new TypeToken<CompletableFuture<String>>() {};
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+  @After
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /** {@code future.thenApply(s -> s + suffix).thenCompose(s -> completed(s.length() * k))}. */
+  private static Closure<CompletableFuture<Integer>> pipeline(
+      Var<CompletableFuture<String>> future, Var<String> suffix, Var<Integer> k) {
+    Closure<CompletableFuture<String>> concat =
+        Closure.thenApply(future, String.class, s -> Closure.plus(s, suffix));
+    return Closure.thenCompose(
+        concat,
+        String.class,
+        s -> Closure.completedFuture(Closure.mul(Closure.toIntFunction(s, String::length), k)));
+  }
+
+  @Test
+  public void then() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<CompletableFuture<String>> future = b.addParam(FUTURE);
+    Var<String> suffix = b.addParam(String.class);
+    Var<Integer> k = b.addParam(int.class);
+    Closure<CompletableFuture<Integer>> r = pipeline(future, suffix, k);
+    MethodHandle mh = b.buildReturn(r);
+    MethodHandle interpreted = b.buildReturnTiered(r, 10);
+
+    CompletableFuture<String> f = new CompletableFuture<>();
+    CompletableFuture<?> result = (CompletableFuture<?>) mh.invokeExact(f, "cd", 10);
+    CompletableFuture<?> resultInterpreted =
+        (CompletableFuture<?>) interpreted.invokeExact(f, "cd", 10);
+    assertFalse(result.isDone());
+    f.complete("ab");
+    assertEquals(40, result.get());
+    assertEquals(40, resultInterpreted.get());
+  }
+
+  @Test
+  public void allOf() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<String> p = b.addParam(String.class);
+    MethodHandle mh =
+        b.buildReturn(
+            Closure.allOf(
+                Closure.completedFuture(p),
+                Closure.thenApply(
+                    Closure.completedFuture(p),
+                    String.class,
+                    s -> Closure.plus(s, Closure.constant("!")))));
+
+    CompletableFuture<?> r = (CompletableFuture<?>) mh.invokeExact("a");
+    assertEquals(ImmutableList.of("a", "a!"), r.get());
+  }
+
+  @Test
+  public void buildReturnAsync() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<String> p = b.addParam(String.class);
+    Var<String> thread =
+        b.assign(Closure.supplier(String.class, () -> Thread.currentThread().getName()));
+    MethodHandle mh = b.buildReturnAsync(Closure.plus(p, thread), executor);
+
+    CompletableFuture<?> r = (CompletableFuture<?>) mh.invokeExact("x-");
+    String result = (String) r.get();
+    assertTrue(result, result.startsWith("x-pool-"));
+  }
+
+  @Test
+  public void buildReturnAsyncFlatten() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<CompletableFuture<String>> future = b.addParam(FUTURE);
+    Var<String> suffix = b.addParam(String.class);
+    Var<Integer> k = b.addParam(int.class);
+    MethodHandle mh = b.buildReturnAsync(pipeline(future, suffix, k), executor);
+
+    List<CompletableFuture<?>> results = new ArrayList<>();
+    CompletableFuture<String> f = new CompletableFuture<>();
+    for (int i = 0; i != 100; ++i) {
+      results.add((CompletableFuture<?>) mh.invokeExact(f, "", i));
+    }
+    f.complete("abc");
+    for (int i = 0; i != 100; ++i) {
+      assertEquals(3 * i, results.get(i).get());
+    }
+  }
+
+  @Test
+  public void exception() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<CompletableFuture<String>> future = b.addParam(FUTURE);
+    MethodHandle mh =
+        b.buildReturn(
+            Closure.thenApply(
+                future,
+                String.class,
+                s ->
+                    Closure.function(
+                        String.class,
+                        s,
+                        x -> {
+                          throw new IllegalStateException(x);
+                        })));
+
+    CompletableFuture<?> r =
+        (CompletableFuture<?>) mh.invokeExact(CompletableFuture.completedFuture("a"));
+    try {
+      r.get();
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+      assertEquals("a", e.getCause().getMessage());
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.github.stepancheg.mhlang;
+
+import java.lang.invoke.MethodHandle;
+
+/** Compare row by row invocation of a function with {@link MhBuilder#buildBatch(Expr)}. */
+public class BatchBenchmark {
+
+  private static final int ROWS = 100_000;
+
+  /** {@code a * b + 1}. */
+  private static Closure<Long> function(MhBuilder b) {
+    Var<Long> x = b.addParam(long.class);
+    Var<Long> y = b.addParam(long.class);
+    return Closure.plus(Closure.mul(x, y), Closure.constant(1L));
+  }
+
+  private static final MethodHandle ROW;
+  private static final MethodHandle BATCH;
+
+  static {
+    MhBuilder row = new MhBuilder();
+    ROW = row.buildReturn(function(row));
+    MhBuilder batch = new MhBuilder();
+    BATCH = batch.buildBatch(function(batch));
+  }
+
+  private static volatile long o;
+
+  public static void main(String[] args) throws Throwable {
+    long[] x = new long[ROWS];
+    long[] y = new long[ROWS];
+    long[] out = new long[ROWS];
+    for (int i = 0; i != ROWS; ++i) {
+      x[i] = i;
+      y[i] = i + 1;
+    }
+
+    for (;;) {
+      long start = System.nanoTime();
+      for (int j = 0; j != 1000; ++j) {
+        for (int i = 0; i != ROWS; ++i) {
+          out[i] = (long) ROW.invokeExact(x[i], y[i]);
+        }
+        o = out[j];
+      }
+      long rowMillis = (System.nanoTime() - start) / 1_000_000;
+
+      start = System.nanoTime();
+      for (int j = 0; j != 1000; ++j) {
+        BATCH.invokeExact(x, y, out, 0, ROWS);
+        o = out[j];
+      }
+      long batchMillis = (System.nanoTime() - start) / 1_000_000;
+
+      System.out.printf("row %5d batch %5d%n", rowMillis, batchMillis);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package com.github.stepancheg.mhlang;
+
+import java.lang.invoke.MethodHandle;
+
+/** Measure how {@link MhBuilder} build time scales with the number of statements. */
+public class BuilderBenchmark {
+
+  private static volatile Object o;
+
+  /** {@code a[i % a.length] += x} repeated {@code n} times, plus a few locals. */
+  private static MethodHandle build(int n, boolean lazy) {
+    MhBuilder b = new MhBuilder();
+    Var<int[]> a = b.addParam(int[].class);
+    Var<Integer> x = b.addParam(int.class);
+    Var<Integer> len = b.assign(Closure.arrayLength(a));
+    for (int i = 0; i != n; ++i) {
+      Closure<Integer> index = Closure.constant(i % 16);
+      if (i % 100 == 0) {
+        // locals are limited by 255 method handle parameters
+        Var<Integer> y = b.assign(Closure.plus(x, len));
+        b.assign(Closure.setArrayElement(a, index, y));
+      } else {
+        Closure<Integer> prev = Closure.getArrayElement(a, index);
+        b.assign(Closure.setArrayElement(a, index, Closure.plus(prev, x)));
+      }
+    }
+    return lazy ? b.buildReturnLazy(Closure.constantVoid()) : b.buildReturnVoid();
+  }
+
+  /** Closure referencing {@code n} outer variables. */
+  private static Closure<Void> buildClosure(int n) {
+    MhBuilder outer = new MhBuilder();
+    Var<int[]> a = outer.addParam(int[].class);
+    ClosureBuilder b = new ClosureBuilder();
+    for (int i = 0; i != n; ++i) {
+      b.assign(Closure.setArrayElement(a, Closure.constant(i % 16), Closure.constant(i)));
+    }
+    return b.buildReturnVoid();
+  }
+
+  private static void run(int n) {
+    long start = System.nanoTime();
+    o = build(n, false);
+    long mhMillis = (System.nanoTime() - start) / 1_000_000;
+
+    start = System.nanoTime();
+    o = build(n, true);
+    long lazyMillis = (System.nanoTime() - start) / 1_000_000;
+
+    start = System.nanoTime();
+    o = buildClosure(n);
+    long closureMillis = (System.nanoTime() - start) / 1_000_000;
+
+    System.out.printf(
+        "%6d statements: MhBuilder %5d ms, lazy %5d ms, ClosureBuilder %5d ms%n",
+        n,
+        mhMillis,
+        lazyMillis,
+        closureMillis);
+  }
+
+  public static void main(String[] args) {
+    for (int iter = 0; iter != 3; ++iter) {
+      for (int n = 10; n <= 10000; n *= 10) {
+        run(n);
+      }
+    }
+  }
+}
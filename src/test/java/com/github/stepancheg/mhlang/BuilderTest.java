@@ -6,7 +6,10 @@ import org.junit.Test;
 import java.lang.invoke.MethodHandle;
 import java.util.ArrayList;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class BuilderTest {
 
@@ -38,4 +41,86 @@ public class BuilderTest {
     mh.invokeExact();
     assertEquals(ImmutableList.of("a", "b"), l);
   }
+
+  @Test
+  public void manyStatements() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<int[]> a = b.addParam(int[].class);
+    Var<Integer> x = b.addParam(int.class);
+    for (int i = 0; i != 1000; ++i) {
+      Closure<Integer> index = Closure.constant(i % 3);
+      if (i % 10 == 0) {
+        Var<Integer> y = b.assign(Closure.plus(x, x));
+        b.assign(Closure.setArrayElement(a, index, y));
+      } else {
+        Closure<Integer> prev = Closure.getArrayElement(a, index);
+        b.assign(Closure.setArrayElement(a, index, Closure.plus(prev, x)));
+      }
+    }
+    MethodHandle mh = b.buildReturnVoid();
+
+    int[] expected = new int[3];
+    for (int i = 0; i != 1000; ++i) {
+      expected[i % 3] = i % 10 == 0 ? 2 : expected[i % 3] + 1;
+    }
+    int[] array = new int[3];
+    mh.invokeExact(array, 1);
+    assertArrayEquals(expected, array);
+  }
+
+  @Test
+  public void closureBuilderOuterVars() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<Integer> p0 = b.addParam(int.class);
+    Var<Integer> p1 = b.addParam(int.class);
+
+    ClosureBuilder cb = new ClosureBuilder();
+    Var<Integer> s = cb.assign(Closure.plus(p1, p0));
+    Var<Integer> t = cb.assign(Closure.plus(s, p1));
+    Closure<Integer> c = cb.buildReturn(Closure.mul(t, p0));
+
+    MethodHandle mh = b.buildReturn(c);
+    assertEquals((3 + 2 + 3) * 2, (int) mh.invokeExact(2, 3));
+  }
+
+  @Test
+  public void buildReturnLazy() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<Integer> p0 = b.addParam(int.class);
+    Closure<Integer> plus = Closure.plus(p0, Closure.constant(1));
+    Var<Integer> v = b.assign(plus);
+    MethodHandle mh = b.buildReturnLazy(Closure.mul(v, Closure.constant(2)));
+    assertFalse(plus.isCompiled());
+
+    assertEquals(8, (int) mh.invokeExact(3));
+    assertTrue(plus.isCompiled());
+    assertEquals(10, (int) mh.invokeExact(4));
+  }
+
+  @Test
+  public void buildBatch() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<Integer> p0 = b.addParam(int.class);
+    Var<String> p1 = b.addParam(String.class);
+    Var<Integer> twice = b.assign(Closure.plus(p0, p0));
+    MethodHandle mh = b.buildBatch(Closure.plus(p1, Closure.toString(twice)));
+
+    int[] ints = {1, 2, 3, 4};
+    String[] strings = {"a", "b", "c", "d"};
+    String[] out = new String[4];
+    mh.invokeExact(ints, strings, out, 1, 3);
+    assertArrayEquals(new String[] {null, "b4", "c6", null}, out);
+  }
+
+  @Test
+  public void buildBatchVoid() throws Throwable {
+    ArrayList<Long> l = new ArrayList<>();
+    MhBuilder b = new MhBuilder();
+    Var<Long> p0 = b.addParam(long.class);
+    b.assign(Closure.longConsumer(p0, l::add));
+    MethodHandle mh = b.buildBatch(Closure.constantVoid());
+
+    mh.invokeExact(new long[] {5, 6, 7}, 0, 3);
+    assertEquals(ImmutableList.of(5L, 6L, 7L), l);
+  }
 }
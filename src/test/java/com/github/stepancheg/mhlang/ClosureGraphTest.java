@@ -0,0 +1,73 @@
+package com.github.stepancheg.mhlang;
+
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandles;
+
+import static org.junit.Assert.*;
+
+public class ClosureGraphTest {
+
+  @Test
+  public void nodes() {
+    MhBuilder b = new MhBuilder();
+    Var<Boolean> p0 = b.addParam(boolean.class);
+    Var<Integer> p1 = b.addParam(int.class);
+    b.buildReturn(Closure.ifThenElse(p0, Closure.plus(p1, Closure.constant(1)), p1.asClosure()));
+
+    ClosureGraph graph = b.graph();
+    assertEquals("block", graph.root().kind());
+    assertEquals(2, graph.root().parameterCount());
+
+    ClosureGraph.Node ifThenElse = graph.root().children().get(0);
+    assertEquals("ifThenElse", ifThenElse.kind());
+    assertEquals("plus", ifThenElse.children().get(0).kind());
+    assertEquals("var", ifThenElse.children().get(1).kind());
+    assertEquals(graph.depth(), graph.root().depth());
+    assertTrue(graph.depth() >= 4);
+    assertTrue(graph.duplicatedSubtrees().isEmpty());
+  }
+
+  @Test
+  public void duplicated() {
+    Closure<Integer> c = Closure.supplier(Integer.class, () -> 1).cast(int.class);
+    Closure<Integer> twice = Closure.plus(c, c);
+    Closure<Integer> fourTimes = Closure.plus(twice, twice);
+
+    ClosureGraph graph = ClosureGraph.of(fourTimes);
+    assertEquals(2, graph.duplicatedSubtrees().size());
+    assertSame(twice.node, graph.duplicatedSubtrees().get(0));
+    assertSame(c.node, graph.duplicatedSubtrees().get(1));
+    assertTrue(graph.treeSize() > graph.nodeCount());
+
+    String text = graph.toText();
+    assertTrue(text, text.contains("-> #1"));
+    assertTrue(text, text.contains("-> #2"));
+
+    String dot = graph.toDot();
+    assertTrue(dot, dot.startsWith("digraph closure {"));
+    assertTrue(dot, dot.contains("fillcolor=lightpink"));
+  }
+
+  @Test
+  public void deepEquals() {
+    MhBuilder b = new MhBuilder();
+    Var<MyData> thiz = b.addParam(MyData.class);
+    Var<Object> that = b.addParam(Object.class);
+    b.buildReturn(DeepEqualsHashCode.deepEquals(MethodHandles.lookup(), thiz, that));
+
+    String text = b.graph().toText();
+    assertTrue(text, text.contains("getField a"));
+    assertTrue(text, text.contains("getField b"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void notBuilt() {
+    new MhBuilder().graph();
+  }
+
+  private static class MyData {
+    int a;
+    String b;
+  }
+}
@@ -1,10 +1,12 @@
 package com.github.stepancheg.mhlang;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.reflect.TypeToken;
 import org.junit.Test;
 
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -37,6 +39,43 @@ public class ClosureTest {
     assertEquals("a-b", x);
   }
 
+  @Test
+  public void primitiveFunctions() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<Long> p0 = b.addParam(long.class);
+    Var<String> p1 = b.addParam(String.class);
+    Var<Long> len = b.assign(Closure.toLongFunction(p1, String::length));
+    Var<Long> sum = b.assign(Closure.longBinaryOperator(p0, len, Long::sum));
+    Var<Double> half = b.assign(Closure.longToDoubleFunction(sum, x -> x / 2.0));
+    Closure<Double> r =
+        Closure.ifThenElse(
+            Closure.doublePredicate(half, x -> x > 2),
+            Closure.doubleUnaryOperator(half, Math::floor),
+            Closure.doubleSupplier(() -> -1));
+    MethodHandle mh = b.buildReturn(r);
+
+    assertEquals(3.0, (double) mh.invokeExact(4L, "abc"), 0);
+    assertEquals(-1.0, (double) mh.invokeExact(1L, "a"), 0);
+
+    MethodHandle interpreted = b.buildReturnTiered(r, 10);
+    assertEquals(3.0, (double) interpreted.invokeExact(4L, "abc"), 0);
+  }
+
+  @Test
+  public void primitiveConsumers() throws Throwable {
+    ArrayList<String> calls = new ArrayList<>();
+    MhBuilder b = new MhBuilder();
+    Var<StringBuilder> p0 = b.addParam(StringBuilder.class);
+    Var<Integer> p1 = b.addParam(int.class);
+    b.assign(Closure.objIntConsumer(p0, p1, StringBuilder::append));
+    b.assign(Closure.intConsumer(p1, i -> calls.add("int " + i)));
+    b.assign(Closure.consumer(p0, sb -> calls.add("sb " + sb)));
+    MethodHandle mh = b.buildReturnVoid();
+
+    mh.invokeExact(new StringBuilder("x"), 5);
+    assertEquals(ImmutableList.of("int 5", "sb x5"), calls);
+  }
+
   @Test
   public void predicate() throws Throwable {
     MhBuilder b = new MhBuilder();
@@ -262,6 +301,65 @@ public class ClosureTest {
     assertEquals(10, (int) mh.invokeExact((List) ImmutableList.of(1, 2, 3, 4)));
   }
 
+  @Test
+  public void arrayLoop() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<long[]> p = b.addParam(long[].class);
+    Var<Long> init = b.addParam(long.class);
+    Closure<Long> sum = Closure.arrayLoop(long.class, p, init.asClosure(), Closure::plus);
+    MethodHandle mh = b.buildReturn(sum);
+    MethodHandle interpreted = b.buildReturnTiered(sum, 10);
+
+    assertEquals(16L, (long) mh.invokeExact(new long[] {1, 2, 3}, 10L));
+    assertEquals(16L, (long) interpreted.invokeExact(new long[] {1, 2, 3}, 10L));
+    assertEquals(10L, (long) mh.invokeExact(new long[0], 10L));
+  }
+
+  @Test
+  public void arrayLoopCast() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<Object[]> p = b.addParam(Object[].class);
+    MethodHandle mh =
+        b.buildReturn(
+            Closure.arrayLoop(
+                String.class,
+                p,
+                Closure.constant(0),
+                (v, e) -> Closure.plus(v, Closure.toIntFunction(e, String::length))));
+
+    assertEquals(5, (int) mh.invokeExact(new Object[] {"ab", "cde"}));
+  }
+
+  @Test
+  public void listLoop() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<List<Integer>> p = b.addParam(new TypeToken<List<Integer>>() {});
+    Closure<Integer> sum = Closure.listLoop(int.class, p, Closure.constant(0), Closure::plus);
+    MethodHandle mh = b.buildReturn(sum);
+    MethodHandle interpreted = b.buildReturnTiered(sum, 10);
+
+    assertEquals(10, (int) mh.invokeExact((List) ImmutableList.of(1, 2, 3, 4)));
+    assertEquals(10, (int) interpreted.invokeExact((List) ImmutableList.of(1, 2, 3, 4)));
+  }
+
+  @Test
+  public void let() throws Throwable {
+    ArrayList<String> calls = new ArrayList<>();
+    MhBuilder b = new MhBuilder();
+    Var<Integer> p = b.addParam(int.class);
+    Closure<Integer> value =
+        Closure.intUnaryOperator(
+            p,
+            x -> {
+              calls.add("value");
+              return x + 1;
+            });
+    MethodHandle mh = b.buildReturn(Closure.let(value, v -> Closure.mul(v, v)));
+
+    assertEquals(16, (int) mh.invokeExact(3));
+    assertEquals(ImmutableList.of("value"), calls);
+  }
+
   @Test
   public void castBox() throws Throwable {
     MhBuilder b = new MhBuilder();
@@ -335,7 +433,7 @@ public class ClosureTest {
 
   @Test
   public void arrayLength() throws Throwable {
-    assertEquals(5, (int) Closure.arrayLength(Closure.constant(new double[5])).mh.invokeExact());
+    assertEquals(5, (int) Closure.arrayLength(Closure.constant(new double[5])).mh().invokeExact());
   }
 
   @Test
@@ -345,7 +443,7 @@ public class ClosureTest {
             FunctionsMh.biFunction((String a, String b) -> a + b),
             Closure.constant(Object.class, "a"),
             Closure.constant(Object.class, "b"));
-    assertEquals("ab", cl.mh.invokeExact());
+    assertEquals("ab", cl.mh().invokeExact());
   }
 
   @Test
@@ -367,7 +465,7 @@ public class ClosureTest {
                   calls.add("b");
                   return "b";
                 }));
-    assertEquals("ab", cl.mh.invokeExact());
+    assertEquals("ab", cl.mh().invokeExact());
     assertEquals(ImmutableList.of("a", "b"), calls);
   }
 
@@ -377,42 +475,150 @@ public class ClosureTest {
         Closure.or(
             Closure.constant(true),
             Closure.throwException(boolean.class, Closure.constant(new RuntimeException())));
-    assertTrue((boolean) orTrue.mh.invokeExact());
+    assertTrue((boolean) orTrue.mh().invokeExact());
+  }
+
+  @Test
+  public void lazy() throws Throwable {
+    Closure<Integer> two = Closure.plus(Closure.constant(1), Closure.constant(1));
+    Closure<Integer> four = Closure.mul(two, two);
+    Closure<String> s = Closure.toString(four);
+    assertFalse(two.isCompiled());
+    assertFalse(s.isCompiled());
+    assertEquals(MethodType.methodType(String.class), s.methodType());
+
+    assertEquals("4", (String) s.mh().invokeExact());
+    assertTrue(two.isCompiled());
+    assertSame(s.mh(), s.mh());
   }
 
   @Test
   public void plus() throws Throwable {
-    assertEquals(5, (int) Closure.plus(Closure.constant(2), Closure.constant(3)).mh.invokeExact());
     assertEquals(
-        5L, (long) Closure.plus(Closure.constant(2L), Closure.constant(3L)).mh.invokeExact());
+        5, (int) Closure.plus(Closure.constant(2), Closure.constant(3)).mh().invokeExact());
     assertEquals(
-        "23", (String) Closure.plus(Closure.constant("2"), Closure.constant("3")).mh.invokeExact());
+        5L, (long) Closure.plus(Closure.constant(2L), Closure.constant(3L)).mh().invokeExact());
+    assertEquals(
+        "23",
+        (String) Closure.plus(Closure.constant("2"), Closure.constant("3")).mh().invokeExact());
   }
 
   @Test
   public void comparePrimitive() throws Throwable {
     assertTrue(
-        (int) Closure.compare(Closure.constant(1L), Closure.constant(2L)).mh.invokeExact() < 0);
+        (int) Closure.compare(Closure.constant(1L), Closure.constant(2L)).mh().invokeExact() < 0);
   }
 
   @Test
   public void compareObjects() throws Throwable {
-    MethodHandle mhGt = Closure.compare(Closure.constant("cd"), Closure.constant("ab")).mh;
+    MethodHandle mhGt = Closure.compare(Closure.constant("cd"), Closure.constant("ab")).mh();
     assertTrue((int) mhGt.invokeExact() > 0);
-    MethodHandle mhSame = Closure.compare(Closure.constant("ab"), Closure.constant("ab")).mh;
+    MethodHandle mhSame = Closure.compare(Closure.constant("ab"), Closure.constant("ab")).mh();
     assertEquals(0, (int) mhSame.invokeExact());
     MethodHandle mhEq =
-        Closure.compare(Closure.constant("ab"), Closure.constant(new String("ab"))).mh;
+        Closure.compare(Closure.constant("ab"), Closure.constant(new String("ab"))).mh();
     assertEquals(0, (int) mhEq.invokeExact());
     MethodHandle mhGtNull =
-        Closure.compare(Closure.constant("cd"), Closure.constant(String.class, null)).mh;
+        Closure.compare(Closure.constant("cd"), Closure.constant(String.class, null)).mh();
     assertTrue((int) mhGtNull.invokeExact() > 0);
     MethodHandle mhLtNull =
-        Closure.compare(Closure.constant(String.class, null), Closure.constant("cd")).mh;
+        Closure.compare(Closure.constant(String.class, null), Closure.constant("cd")).mh();
     assertTrue((int) mhLtNull.invokeExact() < 0);
     MethodHandle mhNull =
         Closure.compare(Closure.constant(String.class, null), Closure.constant(String.class, null))
-            .mh;
+            .mh();
     assertEquals(0, (int) mhNull.invokeExact());
   }
+
+  @Test
+  public void switchIntDense() throws Throwable {
+    MethodHandle mh =
+        MhBuilder.p1(
+            int.class,
+            p ->
+                Closure.switchInt(
+                    p,
+                    ImmutableMap.of(
+                        1, Closure.constant("one"),
+                        2, Closure.constant("two"),
+                        4, Closure.plus(Closure.toString(p), Closure.constant("!"))),
+                    Closure.constant("other")));
+    assertEquals("one", (String) mh.invokeExact(1));
+    assertEquals("two", (String) mh.invokeExact(2));
+    assertEquals("other", (String) mh.invokeExact(3));
+    assertEquals("4!", (String) mh.invokeExact(4));
+    assertEquals("other", (String) mh.invokeExact(0));
+    assertEquals("other", (String) mh.invokeExact(Integer.MIN_VALUE));
+    assertEquals("other", (String) mh.invokeExact(Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void switchIntSparse() throws Throwable {
+    MethodHandle mh =
+        MhBuilder.p1(
+            int.class,
+            p ->
+                Closure.switchInt(
+                    p,
+                    ImmutableMap.of(
+                        -1000000, Closure.constant(1),
+                        0, Closure.constant(2),
+                        1000000, Closure.constant(3)),
+                    Closure.constant(0)));
+    assertEquals(1, (int) mh.invokeExact(-1000000));
+    assertEquals(2, (int) mh.invokeExact(0));
+    assertEquals(3, (int) mh.invokeExact(1000000));
+    assertEquals(0, (int) mh.invokeExact(1));
+  }
+
+  @Test
+  public void switchIntEmpty() throws Throwable {
+    MethodHandle mh =
+        MhBuilder.p1(
+            int.class, p -> Closure.switchInt(p, ImmutableMap.of(), Closure.constant("d")));
+    assertEquals("d", (String) mh.invokeExact(0));
+  }
+
+  private enum Color {
+    RED,
+    GREEN,
+    BLUE,
+  }
+
+  @Test
+  public void switchEnum() throws Throwable {
+    MethodHandle mh =
+        MhBuilder.p1(
+            Color.class,
+            p ->
+                Closure.switchEnum(
+                    p,
+                    ImmutableMap.of(
+                        Color.RED, Closure.constant("r"), Color.BLUE, Closure.constant("b")),
+                    Closure.constant("?")));
+    assertEquals("r", (String) mh.invokeExact(Color.RED));
+    assertEquals("?", (String) mh.invokeExact(Color.GREEN));
+    assertEquals("b", (String) mh.invokeExact(Color.BLUE));
+  }
+
+  @Test
+  public void switchString() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<String> s = b.addParam(String.class);
+    Var<Integer> i = b.addParam(int.class);
+    MethodHandle mh =
+        b.buildReturn(
+            Closure.switchString(
+                s,
+                ImmutableMap.of(
+                    // same hash code
+                    "Aa", Closure.plus(i, Closure.constant(1)),
+                    "BB", Closure.plus(i, Closure.constant(2)),
+                    "x", Closure.mul(i, Closure.constant(10))),
+                i));
+    assertEquals(6, (int) mh.invokeExact("Aa", 5));
+    assertEquals(7, (int) mh.invokeExact("BB", 5));
+    assertEquals(50, (int) mh.invokeExact("x", 5));
+    assertEquals(5, (int) mh.invokeExact("y", 5));
+  }
 }
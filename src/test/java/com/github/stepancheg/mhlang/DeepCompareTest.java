@@ -5,6 +5,11 @@ import org.junit.Test;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 public class DeepCompareTest {
 
@@ -45,4 +50,111 @@ public class DeepCompareTest {
     Assert.assertTrue(new MyData(10, "a", 20).compareTo(new MyData(10, "b", 20)) < 0);
     Assert.assertTrue(new MyData(10, "b", 20).compareTo(new MyData(10, "a", 13)) > 0);
   }
+
+  private enum Color {
+    RED,
+    GREEN,
+  }
+
+  private static class Row {
+    private final int i;
+    private final String s;
+    private final double d;
+    private final Long boxed;
+    private final Color color;
+    private final byte b;
+
+    Row(int i, String s, double d, Long boxed, Color color, byte b) {
+      this.i = i;
+      this.s = s;
+      this.d = d;
+      this.boxed = boxed;
+      this.color = color;
+      this.b = b;
+    }
+  }
+
+  private static final DeepCompare.Key ROW_KEY =
+      DeepCompare.Key.of("s", "d").thenDescending("i").then("boxed").then("color").then("b");
+
+  @Test
+  public void key() throws Throwable {
+    MethodHandle compare =
+        DeepCompare.deepCompare(Row.class, DeepCompare.Key.of("s"), MethodHandles.lookup());
+    Row a = new Row(1, "a", 0, null, null, (byte) 0);
+    Row b = new Row(2, "a", 0, null, null, (byte) 0);
+    Row c = new Row(0, "b", 0, null, null, (byte) 0);
+    // fields not in the key are ignored
+    Assert.assertEquals(0, (int) compare.invokeExact(a, b));
+    Assert.assertTrue((int) compare.invokeExact(a, c) < 0);
+
+    compare =
+        DeepCompare.deepCompare(
+            Row.class, DeepCompare.Key.of("s").thenDescending("i"), MethodHandles.lookup());
+    Assert.assertTrue((int) compare.invokeExact(a, b) > 0);
+    Assert.assertTrue((int) compare.invokeExact(b, c) < 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void keyUnknownField() {
+    DeepCompare.deepCompare(Row.class, DeepCompare.Key.of("x"), MethodHandles.lookup());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void keyDuplicateField() {
+    DeepCompare.Key.of("i", "i");
+  }
+
+  private static class Unsupported {
+    private List<String> list;
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void sortKeyUnsupportedType() {
+    DeepCompare.writeSortKey(Unsupported.class, DeepCompare.Key.of("list"), MethodHandles.lookup());
+  }
+
+  private static byte[] sortKey(MethodHandle writeSortKey, Row row) throws Throwable {
+    ByteBuffer buffer = ByteBuffer.allocate(100);
+    writeSortKey.invokeExact(row, buffer);
+    return Arrays.copyOf(buffer.array(), buffer.position());
+  }
+
+  @Test
+  public void sortKeyMatchesCompare() throws Throwable {
+    MethodHandle compare = DeepCompare.deepCompare(Row.class, ROW_KEY, MethodHandles.lookup());
+    MethodHandle writeSortKey =
+        DeepCompare.writeSortKey(Row.class, ROW_KEY, MethodHandles.lookup());
+
+    String[] strings = {null, "", "a", "a\0", "a\0b", "ab", "\u0100", "\uffff"};
+    double[] doubles = {
+      Double.NEGATIVE_INFINITY, -1.5, -0.0, 0.0, Double.MIN_VALUE, 2, Double.NaN
+    };
+    int[] ints = {Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE};
+    Long[] longs = {null, Long.MIN_VALUE, -3L, 0L, 3L};
+    Color[] colors = {null, Color.RED, Color.GREEN};
+    byte[] bytes = {Byte.MIN_VALUE, -1, 0, 1, Byte.MAX_VALUE};
+
+    Random random = new Random(1);
+    List<Row> rows = new ArrayList<>();
+    for (int n = 0; n != 300; ++n) {
+      rows.add(
+          new Row(
+              ints[random.nextInt(ints.length)],
+              strings[random.nextInt(strings.length)],
+              doubles[random.nextInt(doubles.length)],
+              longs[random.nextInt(longs.length)],
+              colors[random.nextInt(colors.length)],
+              bytes[random.nextInt(bytes.length)]));
+    }
+
+    for (Row x : rows) {
+      byte[] xKey = sortKey(writeSortKey, x);
+      for (Row y : rows) {
+        int expected = Integer.signum((int) compare.invokeExact(x, y));
+        int actual = Integer.signum(Arrays.compareUnsigned(xKey, sortKey(writeSortKey, y)));
+        Assert.assertEquals(expected, actual);
+      }
+    }
+  }
 }
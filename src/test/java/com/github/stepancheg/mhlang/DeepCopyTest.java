@@ -0,0 +1,142 @@
+package com.github.stepancheg.mhlang;
+
+import org.junit.Test;
+import org.objenesis.ObjenesisStd;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DeepCopyTest {
+
+  private static class Header {
+    String name;
+    String value;
+  }
+
+  private static class Request {
+    int id;
+    long timestamp;
+    boolean keepAlive;
+    double weight;
+    String path;
+    TimeUnit unit;
+    byte[] body;
+    Header header;
+    Header[] headers;
+
+    Request() {
+      throw new AssertionError("constructors are not invoked");
+    }
+  }
+
+  private static class Point {
+    private final int x;
+    private final int y;
+
+    Point(int x, int y) {
+      this.x = x;
+      this.y = y;
+    }
+  }
+
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+  private static Header header(String name, String value) {
+    Header h = new Header();
+    h.name = name;
+    h.value = value;
+    return h;
+  }
+
+  private static Request request() {
+    Request r = emptyRequest();
+    r.id = 1;
+    r.timestamp = 2;
+    r.keepAlive = true;
+    r.weight = 0.5;
+    r.path = "/";
+    r.unit = TimeUnit.SECONDS;
+    r.body = new byte[] {1, 2};
+    r.header = header("a", "b");
+    r.headers = new Header[] {header("c", "d"), null};
+    return r;
+  }
+
+  private static Request emptyRequest() {
+    return new ObjenesisStd().newInstance(Request.class);
+  }
+
+  private static void assertSameFields(Request expected, Request actual) {
+    assertEquals(expected.id, actual.id);
+    assertEquals(expected.timestamp, actual.timestamp);
+    assertEquals(expected.keepAlive, actual.keepAlive);
+    assertEquals(expected.weight, actual.weight, 0);
+    assertSame(expected.path, actual.path);
+    assertSame(expected.unit, actual.unit);
+  }
+
+  @Test
+  public void copyInto() throws Throwable {
+    MethodHandle copyInto = DeepCopy.copyInto(Request.class, LOOKUP);
+    Request src = request();
+    Request dst = emptyRequest();
+    copyInto.invokeExact(src, dst);
+    assertSameFields(src, dst);
+    assertSame(src.body, dst.body);
+    assertSame(src.header, dst.header);
+    assertSame(src.headers, dst.headers);
+  }
+
+  @Test
+  public void reset() throws Throwable {
+    MethodHandle reset = DeepCopy.reset(Request.class, LOOKUP);
+    Request r = request();
+    reset.invokeExact(r);
+    assertSameFields(emptyRequest(), r);
+    assertNull(r.body);
+    assertNull(r.header);
+    assertNull(r.headers);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void copyIntoFinal() {
+    DeepCopy.copyInto(Point.class, LOOKUP);
+  }
+
+  @Test
+  public void shallowClone() throws Throwable {
+    Request src = request();
+    Request clone = (Request) DeepCopy.shallowClone(Request.class, LOOKUP).invokeExact(src);
+    assertNotSame(src, clone);
+    assertSameFields(src, clone);
+    assertSame(src.header, clone.header);
+
+    Point p = (Point) DeepCopy.shallowClone(Point.class, LOOKUP).invokeExact(new Point(1, 2));
+    assertEquals(1, p.x);
+    assertEquals(2, p.y);
+  }
+
+  @Test
+  public void deepClone() throws Throwable {
+    MethodHandle deepClone = DeepCopy.deepClone(Request.class, LOOKUP);
+    Request src = request();
+    Request clone = (Request) deepClone.invokeExact(src);
+    assertSameFields(src, clone);
+
+    assertNotSame(src.body, clone.body);
+    assertArrayEquals(src.body, clone.body);
+    assertNotSame(src.header, clone.header);
+    assertEquals("a", clone.header.name);
+    assertEquals("b", clone.header.value);
+    assertNotSame(src.headers, clone.headers);
+    assertNotSame(src.headers[0], clone.headers[0]);
+    assertEquals("c", clone.headers[0].name);
+    assertNull(clone.headers[1]);
+
+    src.header = null;
+    assertNull(((Request) deepClone.invokeExact(src)).header);
+  }
+}
@@ -4,8 +4,13 @@ import org.junit.Test;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.util.HashSet;
+import java.util.Set;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class DeepEqualsHashCodeTest {
 
@@ -44,4 +49,80 @@ public class DeepEqualsHashCodeTest {
   public void testEquals() {
     assertFalse(new Data(1, "a").equals(null));
   }
+
+  private static class Key {
+    private final int a;
+    private final int b;
+
+    Key(int a, int b) {
+      this.a = a;
+      this.b = b;
+    }
+  }
+
+  private static class Mixed {
+    private final boolean z;
+    private final byte b;
+    private final char c;
+    private final float f;
+    private final double d;
+    private final long l;
+    private final String s;
+
+    Mixed(boolean z, byte b, char c, float f, double d, long l, String s) {
+      this.z = z;
+      this.b = b;
+      this.c = c;
+      this.f = f;
+      this.d = d;
+      this.l = l;
+      this.s = s;
+    }
+  }
+
+  @Test
+  public void hash64() throws Throwable {
+    MethodHandle hash64 = DeepEqualsHashCode.deepHash64(Mixed.class, MethodHandles.lookup());
+    MethodHandle mixed = DeepEqualsHashCode.deepHashCodeMixed(Mixed.class, MethodHandles.lookup());
+
+    Mixed x = new Mixed(true, (byte) 1, 'c', 1.5f, 2.5, 3, new String("s"));
+    Mixed y = new Mixed(true, (byte) 1, 'c', 1.5f, 2.5, 3, new String("s"));
+    long h = (long) hash64.invokeExact(x);
+    assertEquals(h, (long) hash64.invokeExact(y));
+    assertEquals((int) h, (int) mixed.invokeExact(y));
+
+    Mixed z = new Mixed(false, (byte) 1, 'c', 1.5f, 2.5, 3, "s");
+    assertNotEquals(h, (long) hash64.invokeExact(z));
+    Mixed s = new Mixed(true, (byte) 1, 'c', 1.5f, 2.5, 3, null);
+    assertNotEquals(h, (long) hash64.invokeExact(s));
+    Mixed l = new Mixed(true, (byte) 1, 'c', 1.5f, 2.5, 4, "s");
+    assertNotEquals(h, (long) hash64.invokeExact(l));
+  }
+
+  /** Number of distinct values of lower {@code bits} bits of hashes of a grid of small keys. */
+  private static int distinct(MethodHandle hashCode, int n, int bits) throws Throwable {
+    Set<Integer> hashes = new HashSet<>();
+    for (int a = 0; a != n; ++a) {
+      for (int b = 0; b != n; ++b) {
+        int h = (int) hashCode.invokeExact(new Key(a, b));
+        hashes.add(h & (int) ((1L << bits) - 1));
+      }
+    }
+    return hashes.size();
+  }
+
+  @Test
+  public void collisions() throws Throwable {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    MethodHandle recurrence = DeepEqualsHashCode.deepHashCode(Key.class, lookup);
+    MethodHandle mixed = DeepEqualsHashCode.deepHashCodeMixed(Key.class, lookup);
+
+    int n = 300;
+    // 31 * a + b takes only 31 * 299 + 299 + 1 values
+    assertEquals(31 * (n - 1) + n, distinct(recurrence, n, 32));
+    // birthday paradox gives about 10 collisions for 90000 values
+    assertTrue(distinct(mixed, n, 32) > n * n - 100);
+    // in a table of 2^12 buckets all buckets are used
+    assertEquals(1 << 12, distinct(mixed, n, 12));
+  }
 }
@@ -30,6 +30,26 @@ public class DeepToStringTest {
     }
   }
 
+  private static class Holder {
+    private final Object o;
+
+    Holder(Object o) {
+      this.o = o;
+    }
+
+    private static final MethodHandle TO_STRING =
+        DeepToString.buildToString(Holder.class, MethodHandles.lookup());
+  }
+
+  @Test
+  public void polymorphicField() throws Throwable {
+    Object[] values = {1, "a", null, new MyData(2, "b"), 3L, 'c', 4.5, 1, null, true};
+    for (Object value : values) {
+      assertEquals(
+          "Holder{o=" + value + "}", (String) Holder.TO_STRING.invokeExact(new Holder(value)));
+    }
+  }
+
   @Test
   public void test() {
     MyData d = new MyData(1, "a");
@@ -0,0 +1,80 @@
+package com.github.stepancheg.mhlang;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compare {@link DeepEqualsHashCode#deepHashCode(Class, MethodHandles.Lookup)} with mixed
+ * generators: time per call and number of occupied buckets of an open-addressing table.
+ */
+public class HashBenchmark {
+
+  static class Key {
+    final int a;
+    final int b;
+    final long c;
+
+    Key(int a, int b, long c) {
+      this.a = a;
+      this.b = b;
+      this.c = c;
+    }
+  }
+
+  private static volatile long sink;
+
+  private static Key[] keys(int n) {
+    Key[] keys = new Key[n * n * 4];
+    int i = 0;
+    for (int a = 0; a != n; ++a) {
+      for (int b = 0; b != n; ++b) {
+        for (long c = 0; c != 4; ++c) {
+          keys[i++] = new Key(a, b, c);
+        }
+      }
+    }
+    return keys;
+  }
+
+  private static void run(String name, MethodHandle hash, Key[] keys) throws Throwable {
+    // power of two table at most half full
+    int mask = Integer.highestOneBit(keys.length) * 4 - 1;
+    Set<Integer> buckets = new HashSet<>();
+    for (Key key : keys) {
+      buckets.add((int) hash.invokeExact(key) & mask);
+    }
+
+    long r = 0;
+    long start = System.nanoTime();
+    for (int iter = 0; iter != 20; ++iter) {
+      for (Key key : keys) {
+        r += (int) hash.invokeExact(key);
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    sink = r;
+
+    System.out.printf(
+        "%-10s %5.2f ns/hash, %d of %d keys in distinct buckets%n",
+        name, (double) elapsed / (20L * keys.length), buckets.size(), keys.length);
+  }
+
+  public static void main(String[] args) throws Throwable {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    MethodHandle recurrence = DeepEqualsHashCode.deepHashCode(Key.class, lookup);
+    MethodHandle mixed = DeepEqualsHashCode.deepHashCodeMixed(Key.class, lookup);
+    MethodHandle hash64 =
+        MethodHandles.explicitCastArguments(
+            DeepEqualsHashCode.deepHash64(Key.class, lookup),
+            recurrence.type());
+
+    Key[] keys = keys(500);
+    for (int i = 0; i != 3; ++i) {
+      run("31 * h", recurrence, keys);
+      run("mixed", mixed, keys);
+      run("hash64", hash64, keys);
+    }
+  }
+}
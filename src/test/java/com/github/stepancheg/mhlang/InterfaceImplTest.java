@@ -0,0 +1,127 @@
+package com.github.stepancheg.mhlang;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+
+import static org.junit.Assert.*;
+
+public class InterfaceImplTest {
+
+  /** Mixes one- and two-slot parameters. */
+  public interface Mixed {
+    double apply(long a, int b, double c, float d, String e);
+  }
+
+  public interface Throwing {
+    void run(String message) throws IOException;
+  }
+
+  public interface TwoMethods {
+    void a();
+
+    void b();
+  }
+
+  @Test
+  public void generic() {
+    MhBuilder b = new MhBuilder();
+    Var<String> p = b.addParam(String.class);
+    @SuppressWarnings("unchecked")
+    Function<String, Integer> f =
+        b.buildAs(Function.class, Closure.toIntFunction(p, String::length));
+    assertEquals(3, (int) f.apply("abc"));
+    assertEquals(0, (int) f.apply(""));
+  }
+
+  @Test
+  public void primitive() {
+    MhBuilder b = new MhBuilder();
+    Var<Integer> x = b.addParam(int.class);
+    Var<Integer> y = b.addParam(int.class);
+    IntBinaryOperator op = b.buildAs(IntBinaryOperator.class, Closure.mul(x, y));
+    assertEquals(42, op.applyAsInt(6, 7));
+    if (Runtime.version().feature() >= 15) {
+      // hidden class names contain a slash
+      assertTrue(op.getClass().getName(), op.getClass().getName().contains("/"));
+    }
+  }
+
+  @Test
+  public void slots() {
+    MhBuilder b = new MhBuilder();
+    Var<Long> a = b.addParam(long.class);
+    Var<Integer> i = b.addParam(int.class);
+    Var<Double> c = b.addParam(double.class);
+    Var<Float> d = b.addParam(float.class);
+    Var<String> e = b.addParam(String.class);
+    Closure<Double> r =
+        Closure.plus(
+            Closure.plus(
+                Closure.longToDoubleFunction(a, x -> x * 10000.0),
+                Closure.intToDoubleFunction(i, x -> x * 1000.0)),
+            Closure.plus(
+                Closure.plus(
+                    Closure.mul(c, Closure.constant(100.0)),
+                    Closure.toDoubleFunction(d, x -> x * 10.0)),
+                Closure.toDoubleFunction(e, String::length)));
+    Mixed mixed = b.buildAs(Mixed.class, r);
+    assertEquals(12345.0, mixed.apply(1, 2, 3.0, 4.0f, "12345"), 0.0);
+  }
+
+  @Test
+  public void voidMethod() {
+    List<String> list = new ArrayList<>();
+    MhBuilder b = new MhBuilder();
+    Var<String> p = b.addParam(String.class);
+    b.assign(Closure.consumer(p, list::add));
+    @SuppressWarnings("unchecked")
+    Consumer<String> consumer = b.buildAs(Consumer.class, Closure.constantVoid());
+    consumer.accept("a");
+    consumer.accept("b");
+    assertEquals(List.of("a", "b"), list);
+  }
+
+  @Test
+  public void objectMethodsAreNotAbstract() {
+    MhBuilder b = new MhBuilder();
+    Var<String> x = b.addParam(String.class);
+    Var<String> y = b.addParam(String.class);
+    @SuppressWarnings("unchecked")
+    Comparator<String> comparator =
+        b.buildAs(
+            Comparator.class,
+            Closure.toIntBiFunction(x, y, (l, r) -> Integer.compare(l.length(), r.length())));
+    assertTrue(comparator.compare("a", "bb") < 0);
+    assertTrue(comparator.reversed().compare("a", "bb") > 0);
+  }
+
+  @Test
+  public void checkedException() {
+    MhBuilder b = new MhBuilder();
+    Var<String> p = b.addParam(String.class);
+    Throwing throwing =
+        b.buildAs(
+            Throwing.class,
+            Closure.throwException(
+                void.class,
+                Closure.function(IOException.class, p, IOException::new)));
+    try {
+      throwing.run("x");
+      fail();
+    } catch (IOException e) {
+      assertEquals("x", e.getMessage());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void notFunctional() {
+    new MhBuilder().buildAs(TwoMethods.class, Closure.constantVoid());
+  }
+}
@@ -0,0 +1,143 @@
+package com.github.stepancheg.mhlang;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.reflect.TypeToken;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class LoopBuilderTest {
+
+  @Test
+  public void counter() throws Throwable {
+    MethodHandle mh =
+        MhBuilder.p1(
+            int.class,
+            n -> {
+              LoopBuilder b = new LoopBuilder();
+              Var<Integer> i = b.addCounter(Closure.constant(0), n);
+              Var<Integer> sum = b.addVar(Closure.constant(0));
+              Var<Long> product = b.addVar(Closure.constant(1L));
+              b.update(sum, Closure.plus(sum, i));
+              b.update(
+                  product,
+                  Closure.mul(product, Closure.plus(i, Closure.constant(1)).cast(long.class)));
+              return b.whileLoop(
+                  Closure.constant(true),
+                  Closure.plus(Closure.toString(sum), Closure.toString(product)));
+            });
+    assertEquals("0" + "1", (String) mh.invokeExact(0));
+    assertEquals("10" + "120", (String) mh.invokeExact(5));
+  }
+
+  @Test
+  public void fibonacci() throws Throwable {
+    MethodHandle mh =
+        MhBuilder.p1(
+            int.class,
+            n -> {
+              LoopBuilder b = new LoopBuilder();
+              b.addCounter(Closure.constant(0), n);
+              Var<Long> t = b.addVar(Closure.constant(0L));
+              Var<Long> a = b.addVar(Closure.constant(0L));
+              Var<Long> c = b.addVar(Closure.constant(1L));
+              // updates observe values updated earlier in the same iteration
+              b.update(t, Closure.plus(a, c));
+              b.update(a, c);
+              b.update(c, t);
+              return b.whileLoop(Closure.constant(true), a);
+            });
+    assertEquals(0L, (long) mh.invokeExact(0));
+    assertEquals(1L, (long) mh.invokeExact(1));
+    assertEquals(55L, (long) mh.invokeExact(10));
+  }
+
+  @Test
+  public void iteratorMinMax() throws Throwable {
+    MethodHandle mh =
+        MhBuilder.p1(
+            new TypeToken<Iterator<Integer>>() {},
+            iterator -> {
+              LoopBuilder b = new LoopBuilder();
+              Var<Integer> e = b.addIterator(int.class, iterator);
+              Var<Integer> min = b.addVar(Closure.constant(Integer.MAX_VALUE));
+              Var<Integer> max = b.addVar(Closure.constant(Integer.MIN_VALUE));
+              b.update(min, Closure.biFunction(int.class, min, e, Math::min));
+              b.update(max, Closure.biFunction(int.class, max, e, Math::max));
+              return b.whileLoop(
+                  Closure.constant(true),
+                  Closure.plus(
+                      Closure.plus(Closure.toString(min), Closure.constant(" ")),
+                      Closure.toString(max)));
+            });
+    Iterator<Integer> iterator = ImmutableList.of(3, 1, 7, 5).iterator();
+    assertEquals("1 7", (String) mh.invokeExact(iterator));
+  }
+
+  private static Iterator<Integer> iterator(Integer... elements) {
+    return ImmutableList.copyOf(elements).iterator();
+  }
+
+  @Test
+  public void iteratorPredicateObservesElement() throws Throwable {
+    MhBuilder mb = new MhBuilder();
+    Var<Iterator<Integer>> iterator = mb.addParam(new TypeToken<Iterator<Integer>>() {});
+    LoopBuilder b = new LoopBuilder();
+    Var<Integer> e = b.addIterator(int.class, iterator);
+    Var<Integer> sum = b.addVar(Closure.constant(0));
+    b.update(sum, Closure.plus(sum, e));
+    Closure<String> loop =
+        b.whileLoop(
+            Closure.lt(e, Closure.constant(5)),
+            Closure.plus(
+                Closure.plus(Closure.toString(sum), Closure.constant(" ")), Closure.toString(e)));
+    // first invocations are interpreted
+    MethodHandle mh = mb.buildReturnTiered(loop, 2);
+    for (int i = 0; i != 3; ++i) {
+      assertEquals("6 7", (String) mh.invokeExact(iterator(1, 2, 3, 7, 1)));
+      assertEquals("3 2", (String) mh.invokeExact(iterator(1, 2)));
+      assertEquals("0 0", (String) mh.invokeExact(iterator()));
+    }
+  }
+
+  @Test
+  public void doWhile() throws Throwable {
+    MethodHandle mh =
+        MhBuilder.p1(
+            int.class,
+            n -> {
+              LoopBuilder b = new LoopBuilder();
+              Var<Integer> x = b.addVar(n.asClosure());
+              Var<Integer> steps = b.addVar(Closure.constant(0));
+              b.update(x, Closure.intUnaryOperator(x, v -> v / 2));
+              b.update(steps, Closure.plus(steps, Closure.constant(1)));
+              return b.doWhileLoop(Closure.intPredicate(x, v -> v != 0), steps);
+            });
+    assertEquals(1, (int) mh.invokeExact(0));
+    assertEquals(4, (int) mh.invokeExact(8));
+  }
+
+  @Test
+  public void interpreted() throws Throwable {
+    MhBuilder mb = new MhBuilder();
+    Var<Integer> n = mb.addParam(int.class);
+    LoopBuilder b = new LoopBuilder();
+    Var<Integer> i = b.addCounter(Closure.constant(1), n);
+    Var<Integer> sum = b.addVar(Closure.constant(0));
+    b.update(sum, Closure.plus(sum, Closure.mul(i, n)));
+    MethodHandle mh = mb.buildReturnTiered(b.whileLoop(Closure.constant(true), sum), 1);
+    assertEquals(50, (int) mh.invokeExact(5));
+    assertEquals(50, (int) mh.invokeExact(5));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void initReferencesLoopVar() {
+    LoopBuilder b = new LoopBuilder();
+    Var<Integer> x = b.addVar(Closure.constant(0));
+    b.addVar(x.asClosure());
+    b.whileLoop(Closure.constant(false), x);
+  }
+}
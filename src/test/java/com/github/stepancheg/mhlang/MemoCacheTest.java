@@ -0,0 +1,141 @@
+package com.github.stepancheg.mhlang;
+
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MemoCacheTest {
+
+  @Test
+  public void singleArg() throws Throwable {
+    AtomicInteger calls = new AtomicInteger();
+    MemoCache cache = MemoCache.maximumSize(100);
+    MhBuilder b = new MhBuilder();
+    Var<String> p = b.addParam(String.class);
+    MethodHandle mh =
+        b.buildReturn(
+            Closure.memoize(
+                Closure.toIntFunction(
+                    p,
+                    s -> {
+                      calls.incrementAndGet();
+                      return Integer.parseInt(s);
+                    }),
+                cache));
+
+    assertEquals(12, (int) mh.invokeExact("12"));
+    assertEquals(12, (int) mh.invokeExact("12"));
+    assertEquals(13, (int) mh.invokeExact("13"));
+    assertEquals(2, calls.get());
+    assertEquals(1, cache.stats().hitCount());
+    assertEquals(2, cache.stats().missCount());
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void primitiveArgs() throws Throwable {
+    AtomicInteger calls = new AtomicInteger();
+    MemoCache cache = MemoCache.maximumSize(100);
+    MhBuilder b = new MhBuilder();
+    Var<Long> x = b.addParam(long.class);
+    Var<Integer> y = b.addParam(int.class);
+    Closure<Long> sum =
+        Closure.longBinaryOperator(
+            x,
+            Closure.intToLongFunction(y, i -> i),
+            (l, r) -> {
+              calls.incrementAndGet();
+              return l + r;
+            });
+    MethodHandle mh = b.buildReturn(Closure.memoize(sum, cache));
+
+    for (int i = 0; i != 3; ++i) {
+      assertEquals(3L, (long) mh.invokeExact(1L, 2));
+      assertEquals(4L, (long) mh.invokeExact(2L, 2));
+    }
+    assertEquals(2, calls.get());
+    assertEquals(4, cache.stats().hitCount());
+  }
+
+  @Test
+  public void noArgs() throws Throwable {
+    AtomicInteger calls = new AtomicInteger();
+    MemoCache cache = MemoCache.maximumSize(1);
+    MethodHandle mh =
+        MhBuilder.p0(Closure.memoize(Closure.intSupplier(calls::incrementAndGet), cache));
+    assertEquals(1, (int) mh.invokeExact());
+    assertEquals(1, (int) mh.invokeExact());
+    cache.invalidateAll();
+    assertEquals(2, (int) mh.invokeExact());
+  }
+
+  @Test
+  public void nulls() throws Throwable {
+    AtomicInteger calls = new AtomicInteger();
+    MemoCache cache = MemoCache.maximumSize(10);
+    MhBuilder b = new MhBuilder();
+    Var<String> p = b.addParam(String.class);
+    MethodHandle mh =
+        b.buildReturn(
+            Closure.memoize(
+                Closure.function(
+                    String.class,
+                    p,
+                    s -> {
+                      calls.incrementAndGet();
+                      return s == null ? null : s + "!";
+                    }),
+                cache));
+    assertNull((String) mh.invokeExact((String) null));
+    assertNull((String) mh.invokeExact((String) null));
+    assertEquals("a!", (String) mh.invokeExact("a"));
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void eviction() throws Throwable {
+    MemoCache cache = MemoCache.maximumSize(10);
+    MhBuilder b = new MhBuilder();
+    Var<Integer> p = b.addParam(int.class);
+    MethodHandle mh =
+        b.buildReturn(Closure.memoize(Closure.intUnaryOperator(p, i -> i * 2), cache));
+    for (int i = 0; i != 1000; ++i) {
+      assertEquals(i * 2, (int) mh.invokeExact(i));
+    }
+    assertTrue(cache.size() <= 10);
+    assertTrue(cache.stats().evictionCount() >= 990);
+  }
+
+  @Test
+  public void tiered() throws Throwable {
+    AtomicInteger calls = new AtomicInteger();
+    MemoCache cache = MemoCache.maximumSize(100);
+    MhBuilder b = new MhBuilder();
+    Var<Integer> x = b.addParam(int.class);
+    Var<Integer> y = b.addParam(int.class);
+    Closure<Integer> product =
+        Closure.intBinaryOperator(
+            x,
+            y,
+            (l, r) -> {
+              calls.incrementAndGet();
+              return l * r;
+            });
+    MethodHandle mh = b.buildReturnTiered(Closure.memoize(product, cache), 2);
+    for (int i = 0; i != 5; ++i) {
+      assertEquals(6, (int) mh.invokeExact(2, 3));
+    }
+    // interpreted and compiled closure share the cache
+    assertEquals(1, calls.get());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shared() {
+    MemoCache cache = MemoCache.maximumSize(10);
+    Closure.memoize(Closure.constant(1), cache);
+    Closure.memoize(Closure.constant(2), cache);
+  }
+}
@@ -3,8 +3,11 @@ package com.github.stepancheg.mhlang;
 import org.junit.Test;
 
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class MhUtilTest {
@@ -18,4 +21,39 @@ public class MhUtilTest {
     boolean r2 = (boolean) mh2.invokeExact(5, "a", true);
     assertTrue(r2);
   }
+
+  @Test
+  public void typeCaches() throws Throwable {
+    assertSame(MhUtil.eq(int.class), MhUtil.eq(int.class));
+    assertSame(MhUtil.eq(String.class), MhUtil.eq(String.class));
+    assertSame(MhUtil.hashCode(long.class), MhUtil.hashCode(long.class));
+    assertSame(MhUtil.toString(Integer.class), MhUtil.toString(Integer.class));
+
+    assertTrue((boolean) MhUtil.eq(int.class).invokeExact(1, 1));
+    assertTrue((boolean) MhUtil.eq(String.class).invokeExact("a", new String("a")));
+    assertFalse((boolean) MhUtil.same(String.class).invokeExact("a", new String("a")));
+    assertEquals(Long.hashCode(7L), (int) MhUtil.hashCode(long.class).invokeExact(7L));
+    assertEquals("3", (String) MhUtil.toString(Integer.class).invokeExact((Integer) 3));
+    assertEquals("null", (String) MhUtil.toString(Integer.class).invokeExact((Integer) null));
+  }
+
+  @Test
+  public void lazyMh() throws Throwable {
+    LazyMh mh = MhUtil.TO_INT_EXACT;
+    assertSame(mh.get(), mh.get());
+    assertEquals(3, (int) mh.get().invokeExact(3L));
+  }
+
+  @Test
+  public void tableSwitchInvoker() throws Throwable {
+    MethodHandle mh =
+        MhUtil.tableSwitchInvoker(
+            MethodHandles.dropArguments(MethodHandles.constant(String.class, "d"), 0, int.class),
+            MethodHandles.dropArguments(MethodHandles.constant(String.class, "a"), 0, int.class),
+            MethodHandles.dropArguments(MethodHandles.constant(String.class, "b"), 0, int.class));
+    assertEquals("a", (String) mh.invokeExact(0));
+    assertEquals("b", (String) mh.invokeExact(1));
+    assertEquals("d", (String) mh.invokeExact(2));
+    assertEquals("d", (String) mh.invokeExact(-1));
+  }
 }
@@ -0,0 +1,88 @@
+package com.github.stepancheg.mhlang;
+
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+
+import static org.junit.Assert.*;
+
+public class OperatorTest {
+  @Test
+  public void arithmetic() throws Throwable {
+    assertEquals(-3, (int) Operator.MINUS.handle(int.class).invokeExact(2, 5));
+    assertEquals(2L, (long) Operator.DIV.handle(long.class).invokeExact(7L, 3L));
+    assertEquals(1.5, (double) Operator.REM.handle(double.class).invokeExact(7.5, 3.0), 0);
+    assertEquals(-2.5f, (float) Operator.NEG.handle(float.class).invokeExact(2.5f), 0);
+    assertEquals("ab", (String) Operator.PLUS.handle(String.class).invokeExact("a", "b"));
+  }
+
+  @Test
+  public void promoted() throws Throwable {
+    MethodHandle plusByte = Operator.PLUS.handle(byte.class);
+    assertEquals((byte) -128, (byte) plusByte.invokeExact((byte) 127, (byte) 1));
+    assertEquals('b', (char) Operator.PLUS.handle(char.class).invokeExact('a', (char) 1));
+    assertTrue((boolean) Operator.LT.handle(short.class).invokeExact((short) 1, (short) 2));
+  }
+
+  @Test
+  public void bitwise() throws Throwable {
+    assertEquals(0b100, (int) Operator.AND.handle(int.class).invokeExact(0b110, 0b101));
+    assertEquals(0b111L, (long) Operator.OR.handle(long.class).invokeExact(0b110L, 0b101L));
+    assertTrue((boolean) Operator.XOR.handle(boolean.class).invokeExact(true, false));
+    assertFalse((boolean) Operator.NOT.handle(boolean.class).invokeExact(true));
+    assertEquals(-1L, (long) Operator.NOT.handle(long.class).invokeExact(0L));
+    assertEquals(1L << 40, (long) Operator.SHL.handle(long.class).invokeExact(1L, 40));
+    assertEquals(-1, (int) Operator.SHR.handle(int.class).invokeExact(-2, 1));
+    assertEquals(Integer.MAX_VALUE, (int) Operator.USHR.handle(int.class).invokeExact(-1, 1));
+  }
+
+  @Test
+  public void comparison() throws Throwable {
+    assertTrue((boolean) Operator.LE.handle(double.class).invokeExact(1.0, 1.0));
+    assertFalse((boolean) Operator.GT.handle(long.class).invokeExact(1L, 1L));
+    assertTrue((boolean) Operator.GE.handle(int.class).invokeExact(2, 1));
+  }
+
+  @Test
+  public void exact() throws Throwable {
+    MethodHandle addExact = Operator.ADD_EXACT.handle(int.class);
+    assertEquals(3, (int) addExact.invokeExact(1, 2));
+    try {
+      int r = (int) addExact.invokeExact(Integer.MAX_VALUE, 1);
+      fail("returned: " + r);
+    } catch (ArithmeticException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void cached() {
+    assertSame(Operator.MUL.handle(long.class), Operator.MUL.handle(long.class));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void notImplemented() {
+    Operator.SHL.handle(double.class);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void exactNotPromoted() {
+    Operator.MULTIPLY_EXACT.handle(short.class);
+  }
+
+  @Test
+  public void closures() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<Long> x = b.addParam(long.class);
+    Var<Long> y = b.addParam(long.class);
+    Closure<Integer> r =
+        Closure.toIntExact(
+            Closure.ifThenElse(
+                Closure.lt(x, y),
+                Closure.minus(y, x),
+                Closure.shl(Closure.bitAnd(x, y), Closure.constant(1))));
+    MethodHandle mh = b.buildReturn(r);
+    assertEquals(4, (int) mh.invokeExact(1L, 5L));
+    assertEquals(8, (int) mh.invokeExact(6L, 5L));
+  }
+}
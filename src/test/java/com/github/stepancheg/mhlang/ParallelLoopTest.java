@@ -0,0 +1,103 @@
+package com.github.stepancheg.mhlang;
+
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ParallelLoopTest {
+
+  private static Closure<Long> sumOfSquares(Var<long[]> array, Var<Integer> end) {
+    return Closure.parallelCountedLoop(
+        Closure.constant(0),
+        end.asClosure(),
+        Closure.constant(0L),
+        (v, i) -> {
+          Closure<Long> e = Closure.getArrayElement(array, i);
+          return Closure.plus(v, Closure.mul(e, e));
+        },
+        Closure::plus);
+  }
+
+  @Test
+  public void sum() throws Throwable {
+    long[] array = new long[100_000];
+    long expected = 0;
+    for (int i = 0; i != array.length; ++i) {
+      array[i] = i;
+      expected += (long) i * i;
+    }
+
+    MhBuilder b = new MhBuilder();
+    Var<long[]> pArray = b.addParam(long[].class);
+    Var<Integer> pEnd = b.addParam(int.class);
+    Closure<Long> sum = sumOfSquares(pArray, pEnd);
+    MethodHandle mh = b.buildReturn(sum);
+    MethodHandle interpreted = b.buildReturnTiered(sum, 10);
+
+    assertEquals(expected, (long) mh.invokeExact(array, array.length));
+    assertEquals(expected, (long) interpreted.invokeExact(array, array.length));
+    assertEquals(14L, (long) mh.invokeExact(array, 4));
+    assertEquals(0L, (long) mh.invokeExact(array, 0));
+  }
+
+  @Test
+  public void split() throws Throwable {
+    AtomicInteger combines = new AtomicInteger();
+    MhBuilder b = new MhBuilder();
+    Var<Integer> pEnd = b.addParam(int.class);
+    MethodHandle mh =
+        b.buildReturn(
+            Closure.parallelCountedLoop(
+                Closure.constant(0),
+                pEnd.asClosure(),
+                Closure.constant(0),
+                (v, i) -> Closure.plus(v, Closure.constant(1)),
+                (l, r) ->
+                    Closure.intBinaryOperator(
+                        l,
+                        r,
+                        (x, y) -> {
+                          combines.incrementAndGet();
+                          return x + y;
+                        })));
+
+    assertEquals(1_000_000, (int) mh.invokeExact(1_000_000));
+    // range is split into at least four chunks per thread
+    assertTrue(combines.get() >= 3);
+
+    combines.set(0);
+    assertEquals(ParallelLoop.MIN_CHUNK, (int) mh.invokeExact(ParallelLoop.MIN_CHUNK));
+    assertEquals(0, combines.get());
+  }
+
+  @Test
+  public void exception() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<Integer> pEnd = b.addParam(int.class);
+    MethodHandle mh =
+        b.buildReturn(
+            Closure.parallelCountedLoop(
+                Closure.constant(0),
+                pEnd.asClosure(),
+                Closure.constant(0),
+                (v, i) ->
+                    Closure.intUnaryOperator(
+                        i,
+                        x -> {
+                          if (x == 50_000) {
+                            throw new IllegalStateException("x");
+                          }
+                          return x;
+                        }),
+                Closure::plus));
+    try {
+      int r = (int) mh.invokeExact(100_000);
+      fail("returned: " + r);
+    } catch (IllegalStateException e) {
+      assertEquals("x", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package com.github.stepancheg.mhlang;
+
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+
+import static org.junit.Assert.*;
+
+public class ProfilerTest {
+
+  @Test
+  public void steps() throws Throwable {
+    Profiler profiler = new Profiler();
+
+    MhBuilder b = new MhBuilder();
+    b.setProfiler(profiler, "f");
+    Var<Integer> p = b.addParam(int.class);
+    Var<Integer> v = b.assign(Closure.plus(p, Closure.constant(1)));
+    b.assign(Closure.runnable(() -> {}));
+    MethodHandle mh = b.buildReturn(Closure.mul(v, Closure.constant(2)));
+
+    assertEquals(8, (int) mh.invokeExact(3));
+    assertEquals(10, (int) mh.invokeExact(4));
+
+    assertEquals(3, profiler.entries().size());
+    for (Profiler.Entry entry : profiler.entries()) {
+      assertEquals(2, entry.invocations());
+      assertEquals(2, entry.sampledInvocations());
+    }
+    assertNotNull(profiler.entry("f/v0"));
+    assertNotNull(profiler.entry("f/v1"));
+    assertNotNull(profiler.entry("f/v2"));
+
+    profiler.reset();
+    assertEquals(0, profiler.entry("f/v0").invocations());
+  }
+
+  @Test
+  public void label() throws Throwable {
+    Profiler profiler = new Profiler();
+    MethodHandle mh =
+        MhBuilder.p1(
+            boolean.class,
+            p ->
+                Closure.ifThenElse(
+                    p,
+                    profiler.label("then", Closure.constant("a")),
+                    profiler.label("else", Closure.constant("b"))));
+
+    assertEquals("a", (String) mh.invokeExact(true));
+    assertEquals("b", (String) mh.invokeExact(false));
+    assertEquals("a", (String) mh.invokeExact(true));
+
+    assertEquals(2, profiler.entry("then").invocations());
+    assertEquals(1, profiler.entry("else").invocations());
+    assertNull(profiler.entry("unknown"));
+  }
+
+  @Test
+  public void exception() throws Throwable {
+    Profiler profiler = new Profiler();
+    RuntimeException exception = new RuntimeException();
+    MethodHandle mh =
+        MhBuilder.p0(
+            profiler.label(
+                "throw", Closure.throwException(int.class, Closure.constant(exception))));
+    try {
+      int r = (int) mh.invokeExact();
+      fail("returned: " + r);
+    } catch (RuntimeException e) {
+      assertSame(exception, e);
+    }
+    assertEquals(1, profiler.entry("throw").invocations());
+    assertEquals(1, profiler.entry("throw").sampledInvocations());
+  }
+}
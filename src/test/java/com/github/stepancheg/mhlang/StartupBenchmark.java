@@ -0,0 +1,65 @@
+package com.github.stepancheg.mhlang;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Measure time to the first built and invoked handle in a fresh JVM, which is what a short-lived
+ * command line tool pays.
+ */
+public class StartupBenchmark {
+
+  /** Body of child JVM: print nanoseconds spent building and invoking the first function. */
+  public static class FirstHandle {
+    public static void main(String[] args) throws Throwable {
+      long start = System.nanoTime();
+      MhBuilder b = new MhBuilder();
+      Var<String> s = b.addParam(String.class);
+      Var<Integer> x = b.addParam(int.class);
+      Var<Integer> len = b.assign(Closure.toIntFunction(s, String::length));
+      Closure<String> r =
+          Closure.ifThenElse(
+              Closure.lt(len, x),
+              Closure.toString(Closure.plus(len, x)),
+              Closure.function(String.class, s, String::trim));
+      MethodHandle mh = b.buildReturn(r);
+      String result = (String) mh.invokeExact("ab", 3);
+      long elapsed = System.nanoTime() - start;
+      if (!result.equals("5")) {
+        throw new AssertionError(result);
+      }
+      System.out.println(elapsed);
+    }
+  }
+
+  private static long runChild() throws Exception {
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    Process process =
+        new ProcessBuilder(
+                java,
+                "-cp",
+                ManagementFactory.getRuntimeMXBean().getClassPath(),
+                FirstHandle.class.getName())
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+    String out = new String(process.getInputStream().readAllBytes()).trim();
+    if (process.waitFor() != 0) {
+      throw new RuntimeException("child failed");
+    }
+    return Long.parseLong(out);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    long[] times = new long[runs];
+    for (int i = 0; i != runs; ++i) {
+      times[i] = runChild();
+    }
+    Arrays.sort(times);
+    System.out.printf(
+        "time to first handle: min %d ms, median %d ms%n",
+        times[0] / 1_000_000, times[runs / 2] / 1_000_000);
+  }
+}
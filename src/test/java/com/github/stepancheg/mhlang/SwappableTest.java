@@ -0,0 +1,117 @@
+package com.github.stepancheg.mhlang;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.WrongMethodTypeException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class SwappableTest {
+
+  private static MethodHandle add(int k) {
+    return MhBuilder.p1(int.class, x -> Closure.plus(x, Closure.constant(k)));
+  }
+
+  @Test
+  public void swap() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<Integer> x = b.addParam(int.class);
+    Swappable swappable = b.buildSwappable(Closure.plus(x, Closure.constant(1)));
+    MethodHandle invoker = swappable.invoker();
+
+    // caller built once and embedding the invoker
+    MethodHandle caller =
+        MhBuilder.p1(
+            int.class, y -> Closure.mul(Closure.<Integer>fold(invoker, y), Closure.constant(10)));
+
+    assertEquals(11, (int) invoker.invokeExact(10));
+    assertEquals(110, (int) caller.invokeExact(10));
+
+    swappable.swap(add(2));
+    assertEquals(12, (int) invoker.invokeExact(10));
+    assertEquals(120, (int) caller.invokeExact(10));
+  }
+
+  @Test
+  public void swapAdaptsType() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<Integer> x = b.addParam(int.class);
+    Swappable swappable = b.buildSwappable(Closure.plus(x, Closure.constant(1)));
+
+    // (Object) -> Integer
+    MethodHandle generic = add(3).asType(add(3).type().generic());
+    swappable.swap(generic);
+    assertEquals(13, (int) swappable.invoker().invokeExact(10));
+    assertEquals(swappable.type(), swappable.target().type());
+  }
+
+  @Test(expected = WrongMethodTypeException.class)
+  public void swapWrongType() {
+    MhBuilder b = new MhBuilder();
+    Var<Integer> x = b.addParam(int.class);
+    Swappable swappable = b.buildSwappable(x);
+    swappable.swap(MhBuilder.p0(Closure.constant(1)));
+  }
+
+  @Test
+  public void swapAll() throws Throwable {
+    MhBuilder ba = new MhBuilder();
+    Swappable a = ba.buildSwappable(Closure.plus(ba.addParam(int.class), Closure.constant(1)));
+    MhBuilder bb = new MhBuilder();
+    Swappable b = bb.buildSwappable(Closure.plus(bb.addParam(int.class), Closure.constant(1)));
+
+    Swappable.swapAll(ImmutableMap.of(a, add(100), b, add(200)));
+    assertEquals(100, (int) a.invoker().invokeExact(0));
+    assertEquals(200, (int) b.invoker().invokeExact(0));
+
+    Swappable.swapAll(ImmutableMap.of(a, add(300)));
+    assertEquals(300, (int) a.invoker().invokeExact(0));
+    assertEquals(200, (int) b.invoker().invokeExact(0));
+
+    // guards of previous batches are not nested
+    MethodHandle add400 = add(400);
+    for (int i = 0; i != 3; ++i) {
+      Swappable.swapAll(ImmutableMap.of(a, add400, b, add(500)));
+    }
+    assertSame(add400, a.target());
+    assertEquals(400, (int) a.invoker().invokeExact(0));
+  }
+
+  @Test
+  public void swapAllConsistent() throws Throwable {
+    // two functions are always swapped together, reader never observes different values
+    MhBuilder ba = new MhBuilder();
+    Swappable a = ba.buildSwappable(Closure.plus(ba.addParam(int.class), Closure.constant(0)));
+    MhBuilder bb = new MhBuilder();
+    Swappable b = bb.buildSwappable(Closure.plus(bb.addParam(int.class), Closure.constant(0)));
+
+    AtomicBoolean stop = new AtomicBoolean();
+    Thread writer =
+        new Thread(
+            () -> {
+              for (int i = 1; i <= 1000; ++i) {
+                Swappable.swapAll(ImmutableMap.of(a, add(i), b, add(i)));
+              }
+              stop.set(true);
+            });
+    writer.start();
+
+    MethodHandle ai = a.invoker();
+    MethodHandle bi = b.invoker();
+    int last = 0;
+    while (!stop.get()) {
+      int bv = (int) bi.invokeExact(0);
+      int av = (int) ai.invokeExact(0);
+      // b is read first, so a is never older
+      assertTrue(av + " " + bv, av >= bv);
+      assertTrue(bv >= last);
+      last = bv;
+    }
+    writer.join();
+    assertEquals(1000, (int) ai.invokeExact(0));
+    assertEquals(1000, (int) bi.invokeExact(0));
+  }
+}
@@ -0,0 +1,137 @@
+package com.github.stepancheg.mhlang;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.reflect.TypeToken;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TieredTest {
+
+  private static final TypeToken<List<Integer>> LIST = new TypeToken<List<Integer>>() {};
+
+  /** Sum of {@code i * i} for even {@code i} below {@code n} plus a name of {@code n % 3}. */
+  private static Closure<String> function(Var<Integer> n, Var<List<Integer>> list) {
+    Closure<Integer> squares =
+        Closure.countedLoop(
+            Closure.constant(0),
+            n.asClosure(),
+            Closure.constant(0),
+            (v, i) ->
+                Closure.ifThenElse(
+                    Closure.intPredicate(i, x -> x % 2 == 0),
+                    Closure.plus(v, Closure.mul(i, i)),
+                    v.asClosure()));
+    Closure<Integer> sum =
+        Closure.iterableLoop(
+            Integer.class,
+            list,
+            squares,
+            (v, e) -> Closure.plus(v, e.asClosure().cast(int.class)));
+    Closure<String> name =
+        Closure.switchInt(
+            Closure.intUnaryOperator(n, x -> x % 3),
+            ImmutableMap.of(0, Closure.constant("zero"), 1, Closure.constant("one")),
+            Closure.constant("many"));
+    return Closure.plus(Closure.toString(sum), name);
+  }
+
+  @Test
+  public void sameResult() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<Integer> n = b.addParam(int.class);
+    Var<List<Integer>> list = b.addParam(LIST);
+    Closure<String> body = function(n, list);
+    MethodHandle tiered = b.buildReturnTiered(body, 3);
+
+    MethodHandle compiled = MhBuilder.p2(TypeToken.of(int.class), LIST, TieredTest::function);
+
+    List<Integer> l = ImmutableList.of(100, 200);
+    for (int i = 0; i != 3; ++i) {
+      assertEquals((String) compiled.invokeExact(i + 5, l), (String) tiered.invokeExact(i + 5, l));
+    }
+    assertFalse(body.isCompiled());
+
+    for (int i = 3; i != 6; ++i) {
+      assertEquals((String) compiled.invokeExact(i + 5, l), (String) tiered.invokeExact(i + 5, l));
+    }
+    assertTrue(body.isCompiled());
+  }
+
+  @Test
+  public void statements() throws Throwable {
+    ArrayList<String> calls = new ArrayList<>();
+    MhBuilder b = new MhBuilder();
+    Var<Integer> p = b.addParam(int.class);
+    Var<Long> v = b.assign(Closure.plus(p, p).cast(long.class));
+    b.assign(Closure.runnable(() -> calls.add("a")));
+    MethodHandle mh = b.buildReturnTiered(Closure.mul(v, Closure.constant(3L)), 2);
+
+    assertEquals(6L, (long) mh.invokeExact(1));
+    assertEquals(12L, (long) mh.invokeExact(2));
+    assertEquals(18L, (long) mh.invokeExact(3));
+    assertEquals(ImmutableList.of("a", "a", "a"), calls);
+  }
+
+  @Test
+  public void exceptions() throws Throwable {
+    RuntimeException exception = new IllegalStateException();
+    MethodHandle mh =
+        new MhBuilder()
+            .buildReturnTiered(
+                Closure.tryFinally(
+                    Closure.catchException(
+                        Closure.throwException(int.class, Closure.constant(exception)),
+                        IllegalStateException.class,
+                        e -> Closure.constant(1)),
+                    (t, r) -> Closure.plus(r, Closure.constant(1))),
+                1);
+    assertEquals(2, (int) mh.invokeExact());
+    assertEquals(2, (int) mh.invokeExact());
+
+    MethodHandle uncaught =
+        new MhBuilder()
+            .buildReturnTiered(
+                Closure.catchException(
+                    Closure.throwException(int.class, Closure.constant(exception)),
+                    IllegalArgumentException.class,
+                    e -> Closure.constant(1)),
+                10);
+    try {
+      int r = (int) uncaught.invokeExact();
+      fail("returned: " + r);
+    } catch (IllegalStateException e) {
+      assertSame(exception, e);
+    }
+  }
+
+  @Test
+  public void deepEquals() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<Data> thiz = b.addParam(Data.class);
+    Var<Object> that = b.addParam(Object.class);
+    MethodHandle mh =
+        b.buildReturnTiered(DeepEqualsHashCode.deepEquals(MethodHandles.lookup(), thiz, that), 100);
+
+    assertTrue((boolean) mh.invokeExact(new Data(1, "a"), (Object) new Data(1, "a")));
+    assertFalse((boolean) mh.invokeExact(new Data(1, "a"), (Object) new Data(1, "b")));
+    assertFalse((boolean) mh.invokeExact(new Data(1, "a"), (Object) null));
+    assertFalse((boolean) mh.invokeExact(new Data(1, "a"), (Object) "a"));
+  }
+
+  private static class Data {
+    final int a;
+    final String b;
+
+    Data(int a, String b) {
+      this.a = a;
+      this.b = b;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package com.github.stepancheg.mhlang;
+
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TypeSwitchTest {
+
+  /** {@code clazz.getSimpleName() + ":" + value}. */
+  private static Closure<String> describe(Var<Object> p, int maxEntries, List<Class<?>> built) {
+    return Closure.typeSwitch(
+        p,
+        String.class,
+        maxEntries,
+        (c, v) -> {
+          built.add(c);
+          return Closure.plus(Closure.constant(c.getSimpleName() + ":"), Closure.toString(v));
+        });
+  }
+
+  @Test
+  public void dispatch() throws Throwable {
+    List<Class<?>> built = new ArrayList<>();
+    MhBuilder b = new MhBuilder();
+    Var<Object> p = b.addParam(Object.class);
+    MethodHandle mh = b.buildReturn(describe(p, 2, built));
+
+    for (int i = 0; i != 3; ++i) {
+      assertEquals("Integer:1", (String) mh.invokeExact((Object) 1));
+      assertEquals("String:a", (String) mh.invokeExact((Object) "a"));
+      // megamorphic
+      assertEquals("Long:2", (String) mh.invokeExact((Object) 2L));
+      assertEquals("Object:null", (String) mh.invokeExact((Object) null));
+    }
+    // each function is built once
+    assertEquals(List.of(Integer.class, String.class, Long.class, Object.class), built);
+  }
+
+  @Test
+  public void megamorphicOnly() throws Throwable {
+    List<Class<?>> built = new ArrayList<>();
+    MhBuilder b = new MhBuilder();
+    Var<Object> p = b.addParam(Object.class);
+    MethodHandle mh = b.buildReturn(describe(p, 0, built));
+
+    assertEquals("Integer:1", (String) mh.invokeExact((Object) 1));
+    assertEquals("Integer:2", (String) mh.invokeExact((Object) 2));
+    assertEquals(List.of(Integer.class), built);
+  }
+
+  @Test
+  public void interpreted() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<Object> p = b.addParam(Object.class);
+    MethodHandle mh = b.buildReturnTiered(describe(p, 2, new ArrayList<>()), 1000);
+    assertEquals("Integer:1", (String) mh.invokeExact((Object) 1));
+    assertEquals("String:a", (String) mh.invokeExact((Object) "a"));
+  }
+
+  @Test
+  public void specializedParam() throws Throwable {
+    MhBuilder b = new MhBuilder();
+    Var<CharSequence> p = b.addParam(CharSequence.class);
+    MethodHandle mh =
+        b.buildReturn(
+            Closure.typeSwitch(
+                p,
+                int.class,
+                4,
+                (c, v) ->
+                    c == String.class
+                        ? Closure.toIntFunction(v, s -> ((String) s).length() * 10)
+                        : Closure.toIntFunction(v, CharSequence::length)));
+    assertEquals(20, (int) mh.invokeExact((CharSequence) "ab"));
+    assertEquals(3, (int) mh.invokeExact((CharSequence) new StringBuilder("abc")));
+  }
+
+  @Test
+  public void entries() throws Throwable {
+    TypeSwitch typeSwitch =
+        new TypeSwitch(
+            MethodType.methodType(String.class, Object.class),
+            2,
+            c -> MhBuilder.p1(Object.class, Closure::toString));
+    MethodHandle invoker = typeSwitch.invoker();
+    for (Object o : new Object[] {1, 2, "a", 3L, 'c'}) {
+      assertEquals(o.toString(), (String) invoker.invokeExact(o));
+    }
+    assertEquals(2, typeSwitch.entries());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void primitive() {
+    MhBuilder b = new MhBuilder();
+    Var<Integer> p = b.addParam(int.class);
+    Closure.typeSwitch(p, int.class, 2, (c, v) -> v.asClosure());
+  }
+}
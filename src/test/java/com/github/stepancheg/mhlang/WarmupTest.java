@@ -0,0 +1,136 @@
+package com.github.stepancheg.mhlang;
+
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class WarmupTest {
+
+  static class Point {
+    int x;
+    String name;
+
+    Point(int x, String name) {
+      this.x = x;
+      this.name = name;
+    }
+  }
+
+  static class Interval {
+    long from;
+    long to;
+  }
+
+  @Test
+  public void buildAll() throws Throwable {
+    Warmup.Result r =
+        new Warmup(MethodHandles.lookup())
+            .parallelism(2)
+            .samples(Warmup.newInstanceSamples())
+            .run(
+                Arrays.asList(Point.class, Interval.class),
+                Arrays.asList(Warmup.Standard.values()));
+
+    assertEquals(8, r.entries().size());
+    assertEquals(Collections.emptyList(), r.failures());
+    assertEquals(Arrays.asList(Point.class, Interval.class), r.nanosByClass().keySet().asList());
+    for (Warmup.Entry entry : r.entries()) {
+      assertTrue(entry.buildNanos() > 0);
+      assertTrue(entry.exerciseNanos() > 0);
+    }
+
+    MethodHandle equals = r.handle(Point.class, Warmup.Standard.EQUALS);
+    assertTrue((boolean) equals.invoke(new Point(1, "a"), new Point(1, "a")));
+    assertFalse((boolean) equals.invoke(new Point(1, "a"), new Point(2, "a")));
+    MethodHandle toString = r.handle(Point.class, Warmup.Standard.TO_STRING);
+    assertEquals("Point{x=1, name=a}", (String) toString.invoke(new Point(1, "a")));
+    assertTrue(r.report().startsWith("8 tasks in "));
+  }
+
+  @Test
+  public void noSamples() {
+    Warmup.Result r =
+        new Warmup(MethodHandles.lookup())
+            .run(
+                Collections.singletonList(Interval.class),
+                Collections.singletonList(Warmup.Standard.HASH_CODE));
+    assertEquals(0, r.entry(Interval.class, Warmup.Standard.HASH_CODE).exerciseNanos());
+  }
+
+  @Test
+  public void failure() {
+    Warmup.Kind failing =
+        new Warmup.Kind() {
+          @Override
+          public Object build(Class<?> clazz, MethodHandles.Lookup lookup) {
+            return clazz;
+          }
+
+          @Override
+          public void exercise(Object built, Object sample, Object other) {
+            if (built == Point.class) {
+              throw new IllegalStateException();
+            }
+          }
+        };
+    Warmup.Result r =
+        new Warmup(MethodHandles.lookup())
+            .samples(Warmup.newInstanceSamples())
+            .run(Arrays.asList(Point.class, Interval.class), Collections.singletonList(failing));
+    assertEquals(1, r.failures().size());
+    Warmup.Entry failed = r.failures().get(0);
+    assertSame(Point.class, failed.clazz());
+    assertTrue(failed.failure() instanceof IllegalStateException);
+    try {
+      failed.get();
+      fail();
+    } catch (RuntimeException e) {
+      assertSame(failed.failure(), e.getCause());
+    }
+    assertSame(Interval.class, r.entry(Interval.class, failing).get());
+  }
+
+  @Test
+  public void distinctSamples() {
+    Set<Class<?>> distinct = ConcurrentHashMap.newKeySet();
+    Warmup.Kind kind =
+        new Warmup.Kind() {
+          @Override
+          public Object build(Class<?> clazz, MethodHandles.Lookup lookup) {
+            return clazz;
+          }
+
+          @Override
+          public void exercise(Object built, Object sample, Object other) {
+            assertSame(built, sample.getClass());
+            assertSame(built, other.getClass());
+            if (sample != other) {
+              distinct.add((Class<?>) built);
+            }
+          }
+        };
+    Warmup.Result r =
+        new Warmup(MethodHandles.lookup())
+            .samples(Warmup.newInstanceSamples())
+            .run(Arrays.asList(Point.class, Interval.class), Collections.singletonList(kind));
+    assertEquals(Collections.emptyList(), r.failures());
+    assertEquals(new HashSet<>(Arrays.asList(Point.class, Interval.class)), distinct);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void notBuilt() {
+    new Warmup(MethodHandles.lookup())
+        .run(
+            Collections.singletonList(Interval.class),
+            Collections.singletonList(Warmup.Standard.HASH_CODE))
+        .entry(Point.class, Warmup.Standard.HASH_CODE);
+  }
+}
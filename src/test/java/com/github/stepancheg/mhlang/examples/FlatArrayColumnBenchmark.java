@@ -0,0 +1,57 @@
+package com.github.stepancheg.mhlang.examples;
+
+import java.util.ArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * Compare column kernels of {@link FlatArrayMhList} with a hand-written loop over {@code long[]}
+ * and a loop over list elements.
+ *
+ * <p>Run with {@code --add-modules jdk.incubator.vector} to enable vector kernels.
+ */
+public class FlatArrayColumnBenchmark {
+
+  private static volatile long o;
+
+  private static void run(String name, LongSupplier sum) {
+    long start = System.currentTimeMillis();
+    for (int j = 0; j != 1000; ++j) {
+      o = sum.getAsLong();
+    }
+    System.out.printf("%-8s %4d%n", name, System.currentTimeMillis() - start);
+  }
+
+  private static long sum(long[] array) {
+    long r = 0;
+    for (int i = 0; i != array.length; ++i) {
+      r += array[i];
+    }
+    return r;
+  }
+
+  public static void main(String[] args) {
+    FlatArrayMhList<MyData> flat = new FlatArrayMhList.Factory<>(MyData.class).newArrayList();
+    FlatArrayMhList<MyData> scalar =
+        new FlatArrayMhList.Factory<>(MyData.class, false).newArrayList();
+    ArrayList<MyData> objects = new ArrayList<>();
+    long[] array = new long[100000];
+    for (int i = 0; i != 100000; ++i) {
+      flat.add(new MyData(i, "", true, i + 1));
+      scalar.add(new MyData(i, "", true, i + 1));
+      objects.add(new MyData(i, "", true, i + 1));
+      array[i] = i + 1;
+    }
+
+    for (;;) {
+      run("kernel", () -> flat.sumLong("l"));
+      run("scalar", () -> scalar.sumLong("l"));
+      run("loop", () -> sum(array));
+      run("objects", () -> objects.stream().mapToLong(MyData::getL).sum());
+      run("get", () -> flat.stream().mapToLong(MyData::getL).sum());
+      run("select", () -> flat.selectLong("i", FlatArrayMhList.Comparison.LT, 50000)[0]);
+      run("sselect", () -> scalar.selectLong("i", FlatArrayMhList.Comparison.LT, 50000)[0]);
+      run("product", () -> (long) flat.sumProduct("i", "l"));
+      run("sproduct", () -> (long) scalar.sumProduct("i", "l"));
+    }
+  }
+}
@@ -1,9 +1,171 @@
 package com.github.stepancheg.mhlang.examples;
 
+import com.github.stepancheg.mhlang.Warmup;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
 public class FlatArrayMhListTest extends FlatArrayListTestBase {
 
   @Override
   protected FlatArrayMhList<MyData> newArray() {
     return new FlatArrayMhList.Factory<>(MyData.class).newArrayList();
   }
+
+  private FlatArrayMhList<MyData> range(int n) {
+    FlatArrayMhList<MyData> l = newArray();
+    for (int i = 0; i != n; ++i) {
+      l.add(new MyData(i - 5, "", true, 10L * i));
+    }
+    return l;
+  }
+
+  @Test
+  public void sum() {
+    FlatArrayMhList<MyData> l = range(100);
+    assertEquals(4450, l.sumLong("i"));
+    assertEquals(49500L, l.sumLong("l"));
+    assertEquals(49500.0, l.sumDouble("l"), 0);
+    assertEquals(0, newArray().sumLong("i"));
+  }
+
+  @Test
+  public void minMax() {
+    FlatArrayMhList<MyData> l = range(100);
+    assertEquals(-5, l.minLong("i"));
+    assertEquals(94, l.maxLong("i"));
+    assertEquals(0.0, l.minDouble("l"), 0);
+    assertEquals(990.0, l.maxDouble("l"), 0);
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void minEmpty() {
+    newArray().minLong("i");
+  }
+
+  @Test
+  public void select() {
+    FlatArrayMhList<MyData> l = range(70);
+    long[] bits = l.selectLong("i", FlatArrayMhList.Comparison.LT, 60);
+    assertEquals(2, bits.length);
+    for (int i = 0; i != 70; ++i) {
+      assertEquals(i - 5 < 60, (bits[i / 64] & (1L << i)) != 0);
+    }
+
+    long[] doubleBits = l.selectDouble("l", FlatArrayMhList.Comparison.GE, 640);
+    assertEquals(0L, doubleBits[0]);
+    assertEquals(0b111111L, doubleBits[1]);
+  }
+
+  @Test
+  public void sumProduct() {
+    FlatArrayMhList<MyData> l = range(3);
+    // (-5 * 0) + (-4 * 10) + (-3 * 20)
+    assertEquals(-100.0, l.sumProduct("i", "l"), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void notNumeric() {
+    range(1).sumLong("s");
+  }
+
+  static class Columns {
+    int i;
+    long l;
+    double d;
+  }
+
+  @Test
+  public void vectorKernels() {
+    FlatArrayMhList.Factory<Columns> vector = new FlatArrayMhList.Factory<>(Columns.class);
+    FlatArrayMhList.Factory<Columns> scalar = new FlatArrayMhList.Factory<>(Columns.class, false);
+    Random random = new Random(1);
+    for (int n = 0; n != 140; ++n) {
+      FlatArrayMhList<Columns> v = vector.newArrayList();
+      FlatArrayMhList<Columns> s = scalar.newArrayList();
+      for (int i = 0; i != n; ++i) {
+        Columns columns = new Columns();
+        // small values, so that selects hit equal elements
+        columns.i = random.nextInt(7) - 3;
+        columns.l = random.nextBoolean() ? random.nextLong() : random.nextInt(7) - 3;
+        columns.d = n % 4 == 3 && i == n / 2 ? Double.NaN : random.nextGaussian();
+        v.add(columns);
+        s.add(columns);
+      }
+      for (String field : new String[] {"i", "l"}) {
+        assertEquals(s.sumLong(field), v.sumLong(field));
+        for (FlatArrayMhList.Comparison comparison : FlatArrayMhList.Comparison.values()) {
+          assertArrayEquals(
+              s.selectLong(field, comparison, 1), v.selectLong(field, comparison, 1));
+        }
+        if (n != 0) {
+          assertEquals(s.minLong(field), v.minLong(field));
+          assertEquals(s.maxLong(field), v.maxLong(field));
+        }
+      }
+      for (String field : new String[] {"i", "l", "d"}) {
+        assertEquals(s.sumDouble(field), v.sumDouble(field), Math.abs(s.sumDouble(field)) * 1e-9);
+        for (FlatArrayMhList.Comparison comparison : FlatArrayMhList.Comparison.values()) {
+          assertArrayEquals(
+              s.selectDouble(field, comparison, 1.0), v.selectDouble(field, comparison, 1.0));
+        }
+        if (n != 0) {
+          assertEquals(s.minDouble(field), v.minDouble(field), 0);
+          assertEquals(s.maxDouble(field), v.maxDouble(field), 0);
+        }
+      }
+      double expected = s.sumProduct("i", "d");
+      assertEquals(expected, v.sumProduct("i", "d"), Math.abs(expected) * 1e-9);
+      expected = s.sumProduct("l", "i");
+      assertEquals(expected, v.sumProduct("l", "i"), Math.abs(expected) * 1e-9);
+    }
+  }
+
+  static class Sample {
+    double d;
+    float f;
+  }
+
+  @Test
+  public void notIntegral() {
+    FlatArrayMhList<Sample> l = new FlatArrayMhList.Factory<>(Sample.class).newArrayList();
+    Sample sample = new Sample();
+    sample.d = 1.5;
+    sample.f = 2.5f;
+    l.add(sample);
+    assertEquals(1.5, l.sumDouble("d"), 0);
+    assertEquals(3.75, l.sumProduct("d", "f"), 0);
+    for (String field : new String[] {"d", "f"}) {
+      try {
+        l.sumLong(field);
+        fail();
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage(), e.getMessage().startsWith("not an integral field"));
+      }
+    }
+    try {
+      l.selectLong("d", FlatArrayMhList.Comparison.EQ, 0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void warmup() {
+    Warmup.Result r =
+        new Warmup(MethodHandles.lookup())
+            .samples(c -> new MyData(1, "a", true, 2))
+            .run(
+                Collections.singletonList(MyData.class),
+                Collections.singletonList(FlatArrayMhList.WARMUP_KIND));
+    assertEquals(Collections.emptyList(), r.failures());
+    assertTrue(
+        r.entry(MyData.class, FlatArrayMhList.WARMUP_KIND).get()
+            instanceof FlatArrayMhList.Factory);
+  }
 }
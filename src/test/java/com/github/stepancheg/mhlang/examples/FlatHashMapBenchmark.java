@@ -0,0 +1,69 @@
+package com.github.stepancheg.mhlang.examples;
+
+import java.lang.invoke.MethodHandle;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/** Compare {@link FlatHashMap} with {@link HashMap}: build time, lookups, lookups by fields. */
+public class FlatHashMapBenchmark {
+
+  private static final int N = 100_000;
+
+  private static volatile Object o;
+
+  private static final FlatHashMap.Factory<MyData> factory =
+      new FlatHashMap.Factory<>(MyData.class);
+
+  private static MyData key(int i) {
+    return new MyData(i % 1000, "", true, i / 1000);
+  }
+
+  private static void run(String name, Supplier<Map<MyData, Integer>> mapFactory) {
+    long start = System.currentTimeMillis();
+    Map<MyData, Integer> map = mapFactory.get();
+    for (int i = 0; i != N; ++i) {
+      map.put(key(i), i);
+    }
+    long put = System.currentTimeMillis() - start;
+
+    start = System.currentTimeMillis();
+    long sum = 0;
+    for (int j = 0; j != 10; ++j) {
+      for (int i = 0; i != N; ++i) {
+        sum += map.get(key(i));
+      }
+    }
+    long get = System.currentTimeMillis() - start;
+    o = sum;
+
+    System.out.printf("%-5s put %4d ms, get %4d ms%n", name, put, get);
+    o = map;
+  }
+
+  private static void runByFields() throws Throwable {
+    FlatHashMap<MyData, Integer> map = factory.newHashMap();
+    for (int i = 0; i != N; ++i) {
+      map.put(key(i), i);
+    }
+    MethodHandle getByFields = factory.getByFields();
+
+    long start = System.currentTimeMillis();
+    long sum = 0;
+    for (int j = 0; j != 10; ++j) {
+      for (int i = 0; i != N; ++i) {
+        sum += (Integer) (Object) getByFields.invokeExact(map, i % 1000, "", true, (long) i / 1000);
+      }
+    }
+    o = sum;
+    System.out.printf("flat  get by fields %4d ms%n", System.currentTimeMillis() - start);
+  }
+
+  public static void main(String[] args) throws Throwable {
+    for (int i = 0; i != 5; ++i) {
+      run("hash", HashMap::new);
+      run("flat", factory::newHashMap);
+      runByFields();
+    }
+  }
+}
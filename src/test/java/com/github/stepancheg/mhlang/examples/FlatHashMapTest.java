@@ -0,0 +1,121 @@
+package com.github.stepancheg.mhlang.examples;
+
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FlatHashMapTest {
+
+  private static final FlatHashMap.Factory<MyData> FACTORY =
+      new FlatHashMap.Factory<>(MyData.class);
+
+  @Test
+  public void putGetRemove() {
+    FlatHashMap<MyData, String> m = FACTORY.newHashMap();
+    assertNull(m.put(new MyData(1, "a", true, 2), "x"));
+    assertNull(m.put(new MyData(1, null, true, 2), "y"));
+    assertEquals("x", m.put(new MyData(1, "a", true, 2), "z"));
+    assertEquals(2, m.size());
+
+    assertEquals("z", m.get(new MyData(1, "a", true, 2)));
+    assertEquals("y", m.get(new MyData(1, null, true, 2)));
+    assertNull(m.get(new MyData(1, "a", false, 2)));
+    assertNull(m.get(null));
+    assertNull(m.get("a"));
+    assertFalse(m.containsKey(new MyData(2, "a", true, 2)));
+
+    assertEquals("z", m.remove(new MyData(1, "a", true, 2)));
+    assertNull(m.remove(new MyData(1, "a", true, 2)));
+    assertEquals(1, m.size());
+    assertEquals("y", m.get(new MyData(1, null, true, 2)));
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void nullKey() {
+    FACTORY.newHashMap().put(null, "x");
+  }
+
+  @Test
+  public void randomOperations() {
+    FlatHashMap<MyData, Integer> m = FACTORY.newHashMap();
+    Map<MyData, Integer> expected = new HashMap<>();
+    Random random = new Random(1);
+    for (int n = 0; n != 20000; ++n) {
+      MyData key =
+          new MyData(
+              random.nextInt(50), random.nextBoolean() ? "s" : null, random.nextBoolean(), 10);
+      switch (random.nextInt(3)) {
+        case 0:
+          assertEquals(expected.put(key, n), m.put(key, n));
+          break;
+        case 1:
+          assertEquals(expected.remove(key), m.remove(key));
+          break;
+        default:
+          assertEquals(expected.get(key), m.get(key));
+      }
+      assertEquals(expected.size(), m.size());
+    }
+    assertEquals(expected, m);
+    assertEquals(expected, new HashMap<>(m));
+
+    m.clear();
+    assertTrue(m.isEmpty());
+    assertNull(m.get(expected.keySet().iterator().next()));
+  }
+
+  @Test
+  public void getByFields() throws Throwable {
+    FlatHashMap<MyData, String> m = FACTORY.newHashMap();
+    for (int i = 0; i != 100; ++i) {
+      m.put(new MyData(i, "s" + i, i % 2 == 0, i * 10L), "v" + i);
+    }
+    MethodHandle get = FACTORY.getByFields();
+    assertSame(get, FACTORY.getByFields());
+    assertEquals("v7", (Object) get.invokeExact(m, 7, "s7", false, 70L));
+    assertNull((Object) get.invokeExact(m, 7, "s7", true, 70L));
+    assertNull((Object) get.invokeExact(m, 7, (String) null, false, 70L));
+    assertNull((Object) get.invokeExact(m, 1000, "s7", false, 70L));
+  }
+
+  static class FloatKey {
+    private final float f;
+    private final double d;
+
+    FloatKey(float f, double d) {
+      this.f = f;
+      this.d = d;
+    }
+  }
+
+  @Test
+  public void floatingPoint() throws Throwable {
+    FlatHashMap.Factory<FloatKey> factory = new FlatHashMap.Factory<>(FloatKey.class);
+    FlatHashMap<FloatKey, String> m = factory.newHashMap();
+    m.put(new FloatKey(Float.NaN, 1), "fnan");
+    m.put(new FloatKey(1, Double.NaN), "dnan");
+    m.put(new FloatKey(0.0f, 0.0), "zero");
+    m.put(new FloatKey(-0.0f, 0.0), "fneg");
+    m.put(new FloatKey(0.0f, -0.0), "dneg");
+    assertEquals(5, m.size());
+
+    assertEquals("fnan", m.get(new FloatKey(Float.NaN, 1)));
+    assertEquals("dnan", m.get(new FloatKey(1, Double.NaN)));
+    assertEquals("zero", m.get(new FloatKey(0.0f, 0.0)));
+    assertEquals("fneg", m.get(new FloatKey(-0.0f, 0.0)));
+    assertEquals("dneg", m.get(new FloatKey(0.0f, -0.0)));
+    assertNull(m.get(new FloatKey(-0.0f, -0.0)));
+
+    MethodHandle get = factory.getByFields();
+    assertEquals("fnan", (Object) get.invokeExact(m, Float.NaN, 1.0));
+    assertEquals("fneg", (Object) get.invokeExact(m, -0.0f, 0.0));
+
+    assertEquals("fnan", m.remove(new FloatKey(Float.NaN, 1)));
+    assertEquals(4, m.size());
+  }
+}
@@ -15,6 +15,10 @@ class MyData {
     this.l = l;
   }
 
+  long getL() {
+    return l;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;